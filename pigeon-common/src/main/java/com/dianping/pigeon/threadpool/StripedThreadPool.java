@@ -0,0 +1,402 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.threadpool;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+
+/**
+ * 分段线程池：分成固定的几个分段，每个分段有自己的有界队列和线程，避免所有提交线程竞争同一个队列的锁
+ *
+ * 每个提交线程（如netty worker）第一次提交时按顺序分配一个固定的分段，之后的任务优先进入该分段；
+ * 该分段队列有积压时与另一个分段比较，进入积压少的一个；该分段队列已满时依次尝试其他分段的队列，
+ * 全部队列都满时才增加线程，线程也到上限时抛出RejectedExecutionException。
+ * 各分段的线程数、队列长度之和与配置一致，getExecutor返回的统计为所有分段之和
+ */
+public class StripedThreadPool implements ThreadPool {
+
+	private static final Logger logger = LoggerLoader.getLogger(StripedThreadPool.class);
+
+	private final StripedExecutor executor;
+
+	public StripedThreadPool(String poolName, int stripes, int corePoolSize, int maximumPoolSize, int queueSize) {
+		if (maximumPoolSize > 1000) {
+			logger.warn("the 'maximumPoolSize' property is too big");
+			maximumPoolSize = 1000;
+		}
+		if (corePoolSize > 300) {
+			logger.warn("the 'corePoolSize' property is too big");
+			corePoolSize = 300;
+		}
+		// 每个分段至少一个线程、一个队列位置
+		stripes = Math.max(1, Math.min(stripes, Math.min(Math.max(maximumPoolSize, 1), Math.max(queueSize, 1))));
+		this.executor = new StripedExecutor(poolName, stripes, corePoolSize, maximumPoolSize, queueSize);
+	}
+
+	public void execute(Runnable run) {
+		this.executor.execute(run);
+	}
+
+	public <T> Future<T> submit(Callable<T> call) {
+		return this.executor.submit(call);
+	}
+
+	public Future<?> submit(Runnable run) {
+		return this.executor.submit(run);
+	}
+
+	public ThreadPoolExecutor getExecutor() {
+		return this.executor;
+	}
+
+	public int getStripes() {
+		return this.executor.stripes.length;
+	}
+
+	private static int split(int total, int stripes, int index) {
+		return total / stripes + (index < total % stripes ? 1 : 0);
+	}
+
+	/**
+	 * 对外表现为一个ThreadPoolExecutor，自身不执行任务，execute分派到各分段
+	 */
+	static class StripedExecutor extends ThreadPoolExecutor {
+
+		private final ThreadPoolExecutor[] stripes;
+
+		private final LinkedBlockingQueue<Runnable>[] queues;
+
+		private final int corePoolSize;
+
+		private final int maximumPoolSize;
+
+		private final AtomicInteger nextStripe = new AtomicInteger();
+
+		// 提交线程固定使用的分段
+		private final ThreadLocal<Integer> homeStripe = new ThreadLocal<Integer>();
+
+		private final StripedQueue queueView = new StripedQueue();
+
+		@SuppressWarnings("unchecked")
+		StripedExecutor(String poolName, int stripeCount, int corePoolSize, int maximumPoolSize, int queueSize) {
+			super(0, 1, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+			this.corePoolSize = corePoolSize;
+			this.maximumPoolSize = maximumPoolSize;
+			this.stripes = new ThreadPoolExecutor[stripeCount];
+			this.queues = new LinkedBlockingQueue[stripeCount];
+			DefaultThreadFactory factory = new DefaultThreadFactory(poolName);
+			for (int i = 0; i < stripeCount; i++) {
+				queues[i] = new LinkedBlockingQueue<Runnable>(Math.max(1, split(queueSize, stripeCount, i)));
+				int core = split(corePoolSize, stripeCount, i);
+				int max = Math.max(core, Math.max(1, split(maximumPoolSize, stripeCount, i)));
+				stripes[i] = new ThreadPoolExecutor(core, max, 30, TimeUnit.SECONDS, queues[i], factory);
+			}
+		}
+
+		private int getHomeStripe() {
+			Integer home = homeStripe.get();
+			if (home == null) {
+				home = (nextStripe.getAndIncrement() & Integer.MAX_VALUE) % stripes.length;
+				homeStripe.set(home);
+			}
+			return home;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			if (command == null) {
+				throw new NullPointerException();
+			}
+			int n = stripes.length;
+			int first = getHomeStripe();
+			if (n > 1 && !queues[first].isEmpty()) {
+				// 本分段有积压时与下一个分段比较，选积压少的
+				int other = (first + 1) % n;
+				if (queues[other].size() < queues[first].size()) {
+					first = other;
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				int stripe = (first + i) % n;
+				if (queues[stripe].remainingCapacity() > 0 && tryExecute(stripe, command)) {
+					return;
+				}
+			}
+			// 所有分段队列都满时与ThreadPoolExecutor一致，在线程数未到上限的分段上增加线程
+			for (int i = 0; i < n; i++) {
+				int stripe = (first + i) % n;
+				if (stripes[stripe].getPoolSize() < stripes[stripe].getMaximumPoolSize()
+						&& tryExecute(stripe, command)) {
+					return;
+				}
+			}
+			// 全部用满，由分段按拒绝策略抛出RejectedExecutionException
+			stripes[first].execute(command);
+		}
+
+		private boolean tryExecute(int stripe, Runnable command) {
+			try {
+				stripes[stripe].execute(command);
+				return true;
+			} catch (RejectedExecutionException e) {
+				if (isShutdown()) {
+					throw e;
+				}
+				return false;
+			}
+		}
+
+		@Override
+		public boolean remove(Runnable task) {
+			for (ThreadPoolExecutor stripe : stripes) {
+				if (stripe.remove(task)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void purge() {
+			for (ThreadPoolExecutor stripe : stripes) {
+				stripe.purge();
+			}
+		}
+
+		@Override
+		public int getCorePoolSize() {
+			return corePoolSize;
+		}
+
+		@Override
+		public int getMaximumPoolSize() {
+			return maximumPoolSize;
+		}
+
+		@Override
+		public int getPoolSize() {
+			int size = 0;
+			for (ThreadPoolExecutor stripe : stripes) {
+				size += stripe.getPoolSize();
+			}
+			return size;
+		}
+
+		@Override
+		public int getActiveCount() {
+			int count = 0;
+			for (ThreadPoolExecutor stripe : stripes) {
+				count += stripe.getActiveCount();
+			}
+			return count;
+		}
+
+		@Override
+		public int getLargestPoolSize() {
+			int size = 0;
+			for (ThreadPoolExecutor stripe : stripes) {
+				size += stripe.getLargestPoolSize();
+			}
+			return size;
+		}
+
+		@Override
+		public long getTaskCount() {
+			long count = 0;
+			for (ThreadPoolExecutor stripe : stripes) {
+				count += stripe.getTaskCount();
+			}
+			return count;
+		}
+
+		@Override
+		public long getCompletedTaskCount() {
+			long count = 0;
+			for (ThreadPoolExecutor stripe : stripes) {
+				count += stripe.getCompletedTaskCount();
+			}
+			return count;
+		}
+
+		@Override
+		public BlockingQueue<Runnable> getQueue() {
+			return queueView;
+		}
+
+		@Override
+		public void shutdown() {
+			super.shutdown();
+			for (ThreadPoolExecutor stripe : stripes) {
+				stripe.shutdown();
+			}
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			List<Runnable> tasks = super.shutdownNow();
+			for (ThreadPoolExecutor stripe : stripes) {
+				tasks.addAll(stripe.shutdownNow());
+			}
+			return tasks;
+		}
+
+		@Override
+		public boolean isTerminated() {
+			for (ThreadPoolExecutor stripe : stripes) {
+				if (!stripe.isTerminated()) {
+					return false;
+				}
+			}
+			return super.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			for (ThreadPoolExecutor stripe : stripes) {
+				if (!stripe.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					return false;
+				}
+			}
+			return super.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * 所有分段队列的视图：非阻塞的操作作用于全部分段，阻塞的存取只在调用线程的分段上等待
+		 */
+		private class StripedQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+			@Override
+			public int size() {
+				int size = 0;
+				for (LinkedBlockingQueue<Runnable> queue : queues) {
+					size += queue.size();
+				}
+				return size;
+			}
+
+			@Override
+			public int remainingCapacity() {
+				int capacity = 0;
+				for (LinkedBlockingQueue<Runnable> queue : queues) {
+					capacity += queue.remainingCapacity();
+				}
+				return capacity;
+			}
+
+			@Override
+			public Iterator<Runnable> iterator() {
+				List<Runnable> tasks = new ArrayList<Runnable>();
+				for (LinkedBlockingQueue<Runnable> queue : queues) {
+					tasks.addAll(queue);
+				}
+				return tasks.iterator();
+			}
+
+			@Override
+			public boolean offer(Runnable e) {
+				int n = queues.length;
+				int home = getHomeStripe();
+				for (int i = 0; i < n; i++) {
+					if (queues[(home + i) % n].offer(e)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public boolean offer(Runnable e, long timeout, TimeUnit unit) throws InterruptedException {
+				return offer(e) || queues[getHomeStripe()].offer(e, timeout, unit);
+			}
+
+			@Override
+			public void put(Runnable e) throws InterruptedException {
+				if (!offer(e)) {
+					queues[getHomeStripe()].put(e);
+				}
+			}
+
+			@Override
+			public Runnable poll() {
+				int n = queues.length;
+				int home = getHomeStripe();
+				for (int i = 0; i < n; i++) {
+					Runnable task = queues[(home + i) % n].poll();
+					if (task != null) {
+						return task;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+				Runnable task = poll();
+				return task != null ? task : queues[getHomeStripe()].poll(timeout, unit);
+			}
+
+			@Override
+			public Runnable take() throws InterruptedException {
+				Runnable task = poll();
+				return task != null ? task : queues[getHomeStripe()].take();
+			}
+
+			@Override
+			public Runnable peek() {
+				for (LinkedBlockingQueue<Runnable> queue : queues) {
+					Runnable task = queue.peek();
+					if (task != null) {
+						return task;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				for (LinkedBlockingQueue<Runnable> queue : queues) {
+					if (queue.remove(o)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public int drainTo(Collection<? super Runnable> c) {
+				return drainTo(c, Integer.MAX_VALUE);
+			}
+
+			@Override
+			public int drainTo(Collection<? super Runnable> c, int maxElements) {
+				int drained = 0;
+				for (LinkedBlockingQueue<Runnable> queue : queues) {
+					if (drained >= maxElements) {
+						break;
+					}
+					drained += queue.drainTo(c, maxElements - drained);
+				}
+				return drained;
+			}
+		}
+	}
+}
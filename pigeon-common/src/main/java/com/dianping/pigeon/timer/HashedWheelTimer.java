@@ -0,0 +1,363 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.threadpool.DefaultThreadFactory;
+
+/**
+ * 哈希时间轮定时器，添加/取消/过期均为O(1)，精度为一个tick
+ *
+ * 所有定时任务在单个worker线程中执行，超时处理逻辑不应阻塞该线程
+ */
+public class HashedWheelTimer {
+
+	private static final Logger logger = LoggerLoader.getLogger(HashedWheelTimer.class);
+
+	private static final int WORKER_STATE_INIT = 0;
+	private static final int WORKER_STATE_STARTED = 1;
+	private static final int WORKER_STATE_SHUTDOWN = 2;
+
+	// 每个tick最多从队列搬运到时间轮的任务数，防止worker线程被突发的大量任务拖住
+	private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+	private final AtomicInteger workerState = new AtomicInteger(WORKER_STATE_INIT);
+
+	private final Thread workerThread;
+
+	private final long tickDuration;
+
+	private final Bucket[] wheel;
+
+	private final int mask;
+
+	private final Queue<WheelTimeout> timeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+
+	private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<WheelTimeout>();
+
+	private final AtomicLong pendingTimeouts = new AtomicLong();
+
+	private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+
+	private volatile long startTime;
+
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0) {
+			throw new IllegalArgumentException("ticksPerWheel must be greater than 0: " + ticksPerWheel);
+		}
+		this.wheel = createWheel(ticksPerWheel);
+		this.mask = wheel.length - 1;
+		this.tickDuration = unit.toNanos(tickDuration);
+		this.workerThread = new DefaultThreadFactory(name).newThread(new Worker());
+	}
+
+	private static Bucket[] createWheel(int ticksPerWheel) {
+		int normalized = 1;
+		while (normalized < ticksPerWheel) {
+			normalized <<= 1;
+		}
+		Bucket[] wheel = new Bucket[normalized];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+		return wheel;
+	}
+
+	public void start() {
+		switch (workerState.get()) {
+		case WORKER_STATE_INIT:
+			if (workerState.compareAndSet(WORKER_STATE_INIT, WORKER_STATE_STARTED)) {
+				workerThread.start();
+			}
+			break;
+		case WORKER_STATE_STARTED:
+			break;
+		case WORKER_STATE_SHUTDOWN:
+			throw new IllegalStateException("cannot be started once stopped");
+		default:
+			throw new Error("invalid worker state");
+		}
+		while (startTime == 0) {
+			try {
+				startTimeInitialized.await();
+			} catch (InterruptedException ignore) {
+			}
+		}
+	}
+
+	public void stop() {
+		if (workerState.getAndSet(WORKER_STATE_SHUTDOWN) != WORKER_STATE_STARTED) {
+			return;
+		}
+		while (workerThread.isAlive()) {
+			workerThread.interrupt();
+			try {
+				workerThread.join(100);
+			} catch (InterruptedException ignore) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		start();
+		long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+		WheelTimeout timeout = new WheelTimeout(this, task, deadline);
+		pendingTimeouts.incrementAndGet();
+		timeouts.add(timeout);
+		return timeout;
+	}
+
+	public long getPendingTimeouts() {
+		return pendingTimeouts.get();
+	}
+
+	public long getTickDuration(TimeUnit unit) {
+		return unit.convert(tickDuration, TimeUnit.NANOSECONDS);
+	}
+
+	public int getTicksPerWheel() {
+		return wheel.length;
+	}
+
+	private final class Worker implements Runnable {
+
+		private long tick;
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			startTime = now == 0 ? 1 : now;
+			startTimeInitialized.countDown();
+
+			do {
+				final long deadline = waitForNextTick();
+				if (deadline > 0) {
+					processCancelledTimeouts();
+					transferTimeoutsToBuckets();
+					wheel[(int) (tick & mask)].expireTimeouts(deadline);
+					tick++;
+				}
+			} while (workerState.get() == WORKER_STATE_STARTED);
+		}
+
+		private void transferTimeoutsToBuckets() {
+			for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+				WheelTimeout timeout = timeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				if (timeout.state() == WheelTimeout.ST_CANCELLED) {
+					continue;
+				}
+				long calculated = timeout.deadline / tickDuration;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				// 已经过期的任务放到当前tick，立即执行
+				long ticks = Math.max(calculated, tick);
+				wheel[(int) (ticks & mask)].add(timeout);
+			}
+		}
+
+		private void processCancelledTimeouts() {
+			for (;;) {
+				WheelTimeout timeout = cancelledTimeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				try {
+					timeout.remove();
+				} catch (Throwable t) {
+					logger.warn("error while processing cancelled timeout", t);
+				}
+			}
+		}
+
+		private long waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			for (;;) {
+				final long currentTime = System.nanoTime() - startTime;
+				long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+				if (sleepTimeMs <= 0) {
+					if (currentTime == Long.MIN_VALUE) {
+						return -Long.MAX_VALUE;
+					} else {
+						return currentTime;
+					}
+				}
+				try {
+					Thread.sleep(sleepTimeMs);
+				} catch (InterruptedException ignored) {
+					if (workerState.get() == WORKER_STATE_SHUTDOWN) {
+						return Long.MIN_VALUE;
+					}
+				}
+			}
+		}
+	}
+
+	private static final class WheelTimeout implements Timeout {
+
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER = AtomicIntegerFieldUpdater
+				.newUpdater(WheelTimeout.class, "state");
+
+		private final HashedWheelTimer timer;
+		private final TimerTask task;
+		private final long deadline;
+
+		private volatile int state = ST_INIT;
+
+		// 以下字段仅由worker线程访问
+		long remainingRounds;
+		boolean removed;
+		WheelTimeout next;
+		WheelTimeout prev;
+		Bucket bucket;
+
+		WheelTimeout(HashedWheelTimer timer, TimerTask task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public TimerTask getTask() {
+			return task;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			timer.cancelledTimeouts.add(this);
+			return true;
+		}
+
+		void remove() {
+			if (removed) {
+				return;
+			}
+			Bucket bucket = this.bucket;
+			if (bucket != null) {
+				bucket.remove(this);
+			} else {
+				removed = true;
+				timer.pendingTimeouts.decrementAndGet();
+			}
+		}
+
+		int state() {
+			return state;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state() == ST_CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state() == ST_EXPIRED;
+		}
+
+		void expire() {
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+				return;
+			}
+			try {
+				task.run(this);
+			} catch (Throwable t) {
+				logger.warn("an exception was thrown by " + TimerTask.class.getSimpleName(), t);
+			}
+		}
+	}
+
+	/**
+	 * 时间轮上的一个槽，双向链表保证任意位置的删除为O(1)
+	 */
+	private static final class Bucket {
+
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void expireTimeouts(long deadline) {
+			WheelTimeout timeout = head;
+			while (timeout != null) {
+				WheelTimeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					next = remove(timeout);
+					if (timeout.deadline <= deadline) {
+						timeout.expire();
+					} else {
+						throw new IllegalStateException(String.format("timeout.deadline (%d) > deadline (%d)",
+								timeout.deadline, deadline));
+					}
+				} else if (timeout.isCancelled()) {
+					next = remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		WheelTimeout remove(WheelTimeout timeout) {
+			WheelTimeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				if (timeout == tail) {
+					tail = null;
+					head = null;
+				} else {
+					head = next;
+				}
+			} else if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			timeout.removed = true;
+			timeout.timer.pendingTimeouts.decrementAndGet();
+			return next;
+		}
+	}
+}
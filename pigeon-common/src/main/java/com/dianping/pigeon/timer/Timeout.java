@@ -0,0 +1,23 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.timer;
+
+/**
+ * 由{@link HashedWheelTimer#newTimeout}返回的定时任务句柄
+ */
+public interface Timeout {
+
+	TimerTask getTask();
+
+	boolean isExpired();
+
+	boolean isCancelled();
+
+	/**
+	 * 取消定时任务，任务已过期或已取消时返回false
+	 */
+	boolean cancel();
+
+}
@@ -0,0 +1,14 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.timer;
+
+public interface TimerTask {
+
+	/**
+	 * 在时间轮的worker线程中执行，实现需尽量轻量，耗时操作应提交到其他线程池
+	 */
+	void run(Timeout timeout) throws Exception;
+
+}
@@ -12,11 +12,13 @@ import com.dianping.pigeon.console.domain.Statistics;
 import com.dianping.pigeon.console.listener.StatusListener;
 import com.dianping.pigeon.console.servlet.ServiceServlet;
 import com.dianping.pigeon.console.status.StatusInfo;
+import com.dianping.pigeon.remoting.common.util.AdaptiveConcurrencyLimit;
 import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerCapacityBucket;
 import com.dianping.pigeon.remoting.invoker.process.statistics.InvokerStatisticsHolder;
 import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalanceManager;
 import com.dianping.pigeon.remoting.invoker.route.statistics.CapacityBucket;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
 import com.dianping.pigeon.remoting.provider.ProviderBootStrap;
 import com.dianping.pigeon.remoting.provider.Server;
 import com.dianping.pigeon.remoting.provider.config.ServerConfig;
@@ -62,6 +64,10 @@ public class StatisticsJsonServlet extends ServiceServlet {
 				stat.getAppRequestsOfProvider().put(app, appCapacity.toString());
 			}
 		}
+		for (Map.Entry<String, ProviderCapacityBucket> entry : ProviderStatisticsHolder.getMethodCapacityBuckets()
+				.entrySet()) {
+			stat.getOthers().put("provider.method." + entry.getKey(), entry.getValue().toString());
+		}
 		Map<String, Server> servers = ProviderBootStrap.getServersMap();
 		Map<String, String> serverProcessorStatistics = stat.getServerProcessorStatistics();
 		for (Server server : servers.values()) {
@@ -72,6 +78,24 @@ public class StatisticsJsonServlet extends ServiceServlet {
 			}
 		}
 		stat.setWeightFactors(LoadBalanceManager.getWeightFactors());
+		ServiceInvocationRepository invocationRepository = ServiceInvocationRepository.getInstance();
+		stat.getOthers().put("invoker.timeouts", "" + invocationRepository.getTimeouts());
+		stat.getOthers().put("invoker.lateResponses", "" + invocationRepository.getLateResponses());
+		stat.getOthers().put("invoker.discardedResponses", "" + invocationRepository.getDiscardedResponses());
+		stat.getOthers().put("invoker.discardedChunks", "" + invocationRepository.getDiscardedChunks());
+		for (Map.Entry<String, CapacityBucket> entry : buckets.entrySet()) {
+			AdaptiveConcurrencyLimit limit = entry.getValue().getConcurrencyLimit();
+			if (limit != null) {
+				stat.getOthers().put("invoker.limit." + entry.getKey(), limit.toString());
+			}
+		}
+		for (Map.Entry<String, AdaptiveConcurrencyLimit> entry : ProviderStatisticsHolder.getAppLimits().entrySet()) {
+			stat.getOthers().put("provider.limit.app." + entry.getKey(), entry.getValue().toString());
+		}
+		for (Map.Entry<String, AdaptiveConcurrencyLimit> entry : ProviderStatisticsHolder.getServiceLimits()
+				.entrySet()) {
+			stat.getOthers().put("provider.limit.service." + entry.getKey(), entry.getValue().toString());
+		}
 
 		List<StatusInfo> infoList = StatusListener.getStatusInfoList();
 		for (StatusInfo info : infoList) {
@@ -0,0 +1,13 @@
+package com.dianping.pigeon.demo;
+
+import com.dianping.pigeon.remoting.invoker.callback.AsyncFuture;
+
+/**
+ * EchoService的async调用接口，方法名和参数与EchoService一致，返回AsyncFuture
+ */
+public interface EchoServiceAsync {
+
+	AsyncFuture<String> echo(String msg);
+
+	AsyncFuture<Long> now();
+}
@@ -0,0 +1,56 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.demo.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dianping.pigeon.demo.EchoServiceAsync;
+import com.dianping.pigeon.remoting.ServiceFactory;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.callback.AsyncFuture;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceCallback;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+
+public class AsyncClient {
+
+	public static void main(String[] args) throws Exception {
+		// url默认为去掉Async后缀的接口名，即com.dianping.pigeon.demo.EchoService
+		InvokerConfig<EchoServiceAsync> config = new InvokerConfig<EchoServiceAsync>(EchoServiceAsync.class);
+		config.setCallType(Constants.CALL_ASYNC);
+		EchoServiceAsync echoService = ServiceFactory.getService(config);
+
+		int i = 0;
+		while (true) {
+			// 并行发出多个调用，全部返回后合并结果
+			List<AsyncFuture<String>> futures = new ArrayList<AsyncFuture<String>>();
+			for (int j = 0; j < 10; j++) {
+				futures.add(echoService.echo("echoService_input" + (i++)));
+			}
+			AsyncFuture<List<Object>> all = AsyncFuture.allOf(futures);
+			AsyncFuture<String> combined = AsyncFuture.combine(all, echoService.now(),
+					new AsyncFuture.Combiner<List<Object>, Long, String>() {
+
+						@Override
+						public String combine(List<Object> results, Long now) {
+							return now + ":" + results;
+						}
+					});
+			combined.addCallback(new ServiceCallback() {
+
+				@Override
+				public void onSuccess(Object result) {
+					System.out.println("echoService result:" + result);
+				}
+
+				@Override
+				public void onFailure(Throwable exception) {
+					exception.printStackTrace();
+				}
+			});
+			combined.get();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.demo.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.demo.EchoService;
+import com.dianping.pigeon.demo.EchoServiceDefaultImpl;
+import com.dianping.pigeon.remoting.ServiceFactory;
+import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.callback.CallbackFuture;
+import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+import com.dianping.pigeon.remoting.netty.invoker.NettyClient;
+import com.dianping.pigeon.remoting.netty.invoker.NettyClientPipelineFactory;
+import com.dianping.pigeon.remoting.netty.invoker.codec.InvokerEncoder;
+import com.dianping.pigeon.remoting.netty.provider.NettyServerPipelineFactory;
+import com.dianping.pigeon.remoting.netty.provider.codec.ProviderEncoder;
+import com.dianping.pigeon.remoting.provider.config.ProviderConfig;
+
+/**
+ * 本地启动一个NettyServer，分别用1到N个连接压测同一个provider，观察吞吐随连接数的变化
+ *
+ * 参数：最大连接数 并发线程数 每个连接数下的请求总数
+ */
+public class ChannelPoolBenchmark {
+
+	private static final String URL = "com.dianping.pigeon.demo.benchmark.EchoService";
+
+	private static final AtomicLong sequenceMaker = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		int maxConnections = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime()
+				.availableProcessors();
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+		// 只压测本地连接，不注册到注册中心
+		ConfigManagerLoader.getConfigManager().setLocalStringValue(Constants.KEY_AUTOPUBLISH_ENABLE, "false");
+		ProviderConfig<EchoService> providerConfig = new ProviderConfig<EchoService>(EchoService.class,
+				new EchoServiceDefaultImpl());
+		providerConfig.setUrl(URL);
+		ServiceFactory.addService(providerConfig);
+		int port = providerConfig.getServerConfig().getActualPort();
+
+		for (int connections = 1; connections <= maxConnections; connections <<= 1) {
+			NettyClient client = new NettyClient(new ConnectInfo(URL, "127.0.0.1", port, 1), connections);
+			client.connect();
+			// 预热
+			run(client, threads, requests / 10);
+			long start = System.nanoTime();
+			long errors = run(client, threads, requests);
+			long cost = System.nanoTime() - start;
+			System.out.println(String.format("connections=%d threads=%d: %.0f requests/s, errors=%d", connections,
+					threads, requests * 1e9 / cost, errors));
+			// 开启pigeon.invoker/provider.netty.writebatch.enable时可以对比合并写的批量大小和排队延迟
+			if (NettyClientPipelineFactory.getWriteBatchStatistics().getFlushes() > 0) {
+				System.out.println(NettyClientPipelineFactory.getWriteBatchStatistics());
+			}
+			if (NettyServerPipelineFactory.getWriteBatchStatistics().getFlushes() > 0) {
+				System.out.println(NettyServerPipelineFactory.getWriteBatchStatistics());
+			}
+			// 开启pigeon.netty.encoder.pool.enable时输出编码buffer池的命中率和扩容次数
+			if (InvokerEncoder.getEncodeBufferStatistics().getAcquires() > 0) {
+				System.out.println(InvokerEncoder.getEncodeBufferStatistics());
+				System.out.println(ProviderEncoder.getEncodeBufferStatistics());
+			}
+			client.close();
+		}
+		System.exit(0);
+	}
+
+	private static long run(final NettyClient client, int threads, final int requests) throws InterruptedException {
+		final AtomicLong remaining = new AtomicLong(requests);
+		final AtomicLong errors = new AtomicLong();
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						while (remaining.decrementAndGet() >= 0) {
+							InvocationRequest request = new DefaultRequest(URL, "now", new Object[0],
+									SerializerFactory.SERIALIZE_HESSIAN, Constants.MESSAGE_TYPE_SERVICE, 1000,
+									new Class<?>[0]);
+							request.setCallType(Constants.CALLTYPE_REPLY);
+							request.setCreateMillisTime(System.currentTimeMillis());
+							request.setSequence(sequenceMaker.incrementAndGet() * -1);
+							CallbackFuture future = new CallbackFuture();
+							try {
+								InvokerUtils.sendRequest(client, request, future);
+								InvocationResponse response = future.getResponse(request.getTimeout());
+								if (response.getMessageType() != Constants.MESSAGE_TYPE_SERVICE) {
+									errors.incrementAndGet();
+								}
+							} catch (Throwable t) {
+								errors.incrementAndGet();
+							}
+						}
+					} finally {
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+		latch.await();
+		return errors.get();
+	}
+}
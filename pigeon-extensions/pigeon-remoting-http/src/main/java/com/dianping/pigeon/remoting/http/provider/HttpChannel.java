@@ -67,4 +67,9 @@ public class HttpChannel implements ProviderChannel {
 		return protocol;
 	}
 
+	@Override
+	public boolean isWritable() {
+		return true;
+	}
+
 }
@@ -4,22 +4,21 @@
  */
 package com.dianping.pigeon.remoting.netty.codec;
 
-import static org.jboss.netty.buffer.ChannelBuffers.dynamicBuffer;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
-import org.jboss.netty.buffer.DynamicChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
@@ -31,13 +30,28 @@ public abstract class AbstractDecoder extends OneToOneDecoder implements Decoder
 
 	private static final Logger logger = LoggerLoader.getLogger(AbstractDecoder.class);
 
+	// 半包分片数的水位线，超过后才拷贝合并
+	private static final int maxComponents = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.netty.decoder.maxcomponents", 32);
+
+	private final AtomicLong decodedBytes = new AtomicLong();
+
+	private final AtomicLong copiedBytes = new AtomicLong();
+
 	public abstract Object doInitMsg(Object message, Channel channel, long receiveTime);
 
 	public abstract void doFailResponse(Channel channel, InvocationResponse response);
 
 	public abstract Object deserialize(byte serializerType, InputStream is);
 
+	private final CompressionStatistics compressionStatistics;
+
 	public AbstractDecoder() {
+		this(new CompressionStatistics("Pigeon.decompress"));
+	}
+
+	protected AbstractDecoder(CompressionStatistics compressionStatistics) {
+		this.compressionStatistics = compressionStatistics;
 	}
 
 	public Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws IOException,
@@ -47,19 +61,25 @@ public abstract class AbstractDecoder extends OneToOneDecoder implements Decoder
 			return msg;
 		}
 
-		ChannelBuffer cb = (ChannelBuffer) NettyCodecUtils.getAttachment(ctx, Constants.ATTACHMENT_BYTEBUFFER);
-		ChannelBuffer cb_ = (ChannelBuffer) msg;
-		if (cb == null) {
-			cb = cb_;
-		} else {
-			cb.writeBytes(cb_);
+		FrameCumulation cumulation = (FrameCumulation) NettyCodecUtils.getAttachment(ctx,
+				Constants.ATTACHMENT_BYTEBUFFER);
+		ChannelBuffer cb = (ChannelBuffer) msg;
+		if (cumulation != null) {
+			long copied = cumulation.getCopiedBytes();
+			cumulation.add(cb);
+			copiedBytes.addAndGet(cumulation.getCopiedBytes() - copied);
+			if (!cumulation.isFrameComplete()) {
+				NettyCodecUtils.setAttachment(ctx, Constants.ATTACHMENT_BYTEBUFFER, cumulation);
+				return null;
+			}
+			cb = cumulation.buffer();
 		}
 
 		List<Object> messages = null;
 		int lastReadIndex = cb.readerIndex();
 		while (cb.readable()) {
 			if (cb.readableBytes() <= 3) {
-				setAttachment(ctx, channel, cb, lastReadIndex);
+				setAttachment(ctx, cb, lastReadIndex);
 				break;
 			}
 			byte head = cb.readByte();
@@ -90,7 +110,9 @@ public abstract class AbstractDecoder extends OneToOneDecoder implements Decoder
 								+ ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress()
 								+ " seq:" + seq + "\n" + e.getMessage();
 						logger.error(errorMsg, se);
-						doFailResponse(channel, ProviderUtils.createThrowableResponse(seq, serializable, se));
+						doFailResponse(channel,
+								ProviderUtils.createThrowableResponse(seq,
+										FrameCompressor.getSerialize(CompactHeader.getSerialize(serializable)), se));
 					}
 				} catch (Throwable e1) {
 					logger.error("", e1);
@@ -101,11 +123,12 @@ public abstract class AbstractDecoder extends OneToOneDecoder implements Decoder
 					messages = new ArrayList<Object>();
 				}
 				messages.add(doInitMsg(message, channel, receiveTime));
+				decodedBytes.addAndGet(cb.readerIndex() - lastReadIndex);
 				lastReadIndex = cb.readerIndex();
 			} else if (isException) {
 				lastReadIndex = cb.readerIndex();
 			} else {
-				setAttachment(ctx, channel, cb, lastReadIndex);
+				setAttachment(ctx, cb, lastReadIndex);
 				break;
 			}
 		}
@@ -113,15 +136,29 @@ public abstract class AbstractDecoder extends OneToOneDecoder implements Decoder
 		return messages;
 	}
 
-	private void setAttachment(ChannelHandlerContext ctx, Channel channel, ChannelBuffer cb, int lastReadIndex) {
-		cb.readerIndex(lastReadIndex);
-		if (!(cb instanceof DynamicChannelBuffer) || cb.writerIndex() > 102400) {
-			ChannelBuffer db = dynamicBuffer(cb.readableBytes() * 2, channel.getConfig().getBufferFactory());
-			db.writeBytes(cb);
-			cb = db;
-		}
+	private void setAttachment(ChannelHandlerContext ctx, ChannelBuffer cb, int lastReadIndex) {
+		// 只保留剩余部分的切片，不做拷贝
+		ChannelBuffer remainder = cb.slice(lastReadIndex, cb.writerIndex() - lastReadIndex);
+		NettyCodecUtils.setAttachment(ctx, Constants.ATTACHMENT_BYTEBUFFER, new FrameCumulation(remainder,
+				maxComponents));
+	}
 
-		NettyCodecUtils.setAttachment(ctx, Constants.ATTACHMENT_BYTEBUFFER, cb);
+	/**
+	 * 已解码的字节数
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes.get();
+	}
+
+	/**
+	 * 处理半包时拷贝的字节数
+	 */
+	public long getCopiedBytes() {
+		return copiedBytes.get();
+	}
+
+	public CompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
 	}
 
 	public Object _decode(byte serializerType, ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
@@ -130,6 +167,10 @@ public abstract class AbstractDecoder extends OneToOneDecoder implements Decoder
 		if (frame == null) {
 			return null;
 		}
+		if (FrameCompressor.isCompressed(serializerType)) {
+			frame = FrameCompressor.decompress(frame, compressionStatistics);
+			serializerType &= ~FrameCompressor.COMPRESS_FLAG;
+		}
 		ChannelBufferInputStream is = new ChannelBufferInputStream(frame);
 		int available = is.available();
 		Object obj = deserialize(serializerType, is);
@@ -179,10 +220,10 @@ public abstract class AbstractDecoder extends OneToOneDecoder implements Decoder
 	 */
 	private int parseExpand(ChannelHandlerContext ctx, ChannelBuffer buffer, int frameLengthInt) {
 		int msgLen = frameLengthInt;
-		byte[] expandFlag = new byte[3];
-		buffer.getBytes(buffer.readerIndex() + frameLengthInt - 3, expandFlag);
-		if (expandFlag[0] == Constants.EXPAND_FLAG_FIRST && expandFlag[1] == Constants.EXPAND_FLAG_SECOND
-				&& expandFlag[2] == Constants.EXPAND_FLAG_THIRD) {
+		int flagIndex = buffer.readerIndex() + frameLengthInt - 3;
+		if (buffer.getByte(flagIndex) == Constants.EXPAND_FLAG_FIRST
+				&& buffer.getByte(flagIndex + 1) == Constants.EXPAND_FLAG_SECOND
+				&& buffer.getByte(flagIndex + 2) == Constants.EXPAND_FLAG_THIRD) {
 			msgLen = frameLengthInt - AbstractEncoder.EXPAND_LANGTH;
 			long seq = buffer.getLong(buffer.readerIndex() + msgLen);
 			NettyCodecUtils.setAttachment(ctx, Constants.ATTACHMENT_REQUEST_SEQ, seq);
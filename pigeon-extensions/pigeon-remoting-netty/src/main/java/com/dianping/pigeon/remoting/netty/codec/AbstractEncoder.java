@@ -12,67 +12,179 @@ import org.apache.logging.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
 import com.dianping.pigeon.remoting.common.exception.SerializationException;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.netty.codec.EncodeBufferPool.PooledChannelBuffer;
+import com.dianping.pigeon.remoting.netty.codec.EncodeSizeEstimator.Estimate;
 import com.dianping.pigeon.remoting.provider.util.ProviderUtils;
 
 public abstract class AbstractEncoder extends OneToOneEncoder implements Encoder {
 
 	private static final Logger log = LoggerLoader.getLogger(AbstractEncoder.class);
 
+	// 按服务/方法的历史长度预分配编码buffer，并复用写出完成的buffer
+	private static final boolean poolEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.netty.encoder.pool.enable", false);
+
+	private static final EncodeSizeEstimator sizeEstimator = new EncodeSizeEstimator();
+
+	private final EncodeBufferStatistics statistics;
+
+	private final CompressionStatistics compressionStatistics;
+
+	protected AbstractEncoder(EncodeBufferStatistics statistics, CompressionStatistics compressionStatistics) {
+		this.statistics = statistics;
+		this.compressionStatistics = compressionStatistics;
+	}
+
+	/**
+	 * 对端是否能解压该消息
+	 */
+	protected boolean isCompressAllowed(Channel channel, InvocationSerializable message) {
+		return false;
+	}
+
 	public abstract void serialize(byte serializerType, ChannelBufferOutputStream os, Object obj, Channel channel)
 			throws IOException;
 
+	@Override
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+		if (!poolEnable || !(evt instanceof MessageEvent)) {
+			super.handleDownstream(ctx, evt);
+			return;
+		}
+		MessageEvent e = (MessageEvent) evt;
+		Object originalMessage = e.getMessage();
+		Object encodedMessage = encode(ctx, e.getChannel(), originalMessage);
+		if (originalMessage == encodedMessage) {
+			ctx.sendDownstream(evt);
+		} else if (encodedMessage != null) {
+			if (encodedMessage instanceof PooledChannelBuffer) {
+				// 写出完成（成功或失败）后buffer才能归还
+				e.getFuture().addListener(new ReleaseListener((PooledChannelBuffer) encodedMessage));
+			}
+			Channels.write(ctx, e.getFuture(), encodedMessage, e.getRemoteAddress());
+		}
+	}
+
 	public Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
 		if (msg instanceof InvocationSerializable) {
 			InvocationSerializable message = (InvocationSerializable) msg;
-			try {
-				ChannelBuffer buffer = (ChannelBuffer) _encode(message.getSerialize(), ctx, channel,
-						message.getObject());
-				buffer.setBytes(0, Constants.MESSAGE_HEAD);
-				buffer.setByte(2, message.getSerialize());
-				buffer.readerIndex(0);
-
-				int msgType = ((InvocationSerializable) msg).getMessageType();
-				if (msgType == Constants.MESSAGE_TYPE_SERVICE) {
-					message.setSize(buffer.readableBytes());
-				}
-				return buffer;
-			} catch (Throwable e) {
-				SerializationException se = new SerializationException(e);
-				try {
-					doFailResponse(channel,
-							ProviderUtils.createThrowableResponse(message.getSequence(), message.getSerialize(), se));
-				} catch (Throwable e2) {
-				}
-				log.error(e.getMessage(), se);
-				throw se;
-			}
+			return encode(ctx, channel, message, message.getSerialize(), message.getObject());
 		} else {
 			throw new SerializationException("invalid message format");
 		}
 	}
 
+	/**
+	 * @param frameSerialize
+	 *            写入帧头的序列化类型
+	 * @param body
+	 *            交给serialize写入消息体的对象
+	 */
+	protected Object encode(ChannelHandlerContext ctx, Channel channel, InvocationSerializable message,
+			byte frameSerialize, Object body) throws Exception {
+		try {
+			ChannelBuffer buffer = (ChannelBuffer) _encode(FrameCompressor.getSerialize(frameSerialize), ctx, channel,
+					message, body);
+			if (isCompressAllowed(channel, message)) {
+				ChannelBuffer compressed = FrameCompressor.compress(buffer, compressionStatistics);
+				if (compressed != null) {
+					if (buffer instanceof PooledChannelBuffer) {
+						((PooledChannelBuffer) buffer).release();
+					}
+					buffer = compressed;
+					frameSerialize |= FrameCompressor.COMPRESS_FLAG;
+				}
+			}
+			buffer.setBytes(0, Constants.MESSAGE_HEAD);
+			buffer.setByte(2, frameSerialize);
+			buffer.readerIndex(0);
+
+			int msgType = message.getMessageType();
+			if (msgType == Constants.MESSAGE_TYPE_SERVICE) {
+				message.setSize(buffer.readableBytes());
+			}
+			return buffer;
+		} catch (Throwable e) {
+			SerializationException se = new SerializationException(e);
+			try {
+				doFailResponse(channel,
+						ProviderUtils.createThrowableResponse(message.getSequence(), message.getSerialize(), se));
+			} catch (Throwable e2) {
+			}
+			log.error(e.getMessage(), se);
+			throw se;
+		}
+	}
+
 	public abstract void doFailResponse(Channel channel, InvocationResponse response);
 
 	private final int estimatedLength = 512;
 
 	public Object _encode(byte serializerType, ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+		return _encode(serializerType, ctx, channel, msg, msg);
+	}
+
+	private Object _encode(byte serializerType, ChannelHandlerContext ctx, Channel channel, Object msg, Object body)
+			throws Exception {
+		if (poolEnable) {
+			return encodePooled(serializerType, channel, msg, body);
+		}
 		ChannelBufferOutputStream bout = new ChannelBufferOutputStream(dynamicBuffer(estimatedLength, ctx.getChannel()
 				.getConfig().getBufferFactory()));
 		beforeDo(bout);
-		serialize(serializerType, bout, msg, channel);
+		serialize(serializerType, bout, body, channel);
 		ChannelBuffer encoded = bout.buffer();
 		afterDo(encoded, msg);
 		return encoded;
 	}
 
+	private ChannelBuffer encodePooled(byte serializerType, Channel channel, Object msg, Object body)
+			throws Exception {
+		Estimate estimate = sizeEstimator.getEstimate(msg);
+		int length = Math.max(estimate.getLength(), estimatedLength);
+		EncodeBufferPool pool = EncodeBufferPool.getPool();
+		PooledChannelBuffer buffer = pool.poll(length);
+		statistics.recordAcquire(buffer != null);
+		if (buffer == null) {
+			buffer = pool.allocate(length);
+		}
+		boolean success = false;
+		try {
+			ChannelBufferOutputStream bout = new ChannelBufferOutputStream(buffer);
+			beforeDo(bout);
+			serialize(serializerType, bout, body, channel);
+			afterDo(buffer, msg);
+			success = true;
+		} finally {
+			if (!success) {
+				buffer.release();
+			}
+		}
+		estimate.update(buffer.writerIndex());
+		if (buffer.isResized()) {
+			statistics.recordResize(buffer.getAcquiredCapacity(), buffer.capacity());
+		}
+		return buffer;
+	}
+
+	public EncodeBufferStatistics getStatistics() {
+		return statistics;
+	}
+
 	protected static final byte[] LENGTH_PLACEHOLDER = new byte[7];
 
 	// +3是在结尾写入扩展表示EXPEND_FLAG
@@ -111,4 +223,18 @@ public abstract class AbstractEncoder extends OneToOneEncoder implements Encoder
 		}
 		return seq;
 	}
+
+	private static class ReleaseListener implements ChannelFutureListener {
+
+		private final PooledChannelBuffer buffer;
+
+		ReleaseListener(PooledChannelBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			buffer.release();
+		}
+	}
 }
@@ -0,0 +1,65 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+
+/**
+ * 紧凑请求头（v2）：服务名/方法名按连接分配整数id，请求只携带固定长度的二进制头和序列化后的参数
+ *
+ * <pre>
+ * 帧头序列化类型字节 = 原序列化类型 | COMPACT_FLAG
+ * 消息体：flags(1) methodId(4) seq(8) timeout(4) callType(1)
+ *        [FLAG_DEFINE时：serviceName methodName version app]
+ *        序列化后的parameters，FLAG_CONTEXT时为{parameters, globalValues, requestValues}
+ * </pre>
+ *
+ * 同一连接上id第一次使用时带FLAG_DEFINE，服务端记录到该连接的id表中，之后的请求只带id
+ */
+public final class CompactHeader {
+
+	public static final byte COMPACT_FLAG = 0x40;
+
+	public static final byte FLAG_DEFINE = 0x01;
+
+	public static final byte FLAG_CONTEXT = 0x02;
+
+	private CompactHeader() {
+	}
+
+	public static boolean isCompact(byte frameSerialize) {
+		return (frameSerialize & COMPACT_FLAG) != 0;
+	}
+
+	/**
+	 * 帧头中实际的序列化类型
+	 */
+	public static byte getSerialize(byte frameSerialize) {
+		return (byte) (frameSerialize & ~COMPACT_FLAG);
+	}
+
+	/**
+	 * 只有可以直接序列化任意对象数组的序列化方式才使用紧凑头
+	 */
+	public static boolean isSerializeSupported(byte serialize) {
+		return serialize == SerializerFactory.SERIALIZE_HESSIAN || serialize == SerializerFactory.SERIALIZE_HESSIAN1
+				|| serialize == SerializerFactory.SERIALIZE_JAVA || serialize == SerializerFactory.SERIALIZE_FST;
+	}
+
+	public static void writeString(DataOutput out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
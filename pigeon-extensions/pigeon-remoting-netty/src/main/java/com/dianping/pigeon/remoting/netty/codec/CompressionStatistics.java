@@ -0,0 +1,115 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
+
+/**
+ * 压缩/解压的统计：压缩率以及耗费的cpu时间
+ */
+public class CompressionStatistics {
+
+	private static final Logger logger = LoggerLoader.getLogger(CompressionStatistics.class);
+
+	private static final Monitor monitor = MonitorLoader.getMonitor();
+
+	private static final long LOG_INTERVAL = 60000;
+
+	private final String name;
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong originalBytes = new AtomicLong();
+
+	private final AtomicLong compressedBytes = new AtomicLong();
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	// 超过阈值但压缩后没有明显变小、按原样发送的次数
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final AtomicLong lastLogTime = new AtomicLong(System.currentTimeMillis());
+
+	public CompressionStatistics(String name) {
+		this.name = name;
+	}
+
+	public void record(int originalLength, int compressedLength, long costNanos) {
+		count.incrementAndGet();
+		originalBytes.addAndGet(originalLength);
+		compressedBytes.addAndGet(compressedLength);
+		nanos.addAndGet(costNanos);
+		log();
+	}
+
+	public void recordSkipped(long costNanos) {
+		skipped.incrementAndGet();
+		nanos.addAndGet(costNanos);
+		log();
+	}
+
+	private void log() {
+		long now = System.currentTimeMillis();
+		long last = lastLogTime.get();
+		if (now - last >= LOG_INTERVAL && lastLogTime.compareAndSet(last, now)) {
+			try {
+				monitor.logEvent(name + ".ratio", getRatioRange(), toString());
+			} catch (Throwable t) {
+				monitor.logMonitorError(t);
+			}
+			logger.info(this);
+		}
+	}
+
+	private String getRatioRange() {
+		// 压缩后占原始长度的比例，按10%分段
+		int percent = (int) (getRatio() * 10) * 10;
+		return "<" + Math.min(100, percent + 10) + "%";
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	public long getOriginalBytes() {
+		return originalBytes.get();
+	}
+
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	public long getNanos() {
+		return nanos.get();
+	}
+
+	/**
+	 * 压缩后长度/原始长度
+	 */
+	public double getRatio() {
+		long original = originalBytes.get();
+		return original == 0 ? 1 : (double) compressedBytes.get() / original;
+	}
+
+	@Override
+	public String toString() {
+		long c = count.get();
+		return new StringBuilder().append(name).append(" count:").append(c).append(", skipped:").append(getSkipped())
+				.append(", original bytes:").append(getOriginalBytes()).append(", compressed bytes:")
+				.append(getCompressedBytes()).append(", ratio:").append(String.format("%.2f", getRatio()))
+				.append(", cpu ms:").append(getNanos() / 1000000).append(", avg us:")
+				.append(c == 0 ? 0 : getNanos() / 1000 / (c + getSkipped())).toString();
+	}
+}
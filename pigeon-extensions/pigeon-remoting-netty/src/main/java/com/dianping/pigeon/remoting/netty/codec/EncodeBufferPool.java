@@ -0,0 +1,179 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.DynamicChannelBuffer;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+
+/**
+ * 编码buffer池，按线程id分成固定数量的池以减少竞争，每个池按2的幂分级缓存
+ *
+ * buffer在写出完成后（可能在io线程）归还到申请它的池中，超过maxcapacity的buffer不缓存
+ */
+public class EncodeBufferPool {
+
+	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+	static final int MIN_CAPACITY_SHIFT = 9;
+
+	static final int MIN_CAPACITY = 1 << MIN_CAPACITY_SHIFT;
+
+	private static final int maxCapacity = configManager.getIntValue("pigeon.netty.encoder.pool.maxcapacity",
+			256 * 1024);
+
+	private static final int maxBuffersPerClass = configManager.getIntValue("pigeon.netty.encoder.pool.size", 16);
+
+	private static final ChannelBufferFactory bufferFactory = configManager.getBooleanValue(
+			"pigeon.netty.encoder.pool.direct", false) ? DirectChannelBufferFactory.getInstance()
+			: HeapChannelBufferFactory.getInstance();
+
+	// 业务线程数可能很多，按线程划分固定数量的池，避免每个线程各自缓存导致命中率低、内存占用大
+	private static final EncodeBufferPool[] pools = new EncodeBufferPool[configManager.getIntValue(
+			"pigeon.netty.encoder.pool.stripes", Runtime.getRuntime().availableProcessors() * 2)];
+
+	static {
+		for (int i = 0; i < pools.length; i++) {
+			pools[i] = new EncodeBufferPool(maxCapacity, maxBuffersPerClass);
+		}
+	}
+
+	private final int maxPooledCapacity;
+
+	private final int maxPerClass;
+
+	private final Queue<PooledChannelBuffer>[] classes;
+
+	private final AtomicIntegerArray counts;
+
+	@SuppressWarnings("unchecked")
+	EncodeBufferPool(int maxPooledCapacity, int maxPerClass) {
+		this.maxPooledCapacity = Math.max(maxPooledCapacity, MIN_CAPACITY);
+		this.maxPerClass = maxPerClass;
+		int size = classIndex(this.maxPooledCapacity) + 1;
+		this.classes = new Queue[size];
+		for (int i = 0; i < size; i++) {
+			classes[i] = new ConcurrentLinkedQueue<PooledChannelBuffer>();
+		}
+		this.counts = new AtomicIntegerArray(size);
+	}
+
+	public static EncodeBufferPool getPool() {
+		return pools[(int) (Thread.currentThread().getId() % pools.length)];
+	}
+
+	/**
+	 * 取一个容量不小于estimatedLength的buffer，池中没有时返回null
+	 */
+	public PooledChannelBuffer poll(int estimatedLength) {
+		int index = classIndex(roundUp(estimatedLength));
+		if (index >= classes.length) {
+			return null;
+		}
+		// 当前级别没有时再看大一级的，扩容后归还的buffer会落在更高的级别
+		for (int i = index; i < classes.length && i <= index + 1; i++) {
+			PooledChannelBuffer buffer = classes[i].poll();
+			if (buffer != null) {
+				counts.decrementAndGet(i);
+				buffer.acquired();
+				return buffer;
+			}
+		}
+		return null;
+	}
+
+	public PooledChannelBuffer allocate(int estimatedLength) {
+		PooledChannelBuffer buffer = new PooledChannelBuffer(this, roundUp(estimatedLength));
+		buffer.acquired();
+		return buffer;
+	}
+
+	void offer(PooledChannelBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (capacity > maxPooledCapacity) {
+			return;
+		}
+		// 按向下取整的级别归还，保证同一级别中的buffer容量都不小于该级别
+		int index = 31 - Integer.numberOfLeadingZeros(capacity) - MIN_CAPACITY_SHIFT;
+		if (index < 0) {
+			return;
+		}
+		if (counts.incrementAndGet(index) > maxPerClass) {
+			counts.decrementAndGet(index);
+			return;
+		}
+		buffer.clear();
+		classes[index].offer(buffer);
+	}
+
+	int getPooledCount() {
+		int count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	static int roundUp(int length) {
+		if (length <= MIN_CAPACITY) {
+			return MIN_CAPACITY;
+		}
+		int capacity = Integer.highestOneBit(length);
+		return capacity == length ? capacity : capacity << 1;
+	}
+
+	private static int classIndex(int capacity) {
+		return 31 - Integer.numberOfLeadingZeros(roundUp(capacity)) - MIN_CAPACITY_SHIFT;
+	}
+
+	public static class PooledChannelBuffer extends DynamicChannelBuffer {
+
+		private final EncodeBufferPool pool;
+
+		private final AtomicBoolean released = new AtomicBoolean(true);
+
+		private int acquiredCapacity;
+
+		PooledChannelBuffer(EncodeBufferPool pool, int capacity) {
+			super(ByteOrder.BIG_ENDIAN, capacity, bufferFactory);
+			this.pool = pool;
+		}
+
+		void acquired() {
+			released.set(false);
+			acquiredCapacity = capacity();
+		}
+
+		public int getAcquiredCapacity() {
+			return acquiredCapacity;
+		}
+
+		/**
+		 * 编码过程中是否发生过扩容
+		 */
+		public boolean isResized() {
+			return capacity() > acquiredCapacity;
+		}
+
+		/**
+		 * 写出完成后归还，重复调用只归还一次
+		 */
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				pool.offer(this);
+			}
+		}
+	}
+}
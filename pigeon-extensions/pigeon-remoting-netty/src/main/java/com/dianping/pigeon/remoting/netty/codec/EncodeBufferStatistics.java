@@ -0,0 +1,108 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
+
+/**
+ * 编码buffer池的统计：池命中率以及编码过程中buffer扩容的次数
+ */
+public class EncodeBufferStatistics {
+
+	private static final Logger logger = LoggerLoader.getLogger(EncodeBufferStatistics.class);
+
+	private static final Monitor monitor = MonitorLoader.getMonitor();
+
+	private static final long LOG_INTERVAL = 60000;
+
+	private final String name;
+
+	private final AtomicLong acquires = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong resizes = new AtomicLong();
+
+	private final AtomicLong lastLogTime = new AtomicLong(System.currentTimeMillis());
+
+	public EncodeBufferStatistics(String name) {
+		this.name = name;
+	}
+
+	public void recordAcquire(boolean hit) {
+		acquires.incrementAndGet();
+		if (hit) {
+			hits.incrementAndGet();
+		}
+		long now = System.currentTimeMillis();
+		long last = lastLogTime.get();
+		if (now - last >= LOG_INTERVAL && lastLogTime.compareAndSet(last, now)) {
+			try {
+				monitor.logEvent(name + ".hitRate", getHitRateRange(), toString());
+			} catch (Throwable t) {
+				monitor.logMonitorError(t);
+			}
+			logger.info(this);
+		}
+	}
+
+	public void recordResize(int estimatedLength, int length) {
+		resizes.incrementAndGet();
+		try {
+			monitor.logEvent(name + ".resize", getLengthRange(length), estimatedLength + "->" + length);
+		} catch (Throwable t) {
+			monitor.logMonitorError(t);
+		}
+	}
+
+	private String getHitRateRange() {
+		// 按10%分段
+		int percent = (int) (getHitRate() * 10) * 10;
+		return ">=" + percent + "%";
+	}
+
+	private static String getLengthRange(int length) {
+		if (length <= 1024) {
+			return "<=1k";
+		} else if (length <= 16 * 1024) {
+			return "<=16k";
+		} else if (length <= 256 * 1024) {
+			return "<=256k";
+		} else if (length <= 1024 * 1024) {
+			return "<=1m";
+		}
+		return ">1m";
+	}
+
+	public long getAcquires() {
+		return acquires.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getResizes() {
+		return resizes.get();
+	}
+
+	public double getHitRate() {
+		long a = acquires.get();
+		return a == 0 ? 0 : (double) hits.get() / a;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder().append(name).append(" acquires:").append(getAcquires()).append(", hits:")
+				.append(getHits()).append(", hit rate:").append(String.format("%.2f", getHitRate()))
+				.append(", resizes:").append(getResizes()).toString();
+	}
+}
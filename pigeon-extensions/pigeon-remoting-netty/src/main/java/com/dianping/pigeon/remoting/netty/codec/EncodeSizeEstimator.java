@@ -0,0 +1,86 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+
+/**
+ * 按服务/方法统计编码后消息长度的滑动平均，用于预分配编码buffer
+ *
+ * 响应中不带服务和方法名，按返回值类型统计
+ */
+public class EncodeSizeEstimator {
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Estimate>> methodEstimates = new ConcurrentHashMap<String, ConcurrentMap<String, Estimate>>();
+
+	private final ConcurrentMap<Class<?>, Estimate> typeEstimates = new ConcurrentHashMap<Class<?>, Estimate>();
+
+	public Estimate getEstimate(Object msg) {
+		if (msg instanceof InvocationRequest) {
+			InvocationRequest request = (InvocationRequest) msg;
+			String serviceName = request.getServiceName();
+			String methodName = request.getMethodName();
+			if (serviceName != null && methodName != null) {
+				ConcurrentMap<String, Estimate> estimates = methodEstimates.get(serviceName);
+				if (estimates == null) {
+					estimates = new ConcurrentHashMap<String, Estimate>();
+					ConcurrentMap<String, Estimate> old = methodEstimates.putIfAbsent(serviceName, estimates);
+					if (old != null) {
+						estimates = old;
+					}
+				}
+				return getOrCreate(estimates, methodName);
+			}
+		} else if (msg instanceof InvocationResponse) {
+			Object result = ((InvocationResponse) msg).getResponse();
+			if (result != null) {
+				return getOrCreate(typeEstimates, result.getClass());
+			}
+		}
+		return getOrCreate(typeEstimates, msg.getClass());
+	}
+
+	private static <K> Estimate getOrCreate(ConcurrentMap<K, Estimate> estimates, K key) {
+		Estimate estimate = estimates.get(key);
+		if (estimate == null) {
+			estimate = new Estimate();
+			Estimate old = estimates.putIfAbsent(key, estimate);
+			if (old != null) {
+				estimate = old;
+			}
+		}
+		return estimate;
+	}
+
+	public static class Estimate {
+
+		// 滑动平均的权重为1/8
+		private static final int WEIGHT_SHIFT = 3;
+
+		private volatile int average;
+
+		/**
+		 * 预分配的长度，在平均值上留1/4的余量以减少扩容
+		 */
+		public int getLength() {
+			int avg = average;
+			return avg + (avg >> 2);
+		}
+
+		public int getAverage() {
+			return average;
+		}
+
+		public void update(int length) {
+			// 并发更新时丢失一次样本不影响估算，不加锁
+			int avg = average;
+			average = avg == 0 ? length : avg + ((length - avg) >> WEIGHT_SHIFT);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+
+/**
+ * 消息体压缩，压缩与否由帧头序列化类型字节中的标记位表示
+ *
+ * <pre>
+ * COMPRESS_FLAG：消息体为 原始长度(4) + LZ4块，帧长度和结尾的seq扩展不变
+ * ACCEPT_FLAG：调用端可以解压响应，只在服务端版本支持时设置，服务端据此决定是否压缩响应
+ * </pre>
+ */
+public final class FrameCompressor {
+
+	public static final byte COMPRESS_FLAG = 0x20;
+
+	public static final byte ACCEPT_FLAG = 0x10;
+
+	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+	// 消息体超过该长度才压缩
+	private static final int threshold = configManager.getIntValue("pigeon.codec.compress.threshold", 8 * 1024);
+
+	// 解压后的最大长度，防止错误的长度字段分配过大的内存
+	private static final int maxLength = configManager.getIntValue("pigeon.codec.compress.maxlength",
+			64 * 1024 * 1024);
+
+	private static final int HEAD_LENGTH = 7;
+
+	private FrameCompressor() {
+	}
+
+	public static boolean isCompressed(byte frameSerialize) {
+		return (frameSerialize & COMPRESS_FLAG) != 0;
+	}
+
+	public static boolean isAccepted(byte frameSerialize) {
+		return (frameSerialize & ACCEPT_FLAG) != 0;
+	}
+
+	/**
+	 * 去掉压缩相关的标记位
+	 */
+	public static byte getSerialize(byte frameSerialize) {
+		return (byte) (frameSerialize & ~(COMPRESS_FLAG | ACCEPT_FLAG));
+	}
+
+	/**
+	 * @param frame
+	 *            编码完成的帧，包括7个字节的头和结尾的seq扩展
+	 * @return 压缩后的帧，消息体小于阈值或压缩后没有明显变小时返回null
+	 */
+	public static ChannelBuffer compress(ChannelBuffer frame, CompressionStatistics statistics) {
+		int bodyLength = frame.writerIndex() - HEAD_LENGTH - AbstractEncoder.EXPAND_LANGTH;
+		if (bodyLength < threshold) {
+			return null;
+		}
+		long start = System.nanoTime();
+		byte[] src;
+		int srcOff;
+		if (frame.hasArray()) {
+			src = frame.array();
+			srcOff = frame.arrayOffset() + HEAD_LENGTH;
+		} else {
+			src = new byte[bodyLength];
+			frame.getBytes(HEAD_LENGTH, src);
+			srcOff = 0;
+		}
+		int bodyOff = HEAD_LENGTH + 4;
+		byte[] dest = new byte[bodyOff + Lz4BlockCodec.maxCompressedLength(bodyLength) + AbstractEncoder.EXPAND_LANGTH];
+		int compressedLength = Lz4BlockCodec.compress(src, srcOff, bodyLength, dest, bodyOff);
+		// 节省不到1/8时按原样发送
+		if (4 + compressedLength > bodyLength - (bodyLength >> 3)) {
+			statistics.recordSkipped(System.nanoTime() - start);
+			return null;
+		}
+		int expandOff = bodyOff + compressedLength;
+		frame.getBytes(frame.writerIndex() - AbstractEncoder.EXPAND_LANGTH, dest, expandOff,
+				AbstractEncoder.EXPAND_LANGTH);
+		ChannelBuffer compressed = ChannelBuffers.wrappedBuffer(dest, 0, expandOff + AbstractEncoder.EXPAND_LANGTH);
+		compressed.setInt(3, expandOff - HEAD_LENGTH + AbstractEncoder.EXPAND_LANGTH);
+		compressed.setInt(HEAD_LENGTH, bodyLength);
+		statistics.record(bodyLength, 4 + compressedLength, System.nanoTime() - start);
+		return compressed;
+	}
+
+	/**
+	 * @param body
+	 *            压缩的消息体，不包括帧头和seq扩展
+	 */
+	public static ChannelBuffer decompress(ChannelBuffer body, CompressionStatistics statistics) {
+		long start = System.nanoTime();
+		int length = body.readableBytes() - 4;
+		int originalLength = body.getInt(body.readerIndex());
+		if (length < 0 || originalLength < 0 || originalLength > maxLength) {
+			throw new IllegalArgumentException("invalid compressed frame, original length:" + originalLength);
+		}
+		byte[] src;
+		int srcOff;
+		if (body.hasArray()) {
+			src = body.array();
+			srcOff = body.arrayOffset() + body.readerIndex() + 4;
+		} else {
+			src = new byte[length];
+			body.getBytes(body.readerIndex() + 4, src);
+			srcOff = 0;
+		}
+		byte[] dest = new byte[originalLength];
+		Lz4BlockCodec.decompress(src, srcOff, length, dest, 0, originalLength);
+		statistics.record(originalLength, length + 4, System.nanoTime() - start);
+		return ChannelBuffers.wrappedBuffer(dest);
+	}
+}
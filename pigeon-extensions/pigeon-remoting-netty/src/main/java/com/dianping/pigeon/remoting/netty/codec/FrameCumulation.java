@@ -0,0 +1,114 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.CompositeChannelBuffer;
+
+/**
+ * 跨多次读取的半包数据，收到的buffer只保存引用不做拷贝，凑够一个完整的帧后再组合成CompositeChannelBuffer交给decoder
+ *
+ * 分片数超过水位线时才把已有数据拷贝到一个按帧长度分配的buffer中，之后的分片直接写入该buffer，保证每个字节最多被拷贝一次
+ */
+class FrameCumulation {
+
+	// 2字节头 + 1字节序列化类型 + 4字节长度
+	static final int HEADER_LENGTH = 7;
+
+	private final int maxComponents;
+
+	private final List<ChannelBuffer> components = new ArrayList<ChannelBuffer>();
+
+	private ChannelBuffer compacted;
+
+	private int readableBytes;
+
+	// 当前帧的总长度，未知时为-1
+	private int frameLength = -1;
+
+	private long copiedBytes;
+
+	FrameCumulation(ChannelBuffer remainder, int maxComponents) {
+		this.maxComponents = maxComponents;
+		add(remainder);
+	}
+
+	void add(ChannelBuffer buffer) {
+		int length = buffer.readableBytes();
+		if (length == 0) {
+			return;
+		}
+		if (compacted != null && readableBytes < frameLength) {
+			// 只拷贝属于当前帧的部分，后续帧的数据仍然保留为分片
+			int copyLength = Math.min(length, frameLength - readableBytes);
+			compacted.writeBytes(buffer, buffer.readerIndex(), copyLength);
+			copiedBytes += copyLength;
+			if (copyLength < length) {
+				components.add(buffer.slice(buffer.readerIndex() + copyLength, length - copyLength));
+			}
+		} else if (buffer instanceof CompositeChannelBuffer) {
+			components.addAll(((CompositeChannelBuffer) buffer).decompose(buffer.readerIndex(), length));
+		} else {
+			components.add(buffer);
+		}
+		readableBytes += length;
+		if (frameLength < 0 && readableBytes >= HEADER_LENGTH) {
+			ChannelBuffer view = buffer();
+			frameLength = HEADER_LENGTH + (int) view.getUnsignedInt(view.readerIndex() + 3);
+		}
+		if (compacted == null && components.size() > maxComponents) {
+			compact();
+		}
+	}
+
+	private void compact() {
+		if (frameLength < 0 || readableBytes >= frameLength) {
+			return;
+		}
+		int capacity = frameLength;
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(capacity, components.get(0).factory());
+		for (ChannelBuffer component : components) {
+			buffer.writeBytes(component, component.readerIndex(), component.readableBytes());
+		}
+		copiedBytes += readableBytes;
+		components.clear();
+		compacted = buffer;
+	}
+
+	/**
+	 * 是否已经收到至少一个完整的帧，在此之前不需要尝试解码
+	 */
+	boolean isFrameComplete() {
+		return frameLength >= 0 && readableBytes >= frameLength;
+	}
+
+	ChannelBuffer buffer() {
+		if (compacted != null) {
+			if (components.isEmpty()) {
+				return compacted;
+			}
+			List<ChannelBuffer> buffers = new ArrayList<ChannelBuffer>(components.size() + 1);
+			buffers.add(compacted);
+			buffers.addAll(components);
+			return ChannelBuffers.wrappedBuffer(buffers.toArray(new ChannelBuffer[buffers.size()]));
+		}
+		if (components.size() == 1) {
+			return components.get(0);
+		}
+		return ChannelBuffers.wrappedBuffer(components.toArray(new ChannelBuffer[components.size()]));
+	}
+
+	int readableBytes() {
+		return readableBytes;
+	}
+
+	long getCopiedBytes() {
+		return copiedBytes;
+	}
+}
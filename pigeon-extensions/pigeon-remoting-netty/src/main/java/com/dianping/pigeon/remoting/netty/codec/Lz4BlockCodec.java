@@ -0,0 +1,201 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.Arrays;
+
+/**
+ * LZ4块格式的纯java实现，只做单遍哈希匹配，压缩率不如高压缩级别，但速度快、没有外部依赖
+ *
+ * 每个序列：token(高4位字面量长度，低4位匹配长度-4) [字面量长度扩展] 字面量 offset(2字节小端) [匹配长度扩展]，
+ * 最后一个序列只有字面量；解压时需要原始长度
+ */
+public final class Lz4BlockCodec {
+
+	private static final int MIN_MATCH = 4;
+
+	// 最后5个字节必须是字面量，最后一个匹配至少在结尾前12个字节开始
+	private static final int LAST_LITERALS = 5;
+
+	private static final int MF_LIMIT = 12;
+
+	private static final int MAX_OFFSET = 65535;
+
+	private static final int HASH_LOG = 12;
+
+	private static final int SKIP_TRIGGER = 6;
+
+	private Lz4BlockCodec() {
+	}
+
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * @return 压缩后的长度，dest的剩余空间至少为maxCompressedLength(srcLen)
+	 */
+	public static int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) {
+		int srcEnd = srcOff + srcLen;
+		int anchor = srcOff;
+		int op = destOff;
+		if (srcLen >= MF_LIMIT + 1) {
+			int[] table = new int[1 << HASH_LOG];
+			Arrays.fill(table, -1);
+			int mfLimit = srcEnd - MF_LIMIT;
+			int matchLimit = srcEnd - LAST_LITERALS;
+			int ip = srcOff;
+			int searches = 1 << SKIP_TRIGGER;
+			while (ip < mfLimit) {
+				int sequence = readInt(src, ip);
+				int h = hash(sequence);
+				int ref = table[h];
+				table[h] = ip;
+				if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+					// 连续找不到匹配时加大步长，不可压缩的数据很快跳过
+					ip += searches++ >>> SKIP_TRIGGER;
+					continue;
+				}
+				searches = 1 << SKIP_TRIGGER;
+				while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+					ip--;
+					ref--;
+				}
+				int matchLength = MIN_MATCH;
+				while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+					matchLength++;
+				}
+				op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, op);
+				ip += matchLength;
+				anchor = ip;
+				if (ip < mfLimit) {
+					table[hash(readInt(src, ip - 2))] = ip - 2;
+				}
+			}
+		}
+		return writeLastLiterals(src, anchor, srcEnd - anchor, dest, op) - destOff;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             数据不完整或与原始长度不符
+	 */
+	public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int destLen) {
+		int ip = srcOff;
+		int srcEnd = srcOff + srcLen;
+		int op = destOff;
+		int destEnd = destOff + destLen;
+		while (ip < srcEnd) {
+			int token = src[ip++] & 0xFF;
+			int literalLength = token >>> 4;
+			if (literalLength == 15) {
+				int b;
+				do {
+					checkBounds(ip, srcEnd);
+					b = src[ip++] & 0xFF;
+					literalLength += b;
+				} while (b == 255);
+			}
+			if (ip + literalLength > srcEnd || op + literalLength > destEnd) {
+				throw new IllegalArgumentException("malformed lz4 block: literals out of range");
+			}
+			System.arraycopy(src, ip, dest, op, literalLength);
+			ip += literalLength;
+			op += literalLength;
+			if (ip == srcEnd) {
+				break;
+			}
+			checkBounds(ip + 1, srcEnd);
+			int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+			ip += 2;
+			int matchLength = token & 0x0F;
+			if (matchLength == 15) {
+				int b;
+				do {
+					checkBounds(ip, srcEnd);
+					b = src[ip++] & 0xFF;
+					matchLength += b;
+				} while (b == 255);
+			}
+			matchLength += MIN_MATCH;
+			int ref = op - offset;
+			if (offset == 0 || ref < destOff || op + matchLength > destEnd) {
+				throw new IllegalArgumentException("malformed lz4 block: match out of range");
+			}
+			if (offset >= matchLength) {
+				System.arraycopy(dest, ref, dest, op, matchLength);
+				op += matchLength;
+			} else {
+				// 重叠的匹配按字节复制
+				for (int i = 0; i < matchLength; i++) {
+					dest[op++] = dest[ref++];
+				}
+			}
+		}
+		if (op != destEnd) {
+			throw new IllegalArgumentException("malformed lz4 block: expected " + destLen + " bytes but got "
+					+ (op - destOff));
+		}
+	}
+
+	private static int writeSequence(byte[] src, int literalOff, int literalLength, int offset, int matchLength,
+			byte[] dest, int op) {
+		int tokenIndex = op++;
+		int token;
+		if (literalLength >= 15) {
+			token = 15 << 4;
+			op = writeLength(literalLength - 15, dest, op);
+		} else {
+			token = literalLength << 4;
+		}
+		System.arraycopy(src, literalOff, dest, op, literalLength);
+		op += literalLength;
+		dest[op++] = (byte) offset;
+		dest[op++] = (byte) (offset >>> 8);
+		int length = matchLength - MIN_MATCH;
+		if (length >= 15) {
+			token |= 15;
+			op = writeLength(length - 15, dest, op);
+		} else {
+			token |= length;
+		}
+		dest[tokenIndex] = (byte) token;
+		return op;
+	}
+
+	private static int writeLastLiterals(byte[] src, int literalOff, int literalLength, byte[] dest, int op) {
+		if (literalLength >= 15) {
+			dest[op++] = (byte) (15 << 4);
+			op = writeLength(literalLength - 15, dest, op);
+		} else {
+			dest[op++] = (byte) (literalLength << 4);
+		}
+		System.arraycopy(src, literalOff, dest, op, literalLength);
+		return op + literalLength;
+	}
+
+	private static int writeLength(int length, byte[] dest, int op) {
+		while (length >= 255) {
+			dest[op++] = (byte) 255;
+			length -= 255;
+		}
+		dest[op++] = (byte) length;
+		return op;
+	}
+
+	private static void checkBounds(int index, int end) {
+		if (index >= end) {
+			throw new IllegalArgumentException("malformed lz4 block: unexpected end");
+		}
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
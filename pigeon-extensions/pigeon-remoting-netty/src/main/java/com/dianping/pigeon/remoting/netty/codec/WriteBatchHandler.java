@@ -0,0 +1,163 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
+
+/**
+ * 合并写：在一个时间窗口内或累计到一定字节数的编码后消息合并成一个ChannelBuffer写出，减少系统调用
+ *
+ * 放在encoder之后（更靠近socket），每个channel一个实例
+ */
+public class WriteBatchHandler extends SimpleChannelDownstreamHandler {
+
+	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+	private static final long window = configManager.getLongValue("pigeon.netty.writebatch.window", 1);
+
+	private static final int maxBytes = configManager.getIntValue("pigeon.netty.writebatch.maxbytes", 64 * 1024);
+
+	private static HashedWheelTimer flushTimer = new HashedWheelTimer("Pigeon-Netty-Write-Batch", 1,
+			TimeUnit.MILLISECONDS, 64);
+
+	private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<PendingWrite>();
+
+	private final AtomicInteger pendingBytes = new AtomicInteger();
+
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+	private final WriteBatchStatistics statistics;
+
+	public WriteBatchHandler(WriteBatchStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	@Override
+	public void writeRequested(final ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+		Object msg = e.getMessage();
+		if (!(msg instanceof ChannelBuffer)) {
+			flush(ctx);
+			ctx.sendDownstream(e);
+			return;
+		}
+		pendingWrites.add(new PendingWrite(e, System.nanoTime()));
+		if (pendingBytes.addAndGet(((ChannelBuffer) msg).readableBytes()) >= maxBytes) {
+			flush(ctx);
+		} else if (flushScheduled.compareAndSet(false, true)) {
+			flushTimer.newTimeout(new TimerTask() {
+
+				@Override
+				public void run(Timeout timeout) {
+					flush(ctx);
+				}
+			}, window, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+		flush(ctx);
+		super.closeRequested(ctx, e);
+	}
+
+	@Override
+	public void disconnectRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+		flush(ctx);
+		super.disconnectRequested(ctx, e);
+	}
+
+	private synchronized void flush(ChannelHandlerContext ctx) {
+		// 先清除标记再取队列，之后加入的消息会重新调度flush
+		flushScheduled.set(false);
+		List<PendingWrite> batch = null;
+		int batchBytes = 0;
+		long now = System.nanoTime();
+		PendingWrite pendingWrite;
+		while ((pendingWrite = pendingWrites.poll()) != null) {
+			if (batch == null) {
+				batch = new ArrayList<PendingWrite>();
+			}
+			batch.add(pendingWrite);
+			batchBytes += pendingWrite.buffer().readableBytes();
+			statistics.recordDelay(now - pendingWrite.enqueueTime);
+		}
+		if (batch == null) {
+			return;
+		}
+		pendingBytes.addAndGet(-batchBytes);
+		statistics.recordFlush(batch.size(), batchBytes);
+		if (batch.size() == 1) {
+			ctx.sendDownstream(batch.get(0).event);
+			return;
+		}
+		ChannelBuffer[] buffers = new ChannelBuffer[batch.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = batch.get(i).buffer();
+		}
+		ChannelFuture future = Channels.future(ctx.getChannel());
+		future.addListener(new BatchWriteListener(batch));
+		Channels.write(ctx, future, ChannelBuffers.wrappedBuffer(buffers), batch.get(0).event.getRemoteAddress());
+	}
+
+	private static class PendingWrite {
+
+		private final MessageEvent event;
+
+		private final long enqueueTime;
+
+		PendingWrite(MessageEvent event, long enqueueTime) {
+			this.event = event;
+			this.enqueueTime = enqueueTime;
+		}
+
+		ChannelBuffer buffer() {
+			return (ChannelBuffer) event.getMessage();
+		}
+	}
+
+	private static class BatchWriteListener implements ChannelFutureListener {
+
+		private final List<PendingWrite> batch;
+
+		BatchWriteListener(List<PendingWrite> batch) {
+			this.batch = batch;
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			for (PendingWrite pendingWrite : batch) {
+				ChannelEvent event = pendingWrite.event;
+				if (future.isSuccess()) {
+					event.getFuture().setSuccess();
+				} else {
+					event.getFuture().setFailure(future.getCause());
+				}
+			}
+		}
+	}
+}
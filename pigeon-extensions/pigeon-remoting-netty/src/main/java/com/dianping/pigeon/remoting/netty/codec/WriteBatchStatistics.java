@@ -0,0 +1,135 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
+
+/**
+ * 合并写的统计：每次flush合并的消息数以及消息在队列中等待的时间分布
+ */
+public class WriteBatchStatistics {
+
+	private static final Logger logger = LoggerLoader.getLogger(WriteBatchStatistics.class);
+
+	private static final Monitor monitor = MonitorLoader.getMonitor();
+
+	// 排队时间分布的区间上限，单位微秒
+	private static final long[] DELAY_RANGES = new long[] { 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000,
+			Long.MAX_VALUE };
+
+	private static final int[] BATCH_SIZE_RANGES = new int[] { 1, 2, 4, 8, 16, 32, 64, 128, Integer.MAX_VALUE };
+
+	private static final long LOG_INTERVAL = 60000;
+
+	private final String name;
+
+	private final AtomicLong flushes = new AtomicLong();
+
+	private final AtomicLong messages = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLongArray delays = new AtomicLongArray(DELAY_RANGES.length);
+
+	private final AtomicLong lastLogTime = new AtomicLong(System.currentTimeMillis());
+
+	public WriteBatchStatistics(String name) {
+		this.name = name;
+	}
+
+	public void recordDelay(long delayNanos) {
+		long micros = delayNanos / 1000;
+		for (int i = 0; i < DELAY_RANGES.length; i++) {
+			if (micros <= DELAY_RANGES[i]) {
+				delays.incrementAndGet(i);
+				break;
+			}
+		}
+	}
+
+	public void recordFlush(int batchSize, long batchBytes) {
+		flushes.incrementAndGet();
+		messages.addAndGet(batchSize);
+		bytes.addAndGet(batchBytes);
+		// 每次flush只累加计数，按间隔汇总上报一次
+		long now = System.currentTimeMillis();
+		long last = lastLogTime.get();
+		if (now - last >= LOG_INTERVAL && lastLogTime.compareAndSet(last, now)) {
+			try {
+				monitor.logEvent(name + ".batchSize", getBatchSizeRange(getAverageBatchSize()), toString());
+			} catch (Throwable t) {
+				monitor.logMonitorError(t);
+			}
+			logger.info(this);
+		}
+	}
+
+	private static String getBatchSizeRange(double batchSize) {
+		for (int range : BATCH_SIZE_RANGES) {
+			if (batchSize <= range) {
+				return range == Integer.MAX_VALUE ? ">" + BATCH_SIZE_RANGES[BATCH_SIZE_RANGES.length - 2] : "<="
+						+ range;
+			}
+		}
+		return "";
+	}
+
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+	public long getMessages() {
+		return messages.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public double getAverageBatchSize() {
+		long f = flushes.get();
+		return f == 0 ? 0 : (double) messages.get() / f;
+	}
+
+	/**
+	 * 排队时间的分位数，返回所在区间的上限（微秒），超过最大区间时返回-1
+	 */
+	public long getDelayPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[DELAY_RANGES.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = delays.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(total * percentile);
+		long sum = 0;
+		for (int i = 0; i < counts.length; i++) {
+			sum += counts[i];
+			if (sum >= threshold) {
+				return DELAY_RANGES[i] == Long.MAX_VALUE ? -1 : DELAY_RANGES[i];
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		long p99 = getDelayPercentile(0.99);
+		return new StringBuilder().append(name).append(" flushes:").append(getFlushes()).append(", messages:")
+				.append(getMessages()).append(", bytes:").append(getBytes()).append(", avg batch size:")
+				.append(String.format("%.2f", getAverageBatchSize())).append(", p99 delay(us):")
+				.append(p99 < 0 ? ">" + DELAY_RANGES[DELAY_RANGES.length - 2] : "<=" + p99).toString();
+	}
+}
@@ -8,6 +8,10 @@ import java.net.InetSocketAddress;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.bootstrap.ClientBootstrap;
@@ -26,7 +30,9 @@ import com.dianping.pigeon.remoting.common.exception.NetworkException;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.AbstractClient;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.ConnectCallback;
 import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.remoting.invoker.callback.StreamCallback;
 import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
 import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
 import com.dianping.pigeon.remoting.invoker.listener.HeartBeatListener;
@@ -40,7 +46,21 @@ public class NettyClient extends AbstractClient {
 
 	private ClientBootstrap bootstrap;
 
-	private Channel channel;
+	// 同一个provider的连接池，按在途请求数选择连接
+	private final AtomicReferenceArray<Channel> channels;
+
+	// 每个连接的在途请求数：reply请求从写出到收到响应、超时或取消，其他请求到写完为止
+	private final AtomicIntegerArray pendings;
+
+	// 在途请求数相同时轮流选择的起点
+	private final AtomicInteger nextChannel = new AtomicInteger();
+
+	// 每个连接是否正在建立，connect和connectAsync同一时刻只有一方重建同一个连接
+	private final AtomicIntegerArray connectings;
+
+	private final ChannelFutureListener[] pendingListeners;
+
+	private final ChannelFutureListener[] closeListeners;
 
 	private String host;
 
@@ -77,6 +97,8 @@ public class NettyClient extends AbstractClient {
 	private static final int connectTimeout = configManager.getIntValue(Constants.KEY_CONNECT_TIMEOUT,
 			Constants.DEFAULT_CONNECT_TIMEOUT);
 
+	private static final int connections = configManager.getIntValue("pigeon.invoker.netty.connections", 1);
+
 	public int getWriteBufferHighWater() {
 		return configManager.getIntValue(Constants.KEY_WRITE_BUFFER_HIGH_WATER,
 				Constants.DEFAULT_WRITE_BUFFER_HIGH_WATER);
@@ -88,6 +110,22 @@ public class NettyClient extends AbstractClient {
 	}
 
 	public NettyClient(ConnectInfo connectInfo) {
+		this(connectInfo, connections);
+	}
+
+	public NettyClient(ConnectInfo connectInfo, int connections) {
+		if (connections <= 0) {
+			connections = 1;
+		}
+		this.channels = new AtomicReferenceArray<Channel>(connections);
+		this.pendings = new AtomicIntegerArray(connections);
+		this.connectings = new AtomicIntegerArray(connections);
+		this.pendingListeners = new ChannelFutureListener[connections];
+		this.closeListeners = new ChannelFutureListener[connections];
+		for (int i = 0; i < connections; i++) {
+			this.pendingListeners[i] = new PendingListener(i);
+			this.closeListeners[i] = new CloseListener(i);
+		}
 		this.host = connectInfo.getHost();
 		this.port = connectInfo.getPort();
 		this.connectInfo = connectInfo;
@@ -107,28 +145,34 @@ public class NettyClient extends AbstractClient {
 		if (this.connected) {
 			return;
 		}
-		logger.info("client is connecting to " + this.host + ":" + this.port);
+		int connectedCount = 0;
+		for (int i = 0; i < channels.length(); i++) {
+			Channel channel = channels.get(i);
+			if (channel != null && channel.isConnected()) {
+				connectedCount++;
+			} else if (beginConnect(i)) {
+				try {
+					if (connectChannel(i)) {
+						connectedCount++;
+					}
+				} finally {
+					endConnect(i);
+				}
+			}
+		}
+		// 只要有一个连接可用即认为已连接，任一连接关闭时清除connected，断开的连接在下次connect时重建
+		this.connected = connectedCount > 0;
+	}
+
+	private boolean connectChannel(int index) {
+		logger.info("client is connecting to " + this.host + ":" + this.port + ", channel:" + index);
 		ChannelFuture future = null;
 		try {
 			future = bootstrap.connect(new InetSocketAddress(host, port));
 			if (future.awaitUninterruptibly(connectTimeout, TimeUnit.MILLISECONDS)) {
 				if (future.isSuccess()) {
-					Channel newChannel = future.getChannel();
-					try {
-						// 关闭旧的连接
-						Channel oldChannel = this.channel;
-						if (oldChannel != null) {
-							logger.info("close old netty channel " + oldChannel);
-							try {
-								oldChannel.close();
-							} catch (Throwable t) {
-							}
-						}
-					} finally {
-						this.channel = newChannel;
-					}
-					logger.info("client is connected to " + this.host + ":" + this.port);
-					this.connected = true;
+					setChannel(index, future.getChannel());
+					return true;
 				} else {
 					logger.info("client is not connected to " + this.host + ":" + this.port);
 				}
@@ -138,20 +182,190 @@ public class NettyClient extends AbstractClient {
 		} catch (Throwable e) {
 			logger.info("error while connecting to " + this.host + ":" + this.port, e);
 		}
+		return false;
+	}
+
+	private boolean beginConnect(int index) {
+		return connectings.compareAndSet(index, 0, 1);
+	}
+
+	private void endConnect(int index) {
+		connectings.set(index, 0);
+	}
+
+	private void setChannel(int index, Channel newChannel) {
+		if (closed) {
+			// 连接过程中client已被关闭
+			newChannel.close();
+			return;
+		}
+		// 关闭旧的连接
+		Channel oldChannel = channels.getAndSet(index, newChannel);
+		if (oldChannel != null && oldChannel != newChannel) {
+			logger.info("close old netty channel " + oldChannel);
+			try {
+				oldChannel.close();
+			} catch (Throwable t) {
+			}
+		}
+		newChannel.getCloseFuture().addListener(closeListeners[index]);
+		logger.info("client is connected to " + this.host + ":" + this.port + ", channel:" + index);
+	}
+
+	/**
+	 * 异步重建断开的连接，连接超时由bootstrap的connectTimeoutMillis控制，所有连接都有结果后在IO线程中通知callback
+	 */
+	@Override
+	public void connectAsync(final ConnectCallback callback) {
+		if (this.connected) {
+			callback.onConnected(this);
+			return;
+		}
+		final int size = channels.length();
+		final AtomicInteger remaining = new AtomicInteger(size);
+		final AtomicInteger connectedCount = new AtomicInteger();
+		for (int i = 0; i < size; i++) {
+			Channel channel = channels.get(i);
+			if (channel != null && channel.isConnected()) {
+				connectedCount.incrementAndGet();
+				if (remaining.decrementAndGet() == 0) {
+					onConnectComplete(connectedCount.get(), null, callback);
+				}
+				continue;
+			}
+			final int index = i;
+			if (!beginConnect(index)) {
+				// 该连接正在由另一次connect建立，本次按未连接处理
+				if (remaining.decrementAndGet() == 0) {
+					onConnectComplete(connectedCount.get(), null, callback);
+				}
+				continue;
+			}
+			logger.info("client is connecting to " + this.host + ":" + this.port + ", channel:" + index);
+			ChannelFuture future;
+			try {
+				future = bootstrap.connect(new InetSocketAddress(host, port));
+			} catch (Throwable e) {
+				endConnect(index);
+				logger.info("error while connecting to " + this.host + ":" + this.port, e);
+				if (remaining.decrementAndGet() == 0) {
+					onConnectComplete(connectedCount.get(), e, callback);
+				}
+				continue;
+			}
+			future.addListener(new ChannelFutureListener() {
+
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					Throwable cause = null;
+					if (future.isSuccess()) {
+						setChannel(index, future.getChannel());
+						connectedCount.incrementAndGet();
+					} else {
+						cause = future.getCause();
+						logger.info("client is not connected to " + host + ":" + port + ", channel:" + index + ", "
+								+ (cause != null ? cause.getMessage() : "cancelled"));
+					}
+					endConnect(index);
+					if (remaining.decrementAndGet() == 0) {
+						onConnectComplete(connectedCount.get(), cause, callback);
+					}
+				}
+			});
+		}
+	}
+
+	private void onConnectComplete(int connectedCount, Throwable cause, ConnectCallback callback) {
+		// 只要有一个连接可用即认为已连接，与connect一致
+		if (connectedCount > 0 && !closed) {
+			this.connected = true;
+			callback.onConnected(this);
+		} else {
+			callback.onConnectFailed(this, cause);
+		}
+	}
+
+	/**
+	 * 选择在途请求最少的可写连接，没有可写连接时退化为在途请求最少的已连接连接；
+	 * 从轮流变化的起点开始比较，在途请求数相同时依次落到不同的连接
+	 */
+	private int selectChannel() {
+		int size = channels.length();
+		if (size == 1) {
+			return 0;
+		}
+		int start = (nextChannel.getAndIncrement() & Integer.MAX_VALUE) % size;
+		int selected = -1;
+		int selectedPending = Integer.MAX_VALUE;
+		boolean selectedWritable = false;
+		for (int n = 0; n < size; n++) {
+			int i = (start + n) % size;
+			Channel channel = channels.get(i);
+			if (channel == null || !channel.isConnected()) {
+				continue;
+			}
+			boolean writable = channel.isWritable();
+			int pending = pendings.get(i);
+			if ((writable && !selectedWritable) || (writable == selectedWritable && pending < selectedPending)) {
+				selected = i;
+				selectedPending = pending;
+				selectedWritable = writable;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * 服务端按连接和seq区分流式调用，额度消息必须与请求走同一个连接
+	 */
+	private int selectChannel(InvocationRequest request, Callback callback) {
+		if (request.getMessageType() == Constants.MESSAGE_TYPE_STREAM_CREDIT) {
+			Object index = request.getAttachment(Constants.REQ_ATTACH_STREAM_CHANNEL);
+			if (index instanceof Integer) {
+				return (Integer) index;
+			}
+		}
+		int index = selectChannel();
+		if (callback instanceof StreamCallback) {
+			request.setAttachment(Constants.REQ_ATTACH_STREAM_CHANNEL, index);
+		}
+		return index;
 	}
 
 	@Override
 	public InvocationResponse doWrite(InvocationRequest request, Callback callback) throws NetworkException {
 		Object[] msg = new Object[] { request, callback };
 		ChannelFuture future = null;
+		int index = selectChannel(request, callback);
+		Channel channel = index < 0 ? null : channels.get(index);
 		if (channel == null) {
 			logger.error("channel is null ^^^^^^^^^^^^^^");
 		} else {
+			// reply请求已登记在途，由complete在响应、超时或取消时释放
+			PendingToken token = null;
+			pendings.incrementAndGet(index);
+			if (callback != null && request.getCallType() == Constants.CALLTYPE_REPLY) {
+				token = new PendingToken(this, index);
+				Object old = request.getAttachment(Constants.REQ_ATTACH_CHANNEL_TOKEN);
+				request.setAttachment(Constants.REQ_ATTACH_CHANNEL_TOKEN, token);
+				if (old instanceof PendingToken) {
+					// 同一个请求再次发出，上一次的在途数不再有机会释放
+					((PendingToken) old).release();
+				}
+			}
 			try {
 				future = channel.write(msg);
 			} catch (Exception e) {
+				if (token != null) {
+					token.release();
+				} else {
+					pendings.decrementAndGet(index);
+				}
 				throw new NetworkException("remote call failed:" + request, e);
 			}
+			if (token == null) {
+				future.addListener(pendingListeners[index]);
+			}
 			if (request.getMessageType() == Constants.MESSAGE_TYPE_SERVICE
 					|| request.getMessageType() == Constants.MESSAGE_TYPE_HEART) {
 				future.addListener(new MsgWriteListener(request));
@@ -160,6 +374,14 @@ public class NettyClient extends AbstractClient {
 		return null;
 	}
 
+	@Override
+	public void complete(InvocationRequest request) {
+		Object token = request.getAttachment(Constants.REQ_ATTACH_CHANNEL_TOKEN);
+		if (token instanceof PendingToken) {
+			((PendingToken) token).release();
+		}
+	}
+
 	public void connectionException(Object attachment, Throwable e) {
 		this.connected = false;
 		connectionException(this, attachment, e);
@@ -207,7 +429,21 @@ public class NettyClient extends AbstractClient {
 
 	@Override
 	public boolean isWritable() {
-		return this.channel.isWritable();
+		for (int i = 0; i < channels.length(); i++) {
+			Channel channel = channels.get(i);
+			if (channel != null && channel.isWritable()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getConnections() {
+		return channels.length();
+	}
+
+	public int getPendingCount(int index) {
+		return pendings.get(index);
 	}
 
 	/**
@@ -247,7 +483,12 @@ public class NettyClient extends AbstractClient {
 	public void close() {
 		logger.info("close client:" + this.host + ":" + this.port);
 		closed = true;
-		channel.close();
+		for (int i = 0; i < channels.length(); i++) {
+			Channel channel = channels.get(i);
+			if (channel != null) {
+				channel.close();
+			}
+		}
 	}
 
 	@Override
@@ -276,6 +517,64 @@ public class NettyClient extends AbstractClient {
 
 	}
 
+	private class PendingListener implements ChannelFutureListener {
+
+		private final int index;
+
+		PendingListener(int index) {
+			this.index = index;
+		}
+
+		public void operationComplete(ChannelFuture future) throws Exception {
+			pendings.decrementAndGet(index);
+		}
+
+	}
+
+	/**
+	 * 连接被关闭（包括服务端正常关闭，不会产生异常）时清除connected，由connect或重连重建该连接
+	 */
+	private class CloseListener implements ChannelFutureListener {
+
+		private final int index;
+
+		CloseListener(int index) {
+			this.index = index;
+		}
+
+		public void operationComplete(ChannelFuture future) throws Exception {
+			if (!closed && channels.get(index) == future.getChannel()) {
+				connected = false;
+				logger.info("client channel is closed " + host + ":" + port + ", channel:" + index);
+			}
+		}
+
+	}
+
+	/**
+	 * reply请求占用的在途数，响应、超时、取消和写失败都可能释放，只释放一次
+	 */
+	private static class PendingToken {
+
+		private final NettyClient client;
+
+		private final int index;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		PendingToken(NettyClient client, int index) {
+			this.client = client;
+			this.index = index;
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				client.pendings.decrementAndGet(index);
+			}
+		}
+
+	}
+
 	@Override
 	public ConnectInfo getConnectInfo() {
 		return connectInfo;
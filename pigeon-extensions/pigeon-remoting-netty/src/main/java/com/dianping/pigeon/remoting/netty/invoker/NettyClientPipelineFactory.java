@@ -10,29 +10,43 @@ import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.remoting.netty.codec.WriteBatchHandler;
+import com.dianping.pigeon.remoting.netty.codec.WriteBatchStatistics;
 import com.dianping.pigeon.remoting.netty.invoker.codec.InvokerDecoder;
 import com.dianping.pigeon.remoting.netty.invoker.codec.InvokerEncoder;
 
 public class NettyClientPipelineFactory implements ChannelPipelineFactory {
 
+	private static final boolean writeBatchEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.invoker.netty.writebatch.enable", false);
+
+	private static final WriteBatchStatistics writeBatchStatistics = new WriteBatchStatistics("PigeonCall.writeBatch");
+
 	private NettyClient client;
 	private ChannelHandler decoder;
-	private ChannelHandler encoder;
 	private ChannelHandler handler;
 
 	public NettyClientPipelineFactory(NettyClient client) {
 		this.client = client;
 		this.decoder = new InvokerDecoder();
-		this.encoder = new InvokerEncoder();
 		this.handler = new NettyClientHandler(this.client);
 	}
 
 	public ChannelPipeline getPipeline() throws Exception {
 		ChannelPipeline pipeline = pipeline();
 		pipeline.addLast("decoder", decoder);
-		pipeline.addLast("encoder", encoder);
+		if (writeBatchEnable) {
+			pipeline.addLast("writeBatch", new WriteBatchHandler(writeBatchStatistics));
+		}
+		// encoder保存连接上的方法id，每个连接一个实例
+		pipeline.addLast("encoder", new InvokerEncoder());
 		pipeline.addLast("handler", handler);
 		return pipeline;
 	}
 
+	public static WriteBatchStatistics getWriteBatchStatistics() {
+		return writeBatchStatistics;
+	}
+
 }
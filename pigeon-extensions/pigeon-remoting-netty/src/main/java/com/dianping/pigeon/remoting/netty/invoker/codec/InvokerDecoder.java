@@ -14,9 +14,17 @@ import org.jboss.netty.channel.Channels;
 import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.netty.codec.AbstractDecoder;
+import com.dianping.pigeon.remoting.netty.codec.CompressionStatistics;
 
 public class InvokerDecoder extends AbstractDecoder {
 
+	private static final CompressionStatistics compressionStatistics = new CompressionStatistics(
+			"PigeonCall.decompress");
+
+	public InvokerDecoder() {
+		super(compressionStatistics);
+	}
+
 	@Override
 	public Object doInitMsg(Object message, Channel channel, long receiveTime) {
 		if(message instanceof InvocationResponse) {
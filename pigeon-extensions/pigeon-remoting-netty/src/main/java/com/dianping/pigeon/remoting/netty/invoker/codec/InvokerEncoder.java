@@ -5,31 +5,248 @@
 package com.dianping.pigeon.remoting.netty.invoker.codec;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang.StringUtils;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.Channels;
 
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.registry.RegistryManager;
 import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.netty.codec.AbstractEncoder;
+import com.dianping.pigeon.remoting.netty.codec.CompactHeader;
+import com.dianping.pigeon.remoting.netty.codec.CompressionStatistics;
+import com.dianping.pigeon.remoting.netty.codec.EncodeBufferStatistics;
+import com.dianping.pigeon.remoting.netty.codec.FrameCompressor;
 import com.dianping.pigeon.remoting.netty.codec.NettyCodecUtils;
+import com.dianping.pigeon.util.VersionUtils;
 
+/**
+ * 每个连接一个实例，紧凑请求头的方法id按连接分配
+ */
 public class InvokerEncoder extends AbstractEncoder {
 
+	private static final EncodeBufferStatistics encodeBufferStatistics = new EncodeBufferStatistics(
+			"PigeonCall.encodeBuffer");
+
+	private static final CompressionStatistics compressionStatistics = new CompressionStatistics("PigeonCall.compress");
+
+	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+	// 紧凑请求头，只对注册中心中版本不低于version.min的服务端使用，其他服务端仍使用原格式
+	private static final boolean compactEnable = configManager.getBooleanValue("pigeon.invoker.codec.compact.enable",
+			false);
+
+	private static final String compactMinVersion = configManager.getStringValue(
+			"pigeon.invoker.codec.compact.version.min", VersionUtils.VERSION);
+
+	// 请求压缩，只对注册中心中版本不低于version.min的服务端使用，同时告知服务端可以压缩响应
+	private static final String compressMinVersion = configManager.getStringValue(
+			"pigeon.invoker.codec.compress.version.min", VersionUtils.VERSION);
+
+	private static final int compactMaxMethods = configManager.getIntValue("pigeon.invoker.codec.compact.methods.max",
+			4096);
+
+	// 本线程刚编码的定义帧，写出后才发布，之后其他线程只发送id
+	private static final ThreadLocal<MethodDefinition> pendingDefinition = new ThreadLocal<MethodDefinition>();
+
+	// 服务端是否支持紧凑请求头和压缩，null表示还不能确定
+	private volatile Boolean compactSupported;
+
+	private volatile Boolean compressSupported;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, MethodDefinition>> definitions = new ConcurrentHashMap<String, ConcurrentMap<String, MethodDefinition>>();
+
+	private final AtomicInteger methodIds = new AtomicInteger();
+
 	public InvokerEncoder() {
-		super();
+		super(encodeBufferStatistics, compressionStatistics);
+	}
+
+	public static EncodeBufferStatistics getEncodeBufferStatistics() {
+		return encodeBufferStatistics;
+	}
+
+	public static CompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
 	}
 
 	public Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
 		NettyCodecUtils.setAttachment(ctx, Constants.ATTACHMENT_RETRY, msg);
 		Object[] message = (Object[]) msg;
-		Object encoded = super.encode(ctx, channel, message[0]);
-		return encoded;
+		if (!(message[0] instanceof InvocationRequest)) {
+			return super.encode(ctx, channel, message[0]);
+		}
+		InvocationRequest request = (InvocationRequest) message[0];
+		if (Constants.DEADLINE_ENABLE) {
+			return encodeWithDeadline(ctx, channel, request);
+		}
+		return encodeRequest(ctx, channel, request, request.getTimeout());
+	}
+
+	@Override
+	public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+		boolean success = false;
+		try {
+			super.handleDownstream(ctx, evt);
+			success = true;
+		} finally {
+			MethodDefinition definition = pendingDefinition.get();
+			if (definition != null) {
+				pendingDefinition.remove();
+				// 定义帧已进入写队列，之后的请求排在它后面
+				if (success) {
+					definition.published = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param timeout
+	 *            写出的超时时间，与request中的不同时不修改request，另行编码
+	 */
+	private Object encodeRequest(ChannelHandlerContext ctx, Channel channel, InvocationRequest request, int timeout)
+			throws Exception {
+		byte frameSerialize = request.getSerialize();
+		if (isCompressRequested(channel, request)) {
+			frameSerialize |= FrameCompressor.ACCEPT_FLAG;
+		}
+		if (compactEnable) {
+			MethodDefinition definition = getDefinition(channel, request);
+			if (definition != null) {
+				boolean define = !definition.published;
+				if (define) {
+					pendingDefinition.set(definition);
+				}
+				return encode(ctx, channel, request, (byte) (frameSerialize | CompactHeader.COMPACT_FLAG),
+						new CompactRequest(request, definition, define, timeout));
+			}
+		}
+		Object body = request;
+		if (timeout != request.getTimeout() && request instanceof DefaultRequest) {
+			body = ((DefaultRequest) request).copyWithTimeout(timeout);
+		}
+		return encode(ctx, channel, request, frameSerialize, body);
+	}
+
+	@Override
+	protected boolean isCompressAllowed(Channel channel, InvocationSerializable message) {
+		return message instanceof InvocationRequest && isCompressRequested(channel, (InvocationRequest) message);
+	}
+
+	private boolean isCompressRequested(Channel channel, InvocationRequest request) {
+		if (request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE
+				|| !Boolean.TRUE.equals(request.getAttachment(Constants.REQ_ATTACH_COMPRESS))) {
+			return false;
+		}
+		Boolean supported = compressSupported;
+		if (supported == null) {
+			supported = isVersionSupported(channel, compressMinVersion);
+			if (supported == null) {
+				return false;
+			}
+			compressSupported = supported;
+		}
+		return supported;
+	}
+
+	private MethodDefinition getDefinition(Channel channel, InvocationRequest request) {
+		if (request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE
+				|| !CompactHeader.isSerializeSupported(request.getSerialize())) {
+			return null;
+		}
+		String serviceName = request.getServiceName();
+		String methodName = request.getMethodName();
+		if (serviceName == null || methodName == null || !isCompactSupported(channel)) {
+			return null;
+		}
+		String version = request.getVersion();
+		String key = StringUtils.isBlank(version) ? serviceName : serviceName + ":" + version;
+		ConcurrentMap<String, MethodDefinition> methods = definitions.get(key);
+		if (methods == null) {
+			methods = new ConcurrentHashMap<String, MethodDefinition>();
+			ConcurrentMap<String, MethodDefinition> old = definitions.putIfAbsent(key, methods);
+			if (old != null) {
+				methods = old;
+			}
+		}
+		MethodDefinition definition = methods.get(methodName);
+		if (definition == null) {
+			if (methodIds.get() >= compactMaxMethods) {
+				return null;
+			}
+			definition = new MethodDefinition(methodIds.incrementAndGet(), serviceName, methodName, version);
+			MethodDefinition old = methods.putIfAbsent(methodName, definition);
+			if (old != null) {
+				definition = old;
+			}
+		}
+		return definition;
+	}
+
+	private boolean isCompactSupported(Channel channel) {
+		Boolean supported = compactSupported;
+		if (supported == null) {
+			supported = isVersionSupported(channel, compactMinVersion);
+			if (supported == null) {
+				return false;
+			}
+			compactSupported = supported;
+		}
+		return supported;
+	}
+
+	/**
+	 * @return 注册中心还没有服务端的版本信息时返回null，下次再确定
+	 */
+	private static Boolean isVersionSupported(Channel channel, String minVersion) {
+		InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+		if (address == null) {
+			return null;
+		}
+		String version = RegistryManager.getInstance().getReferencedVersion(
+				address.getAddress().getHostAddress() + ":" + address.getPort());
+		if (StringUtils.isBlank(version)) {
+			return null;
+		}
+		return VersionUtils.compareVersion(version, minVersion) >= 0;
+	}
+
+	/**
+	 * timeout按发送时剩余的时间写出，服务端以收到的时间加上该值作为截止时间；
+	 * 请求对象不修改，调用端自身的超时检查仍按原值计算
+	 */
+	private Object encodeWithDeadline(ChannelHandlerContext ctx, Channel channel, InvocationRequest request)
+			throws Exception {
+		int timeout = request.getTimeout();
+		if (request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE || timeout <= 0
+				|| request.getCreateMillisTime() <= 0) {
+			return encodeRequest(ctx, channel, request, timeout);
+		}
+		long remaining = request.getCreateMillisTime() + timeout - System.currentTimeMillis();
+		if (remaining >= timeout) {
+			return encodeRequest(ctx, channel, request, timeout);
+		}
+		// 0表示不限制超时，已过期的请求至少保留1ms，由服务端丢弃
+		return encodeRequest(ctx, channel, request, (int) Math.max(1, remaining));
 	}
 
 	@Override
@@ -42,7 +259,80 @@ public class InvokerEncoder extends AbstractEncoder {
 	@Override
 	public void serialize(byte serializerType, ChannelBufferOutputStream os, Object obj, Channel channel)
 			throws IOException {
+		if (obj instanceof CompactRequest) {
+			serializeCompact(CompactHeader.getSerialize(serializerType), os, (CompactRequest) obj);
+			return;
+		}
 		SerializerFactory.getSerializer(serializerType).serializeRequest(os, obj);
 	}
 
+	private void serializeCompact(byte serializerType, ChannelBufferOutputStream os, CompactRequest compact)
+			throws IOException {
+		InvocationRequest request = compact.request;
+		MethodDefinition definition = compact.definition;
+		Map<String, Serializable> globalValues = request.getGlobalValues();
+		Map<String, Serializable> requestValues = request.getRequestValues();
+		boolean hasContext = (globalValues != null && !globalValues.isEmpty())
+				|| (requestValues != null && !requestValues.isEmpty());
+		byte flags = 0;
+		if (compact.define) {
+			flags |= CompactHeader.FLAG_DEFINE;
+		}
+		if (hasContext) {
+			flags |= CompactHeader.FLAG_CONTEXT;
+		}
+		os.writeByte(flags);
+		os.writeInt(definition.id);
+		os.writeLong(request.getSequence());
+		os.writeInt(compact.timeout);
+		os.writeByte(request.getCallType());
+		if (compact.define) {
+			CompactHeader.writeString(os, definition.serviceName);
+			CompactHeader.writeString(os, definition.methodName);
+			CompactHeader.writeString(os, definition.version);
+			CompactHeader.writeString(os, request.getApp());
+		}
+		Object body = hasContext ? new Object[] { request.getParameters(), globalValues, requestValues } : request
+				.getParameters();
+		SerializerFactory.getSerializer(serializerType).serializeRequest(os, body);
+	}
+
+	private static class MethodDefinition {
+
+		final int id;
+
+		final String serviceName;
+
+		final String methodName;
+
+		final String version;
+
+		volatile boolean published;
+
+		MethodDefinition(int id, String serviceName, String methodName, String version) {
+			this.id = id;
+			this.serviceName = serviceName;
+			this.methodName = methodName;
+			this.version = version;
+		}
+	}
+
+	private static class CompactRequest {
+
+		final InvocationRequest request;
+
+		final MethodDefinition definition;
+
+		final boolean define;
+
+		final int timeout;
+
+		CompactRequest(InvocationRequest request, MethodDefinition definition, boolean define, int timeout) {
+			this.request = request;
+			this.definition = definition;
+			this.define = define;
+			this.timeout = timeout;
+		}
+	}
+
 }
@@ -46,4 +46,26 @@ public class NettyChannel implements ProviderChannel {
 	public String getProtocol() {
 		return protocol;
 	}
+
+	@Override
+	public boolean isWritable() {
+		return this.channel.isWritable();
+	}
+
+	// 每个消息都会新建NettyChannel，按底层连接判断是否相等
+	@Override
+	public int hashCode() {
+		return this.channel.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof NettyChannel)) {
+			return false;
+		}
+		return this.channel.equals(((NettyChannel) obj).channel);
+	}
 }
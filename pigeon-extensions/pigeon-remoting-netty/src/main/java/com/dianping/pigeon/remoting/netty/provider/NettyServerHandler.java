@@ -21,6 +21,7 @@ import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.provider.domain.DefaultProviderContext;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
+import com.dianping.pigeon.remoting.provider.process.stream.ResponseStreamRepository;
 import com.dianping.pigeon.remoting.provider.util.ProviderUtils;
 
 public class NettyServerHandler extends SimpleChannelUpstreamHandler {
@@ -56,6 +57,11 @@ public class NettyServerHandler extends SimpleChannelUpstreamHandler {
 		// NioSocketChannelConfig config = ((NioSocketChannelConfig)
 		// ctx.getChannel().getConfig());
 		for (InvocationRequest request : messages) {
+			if (request.getMessageType() == Constants.MESSAGE_TYPE_STREAM_CREDIT) {
+				// 额度消息只唤醒发送线程，不进入业务线程池
+				ResponseStreamRepository.getInstance().receiveCredit(new NettyChannel(ctx.getChannel()), request);
+				continue;
+			}
 			ProviderContext invocationContext = new DefaultProviderContext(request, new NettyChannel(ctx.getChannel()));
 			try {
 				this.server.processRequest(request, invocationContext);
@@ -80,6 +86,20 @@ public class NettyServerHandler extends SimpleChannelUpstreamHandler {
 		this.server.getChannelGroup().add(e.getChannel());
 	}
 
+	@Override
+	public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+		if (e.getChannel().isWritable()) {
+			ResponseStreamRepository.getInstance().notifyWritable(new NettyChannel(e.getChannel()));
+		}
+		super.channelInterestChanged(ctx, e);
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+		ResponseStreamRepository.getInstance().cancel(new NettyChannel(e.getChannel()));
+		super.channelClosed(ctx, e);
+	}
+
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
 		log.error(e.getCause().getMessage(), e.getCause());
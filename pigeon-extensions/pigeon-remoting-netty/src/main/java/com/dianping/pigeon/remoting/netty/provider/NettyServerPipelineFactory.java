@@ -9,11 +9,20 @@ import static org.jboss.netty.channel.Channels.pipeline;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.remoting.netty.codec.WriteBatchHandler;
+import com.dianping.pigeon.remoting.netty.codec.WriteBatchStatistics;
 import com.dianping.pigeon.remoting.netty.provider.codec.ProviderDecoder;
 import com.dianping.pigeon.remoting.netty.provider.codec.ProviderEncoder;
 
 public class NettyServerPipelineFactory implements ChannelPipelineFactory {
 
+	private static final boolean writeBatchEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.provider.netty.writebatch.enable", false);
+
+	private static final WriteBatchStatistics writeBatchStatistics = new WriteBatchStatistics(
+			"PigeonService.writeBatch");
+
 	private NettyServer server;
 
 	public NettyServerPipelineFactory(NettyServer server) {
@@ -23,9 +32,16 @@ public class NettyServerPipelineFactory implements ChannelPipelineFactory {
 	public ChannelPipeline getPipeline() {
 		ChannelPipeline pipeline = pipeline();
 		pipeline.addLast("decoder", new ProviderDecoder());
+		if (writeBatchEnable) {
+			pipeline.addLast("writeBatch", new WriteBatchHandler(writeBatchStatistics));
+		}
 		pipeline.addLast("encoder", new ProviderEncoder());
 		pipeline.addLast("handler", new NettyServerHandler(server));
 		return pipeline;
 	}
 
+	public static WriteBatchStatistics getWriteBatchStatistics() {
+		return writeBatchStatistics;
+	}
+
 }
@@ -4,18 +4,47 @@
  */
 package com.dianping.pigeon.remoting.netty.provider.codec;
 
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
 
 import org.jboss.netty.channel.Channel;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.exception.SerializationException;
+import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.netty.codec.AbstractDecoder;
+import com.dianping.pigeon.remoting.netty.codec.CompactHeader;
+import com.dianping.pigeon.remoting.netty.codec.CompressionStatistics;
+import com.dianping.pigeon.remoting.netty.codec.FrameCompressor;
 import com.dianping.pigeon.remoting.netty.provider.NettyChannel;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodCache;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodFactory;
 
+/**
+ * 每个连接一个实例，在IO线程中顺序解码，紧凑请求头的方法id表不需要加锁
+ */
 public class ProviderDecoder extends AbstractDecoder {
 
+	private static final int compactMaxMethods = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.codec.compact.methods.max", 65536);
+
+	private static final CompressionStatistics compressionStatistics = new CompressionStatistics(
+			"PigeonService.decompress");
+
+	private MethodDefinition[] definitions = new MethodDefinition[16];
+
+	public ProviderDecoder() {
+		super(compressionStatistics);
+	}
+
 	@Override
 	public Object doInitMsg(Object message, Channel channel, long receiveTime) {
 		if (message == null) {
@@ -34,8 +63,109 @@ public class ProviderDecoder extends AbstractDecoder {
 
 	@Override
 	public Object deserialize(byte serializerType, InputStream is) {
-		Object decoded = SerializerFactory.getSerializer(serializerType).deserializeRequest(is);
+		boolean compressAccepted = FrameCompressor.isAccepted(serializerType);
+		serializerType = FrameCompressor.getSerialize(serializerType);
+		Object decoded;
+		if (CompactHeader.isCompact(serializerType)) {
+			try {
+				decoded = deserializeCompact(CompactHeader.getSerialize(serializerType), is);
+			} catch (IOException e) {
+				throw new SerializationException(e);
+			}
+		} else {
+			decoded = SerializerFactory.getSerializer(serializerType).deserializeRequest(is);
+		}
+		if (compressAccepted && decoded instanceof InvocationRequest) {
+			// 调用端可以解压响应
+			((InvocationRequest) decoded).setAttachment(Constants.REQ_ATTACH_COMPRESS, Boolean.TRUE);
+		}
 		return decoded;
 	}
 
+	@SuppressWarnings("unchecked")
+	private Object deserializeCompact(byte serializerType, InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		byte flags = in.readByte();
+		int id = in.readInt();
+		long seq = in.readLong();
+		int timeout = in.readInt();
+		int callType = in.readByte();
+		MethodDefinition definition;
+		if ((flags & CompactHeader.FLAG_DEFINE) != 0) {
+			definition = new MethodDefinition(CompactHeader.readString(in), CompactHeader.readString(in),
+					CompactHeader.readString(in), CompactHeader.readString(in));
+			define(id, definition);
+		} else {
+			definition = id > 0 && id < definitions.length ? definitions[id] : null;
+			if (definition == null) {
+				throw new SerializationException("unknown method id:" + id + ", seq:" + seq);
+			}
+		}
+		Object body = SerializerFactory.getSerializer(serializerType).deserializeRequest(is);
+		Object[] parameters;
+		Map<String, Serializable> globalValues = null;
+		Map<String, Serializable> requestValues = null;
+		if ((flags & CompactHeader.FLAG_CONTEXT) != 0) {
+			Object[] values = (Object[]) body;
+			parameters = (Object[]) values[0];
+			globalValues = (Map<String, Serializable>) values[1];
+			requestValues = (Map<String, Serializable>) values[2];
+		} else {
+			parameters = (Object[]) body;
+		}
+		DefaultRequest request = new DefaultRequest(definition.serviceName, definition.methodName, parameters,
+				serializerType, Constants.MESSAGE_TYPE_SERVICE, timeout, null);
+		request.setSequence(seq);
+		request.setCallType(callType);
+		request.setVersion(definition.version);
+		request.setApp(definition.app);
+		request.setGlobalValues(globalValues);
+		request.setRequestValues(requestValues);
+		ServiceMethodCache methodCache = definition.getMethodCache();
+		if (methodCache != null) {
+			request.setAttachment(Constants.REQ_ATTACH_METHOD_CACHE, methodCache);
+		}
+		return request;
+	}
+
+	private void define(int id, MethodDefinition definition) {
+		if (id <= 0 || id > compactMaxMethods) {
+			throw new SerializationException("invalid method id:" + id);
+		}
+		if (id >= definitions.length) {
+			definitions = Arrays.copyOf(definitions, Math.max(id + 1, definitions.length * 2));
+		}
+		definitions[id] = definition;
+	}
+
+	private static class MethodDefinition {
+
+		final String serviceName;
+
+		final String methodName;
+
+		final String version;
+
+		final String app;
+
+		private ServiceMethodCache methodCache;
+
+		MethodDefinition(String serviceName, String methodName, String version, String app) {
+			this.serviceName = serviceName;
+			this.methodName = methodName;
+			this.version = version;
+			this.app = app;
+		}
+
+		/**
+		 * 服务发布后才能找到，找到后缓存，之后的请求不再按服务名和版本查找
+		 */
+		ServiceMethodCache getMethodCache() {
+			if (methodCache == null) {
+				methodCache = ServiceMethodFactory.findServiceMethodCache(serviceName, version);
+			}
+			return methodCache;
+		}
+	}
+
 }
@@ -12,13 +12,31 @@ import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.Channels;
 
 import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationSerializable;
 import com.dianping.pigeon.remoting.netty.codec.AbstractEncoder;
+import com.dianping.pigeon.remoting.netty.codec.CompressionStatistics;
+import com.dianping.pigeon.remoting.netty.codec.EncodeBufferStatistics;
 
 public class ProviderEncoder extends AbstractEncoder {
 
+	private static final EncodeBufferStatistics encodeBufferStatistics = new EncodeBufferStatistics(
+			"PigeonService.encodeBuffer");
+
+	private static final CompressionStatistics compressionStatistics = new CompressionStatistics(
+			"PigeonService.compress");
+
 	public ProviderEncoder() {
-		super();
+		super(encodeBufferStatistics, compressionStatistics);
+	}
+
+	public static EncodeBufferStatistics getEncodeBufferStatistics() {
+		return encodeBufferStatistics;
+	}
+
+	public static CompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
 	}
 
 	public Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
@@ -26,6 +44,14 @@ public class ProviderEncoder extends AbstractEncoder {
 		return encoded;
 	}
 
+	/**
+	 * 调用端在请求中表示可以解压、且服务配置了压缩时，响应已标记为可压缩
+	 */
+	@Override
+	protected boolean isCompressAllowed(Channel channel, InvocationSerializable message) {
+		return message instanceof DefaultResponse && ((DefaultResponse) message).isCompress();
+	}
+
 	@Override
 	public void doFailResponse(Channel channel, InvocationResponse response) {
 		Channels.write(channel, response);
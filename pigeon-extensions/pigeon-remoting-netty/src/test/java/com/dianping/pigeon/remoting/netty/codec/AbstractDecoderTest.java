@@ -0,0 +1,149 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+
+public class AbstractDecoderTest {
+
+	@Test
+	public void testPipelinedSmallFrames() throws Exception {
+		TestDecoder decoder = new TestDecoder();
+		byte[] data = frames(1000, 100);
+		int decoded = feed(decoder, data, 37);
+		Assert.assertEquals(1000, decoded);
+		Assert.assertEquals(0, decoder.getCopiedBytes());
+	}
+
+	@Test
+	public void testLargeFrame() throws Exception {
+		TestDecoder decoder = new TestDecoder();
+		byte[] data = frames(1, 1024 * 1024);
+		int decoded = feed(decoder, data, 64 * 1024);
+		Assert.assertEquals(1, decoded);
+		Assert.assertEquals(0, decoder.getCopiedBytes());
+	}
+
+	@Test
+	public void testHighlyFragmentedFrame() throws Exception {
+		TestDecoder decoder = new TestDecoder();
+		byte[] data = frames(2, 1024 * 1024);
+		int decoded = feed(decoder, data, 1000);
+		Assert.assertEquals(2, decoded);
+		// 分片超过水位线后会合并，但每个字节最多拷贝一次
+		double copiedPerByte = (double) decoder.getCopiedBytes() / decoder.getDecodedBytes();
+		Assert.assertTrue("copied per decoded byte:" + copiedPerByte, copiedPerByte <= 1.0);
+	}
+
+	private static byte[] frames(int count, int bodyLength) {
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		for (int i = 0; i < count; i++) {
+			buffer.writeBytes(Constants.MESSAGE_HEAD);
+			buffer.writeByte(2);
+			buffer.writeInt(bodyLength + AbstractEncoder.EXPAND_LANGTH);
+			buffer.writeBytes(new byte[bodyLength]);
+			buffer.writeLong(i);
+			buffer.writeBytes(Constants.EXPAND_FLAG);
+		}
+		byte[] data = new byte[buffer.readableBytes()];
+		buffer.readBytes(data);
+		return data;
+	}
+
+	private static int feed(TestDecoder decoder, byte[] data, int chunkSize) throws Exception {
+		ChannelHandlerContext ctx = new TestContext();
+		int decoded = 0;
+		for (int offset = 0; offset < data.length; offset += chunkSize) {
+			byte[] chunk = Arrays.copyOfRange(data, offset, Math.min(offset + chunkSize, data.length));
+			List<?> messages = (List<?>) decoder.decode(ctx, null, ChannelBuffers.wrappedBuffer(chunk));
+			if (messages != null) {
+				decoded += messages.size();
+			}
+		}
+		return decoded;
+	}
+
+	private static class TestDecoder extends AbstractDecoder {
+
+		@Override
+		public Object doInitMsg(Object message, Channel channel, long receiveTime) {
+			return message;
+		}
+
+		@Override
+		public void doFailResponse(Channel channel, InvocationResponse response) {
+		}
+
+		@Override
+		public Object deserialize(byte serializerType, InputStream is) {
+			try {
+				int length = 0;
+				byte[] bytes = new byte[4096];
+				int n;
+				while ((n = is.read(bytes)) > 0) {
+					length += n;
+				}
+				return length;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private static class TestContext implements ChannelHandlerContext {
+
+		private Object attachment;
+
+		public Channel getChannel() {
+			return null;
+		}
+
+		public ChannelPipeline getPipeline() {
+			return null;
+		}
+
+		public String getName() {
+			return "decoder";
+		}
+
+		public ChannelHandler getHandler() {
+			return null;
+		}
+
+		public boolean canHandleUpstream() {
+			return true;
+		}
+
+		public boolean canHandleDownstream() {
+			return false;
+		}
+
+		public void sendUpstream(ChannelEvent e) {
+		}
+
+		public void sendDownstream(ChannelEvent e) {
+		}
+
+		public Object getAttachment() {
+			return attachment;
+		}
+
+		public void setAttachment(Object attachment) {
+			this.attachment = attachment;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.exception.SerializationException;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.netty.provider.codec.ProviderDecoder;
+
+public class CompactHeaderTest {
+
+	private static final byte FRAME_SERIALIZE = (byte) (SerializerFactory.SERIALIZE_HESSIAN | CompactHeader.COMPACT_FLAG);
+
+	@Test
+	public void testSerialize() {
+		Assert.assertTrue(CompactHeader.isCompact(FRAME_SERIALIZE));
+		Assert.assertFalse(CompactHeader.isCompact(SerializerFactory.SERIALIZE_HESSIAN));
+		Assert.assertEquals(SerializerFactory.SERIALIZE_HESSIAN, CompactHeader.getSerialize(FRAME_SERIALIZE));
+		Assert.assertEquals(SerializerFactory.SERIALIZE_FST, CompactHeader.getSerialize(SerializerFactory.SERIALIZE_FST));
+		Assert.assertFalse(CompactHeader.isSerializeSupported(SerializerFactory.SERIALIZE_PROTO));
+	}
+
+	@Test
+	public void testDefineAndReference() throws Exception {
+		ProviderDecoder decoder = new ProviderDecoder();
+		Map<String, Serializable> requestValues = new HashMap<String, Serializable>();
+		requestValues.put("key", "value");
+		ChannelBuffer define = body(CompactHeader.FLAG_DEFINE | CompactHeader.FLAG_CONTEXT, 1, 100L, 500,
+				new Object[] { new Object[] { "a", 1 }, null, requestValues });
+		InvocationRequest request = decode(decoder, define);
+		Assert.assertEquals("http://service.dianping.com/testService", request.getServiceName());
+		Assert.assertEquals("echo", request.getMethodName());
+		Assert.assertEquals("1.0.0", request.getVersion());
+		Assert.assertEquals("app", request.getApp());
+		Assert.assertEquals(100L, request.getSequence());
+		Assert.assertEquals(500, request.getTimeout());
+		Assert.assertEquals(Constants.CALLTYPE_REPLY, request.getCallType());
+		Assert.assertEquals(SerializerFactory.SERIALIZE_HESSIAN, request.getSerialize());
+		Assert.assertEquals(Constants.MESSAGE_TYPE_SERVICE, request.getMessageType());
+		Assert.assertArrayEquals(new Object[] { "a", 1 }, request.getParameters());
+		Assert.assertEquals("value", request.getRequestValues().get("key"));
+
+		// 之后只带id
+		request = decode(decoder, body(0, 1, 101L, 200, new Object[] { "b", 2 }));
+		Assert.assertEquals("echo", request.getMethodName());
+		Assert.assertEquals("1.0.0", request.getVersion());
+		Assert.assertEquals(101L, request.getSequence());
+		Assert.assertEquals(200, request.getTimeout());
+		Assert.assertArrayEquals(new Object[] { "b", 2 }, request.getParameters());
+		Assert.assertNull(request.getRequestValues());
+
+		// id表按连接维护
+		try {
+			decode(new ProviderDecoder(), body(0, 1, 102L, 200, new Object[0]));
+			Assert.fail();
+		} catch (SerializationException e) {
+		}
+	}
+
+	private static InvocationRequest decode(ProviderDecoder decoder, ChannelBuffer body) {
+		return (InvocationRequest) decoder.deserialize(FRAME_SERIALIZE, new ChannelBufferInputStream(body));
+	}
+
+	private static ChannelBuffer body(int flags, int id, long seq, int timeout, Object payload) throws IOException {
+		ChannelBufferOutputStream os = new ChannelBufferOutputStream(ChannelBuffers.dynamicBuffer());
+		os.writeByte(flags);
+		os.writeInt(id);
+		os.writeLong(seq);
+		os.writeInt(timeout);
+		os.writeByte(Constants.CALLTYPE_REPLY);
+		if ((flags & CompactHeader.FLAG_DEFINE) != 0) {
+			CompactHeader.writeString(os, "http://service.dianping.com/testService");
+			CompactHeader.writeString(os, "echo");
+			CompactHeader.writeString(os, "1.0.0");
+			CompactHeader.writeString(os, "app");
+		}
+		SerializerFactory.getSerializer(SerializerFactory.SERIALIZE_HESSIAN).serializeRequest(os, payload);
+		return os.buffer();
+	}
+}
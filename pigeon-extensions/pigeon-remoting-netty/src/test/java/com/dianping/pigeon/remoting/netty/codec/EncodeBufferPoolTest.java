@@ -0,0 +1,67 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.netty.codec.EncodeBufferPool.PooledChannelBuffer;
+import com.dianping.pigeon.remoting.netty.codec.EncodeSizeEstimator.Estimate;
+
+public class EncodeBufferPoolTest {
+
+	@Test
+	public void testReuse() {
+		EncodeBufferPool pool = new EncodeBufferPool(64 * 1024, 2);
+		Assert.assertNull(pool.poll(40 * 1024));
+		PooledChannelBuffer buffer = pool.allocate(40 * 1024);
+		Assert.assertEquals(64 * 1024, buffer.capacity());
+		buffer.writeBytes(new byte[40 * 1024]);
+		Assert.assertFalse(buffer.isResized());
+		buffer.release();
+		buffer.release();
+		Assert.assertEquals(1, pool.getPooledCount());
+
+		PooledChannelBuffer reused = pool.poll(33 * 1024);
+		Assert.assertSame(buffer, reused);
+		Assert.assertEquals(0, reused.writerIndex());
+		// 更小的请求不会拿到同一级别以外的buffer
+		reused.release();
+		Assert.assertNull(pool.poll(1024));
+	}
+
+	@Test
+	public void testResize() {
+		EncodeBufferPool pool = new EncodeBufferPool(64 * 1024, 2);
+		PooledChannelBuffer buffer = pool.allocate(100);
+		Assert.assertEquals(EncodeBufferPool.MIN_CAPACITY, buffer.capacity());
+		buffer.writeBytes(new byte[3000]);
+		Assert.assertTrue(buffer.isResized());
+		buffer.release();
+		// 扩容后按实际容量(4k)归还
+		Assert.assertNull(pool.poll(1024));
+		Assert.assertNotNull(pool.poll(2048));
+
+		PooledChannelBuffer large = pool.allocate(100);
+		large.writeBytes(new byte[100 * 1024]);
+		large.release();
+		Assert.assertEquals(0, pool.getPooledCount());
+	}
+
+	@Test
+	public void testEstimate() {
+		EncodeSizeEstimator estimator = new EncodeSizeEstimator();
+		DefaultRequest request = new DefaultRequest("service", "method", new Object[0],
+				SerializerFactory.SERIALIZE_HESSIAN, Constants.MESSAGE_TYPE_SERVICE, 1000, new Class<?>[0]);
+		Estimate estimate = estimator.getEstimate(request);
+		Assert.assertEquals(0, estimate.getLength());
+		estimate.update(40000);
+		Assert.assertSame(estimate, estimator.getEstimate(request));
+		Assert.assertTrue(estimate.getLength() >= 40000);
+		for (int i = 0; i < 100; i++) {
+			estimate.update(1000);
+		}
+		Assert.assertTrue(estimate.getAverage() < 1100);
+	}
+}
@@ -0,0 +1,114 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.util.Constants;
+
+public class FrameCompressorTest {
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(1);
+		int[] lengths = { 0, 1, 12, 13, 17, 100, 1000, 65536 + 100, 300000 };
+		for (int length : lengths) {
+			assertRoundTrip(text(random, length));
+			assertRoundTrip(bytes(random, length));
+			// 长的重复串，匹配与自身重叠
+			byte[] run = new byte[length];
+			Arrays.fill(run, (byte) 'a');
+			assertRoundTrip(run);
+		}
+	}
+
+	@Test
+	public void testMalformed() {
+		byte[] src = text(new Random(2), 1000);
+		byte[] compressed = new byte[Lz4BlockCodec.maxCompressedLength(src.length)];
+		int length = Lz4BlockCodec.compress(src, 0, src.length, compressed, 0);
+		try {
+			Lz4BlockCodec.decompress(compressed, 0, length, new byte[src.length - 1], 0, src.length - 1);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			Lz4BlockCodec.decompress(compressed, 0, length / 2, new byte[src.length], 0, src.length);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testFrame() {
+		CompressionStatistics statistics = new CompressionStatistics("test");
+		byte[] body = text(new Random(3), 100000);
+		ChannelBuffer compressed = FrameCompressor.compress(frame(body, 42L), statistics);
+		Assert.assertNotNull(compressed);
+		Assert.assertEquals(1, statistics.getCount());
+		Assert.assertTrue(statistics.getRatio() < 0.5);
+
+		// 帧长度和seq扩展保持原格式
+		int frameLength = compressed.getInt(3);
+		Assert.assertEquals(compressed.writerIndex() - 7, frameLength);
+		int expandIndex = compressed.writerIndex() - AbstractEncoder.EXPAND_LANGTH;
+		Assert.assertEquals(42L, compressed.getLong(expandIndex));
+		Assert.assertEquals(Constants.EXPAND_FLAG_FIRST, compressed.getByte(expandIndex + 8));
+
+		ChannelBuffer decompressed = FrameCompressor.decompress(compressed.slice(7, expandIndex - 7), statistics);
+		byte[] result = new byte[decompressed.readableBytes()];
+		decompressed.readBytes(result);
+		Assert.assertArrayEquals(body, result);
+
+		// 小于阈值或不可压缩时不压缩
+		Assert.assertNull(FrameCompressor.compress(frame(text(new Random(4), 100), 1L), statistics));
+		Assert.assertNull(FrameCompressor.compress(frame(bytes(new Random(5), 100000), 1L), statistics));
+		Assert.assertEquals(1, statistics.getSkipped());
+	}
+
+	@Test
+	public void testFlags() {
+		byte frameSerialize = (byte) (2 | FrameCompressor.COMPRESS_FLAG | FrameCompressor.ACCEPT_FLAG | CompactHeader.COMPACT_FLAG);
+		Assert.assertTrue(FrameCompressor.isCompressed(frameSerialize));
+		Assert.assertTrue(FrameCompressor.isAccepted(frameSerialize));
+		Assert.assertEquals(2, CompactHeader.getSerialize(FrameCompressor.getSerialize(frameSerialize)));
+	}
+
+	private static void assertRoundTrip(byte[] src) {
+		byte[] compressed = new byte[Lz4BlockCodec.maxCompressedLength(src.length) + 3];
+		int length = Lz4BlockCodec.compress(src, 0, src.length, compressed, 3);
+		byte[] result = new byte[src.length + 2];
+		Lz4BlockCodec.decompress(compressed, 3, length, result, 2, src.length);
+		Assert.assertArrayEquals(src, Arrays.copyOfRange(result, 2, result.length));
+	}
+
+	private static ChannelBuffer frame(byte[] body, long seq) {
+		ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+		buffer.writeBytes(Constants.MESSAGE_HEAD);
+		buffer.writeByte(2);
+		buffer.writeInt(body.length + AbstractEncoder.EXPAND_LANGTH);
+		buffer.writeBytes(body);
+		buffer.writeLong(seq);
+		buffer.writeBytes(Constants.EXPAND_FLAG);
+		return buffer;
+	}
+
+	private static byte[] text(Random random, int length) {
+		String[] words = { "pigeon", "service", "request", "response", "com.dianping", "java.lang.String", "1024" };
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append(words[random.nextInt(words.length)]).append(random.nextInt(100));
+		}
+		return sb.substring(0, length).getBytes();
+	}
+
+	private static byte[] bytes(Random random, int length) {
+		byte[] b = new byte[length];
+		random.nextBytes(b);
+		return b;
+	}
+}
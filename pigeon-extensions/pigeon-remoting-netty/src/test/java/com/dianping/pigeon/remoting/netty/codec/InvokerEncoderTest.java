@@ -0,0 +1,50 @@
+package com.dianping.pigeon.remoting.netty.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.netty.invoker.codec.InvokerEncoder;
+
+public class InvokerEncoderTest {
+
+	@Test
+	public void testEncodeRemainingTimeout() throws Exception {
+		DefaultRequest request = new DefaultRequest("http://service.dianping.com/testService", "echo",
+				new Object[] { "a" }, SerializerFactory.SERIALIZE_HESSIAN, Constants.MESSAGE_TYPE_SERVICE, 1000, null);
+		request.setSequence(1L);
+		request.setCallType(Constants.CALLTYPE_REPLY);
+		request.setCreateMillisTime(System.currentTimeMillis() - 400);
+
+		InvocationRequest encoded = encode(request);
+		// 写出剩余的时间，请求对象本身不变
+		Assert.assertTrue("timeout:" + encoded.getTimeout(), encoded.getTimeout() > 0 && encoded.getTimeout() <= 600);
+		Assert.assertEquals(1000, request.getTimeout());
+		Assert.assertEquals(1L, encoded.getSequence());
+		Assert.assertEquals("echo", encoded.getMethodName());
+
+		// 已过期的请求至少保留1ms
+		request.setCreateMillisTime(System.currentTimeMillis() - 2000);
+		Assert.assertEquals(1, encode(request).getTimeout());
+		Assert.assertEquals(1000, request.getTimeout());
+	}
+
+	private static InvocationRequest encode(DefaultRequest request) {
+		EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(new InvokerEncoder());
+		embedder.offer(new Object[] { request });
+		ChannelBuffer buffer = embedder.poll();
+		embedder.finish();
+		Assert.assertEquals(SerializerFactory.SERIALIZE_HESSIAN, buffer.getByte(2));
+		int length = buffer.getInt(3);
+		// 跳过帧头，去掉结尾的seq和扩展标识
+		ChannelBuffer body = buffer.slice(7, length - AbstractEncoder.EXPAND_LANGTH);
+		return (InvocationRequest) SerializerFactory.getSerializer(SerializerFactory.SERIALIZE_HESSIAN)
+				.deserializeRequest(new ChannelBufferInputStream(body));
+	}
+}
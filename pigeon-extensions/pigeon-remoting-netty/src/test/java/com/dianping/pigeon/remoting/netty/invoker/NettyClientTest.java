@@ -0,0 +1,182 @@
+package com.dianping.pigeon.remoting.netty.invoker;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
+
+public class NettyClientTest {
+
+	private static final int CONNECTIONS = 3;
+
+	private ServerBootstrap serverBootstrap;
+
+	private Channel serverChannel;
+
+	// 服务端接受的连接，只接收不响应
+	private final BlockingQueue<Channel> accepted = new LinkedBlockingQueue<Channel>();
+
+	private NettyClient client;
+
+	@Before
+	public void setUp() {
+		serverBootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+				Executors.newCachedThreadPool(), 1));
+		serverBootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+
+			@Override
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new SimpleChannelUpstreamHandler() {
+
+					@Override
+					public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+						accepted.add(e.getChannel());
+					}
+				});
+			}
+		});
+		serverChannel = serverBootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+		int port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+		client = new NettyClient(new ConnectInfo("test.NettyClientService", "127.0.0.1", port, 1), CONNECTIONS);
+	}
+
+	@After
+	public void tearDown() {
+		client.close();
+		serverChannel.close();
+		serverBootstrap.releaseExternalResources();
+	}
+
+	@Test
+	public void testOutstandingRequests() throws Exception {
+		client.connect();
+		Assert.assertTrue(client.isConnected());
+
+		// 请求写完后仍计为在途，按在途数依次分到不同的连接
+		List<InvocationRequest> requests = new ArrayList<InvocationRequest>();
+		for (int i = 0; i < CONNECTIONS * 2; i++) {
+			InvocationRequest request = newRequest(i + 1);
+			client.write(request, new TestCallback());
+			requests.add(request);
+		}
+		Thread.sleep(100);
+		for (int i = 0; i < CONNECTIONS; i++) {
+			Assert.assertEquals(2, client.getPendingCount(i));
+		}
+
+		// 收到响应、超时或取消时释放，重复调用只释放一次
+		client.complete(requests.get(0));
+		client.complete(requests.get(0));
+		Assert.assertEquals(CONNECTIONS * 2 - 1, totalPending());
+		for (InvocationRequest request : requests) {
+			client.complete(request);
+		}
+		Assert.assertEquals(0, totalPending());
+
+		// 在途数都为0时轮流选择，不总是第一个连接
+		for (int i = 0; i < CONNECTIONS; i++) {
+			client.write(newRequest(100 + i), new TestCallback());
+		}
+		for (int i = 0; i < CONNECTIONS; i++) {
+			Assert.assertEquals(1, client.getPendingCount(i));
+		}
+	}
+
+	@Test
+	public void testRebuildClosedChannel() throws Exception {
+		client.connect();
+		Assert.assertTrue(client.isConnected());
+		Channel first = accepted.poll(1, TimeUnit.SECONDS);
+		for (int i = 1; i < CONNECTIONS; i++) {
+			Assert.assertNotNull(accepted.poll(1, TimeUnit.SECONDS));
+		}
+
+		// 服务端正常关闭其中一个连接，没有异常也没有失败的写，client同样标记为未连接
+		first.close().awaitUninterruptibly();
+		long deadline = System.currentTimeMillis() + 1000;
+		while (client.isConnected() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		Assert.assertFalse(client.isConnected());
+
+		// 再次connect只重建断开的连接
+		client.connect();
+		Assert.assertTrue(client.isConnected());
+		Assert.assertNotNull(accepted.poll(1, TimeUnit.SECONDS));
+		Assert.assertNull(accepted.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	private int totalPending() {
+		int total = 0;
+		for (int i = 0; i < CONNECTIONS; i++) {
+			total += client.getPendingCount(i);
+		}
+		return total;
+	}
+
+	private static InvocationRequest newRequest(long sequence) {
+		DefaultRequest request = new DefaultRequest("http://service.dianping.com/testService", "echo",
+				new Object[] { "a" }, SerializerFactory.SERIALIZE_HESSIAN, Constants.MESSAGE_TYPE_SERVICE, 1000, null);
+		request.setSequence(sequence);
+		request.setCallType(Constants.CALLTYPE_REPLY);
+		request.setCreateMillisTime(System.currentTimeMillis());
+		return request;
+	}
+
+	private static class TestCallback implements Callback {
+
+		private Client client;
+
+		@Override
+		public void run() {
+		}
+
+		@Override
+		public void callback(InvocationResponse response) {
+		}
+
+		@Override
+		public void setRequest(InvocationRequest request) {
+		}
+
+		@Override
+		public void dispose() {
+		}
+
+		@Override
+		public void setClient(Client client) {
+			this.client = client;
+		}
+
+		@Override
+		public Client getClient() {
+			return client;
+		}
+	}
+}
@@ -39,6 +39,7 @@ public class ServiceFactory {
 	static Logger logger = LoggerLoader.getLogger(ServiceFactory.class);
 	static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
 	static Map<InvokerConfig<?>, Object> services = new ConcurrentHashMap<InvokerConfig<?>, Object>();
+	private static final String ASYNC_SUFFIX = "Async";
 
 	static {
 		try {
@@ -65,6 +66,11 @@ public class ServiceFactory {
 
 	public static <T> String getServiceUrl(InvokerConfig<T> invokerConfig) {
 		String url = invokerConfig.getServiceInterface().getCanonicalName();
+		// async调用的接口约定为服务接口名加Async后缀，如EchoServiceAsync对应EchoService
+		if (Constants.CALL_ASYNC.equalsIgnoreCase(invokerConfig.getCallType()) && url.endsWith(ASYNC_SUFFIX)
+				&& url.length() > ASYNC_SUFFIX.length()) {
+			url = url.substring(0, url.length() - ASYNC_SUFFIX.length());
+		}
 		return url;
 	}
 
@@ -25,7 +25,7 @@ import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 
 @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "seq", scope = DefaultRequest.class)
-public class DefaultRequest implements InvocationRequest {
+public class DefaultRequest implements InvocationRequest, Cloneable {
 
 	/**
 	 * 不能随意修改！
@@ -93,6 +93,7 @@ public class DefaultRequest implements InvocationRequest {
 				this.timeout = invokerConfig.getTimeout();
 				this.setVersion(invokerConfig.getVersion());
 				this.setAttachment(Constants.REQ_ATTACH_WRITE_BUFF_LIMIT, invokerConfig.isWriteBufferLimit());
+				this.setAttachment(Constants.REQ_ATTACH_COMPRESS, invokerConfig.isCompress());
 				if (Constants.CALL_ONEWAY.equalsIgnoreCase(invokerConfig.getCallType())) {
 					this.setCallType(Constants.CALLTYPE_NOREPLY);
 				} else {
@@ -207,6 +208,20 @@ public class DefaultRequest implements InvocationRequest {
 		this.timeout = timeout;
 	}
 
+	/**
+	 * 浅拷贝并替换timeout，编码时按剩余时间写出而不修改原请求
+	 */
+	public DefaultRequest copyWithTimeout(int timeout) {
+		DefaultRequest copy;
+		try {
+			copy = (DefaultRequest) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		copy.timeout = timeout;
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		ToStringBuilder builder = new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
@@ -44,6 +44,10 @@ public class DefaultResponse implements InvocationResponse {
 
 	private Map<String, Serializable> responseValues = null;
 
+	// 编码时是否可以压缩，由服务端根据请求和服务配置决定，不序列化
+	@JsonIgnore
+	private transient boolean compress;
+
 	public DefaultResponse() {
 	}
 
@@ -172,4 +176,12 @@ public class DefaultResponse implements InvocationResponse {
 		this.createMillisTime = createMillisTime;
 	}
 
+
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
 }
@@ -0,0 +1,182 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.common.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于延迟梯度的自适应并发限制
+ *
+ * 每个采样窗口计算平均延迟shortRtt，与长期平均延迟longRtt比较：
+ * gradient = clamp(tolerance * longRtt / shortRtt, 0.5, 1)，newLimit = limit * gradient + sqrt(limit)。
+ * 延迟升高（排队或服务变慢）时限制按比例收缩，延迟平稳时每个窗口增加sqrt(limit)
+ */
+public class AdaptiveConcurrencyLimit {
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final double tolerance;
+
+	private final double smoothing;
+
+	private final int longWindow;
+
+	private final long windowNanos;
+
+	private final int minSamples;
+
+	private volatile double estimatedLimit;
+
+	private volatile double longRtt;
+
+	private volatile long lastRtt;
+
+	private volatile long windowStart = System.nanoTime();
+
+	private final AtomicInteger inflight = new AtomicInteger();
+
+	private final AtomicInteger peakInflight = new AtomicInteger();
+
+	private final AtomicLong rttSum = new AtomicLong();
+
+	private final AtomicInteger samples = new AtomicInteger();
+
+	private final AtomicBoolean updating = new AtomicBoolean();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance,
+			double smoothing, int longWindow, long windowMillis, int minSamples) {
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.tolerance = Math.max(1.0, tolerance);
+		this.smoothing = Math.min(1.0, Math.max(0.01, smoothing));
+		this.longWindow = Math.max(1, longWindow);
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+		this.minSamples = Math.max(1, minSamples);
+		this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+	}
+
+	public boolean tryAcquire() {
+		int current = inflight.incrementAndGet();
+		if (current > (int) estimatedLimit) {
+			inflight.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		if (current > peakInflight.get()) {
+			peakInflight.set(current);
+		}
+		return true;
+	}
+
+	/**
+	 * 不检查限制直接占用，由调用方事先通过isLimitReached选择
+	 */
+	public void acquire() {
+		int current = inflight.incrementAndGet();
+		if (current > peakInflight.get()) {
+			peakInflight.set(current);
+		}
+	}
+
+	public boolean isLimitReached() {
+		return inflight.get() >= (int) estimatedLimit;
+	}
+
+	/**
+	 * @param rttNanos
+	 *            从进入限制到释放的时间，小于等于0时不计入采样
+	 */
+	public void release(long rttNanos) {
+		inflight.decrementAndGet();
+		if (rttNanos > 0) {
+			rttSum.addAndGet(rttNanos);
+			samples.incrementAndGet();
+			long now = System.nanoTime();
+			if (now - windowStart >= windowNanos && samples.get() >= minSamples) {
+				update(now);
+			}
+		}
+	}
+
+	private void update(long now) {
+		if (!updating.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			// 两次getAndSet之间并发加入的采样最多被算错一个窗口，可以忽略
+			int count = samples.getAndSet(0);
+			long sum = rttSum.getAndSet(0);
+			int peak = peakInflight.getAndSet(inflight.get());
+			windowStart = now;
+			if (count <= 0) {
+				return;
+			}
+			long shortRtt = Math.max(1, sum / count);
+			lastRtt = shortRtt;
+			double baseline = longRtt;
+			if (baseline <= 0) {
+				baseline = shortRtt;
+			} else {
+				baseline = baseline + (shortRtt - baseline) / longWindow;
+				// 负载下降后延迟远低于基线时，加快基线回落
+				if (baseline / shortRtt > 2) {
+					baseline = baseline * 0.95;
+				}
+			}
+			longRtt = baseline;
+
+			double limit = estimatedLimit;
+			double gradient = Math.max(0.5, Math.min(1.0, tolerance * baseline / shortRtt));
+			// 实际并发不到限制的一半时说明请求量不足，不再增加限制
+			if (gradient >= 1.0 && peak < limit / 2) {
+				return;
+			}
+			double newLimit = limit * gradient + Math.sqrt(limit);
+			newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+			estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		} finally {
+			updating.set(false);
+		}
+	}
+
+	public int getLimit() {
+		return (int) estimatedLimit;
+	}
+
+	public int getInflight() {
+		return inflight.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * 最近一个窗口的平均延迟，单位ms
+	 */
+	public double getShortRtt() {
+		return lastRtt / 1000000.0;
+	}
+
+	/**
+	 * 长期平均延迟，单位ms
+	 */
+	public double getLongRtt() {
+		return longRtt / 1000000.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("limit:%d,inflight:%d,rejected:%d,rtt:%.2fms(long:%.2fms)", getLimit(), getInflight(),
+				getRejected(), getShortRtt(), getLongRtt());
+	}
+}
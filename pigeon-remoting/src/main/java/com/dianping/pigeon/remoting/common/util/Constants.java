@@ -21,6 +21,10 @@ public final class Constants {
 	public static final int MESSAGE_TYPE_EXCEPTION = 3;
 	public static final int MESSAGE_TYPE_SERVICE_EXCEPTION = 4;
 	public static final int MESSAGE_TYPE_HEALTHCHECK = 5;
+	// 流式调用的数据块，与请求使用同一个seq，最后仍以SERVICE或异常响应结束
+	public static final int MESSAGE_TYPE_STREAM = 6;
+	// 调用端授予服务端的数据块额度，小于0表示取消
+	public static final int MESSAGE_TYPE_STREAM_CREDIT = 7;
 
 	public static final int CALLTYPE_REPLY = 1;
 	public static final int CALLTYPE_NOREPLY = 2;
@@ -34,11 +38,14 @@ public final class Constants {
 	public static final String CALL_CALLBACK = "callback";
 	public static final String CALL_ONEWAY = "oneway";
 	public static final String CALL_FUTURE = "future";
+	public static final String CALL_ASYNC = "async";
+	public static final String CALL_STREAM = "stream";
 
 	public static final String CLUSTER_FAILFAST = "failfast";
 	public static final String CLUSTER_FAILOVER = "failover";
 	public static final String CLUSTER_FAILSAFE = "failsafe";
 	public static final String CLUSTER_FORKING = "forking";
+	public static final String CLUSTER_HEDGING = "hedging";
 
 	public static final String SERIALIZE_JAVA = "java";
 	public static final String SERIALIZE_HESSIAN = "hessian";
@@ -63,11 +70,19 @@ public final class Constants {
 
 	public static final String REQ_ATTACH_FLOW = "FLOW";
 	public static final String REQ_ATTACH_WRITE_BUFF_LIMIT = "WRITE_BUFF_LIMIT";
+	public static final String REQ_ATTACH_LIMIT = "LIMIT";
+	public static final String REQ_ATTACH_FLOW_TOKEN = "FLOW_TOKEN";
+	public static final String REQ_ATTACH_METHOD_CACHE = "METHOD_CACHE";
+	public static final String REQ_ATTACH_COMPRESS = "COMPRESS";
+	public static final String REQ_ATTACH_STREAM_CHANNEL = "STREAM_CHANNEL";
+	public static final String REQ_ATTACH_CHANNEL_TOKEN = "CHANNEL_TOKEN";
 
 	public static final int VERSION_150 = 150;
 
 	public static final String REQUEST_CREATE_TIME = "requestCreateTime";
 	public static final String REQUEST_TIMEOUT = "requestTimeout";
+	public static final String REQUEST_DEADLINE = "requestDeadline";
+	public static final String REQUEST_STREAM_CREDIT = "requestStreamCredit";
 	public static final String REQUEST_FIRST_FLAG = "requestFirstFlag";
 
 	public static final String ECHO_METHOD = "$echo";
@@ -102,9 +117,14 @@ public final class Constants {
 	public static final String KEY_RESPONSE_WORKQUEUESIZE = "pigeon.response.pool.queuesize";
 	public static final String KEY_INVOKER_TIMEOUT = "pigeon.invoker.timeout";
 	public static final String KEY_TIMEOUT_INTERVAL = "pigeon.timeout.interval";
+	public static final String KEY_TIMEOUT_WHEEL_TICK = "pigeon.timeout.wheel.tick";
+	public static final String KEY_TIMEOUT_WHEEL_SIZE = "pigeon.timeout.wheel.size";
+	public static final String KEY_INVOCATION_TABLE_SIZE = "pigeon.invoker.invocation.tablesize";
 	public static final String KEY_WRITE_BUFFER_HIGH_WATER = "pigeon.channel.writebuff.high";
 	public static final String KEY_WRITE_BUFFER_LOW_WATER = "pigeon.channel.writebuff.low";
 	public static final String KEY_DEFAULT_WRITE_BUFF_LIMIT = "pigeon.channel.writebuff.defaultlimit";
+	public static final String KEY_INVOKER_COMPRESS = "pigeon.invoker.compress.enable";
+	public static final String KEY_PROVIDER_COMPRESS = "pigeon.provider.compress.enable";
 	public static final String KEY_NOTIFY_ENABLE = "pigeon.notify.enable";
 	public static final String KEY_TEST_ENABLE = "pigeon.test.enable";
 	public static final String KEY_CONNECT_TIMEOUT = "pigeon.netty.connecttimeout";
@@ -127,8 +147,12 @@ public final class Constants {
 	public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER = 35 * 1024 * 1024;
 	public static final int DEFAULT_WRITE_BUFFER_LOW_WATER = 25 * 1024 * 1024;
 	public static final boolean DEFAULT_WRITE_BUFF_LIMIT = false;
+	public static final boolean DEFAULT_COMPRESS = false;
 	public static final String DEFAULT_PROCESS_TYPE = "threadpool";
 	public static final long DEFAULT_TIMEOUT_INTERVAL = 1000;
+	public static final long DEFAULT_TIMEOUT_WHEEL_TICK = 10;
+	public static final int DEFAULT_TIMEOUT_WHEEL_SIZE = 512;
+	public static final int DEFAULT_INVOCATION_TABLE_SIZE = 65536;
 	public static final boolean DEFAULT_NOTIFY_ENABLE = false;
 	public static final boolean DEFAULT_TEST_ENABLE = true;
 	public static final int DEFAULT_CONNECT_TIMEOUT = 2000;
@@ -167,6 +191,10 @@ public final class Constants {
 	public static final boolean RESET_TIMEOUT = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.timeout.reset", true);
 
+	// 请求中的timeout按发送时剩余的时间传递，服务端据此丢弃出队时已过期的请求
+	public static final boolean DEADLINE_ENABLE = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.timeout.deadline.enable", true);
+
 	public static final boolean LOG_PARAMETERS = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.log.parameters", false);
 
@@ -215,6 +243,10 @@ public final class Constants {
 	public static final String KEY_SERVICE_SHARED = "pigeon.provider.service.shared";
 	public static final boolean DEFAULT_SERVICE_SHARED = true;
 
+	// 服务方法的调用方式：reflect或generated（发布时生成直接调用的invoker类，失败时退回反射）
+	public static final String KEY_PROVIDER_METHOD_INVOKER = "pigeon.provider.method.invoker";
+	public static final String DEFAULT_PROVIDER_METHOD_INVOKER = "reflect";
+
 	public static final String CONTEXT_KEY_CLIENT_IP = "CLIENT_IP";
 	public static final String CONTEXT_KEY_CLIENT_APP = "CLIENT_APP";
 	public static final String CONTEXT_KEY_SOURCE_IP = "SOURCE_IP";
@@ -0,0 +1,82 @@
+package com.dianping.pigeon.remoting.common.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按时间序号（如秒、分钟）环形统计的计数器，无锁、不需要定时重置
+ *
+ * 每个槽位是一个long，高32位为时间序号，低32位为计数；写入时序号不同则直接覆盖为新的序号，
+ * 读取时只统计序号一致的槽位。槽位按线程分段，多线程同时写入同一时间序号时不冲突
+ */
+public class SlidingWindowCounter {
+
+	private static final long ORIGIN = System.nanoTime();
+
+	private final int slots;
+
+	private final int mask;
+
+	private final AtomicLongArray cells;
+
+	/**
+	 * @param slots
+	 *            保留的时间序号个数，向上取2的幂
+	 */
+	public SlidingWindowCounter(int slots) {
+		int size = 1;
+		while (size < slots) {
+			size <<= 1;
+		}
+		this.slots = size;
+		this.mask = size - 1;
+		// 段之间至少间隔一个缓存行
+		this.cells = new AtomicLongArray(StripedCounter.STRIPES * Math.max(size, StripedCounter.PAD));
+	}
+
+	public void increment(long index) {
+		int i = StripedCounter.stripe() * Math.max(slots, StripedCounter.PAD) + (int) (index & mask);
+		int stamp = (int) index;
+		for (;;) {
+			long v = cells.get(i);
+			int current = (int) (v >>> 32);
+			long next;
+			if (current == stamp) {
+				next = v + 1;
+			} else if (current - stamp > 0 && v != 0) {
+				// 槽位已经轮转到更新的时间，丢弃迟到的计数
+				return;
+			} else {
+				next = ((long) stamp << 32) | 1;
+			}
+			if (cells.compareAndSet(i, v, next)) {
+				return;
+			}
+		}
+	}
+
+	public long get(long index) {
+		int stamp = (int) index;
+		int step = Math.max(slots, StripedCounter.PAD);
+		int offset = (int) (index & mask);
+		long sum = 0;
+		for (int s = 0; s < StripedCounter.STRIPES; s++) {
+			long v = cells.get(s * step + offset);
+			if ((int) (v >>> 32) == stamp) {
+				sum += v & 0xffffffffL;
+			}
+		}
+		return sum;
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	/**
+	 * 单调递增的秒序号，不受系统时间调整影响
+	 */
+	public static long currentSecond() {
+		return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - ORIGIN);
+	}
+}
@@ -0,0 +1,65 @@
+package com.dianping.pigeon.remoting.common.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器，按线程分散到多个缓存行，高并发累加时减少CAS冲突，读取时求和（类似JDK8的LongAdder）
+ */
+public class StripedCounter {
+
+	// 每段间隔8个long（64字节），避免伪共享
+	static final int PAD = 8;
+
+	static final int STRIPES = stripes();
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	public void add(long x) {
+		cells.getAndAdd(index(), x);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void decrement() {
+		add(-1);
+	}
+
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PAD);
+		}
+		return sum;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+
+	static int index() {
+		return stripe() * PAD;
+	}
+
+	/**
+	 * 当前线程对应的段
+	 */
+	static int stripe() {
+		long h = Thread.currentThread().getId();
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h & (STRIPES - 1);
+	}
+
+	private static int stripes() {
+		int n = Math.min(16, Runtime.getRuntime().availableProcessors() * 2);
+		int stripes = 1;
+		while (stripes < n) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+}
@@ -3,15 +3,20 @@ package com.dianping.pigeon.remoting.invoker;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.NetworkException;
+import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.callback.Callback;
 import com.dianping.pigeon.remoting.invoker.process.ResponseProcessor;
 import com.dianping.pigeon.remoting.invoker.process.ResponseProcessorFactory;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
 
 public abstract class AbstractClient implements Client {
 
 	ResponseProcessor responseProcessor = ResponseProcessorFactory.selectProcessor();
 
+	// 最近一次收到业务响应的时间，有业务响应的连接不需要发心跳
+	private volatile long lastResponseMillis;
+
 	@Override
 	public void connectionException(Object attachment, Throwable e) {
 		// TODO Auto-generated method stub
@@ -20,9 +25,41 @@ public abstract class AbstractClient implements Client {
 
 	@Override
 	public void processResponse(InvocationResponse response) {
+		int messageType = response.getMessageType();
+		if (messageType == Constants.MESSAGE_TYPE_SERVICE || messageType == Constants.MESSAGE_TYPE_SERVICE_EXCEPTION
+				|| messageType == Constants.MESSAGE_TYPE_STREAM) {
+			lastResponseMillis = System.currentTimeMillis();
+		}
+		if (messageType == Constants.MESSAGE_TYPE_STREAM) {
+			// 数据块只是放入缓冲，直接在当前线程处理，经过响应线程池会打乱顺序
+			ServiceInvocationRepository.getInstance().receiveChunk(response);
+			return;
+		}
 		this.responseProcessor.processResponse(response, this);
 	}
 
+	/**
+	 * 默认同步连接后通知，底层支持异步连接的实现应覆盖
+	 */
+	@Override
+	public void connectAsync(ConnectCallback callback) {
+		try {
+			connect();
+		} catch (Throwable e) {
+			callback.onConnectFailed(this, e);
+			return;
+		}
+		if (isConnected()) {
+			callback.onConnected(this);
+		} else {
+			callback.onConnectFailed(this, null);
+		}
+	}
+
+	@Override
+	public void complete(InvocationRequest request) {
+	}
+
 	public InvocationResponse write(InvocationRequest request) throws NetworkException {
 		return write(request, null);
 	}
@@ -37,6 +74,10 @@ public abstract class AbstractClient implements Client {
 		}
 	}
 
+	public long getLastResponseMillis() {
+		return lastResponseMillis;
+	}
+
 	public abstract InvocationResponse doWrite(InvocationRequest request, Callback callback) throws NetworkException;
 
 }
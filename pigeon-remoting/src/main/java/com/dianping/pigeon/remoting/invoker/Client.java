@@ -22,6 +22,11 @@ public interface Client {
 
 	void connect();
 
+	/**
+	 * 异步连接，不阻塞调用线程，结果通过callback通知
+	 */
+	void connectAsync(ConnectCallback callback);
+
 	InvocationResponse write(InvocationRequest request, Callback callback) throws NetworkException;
 
 	InvocationResponse write(InvocationRequest request) throws NetworkException;
@@ -30,6 +35,11 @@ public interface Client {
 
 	void processResponse(InvocationResponse response);
 
+	/**
+	 * 请求结束（收到响应、超时或被取消）时调用，同一个请求可能调用多次，实现需保证只释放一次
+	 */
+	void complete(InvocationRequest request);
+
 	boolean isConnected();
 
 	boolean isActive();
@@ -0,0 +1,12 @@
+package com.dianping.pigeon.remoting.invoker;
+
+/**
+ * 异步连接的结果通知，在IO线程中执行，不要做阻塞操作
+ */
+public interface ConnectCallback {
+
+	void onConnected(Client client);
+
+	void onConnectFailed(Client client, Throwable cause);
+
+}
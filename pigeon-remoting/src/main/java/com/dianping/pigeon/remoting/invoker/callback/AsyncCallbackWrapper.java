@@ -0,0 +1,36 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.callback;
+
+import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
+
+/**
+ * async调用的回调，沿用ServiceCallbackWrapper的监控、异常和超时处理，结果写入AsyncFuture
+ */
+public class AsyncCallbackWrapper extends ServiceCallbackWrapper {
+
+	public AsyncCallbackWrapper(InvokerContext invocationContext, AsyncFuture<Object> future) {
+		super(invocationContext, new FutureCallback(future));
+	}
+
+	private static class FutureCallback implements ServiceCallback {
+
+		private final AsyncFuture<Object> future;
+
+		FutureCallback(AsyncFuture<Object> future) {
+			this.future = future;
+		}
+
+		@Override
+		public void onSuccess(Object result) {
+			future.complete(result);
+		}
+
+		@Override
+		public void onFailure(Throwable exception) {
+			future.completeExceptionally(exception);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.callback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+
+/**
+ * async调用方式返回的future，由响应线程完成，不使用ThreadLocal传递，也不使用synchronized/wait
+ *
+ * 结果只会被设置一次；addCallback注册的回调在完成的线程中执行（已完成时在注册的线程中执行），回调中不要做阻塞操作。
+ * 可以用transform、combine、allOf组合多个并行调用的结果
+ */
+public class AsyncFuture<T> implements Future<T> {
+
+	private static final Logger logger = LoggerLoader.getLogger(AsyncFuture.class);
+
+	private final AtomicReference<Outcome> outcome = new AtomicReference<Outcome>();
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+
+	private final ConcurrentLinkedQueue<ServiceCallback> callbacks = new ConcurrentLinkedQueue<ServiceCallback>();
+
+	public boolean complete(T result) {
+		return setOutcome(new Outcome(result, null));
+	}
+
+	public boolean completeExceptionally(Throwable exception) {
+		if (exception == null) {
+			throw new NullPointerException("exception");
+		}
+		return setOutcome(new Outcome(null, exception));
+	}
+
+	private boolean setOutcome(Outcome value) {
+		if (!outcome.compareAndSet(null, value)) {
+			return false;
+		}
+		latch.countDown();
+		notifyCallbacks();
+		return true;
+	}
+
+	/**
+	 * 注册完成时的回调，onSuccess的参数为调用结果
+	 */
+	public void addCallback(ServiceCallback callback) {
+		callbacks.offer(callback);
+		if (outcome.get() != null) {
+			notifyCallbacks();
+		}
+	}
+
+	private void notifyCallbacks() {
+		Outcome value = outcome.get();
+		ServiceCallback callback;
+		// 完成与注册并发时两边都可能进来，poll保证每个回调只执行一次
+		while ((callback = callbacks.poll()) != null) {
+			try {
+				if (value.exception == null) {
+					callback.onSuccess(value.result);
+				} else {
+					callback.onFailure(value.exception);
+				}
+			} catch (Throwable t) {
+				logger.error("error while executing future callback", t);
+			}
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return completeExceptionally(new CancellationException());
+	}
+
+	@Override
+	public boolean isCancelled() {
+		Outcome value = outcome.get();
+		return value != null && value.exception instanceof CancellationException;
+	}
+
+	@Override
+	public boolean isDone() {
+		return outcome.get() != null;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getResult();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException(unit.toMillis(timeout) + "ms timeout");
+		}
+		return getResult();
+	}
+
+	@SuppressWarnings("unchecked")
+	private T getResult() throws ExecutionException {
+		Outcome value = outcome.get();
+		if (value.exception instanceof CancellationException) {
+			throw (CancellationException) value.exception;
+		}
+		if (value.exception != null) {
+			throw new ExecutionException(value.exception);
+		}
+		return (T) value.result;
+	}
+
+	/**
+	 * 结果转换，转换在完成的线程中执行
+	 */
+	public <R> AsyncFuture<R> transform(final Transformer<? super T, R> transformer) {
+		final AsyncFuture<R> future = new AsyncFuture<R>();
+		addCallback(new ServiceCallback() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public void onSuccess(Object result) {
+				try {
+					future.complete(transformer.transform((T) result));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable exception) {
+				future.completeExceptionally(exception);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * 两个调用都成功后合并结果，任意一个失败时返回的future以该异常失败
+	 */
+	public static <A, B, R> AsyncFuture<R> combine(final AsyncFuture<A> first, final AsyncFuture<B> second,
+			final Combiner<? super A, ? super B, R> combiner) {
+		AsyncFuture<List<Object>> all = allOf(Arrays.<AsyncFuture<?>> asList(first, second));
+		return all.transform(new Transformer<List<Object>, R>() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public R transform(List<Object> results) throws Exception {
+				return combiner.combine((A) results.get(0), (B) results.get(1));
+			}
+		});
+	}
+
+	/**
+	 * 所有调用都成功后按顺序返回结果列表，任意一个失败时立即以该异常失败
+	 */
+	public static AsyncFuture<List<Object>> allOf(List<? extends AsyncFuture<?>> futures) {
+		final AsyncFuture<List<Object>> future = new AsyncFuture<List<Object>>();
+		final int size = futures.size();
+		if (size == 0) {
+			future.complete(new ArrayList<Object>(0));
+			return future;
+		}
+		final Object[] results = new Object[size];
+		final AtomicInteger remaining = new AtomicInteger(size);
+		for (int i = 0; i < size; i++) {
+			final int index = i;
+			futures.get(i).addCallback(new ServiceCallback() {
+
+				@Override
+				public void onSuccess(Object result) {
+					results[index] = result;
+					// AtomicInteger的递减保证results的写入对最后完成的线程可见
+					if (remaining.decrementAndGet() == 0) {
+						future.complete(Arrays.asList(results));
+					}
+				}
+
+				@Override
+				public void onFailure(Throwable exception) {
+					future.completeExceptionally(exception);
+				}
+			});
+		}
+		return future;
+	}
+
+	public interface Transformer<S, R> {
+
+		R transform(S source) throws Exception;
+	}
+
+	public interface Combiner<A, B, R> {
+
+		R combine(A first, B second) throws Exception;
+	}
+
+	private static final class Outcome {
+
+		final Object result;
+
+		final Throwable exception;
+
+		Outcome(Object result, Throwable exception) {
+			this.result = result;
+			this.exception = exception;
+		}
+	}
+}
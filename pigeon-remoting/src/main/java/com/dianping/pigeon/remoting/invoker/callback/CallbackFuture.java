@@ -34,6 +34,7 @@ public class CallbackFuture implements Callback, CallFuture {
 	private boolean done = false;
 	private boolean concelled = false;
 	private boolean success = false;
+	private boolean timeout = false;
 	protected InvocationRequest request;
 	protected Client client;
 
@@ -60,7 +61,7 @@ public class CallbackFuture implements Callback, CallFuture {
 			long start = request.getCreateMillisTime();
 			while (!this.done) {
 				long timeoutMillis_ = timeoutMillis - (System.currentTimeMillis() - start);
-				if (timeoutMillis_ <= 0) {
+				if (timeoutMillis_ <= 0 || this.timeout) {
 					StringBuilder sb = new StringBuilder();
 					sb.append("request timeout, current time:").append(System.currentTimeMillis())
 							.append("\r\nrequest:").append(request).append("\r\nhost:").append(client.getHost())
@@ -146,9 +147,17 @@ public class CallbackFuture implements Callback, CallFuture {
 		return this.client;
 	}
 
+	/**
+	 * 请求超时后由超时检查调用，响应不会再到达，唤醒等待的线程抛出RequestTimeoutException
+	 */
 	@Override
 	public void dispose() {
-
+		synchronized (this) {
+			if (!this.done) {
+				this.timeout = true;
+				this.notifyAll();
+			}
+		}
 	}
 
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ package com.dianping.pigeon.remoting.invoker.callback;
 
 import java.io.Serializable;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.Logger;
 
@@ -45,6 +46,9 @@ public class ServiceCallbackWrapper implements Callback {
 
 	private InvokerContext invocationContext;
 
+	// 响应和超时只有一方能结束回调
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+
 	public ServiceCallbackWrapper(InvokerContext invocationContext, ServiceCallback callback) {
 		this.invocationContext = invocationContext;
 		this.callback = callback;
@@ -101,8 +105,43 @@ public class ServiceCallbackWrapper implements Callback {
 		}
 	}
 
+	private void addTimeoutMonitorInfo(RequestTimeoutException te) {
+		InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
+		MonitorTransaction transaction = null;
+		try {
+			if (Constants.INVOKER_CALLBACK_MONITOR_ENABLE) {
+				String callInterface = InvocationUtils.getRemoteCallFullName(invokerConfig.getUrl(),
+						invocationContext.getMethodName(), invocationContext.getParameterTypes());
+				transaction = monitor.createTransaction("PigeonCallback", callInterface, invocationContext);
+			}
+			if (transaction != null) {
+				transaction.setStatusError(te);
+				transaction.addData("CallType", invokerConfig.getCallType());
+				transaction.addData("Timeout", invokerConfig.getTimeout());
+				transaction.addData("Serialize", invokerConfig.getSerialize());
+			}
+			if (Constants.INVOKER_LOG_TIMEOUT_EXCEPTION) {
+				logger.error(te.getMessage());
+			}
+			monitor.logError(te);
+		} catch (Throwable e) {
+			monitor.logMonitorError(e);
+		} finally {
+			if (transaction != null) {
+				try {
+					transaction.complete();
+				} catch (Throwable e) {
+					monitor.logMonitorError(e);
+				}
+			}
+		}
+	}
+
 	@Override
 	public void run() {
+		if (!completed.compareAndSet(false, true)) {
+			return;
+		}
 		try {
 			if (response.getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
 				addMonitorInfo();
@@ -129,6 +168,7 @@ public class ServiceCallbackWrapper implements Callback {
 				RpcException e = new InvalidParameterException("unsupported response with message type:"
 						+ response.getMessageType());
 				monitor.logError(e);
+				this.callback.onFailure(e);
 			}
 		} catch (Throwable e) {
 			logger.error("error while executing service callback", e);
@@ -165,9 +205,28 @@ public class ServiceCallbackWrapper implements Callback {
 		this.request = request;
 	}
 
+	/**
+	 * 请求超时后由超时检查调用，以RequestTimeoutException结束回调
+	 */
 	@Override
 	public void dispose() {
-
+		if (!completed.compareAndSet(false, true)) {
+			return;
+		}
+		StringBuilder msg = new StringBuilder();
+		msg.append("request callback timeout, current time:").append(System.currentTimeMillis())
+				.append("\r\nrequest:").append(request);
+		if (client != null) {
+			msg.append("\r\nhost:").append(client.getHost()).append(":").append(client.getPort());
+		}
+		RequestTimeoutException te = new RequestTimeoutException(msg.toString());
+		te.setStackTrace(new StackTraceElement[] {});
+		addTimeoutMonitorInfo(te);
+		try {
+			this.callback.onFailure(te);
+		} catch (Throwable e) {
+			logger.error("error while executing service callback", e);
+		}
 	}
 
 }
@@ -0,0 +1,23 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.callback;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+
+/**
+ * 流式调用的回调，数据块到达时不结束请求，最后的响应仍通过callback/run结束
+ */
+public interface StreamCallback extends Callback {
+
+	/**
+	 * 在IO线程中按到达顺序调用，不能阻塞
+	 */
+	void onChunk(InvocationResponse chunk);
+
+	/**
+	 * @return 等待服务端数据的时间，调用方还有未消费的数据时返回0，超时检查据此重新计时
+	 */
+	long getIdleMillis();
+}
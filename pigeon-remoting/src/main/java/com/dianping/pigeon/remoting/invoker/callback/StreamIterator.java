@@ -0,0 +1,248 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.callback;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.exception.RemoteInvocationException;
+import com.dianping.pigeon.remoting.invoker.exception.RequestTimeoutException;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+
+/**
+ * stream调用的结果，服务端按数据块发送，调用方边消费边接收
+ *
+ * 调用端最多缓冲window个数据块：请求中带上初始额度，每消费一半再授予服务端同样数量的额度，
+ * 服务端没有额度或连接不可写时暂停发送；迭代器只能由一个线程消费，不再需要时应调用close
+ */
+public class StreamIterator implements StreamCallback, Iterator<Object> {
+
+	private static final Logger logger = LoggerLoader.getLogger(StreamIterator.class);
+
+	private static final int defaultWindow = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.invoker.stream.window", 16);
+
+	private static final Object END = new Object();
+
+	private final BlockingQueue<Object> chunks = new LinkedBlockingQueue<Object>();
+
+	private final int window;
+
+	private final int grantThreshold;
+
+	private volatile long lastChunkMillis = System.currentTimeMillis();
+
+	private volatile InvocationResponse response;
+
+	private volatile boolean timeout = false;
+
+	private InvocationRequest request;
+
+	private Client client;
+
+	// 以下只由消费线程访问
+	private Object[] current;
+
+	private int index;
+
+	private int consumed;
+
+	private boolean finished = false;
+
+	private RuntimeException failure;
+
+	public StreamIterator() {
+		this(defaultWindow);
+	}
+
+	public StreamIterator(int window) {
+		this.window = Math.max(1, window);
+		this.grantThreshold = Math.max(1, this.window / 2);
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	@Override
+	public void onChunk(InvocationResponse chunk) {
+		lastChunkMillis = System.currentTimeMillis();
+		Object items = chunk.getResponse();
+		if (items instanceof Object[]) {
+			chunks.offer(items);
+		}
+	}
+
+	@Override
+	public long getIdleMillis() {
+		if (!chunks.isEmpty()) {
+			return 0;
+		}
+		return System.currentTimeMillis() - lastChunkMillis;
+	}
+
+	@Override
+	public void callback(InvocationResponse response) {
+		this.response = response;
+	}
+
+	@Override
+	public void run() {
+		chunks.offer(END);
+	}
+
+	/**
+	 * 超过timeout没有收到新的数据块，通知服务端停止发送
+	 */
+	@Override
+	public void dispose() {
+		timeout = true;
+		chunks.offer(END);
+		sendCredit(-1);
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (current == null || index >= current.length) {
+			if (finished) {
+				if (failure != null) {
+					throw failure;
+				}
+				return false;
+			}
+			Object chunk = take();
+			if (chunk == END) {
+				finished = true;
+				current = null;
+				failure = getFailure();
+				continue;
+			}
+			current = (Object[]) chunk;
+			index = 0;
+			if (++consumed >= grantThreshold) {
+				sendCredit(consumed);
+				consumed = 0;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Object next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Object item = current[index];
+		current[index++] = null;
+		return item;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * 提前结束消费，服务端收到取消后停止发送，之后到达的数据块直接丢弃
+	 */
+	public void close() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		current = null;
+		chunks.clear();
+		if (request != null) {
+			ServiceInvocationRepository.getInstance().remove(request.getSequence());
+			if (client != null) {
+				ServiceStatisticsHolder.flowOut(request, client.getAddress());
+			}
+			sendCredit(-1);
+		}
+	}
+
+	private Object take() {
+		try {
+			return chunks.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new RemoteInvocationException("interrupted while waiting for stream chunk:" + request, e);
+		}
+	}
+
+	private RuntimeException getFailure() {
+		if (timeout) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("stream timeout, current time:").append(System.currentTimeMillis()).append("\r\nrequest:")
+					.append(request);
+			if (client != null) {
+				sb.append("\r\nhost:").append(client.getHost()).append(":").append(client.getPort());
+			}
+			return new RequestTimeoutException(sb.toString());
+		}
+		InvocationResponse response = this.response;
+		if (response == null) {
+			return null;
+		}
+		if (response.getMessageType() == Constants.MESSAGE_TYPE_EXCEPTION) {
+			return InvokerUtils.toRpcException(response);
+		} else if (response.getMessageType() == Constants.MESSAGE_TYPE_SERVICE_EXCEPTION) {
+			return InvokerUtils.toApplicationRuntimeException(response);
+		}
+		return null;
+	}
+
+	/**
+	 * 额度消息与请求走同一个连接，服务端按连接和seq找到对应的流
+	 */
+	protected void sendCredit(int credits) {
+		InvocationRequest request = this.request;
+		Client client = this.client;
+		if (request == null || client == null) {
+			return;
+		}
+		DefaultRequest credit = new DefaultRequest(request.getServiceName(), request.getMethodName(),
+				new Object[] { credits }, request.getSerialize(), Constants.MESSAGE_TYPE_STREAM_CREDIT, 0, null);
+		credit.setSequence(request.getSequence());
+		credit.setCallType(Constants.CALLTYPE_NOREPLY);
+		credit.setAttachment(Constants.REQ_ATTACH_STREAM_CHANNEL,
+				request.getAttachment(Constants.REQ_ATTACH_STREAM_CHANNEL));
+		try {
+			client.write(credit);
+		} catch (Throwable e) {
+			logger.warn("send stream credit failed:" + request, e);
+		}
+	}
+
+	@Override
+	public void setRequest(InvocationRequest request) {
+		this.request = request;
+	}
+
+	@Override
+	public void setClient(Client client) {
+		this.client = client;
+	}
+
+	@Override
+	public Client getClient() {
+		return client;
+	}
+
+}
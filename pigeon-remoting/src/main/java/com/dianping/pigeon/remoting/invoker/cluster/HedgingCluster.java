@@ -0,0 +1,563 @@
+package com.dianping.pigeon.remoting.invoker.cluster;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.exception.InvalidParameterException;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.SlidingWindowCounter;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.ClientManager;
+import com.dianping.pigeon.remoting.invoker.callback.AsyncCallbackWrapper;
+import com.dianping.pigeon.remoting.invoker.callback.AsyncFuture;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.remoting.invoker.callback.CallbackFuture;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceCallback;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceCallbackWrapper;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceFutureFactory;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceFutureImpl;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.config.InvokerMethodConfig;
+import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
+import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
+import com.dianping.pigeon.remoting.invoker.route.statistics.LatencyHistogram;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.remoting.invoker.util.InvokerHelper;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+import com.dianping.pigeon.threadpool.DefaultThreadPool;
+import com.dianping.pigeon.threadpool.ThreadPool;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
+import com.dianping.pigeon.util.CollectionUtils;
+import com.dianping.pigeon.util.ContextUtils;
+
+/**
+ * 对冲调用：先发往一个服务端，超过该方法最近响应时间的分位数仍未返回时，再发一个请求到另一个服务端，取先返回的结果，
+ * 另一个请求从在途表中移除（同时取消超时检查），之后到达的响应直接丢弃；它已等待的时间作为响应时间的下限记录
+ *
+ * 两个请求都以回调方式发出，对冲请求由时间轮定时、在单独的线程池中发出，不阻塞时间轮；对冲请求数按请求数的比例限制（令牌桶），
+ * 避免服务端整体变慢时请求量翻倍。支持sync、future、callback、async调用，oneway和stream调用按failfast处理
+ */
+public class HedgingCluster implements Cluster {
+
+	private static final Logger logger = LoggerLoader.getLogger(HedgingCluster.class);
+
+	private static final Monitor monitor = MonitorLoader.getMonitor();
+
+	private static final ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+	// 以最近响应时间的该分位数作为发出对冲请求的延迟
+	private static final double percentile = configManager.getDoubleValue("pigeon.cluster.hedging.percentile", 95);
+
+	// 对冲请求数占请求数的比例上限
+	private static final float ratio = configManager.getFloatValue("pigeon.cluster.hedging.ratio", 0.05f);
+
+	// 令牌桶容量，即短时间内最多连续发出的对冲请求数
+	private static final int burst = configManager.getIntValue("pigeon.cluster.hedging.burst", 10);
+
+	// 对冲延迟下限，毫秒
+	private static final int minDelay = configManager.getIntValue("pigeon.cluster.hedging.delay.min", 2);
+
+	// 响应时间样本不足时不发对冲请求
+	private static final int minSamples = configManager.getIntValue("pigeon.cluster.hedging.samples.min", 100);
+
+	private static final HashedWheelTimer hedgingTimer = new HashedWheelTimer("Pigeon-Client-Hedging-Timer", 1,
+			TimeUnit.MILLISECONDS, 512);
+
+	// 对冲请求经过完整的filter链并写出，不在时间轮线程上执行；队列满时放弃对冲
+	private static final ThreadPool hedgingThreadPool = new DefaultThreadPool("Pigeon-Client-Hedging-Processor",
+			configManager.getIntValue("pigeon.cluster.hedging.pool.coresize", 2),
+			configManager.getIntValue("pigeon.cluster.hedging.pool.maxsize", 20), new LinkedBlockingQueue<Runnable>(
+					configManager.getIntValue("pigeon.cluster.hedging.pool.queuesize", 100)));
+
+	private final Cluster failfastCluster = new FailfastCluster();
+
+	private final ConcurrentHashMap<String, HedgingStats> statsMap = new ConcurrentHashMap<String, HedgingStats>();
+
+	@Override
+	public InvocationResponse invoke(ServiceInvocationHandler handler, InvokerContext invocationContext)
+			throws Throwable {
+		InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
+		String callType = invokerConfig.getCallType();
+		if (Constants.CALL_ONEWAY.equalsIgnoreCase(callType) || Constants.CALL_STREAM.equalsIgnoreCase(callType)) {
+			return failfastCluster.invoke(handler, invocationContext);
+		}
+		InvocationRequest request = InvokerUtils.createRemoteCallRequest(invocationContext, invokerConfig);
+		int timeout = getTimeout(invocationContext);
+
+		// 与RemoteCallInvokeFilter一致的结果处理，由先返回的请求完成
+		Callback target = null;
+		InvocationResponse response = null;
+		if (Constants.CALL_SYNC.equalsIgnoreCase(callType)) {
+			target = new CallbackFuture();
+		} else if (Constants.CALL_CALLBACK.equalsIgnoreCase(callType)) {
+			ServiceCallback callback = invokerConfig.getCallback();
+			ServiceCallback tlCallback = InvokerHelper.getCallback();
+			if (tlCallback != null) {
+				callback = tlCallback;
+				InvokerHelper.clearCallback();
+			}
+			target = new ServiceCallbackWrapper(invocationContext, callback);
+			response = InvokerUtils.createNoReturnResponse();
+		} else if (Constants.CALL_FUTURE.equalsIgnoreCase(callType)) {
+			ServiceFutureImpl future = new ServiceFutureImpl(invocationContext, timeout);
+			target = future;
+			response = InvokerUtils.createFutureResponse(future);
+		} else if (Constants.CALL_ASYNC.equalsIgnoreCase(callType)) {
+			AsyncFuture<Object> future = new AsyncFuture<Object>();
+			target = new AsyncCallbackWrapper(invocationContext, future);
+			response = InvokerUtils.createFutureResponse(future);
+		} else {
+			throw new InvalidParameterException("Call type[" + callType + "] is not supported!");
+		}
+
+		Client client = selectClient(invokerConfig, request, null);
+		target.setRequest(request);
+		target.setClient(client);
+		String statsKey = getStatsKey(invokerConfig, request);
+		HedgingStats stats = getStats(statsKey);
+		stats.deposit();
+		HedgingInvocation invocation = new HedgingInvocation(handler, invocationContext, target, statsKey, stats,
+				timeout);
+		invocation.sendPrimary(client);
+		invocation.scheduleHedge();
+
+		if (target instanceof ServiceFutureImpl) {
+			ServiceFutureFactory.setFuture((ServiceFutureImpl) target);
+		}
+		if (response == null) {
+			response = ((CallbackFuture) target).getResponse(timeout);
+		}
+		return response;
+	}
+
+	private int getTimeout(InvokerContext invocationContext) {
+		InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
+		int timeout = invokerConfig.getTimeout();
+		Map<String, InvokerMethodConfig> methods = invokerConfig.getMethods();
+		if (!CollectionUtils.isEmpty(methods)) {
+			InvokerMethodConfig methodConfig = methods.get(invocationContext.getMethodName());
+			if (methodConfig != null && methodConfig.getTimeout() > 0) {
+				timeout = methodConfig.getTimeout();
+			}
+		}
+		Integer timeoutThreadLocal = InvokerHelper.getTimeout();
+		if (timeoutThreadLocal != null) {
+			timeout = timeoutThreadLocal;
+		}
+		return timeout;
+	}
+
+	protected Client selectClient(InvokerConfig<?> invokerConfig, InvocationRequest request, List<Client> excludeClients) {
+		return ClientManager.getInstance().getClient(invokerConfig, request, excludeClients);
+	}
+
+	/**
+	 * 记录一个请求的响应时间，主请求和对冲请求都记录，超时和被取消的按已等待的时间记录（实际响应时间的下限）
+	 */
+	protected void recordLatency(String statsKey, long rttNanos) {
+		getStats(statsKey).record(rttNanos);
+	}
+
+	private String getStatsKey(InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		String url = invokerConfig.getUrl() != null ? invokerConfig.getUrl() : request.getServiceName();
+		return url + "#" + request.getMethodName();
+	}
+
+	private HedgingStats getStats(String key) {
+		HedgingStats stats = statsMap.get(key);
+		if (stats == null) {
+			stats = new HedgingStats();
+			HedgingStats old = statsMap.putIfAbsent(key, stats);
+			if (old != null) {
+				stats = old;
+			}
+		}
+		return stats;
+	}
+
+	@Override
+	public String getName() {
+		return Constants.CLUSTER_HEDGING;
+	}
+
+	/**
+	 * 一次调用的主请求和对冲请求，先返回的一方结束调用
+	 */
+	private final class HedgingInvocation {
+
+		private final ServiceInvocationHandler handler;
+
+		private final InvokerContext invocationContext;
+
+		private final Callback target;
+
+		private final String statsKey;
+
+		private final HedgingStats stats;
+
+		private final int timeout;
+
+		private final AtomicBoolean done = new AtomicBoolean(false);
+
+		// 已发出且尚未结束的请求数
+		private final AtomicInteger pending = new AtomicInteger();
+
+		// 0为主请求，1为对冲请求
+		private final AtomicReferenceArray<Attempt> attempts = new AtomicReferenceArray<Attempt>(2);
+
+		// 返回框架异常的请求，另一个请求也失败时以它结束
+		private volatile Attempt failed;
+
+		private volatile Timeout hedgeTimeout;
+
+		private volatile long deadline;
+
+		// 调用方线程的上下文，主请求发出后会被清空，对冲请求需要在发出前复制
+		private final Map<String, Serializable> globalValues;
+
+		private final Map<String, Serializable> requestValues;
+
+		HedgingInvocation(ServiceInvocationHandler handler, InvokerContext invocationContext, Callback target,
+				String statsKey, HedgingStats stats, int timeout) {
+			this.handler = handler;
+			this.invocationContext = invocationContext;
+			this.target = target;
+			this.statsKey = statsKey;
+			this.stats = stats;
+			this.timeout = timeout;
+			this.globalValues = copy(ContextUtils.getGlobalContext());
+			this.requestValues = copy(ContextUtils.getRequestContext());
+		}
+
+		private Map<String, Serializable> copy(Map<String, Serializable> values) {
+			return values == null || values.isEmpty() ? null : new HashMap<String, Serializable>(values);
+		}
+
+		void sendPrimary(Client client) throws Throwable {
+			try {
+				send(0, invocationContext, client);
+			} catch (Throwable e) {
+				done.set(true);
+				throw e;
+			}
+			// createMillisTime在ContextPrepareInvokeFilter中设置
+			deadline = invocationContext.getRequest().getCreateMillisTime() + timeout;
+		}
+
+		private void send(int index, InvokerContext context, Client client) throws Throwable {
+			Attempt attempt = new Attempt(this, context.getRequest(), client);
+			attempts.set(index, attempt);
+			pending.incrementAndGet();
+			context.setClient(client);
+			InvokerHelper.setAttemptCallback(attempt);
+			try {
+				handler.handle(context);
+			} catch (Throwable e) {
+				attempt.finished.set(true);
+				Attempt failedAttempt = failed;
+				if (pending.decrementAndGet() == 0 && failedAttempt != null) {
+					complete(failedAttempt, failedAttempt.response);
+				}
+				throw e;
+			} finally {
+				InvokerHelper.clearAttemptCallback();
+			}
+		}
+
+		void scheduleHedge() {
+			long delayNanos = stats.getHedgeDelayNanos();
+			if (delayNanos < 0 || done.get()) {
+				return;
+			}
+			delayNanos = Math.max(delayNanos, TimeUnit.MILLISECONDS.toNanos(minDelay));
+			if (TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis()) <= delayNanos) {
+				return;
+			}
+			hedgeTimeout = hedgingTimer.newTimeout(new TimerTask() {
+
+				@Override
+				public void run(Timeout timeout) {
+					if (done.get()) {
+						return;
+					}
+					try {
+						hedgingThreadPool.execute(new Runnable() {
+
+							@Override
+							public void run() {
+								hedge();
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						monitor.logEvent("PigeonCall.hedgingRejected", statsKey, "");
+					}
+				}
+			}, delayNanos, TimeUnit.NANOSECONDS);
+		}
+
+		private void hedge() {
+			if (done.get() || System.currentTimeMillis() >= deadline) {
+				return;
+			}
+			Attempt primary = attempts.get(0);
+			if (primary == null) {
+				return;
+			}
+			InvokerConfig<?> invokerConfig = invocationContext.getInvokerConfig();
+			InvokerContext context = new DefaultInvokerContext(invokerConfig, invocationContext.getMethodName(),
+					invocationContext.getParameterTypes(), invocationContext.getArguments());
+			try {
+				InvocationRequest request = InvokerUtils.createRemoteCallRequest(context, invokerConfig);
+				Client client = selectClient(invokerConfig, request, Arrays.asList(primary.client));
+				if (client == null || !stats.tryAcquire()) {
+					return;
+				}
+				// 线程池线程上没有调用方的上下文，超时不超过主请求的截止时间
+				transferContext();
+				try {
+					send(1, context, client);
+				} finally {
+					ContextUtils.clearGlobalContext();
+					ContextUtils.clearRequestContext();
+					ContextUtils.clearLocalContext();
+				}
+				if (done.get()) {
+					// 发出过程中主请求已返回，取消时对冲请求可能还未登记到在途表
+					cancel(attempts.get(1));
+				}
+				monitor.logEvent("PigeonCall.hedging", request.getServiceName() + "#" + request.getMethodName(), "");
+			} catch (Throwable e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("send hedging request failed:" + invocationContext, e);
+				}
+			}
+		}
+
+		private void transferContext() {
+			if (globalValues != null) {
+				ContextUtils.setGlobalContext(new HashMap<String, Serializable>(globalValues));
+			}
+			if (requestValues != null) {
+				for (Map.Entry<String, Serializable> entry : requestValues.entrySet()) {
+					ContextUtils.putRequestContext(entry.getKey(), entry.getValue());
+				}
+			}
+			ContextUtils.putLocalContext(Constants.REQUEST_DEADLINE, deadline);
+		}
+
+		void onResponse(Attempt attempt, InvocationResponse response) {
+			recordLatency(statsKey, System.nanoTime() - attempt.startNanos);
+			int remaining = pending.decrementAndGet();
+			if (done.get()) {
+				return;
+			}
+			if (response.getMessageType() == Constants.MESSAGE_TYPE_EXCEPTION && remaining > 0
+					&& System.currentTimeMillis() < deadline) {
+				// 框架异常（如服务端拒绝）时等待另一个请求
+				failed = attempt;
+				return;
+			}
+			complete(attempt, response);
+		}
+
+		void onTimeout(Attempt attempt) {
+			recordLatency(statsKey, System.nanoTime() - attempt.startNanos);
+			int remaining = pending.decrementAndGet();
+			if (remaining > 0 && System.currentTimeMillis() < deadline) {
+				return;
+			}
+			Attempt failedAttempt = failed;
+			if (failedAttempt != null) {
+				complete(failedAttempt, failedAttempt.response);
+				return;
+			}
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			cancelOthers(attempt);
+			target.setRequest(attempt.request);
+			target.setClient(attempt.client);
+			target.dispose();
+		}
+
+		private void complete(Attempt attempt, InvocationResponse response) {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			cancelOthers(attempt);
+			target.setRequest(attempt.request);
+			target.setClient(attempt.client);
+			target.callback(response);
+			target.run();
+		}
+
+		private void cancelOthers(Attempt winner) {
+			Timeout timeout = hedgeTimeout;
+			if (timeout != null) {
+				timeout.cancel();
+			}
+			for (int i = 0; i < attempts.length(); i++) {
+				Attempt attempt = attempts.get(i);
+				if (attempt != null && attempt != winner) {
+					cancel(attempt);
+				}
+			}
+		}
+
+		/**
+		 * 结束未返回的请求：移出在途表并取消超时检查，不再计入超时；已等待的时间作为删失样本记录，
+		 * 避免分位数只统计先返回的请求而偏低
+		 */
+		private void cancel(Attempt attempt) {
+			if (attempt.finished.compareAndSet(false, true)) {
+				pending.decrementAndGet();
+				long elapsed = System.nanoTime() - attempt.startNanos;
+				recordLatency(statsKey, elapsed);
+				Client client = attempt.client;
+				if (client != null) {
+					ServiceStatisticsHolder.updateLatency(attempt.request, client.getAddress(), elapsed);
+					ServiceStatisticsHolder.flowOut(attempt.request, client.getAddress());
+				}
+			}
+			ServiceInvocationRepository.getInstance().remove(attempt.request.getSequence());
+		}
+	}
+
+	/**
+	 * 单个请求的回调，响应或超时只会转交一次
+	 */
+	private static final class Attempt implements Callback {
+
+		private final HedgingInvocation invocation;
+
+		private final InvocationRequest request;
+
+		private final long startNanos = System.nanoTime();
+
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+
+		private volatile Client client;
+
+		private volatile InvocationResponse response;
+
+		Attempt(HedgingInvocation invocation, InvocationRequest request, Client client) {
+			this.invocation = invocation;
+			this.request = request;
+			this.client = client;
+		}
+
+		@Override
+		public void run() {
+			if (finished.compareAndSet(false, true)) {
+				invocation.onResponse(this, response);
+			}
+		}
+
+		@Override
+		public void callback(InvocationResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public void setRequest(InvocationRequest request) {
+		}
+
+		@Override
+		public void dispose() {
+			if (finished.compareAndSet(false, true)) {
+				invocation.onTimeout(this);
+			}
+		}
+
+		@Override
+		public void setClient(Client client) {
+			this.client = client;
+		}
+
+		@Override
+		public Client getClient() {
+			return client;
+		}
+	}
+
+	/**
+	 * 每个方法的响应时间分布和对冲令牌
+	 */
+	private static final class HedgingStats {
+
+		// 令牌以千分之一个对冲请求为单位
+		private static final long TOKEN = 1000;
+
+		private static final long DEPOSIT = Math.max(0, Math.round(ratio * TOKEN));
+
+		private static final long MAX_TOKENS = Math.max(1, burst) * TOKEN;
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private final AtomicLong tokens = new AtomicLong();
+
+		// 分位数每秒最多计算一次
+		private volatile long delayNanos = -1;
+
+		private volatile long delaySecond = -1;
+
+		void record(long rttNanos) {
+			latency.record(rttNanos);
+		}
+
+		void deposit() {
+			for (;;) {
+				long current = tokens.get();
+				long next = Math.min(MAX_TOKENS, current + DEPOSIT);
+				if (next == current || tokens.compareAndSet(current, next)) {
+					return;
+				}
+			}
+		}
+
+		boolean tryAcquire() {
+			for (;;) {
+				long current = tokens.get();
+				if (current < TOKEN) {
+					return false;
+				}
+				if (tokens.compareAndSet(current, current - TOKEN)) {
+					return true;
+				}
+			}
+		}
+
+		long getHedgeDelayNanos() {
+			long second = SlidingWindowCounter.currentSecond();
+			if (second != delaySecond) {
+				delayNanos = latency.getPercentile(percentile, minSamples);
+				delaySecond = second;
+			}
+			return delayNanos;
+		}
+	}
+}
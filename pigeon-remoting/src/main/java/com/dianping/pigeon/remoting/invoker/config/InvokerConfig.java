@@ -24,6 +24,8 @@ public class InvokerConfig<T> {
 	public static final String CALL_CALLBACK = Constants.CALL_CALLBACK;
 	public static final String CALL_ONEWAY = Constants.CALL_ONEWAY;
 	public static final String CALL_FUTURE = Constants.CALL_FUTURE;
+	public static final String CALL_ASYNC = Constants.CALL_ASYNC;
+	public static final String CALL_STREAM = Constants.CALL_STREAM;
 
 	public static final String PROTOCOL_HTTP = Constants.PROTOCOL_HTTP;
 	public static final String PROTOCOL_DEFAULT = Constants.PROTOCOL_DEFAULT;
@@ -55,6 +57,10 @@ public class InvokerConfig<T> {
 	private boolean writeBufferLimit = configManager.getBooleanValue(Constants.KEY_DEFAULT_WRITE_BUFF_LIMIT,
 			Constants.DEFAULT_WRITE_BUFF_LIMIT);
 
+	// 超过阈值的请求压缩后发送，并允许服务端压缩响应，服务端版本不支持时不压缩
+	private boolean compress = configManager.getBooleanValue(Constants.KEY_INVOKER_COMPRESS,
+			Constants.DEFAULT_COMPRESS);
+
 	private String loadbalance = LoadBalanceManager.DEFAULT_LOADBALANCE;
 
 	private boolean timeoutRetry = false;
@@ -250,10 +256,12 @@ public class InvokerConfig<T> {
 	public void setCallType(String callType) {
 		if (!Constants.CALL_SYNC.equalsIgnoreCase(callType) && !Constants.CALL_CALLBACK.equalsIgnoreCase(callType)
 				&& !Constants.CALL_FUTURE.equalsIgnoreCase(callType)
-				&& !Constants.CALL_ONEWAY.equalsIgnoreCase(callType)) {
+				&& !Constants.CALL_ONEWAY.equalsIgnoreCase(callType) && !Constants.CALL_ASYNC.equalsIgnoreCase(callType)
+				&& !Constants.CALL_STREAM.equalsIgnoreCase(callType)) {
 
 			throw new IllegalArgumentException("Pigeon call mode only support[" + Constants.CALL_SYNC + ", "
-					+ Constants.CALL_CALLBACK + ", " + Constants.CALL_FUTURE + ", " + Constants.CALL_ONEWAY + "].");
+					+ Constants.CALL_CALLBACK + ", " + Constants.CALL_FUTURE + ", " + Constants.CALL_ONEWAY + ", "
+					+ Constants.CALL_ASYNC + ", " + Constants.CALL_STREAM + "].");
 		}
 		if (!StringUtils.isBlank(callType)) {
 			this.callType = callType.trim();
@@ -317,6 +325,14 @@ public class InvokerConfig<T> {
 		return writeBufferLimit;
 	}
 
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
 	public boolean equals(Object obj) {
 		return EqualsBuilder.reflectionEquals(this, obj);
 	}
@@ -3,6 +3,7 @@
  */
 package com.dianping.pigeon.remoting.invoker.config;
 
+import com.dianping.pigeon.remoting.invoker.route.balance.HashKeyExtractor;
 
 /**
  * @author xiangwu
@@ -20,6 +21,12 @@ public class InvokerMethodConfig {
 
 	private String callType;
 
+	// 一致性哈希负载均衡使用的参数下标，小于0时使用全局配置
+	private int hashArgIndex = -1;
+
+	// 一致性哈希负载均衡的路由key提取，设置后优先于hashArgIndex
+	private HashKeyExtractor hashKeyExtractor;
+
 	public int getTimeout() {
 		return timeout;
 	}
@@ -60,4 +67,20 @@ public class InvokerMethodConfig {
 		this.actives = actives;
 	}
 
+	public int getHashArgIndex() {
+		return hashArgIndex;
+	}
+
+	public void setHashArgIndex(int hashArgIndex) {
+		this.hashArgIndex = hashArgIndex;
+	}
+
+	public HashKeyExtractor getHashKeyExtractor() {
+		return hashKeyExtractor;
+	}
+
+	public void setHashKeyExtractor(HashKeyExtractor hashKeyExtractor) {
+		this.hashKeyExtractor = hashKeyExtractor;
+	}
+
 }
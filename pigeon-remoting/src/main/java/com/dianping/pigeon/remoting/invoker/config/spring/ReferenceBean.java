@@ -121,6 +121,12 @@ public class ReferenceBean implements FactoryBean {
 	private boolean writeBufferLimit = configManager.getBooleanValue(Constants.KEY_DEFAULT_WRITE_BUFF_LIMIT,
 			Constants.DEFAULT_WRITE_BUFF_LIMIT);
 
+	/**
+	 * 是否压缩超过阈值的请求和响应
+	 */
+	private boolean compress = configManager.getBooleanValue(Constants.KEY_INVOKER_COMPRESS,
+			Constants.DEFAULT_COMPRESS);
+
 	public String getCluster() {
 		return cluster;
 	}
@@ -233,6 +239,10 @@ public class ReferenceBean implements FactoryBean {
 		this.writeBufferLimit = writeBufferLimit;
 	}
 
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
 	public void init() throws Exception {
 		if (StringUtils.isBlank(interfaceName)) {
 			throw new IllegalArgumentException("invalid interface:" + interfaceName);
@@ -242,6 +252,7 @@ public class ReferenceBean implements FactoryBean {
 				this.serialize, this.callback, this.group, this.writeBufferLimit, this.loadBalance, this.cluster,
 				this.retries, this.timeoutRetry, this.vip, this.version, this.protocol);
 		invokerConfig.setClassLoader(classLoader);
+		invokerConfig.setCompress(compress);
 
 		if (!CollectionUtils.isEmpty(methods)) {
 			Map<String, InvokerMethodConfig> methodMap = new HashMap<String, InvokerMethodConfig>();
@@ -85,6 +85,9 @@ public class ReferenceBeanDefinitionParser implements BeanDefinitionParser {
 		if (element.hasAttribute("callType")) {
 			properties.addPropertyValue("callType", resolveReference(element, "callType"));
 		}
+		if (element.hasAttribute("hashArgIndex")) {
+			properties.addPropertyValue("hashArgIndex", resolveReference(element, "hashArgIndex"));
+		}
 		if (element.hasAttribute("timeout")) {
 			properties.addPropertyValue("timeout", resolveReference(element, "timeout"));
 		}
@@ -114,6 +117,9 @@ public class ReferenceBeanDefinitionParser implements BeanDefinitionParser {
 		if (element.hasAttribute("version")) {
 			properties.addPropertyValue("version", resolveReference(element, "version"));
 		}
+		if (element.hasAttribute("compress")) {
+			properties.addPropertyValue("compress", resolveReference(element, "compress"));
+		}
 		if (element.hasAttribute("vip")) {
 			properties.addPropertyValue("vip", resolveReference(element, "vip"));
 		}
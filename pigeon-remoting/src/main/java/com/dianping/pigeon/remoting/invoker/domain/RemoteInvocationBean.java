@@ -2,10 +2,14 @@ package com.dianping.pigeon.remoting.invoker.domain;
 
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.timer.Timeout;
 
 public class RemoteInvocationBean {
 
 	public InvocationRequest request;
 	public Callback callback;
+	public volatile Timeout timeout;
+	// 放入在途表（即将发出）的时间，用于统计响应时间
+	public long startNanos;
 
 }
@@ -5,6 +5,7 @@
 package com.dianping.pigeon.remoting.invoker.listener;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -13,6 +14,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.Logger;
@@ -31,9 +33,10 @@ import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.ServiceStatusException;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.AbstractClient;
 import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.ClientManager;
-import com.dianping.pigeon.remoting.invoker.callback.CallbackFuture;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
 import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
 import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
 import com.dianping.pigeon.remoting.provider.ProviderBootStrap;
@@ -71,7 +74,9 @@ public class HeartBeatListener implements Runnable, ClusterListener {
 	private static boolean logPickOff = configManager.getBooleanValue("pigeon.heartbeat.logpickoff", true);
 	private static final Monitor monitor = MonitorLoader.getMonitor();
 
-	private static volatile Set<String> inactiveAddresses = new HashSet<String>();
+	// 心跳结果在响应线程中并发处理
+	private static final Set<String> inactiveAddresses = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	private static final Set<Integer> serverPorts = new HashSet<Integer>();
 
@@ -146,7 +151,7 @@ public class HeartBeatListener implements Runnable, ClusterListener {
 					}
 				}
 				long now = System.currentTimeMillis();
-				// 检查正在工作的Clients是否完好
+				// 检查正在工作的Clients是否完好，心跳异步发出，结果在响应或超时时处理，一轮检查不等待任何心跳返回
 				if (this.getWorkingClients() != null) {
 					Set<Client> clients = new HashSet<Client>();
 					for (Entry<String, List<Client>> entry : this.getWorkingClients().entrySet()) {
@@ -168,7 +173,7 @@ public class HeartBeatListener implements Runnable, ClusterListener {
 											&& serverPorts.contains(client.getPort())) {
 										continue;
 									}
-									sendHeartBeatRequest(client);
+									sendHeartBeatRequest(client, now);
 								} else {
 									logger.info("[heartbeat] remove connect:" + client.getAddress());
 									clusterListenerManager.removeConnect(client);
@@ -188,24 +193,93 @@ public class HeartBeatListener implements Runnable, ClusterListener {
 		}
 	}
 
-	private void sendHeartBeatRequest(Client client) {
+	protected void sendHeartBeatRequest(Client client, long now) {
 		HeartBeatStat heartBeatStat = getHeartBeatStatWithCreate(client.getAddress());
+		if (client instanceof AbstractClient
+				&& now - ((AbstractClient) client).getLastResponseMillis() < interval) {
+			// 一个周期内收到过业务响应，连接可用，不需要再发心跳
+			heartBeatStat.incrSucceed();
+			notifyHeartBeatStatChanged(client);
+			return;
+		}
+		if (!heartBeatStat.startProbe(now)) {
+			// 上一次心跳还未结束
+			return;
+		}
 		InvocationRequest heartRequest = createHeartRequest(client);
+		HeartBeatCallback callback = new HeartBeatCallback(heartBeatStat, client);
 		try {
-			InvocationResponse response = null;
-			CallbackFuture future = new CallbackFuture();
-			response = InvokerUtils.sendRequest(client, heartRequest, future);
-			if (response == null) {
-				response = future.getResponse(heartBeatTimeout);
-			}
+			InvocationResponse response = InvokerUtils.sendRequest(client, heartRequest, callback);
 			if (response != null) {
-				processResponse(heartRequest, response, client);
+				callback.callback(response);
+				callback.run();
 			}
 		} catch (Throwable e) {
-			heartBeatStat.incrFailed();
-			notifyHeartBeatStatChanged(client);
-			if (client.isActive()) {
-				logger.info("[heartbeat] send heartbeat to server[" + client.getAddress() + "] failed");
+			callback.fail();
+		}
+	}
+
+	/**
+	 * 心跳的回调，响应和超时只有一方生效
+	 */
+	private class HeartBeatCallback implements Callback {
+
+		private final HeartBeatStat heartBeatStat;
+
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+
+		private InvocationRequest request;
+
+		private Client client;
+
+		private InvocationResponse response;
+
+		HeartBeatCallback(HeartBeatStat heartBeatStat, Client client) {
+			this.heartBeatStat = heartBeatStat;
+			this.client = client;
+		}
+
+		@Override
+		public void run() {
+			if (completed.compareAndSet(false, true)) {
+				heartBeatStat.probingSince.set(0L);
+				processResponse(request, response, client);
+			}
+		}
+
+		@Override
+		public void callback(InvocationResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public void setRequest(InvocationRequest request) {
+			this.request = request;
+		}
+
+		@Override
+		public void setClient(Client client) {
+			this.client = client;
+		}
+
+		@Override
+		public Client getClient() {
+			return client;
+		}
+
+		@Override
+		public void dispose() {
+			fail();
+		}
+
+		void fail() {
+			if (completed.compareAndSet(false, true)) {
+				heartBeatStat.probingSince.set(0L);
+				heartBeatStat.incrFailed();
+				notifyHeartBeatStatChanged(client);
+				if (client.isActive()) {
+					logger.info("[heartbeat] send heartbeat to server[" + client.getAddress() + "] failed");
+				}
 			}
 		}
 	}
@@ -256,7 +330,8 @@ public class HeartBeatListener implements Runnable, ClusterListener {
 		}
 	}
 
-	private void notifyHeartBeatStatChanged(Client client) {
+	// 多个服务端的心跳结果并发到达，摘除判断需要串行
+	private synchronized void notifyHeartBeatStatChanged(Client client) {
 		try {
 			HeartBeatStat heartStat = heartBeatStats.get(client.getAddress());
 			if (heartStat.succeedCounter.longValue() >= heartBeatHealthCount) {
@@ -356,6 +431,7 @@ public class HeartBeatListener implements Runnable, ClusterListener {
 		String address;
 		AtomicLong succeedCounter = new AtomicLong(); // 连续成功计数器
 		AtomicLong failedCounter = new AtomicLong(); // 连续失败计数器
+		AtomicLong probingSince = new AtomicLong(); // 未结束的心跳的发出时间，0为没有
 
 		public HeartBeatStat(String address) {
 			this.address = address;
@@ -371,6 +447,15 @@ public class HeartBeatListener implements Runnable, ClusterListener {
 			failedCounter.incrementAndGet();
 		}
 
+		// 超时回调丢失时，超过两倍超时时间也允许发新的心跳
+		public boolean startProbe(long now) {
+			long since = probingSince.get();
+			if (since != 0 && now - since < 2L * Math.max(heartBeatTimeout, interval)) {
+				return false;
+			}
+			return probingSince.compareAndSet(since, now);
+		}
+
 		public void resetCounter() {
 			succeedCounter.set(0L);
 			failedCounter.set(0L);
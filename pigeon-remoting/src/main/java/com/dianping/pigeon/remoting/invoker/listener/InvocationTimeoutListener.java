@@ -4,74 +4,96 @@
  */
 package com.dianping.pigeon.remoting.invoker.listener;
 
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.Logger;
 
-import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.remoting.invoker.callback.StreamCallback;
 import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+import com.dianping.pigeon.remoting.invoker.process.ResponseProcessorFactory;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+import com.dianping.pigeon.remoting.invoker.service.InvocationTable;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
 
-public class InvocationTimeoutListener implements Runnable {
+/**
+ * 单个请求的超时任务，由时间轮在请求到期时触发
+ */
+public class InvocationTimeoutListener implements TimerTask {
 
 	private static final Logger logger = LoggerLoader.getLogger(InvocationTimeoutListener.class);
-	private Map<Long, RemoteInvocationBean> invocations;
-	private long timeoutInterval = ConfigManagerLoader.getConfigManager().getLongValue(Constants.KEY_TIMEOUT_INTERVAL,
-			Constants.DEFAULT_TIMEOUT_INTERVAL);
 
-	public InvocationTimeoutListener(Map<Long, RemoteInvocationBean> invocations) {
+	// 按秒统计超时数量，超时过多时对日志进行采样
+	private static final AtomicLong currentSecond = new AtomicLong();
+	private static final AtomicInteger timeoutCountInCurrentSecond = new AtomicInteger();
+	private static volatile int timeoutCountInLastSecond = 0;
+
+	private final InvocationTable invocations;
+	private final long sequence;
+	private final RemoteInvocationBean invocationBean;
+
+	public InvocationTimeoutListener(InvocationTable invocations, long sequence,
+			RemoteInvocationBean invocationBean) {
 		this.invocations = invocations;
+		this.sequence = sequence;
+		this.invocationBean = invocationBean;
 	}
 
 	@Override
-	public void run() {
-		int timeoutCountInLastSecond = 0;
-		int timeoutCountInCurrentSecond = 0;
-		while (true) {
-			timeoutCountInLastSecond = timeoutCountInCurrentSecond;
-			timeoutCountInCurrentSecond = 0;
-			try {
-				Thread.sleep(timeoutInterval);
-				long currentTime = System.currentTimeMillis();
-				for (Long sequence : invocations.keySet()) {
-					RemoteInvocationBean invocationBean = invocations.get(sequence);
-					if (invocationBean != null) {
-						InvocationRequest request = invocationBean.request;
-						if (request.getTimeout() > 0 && request.getCreateMillisTime() > 0
-								&& request.getCreateMillisTime() + request.getTimeout() < currentTime) {
-							timeoutCountInCurrentSecond++;
-							Callback callback = invocationBean.callback;
-							if (callback != null && callback.getClient() != null) {
-								ServiceStatisticsHolder.flowOut(request, callback.getClient().getAddress());
-							}
-							callback.dispose();
-							invocations.remove(sequence);
-							boolean isLog = true;
-							if (timeoutCountInLastSecond > Constants.LOG_THRESHOLD
-									&& timeoutCountInCurrentSecond % Constants.LOG_INTERVAL == 1) {
-								isLog = false;
-							}
-							if (isLog) {
-								StringBuilder msg = new StringBuilder();
-								msg.append("remove timeout request, process time:").append(System.currentTimeMillis())
-										.append("\r\n").append("request:").append(request);
-								logger.warn(msg.toString());
-								// RequestTimeoutException e = new
-								// RequestTimeoutException(msg.toString());
-								// if (monitorLogger != null) {
-								// monitorLogger.logError(e);
-								// }
-							}
-						}
-					}
-				}
-			} catch (Throwable e) {
-				logger.warn("checking remote call timeout failed", e);
+	public void run(Timeout timeout) {
+		if (invocationBean.callback instanceof StreamCallback) {
+			// 流式调用的超时从最近一次收到数据块开始计算
+			long idle = ((StreamCallback) invocationBean.callback).getIdleMillis();
+			long remaining = invocationBean.request.getTimeout() - idle;
+			if (remaining > 0) {
+				ServiceInvocationRepository.getInstance().reschedule(sequence, invocationBean, remaining);
+				return;
+			}
+		}
+		// 与响应处理竞争，只有成功移除的一方继续处理
+		if (!invocations.remove(sequence, invocationBean)) {
+			return;
+		}
+		InvocationRequest request = invocationBean.request;
+		Callback callback = invocationBean.callback;
+		if (callback != null) {
+			if (callback.getClient() != null) {
+				// 超时的请求以已等待的时间计入响应时间，使无响应的服务端代价升高
+				ServiceStatisticsHolder.updateLatency(request, callback.getClient().getAddress(), System.nanoTime()
+						- invocationBean.startNanos);
+				ServiceStatisticsHolder.flowOut(request, callback.getClient().getAddress());
+				callback.getClient().complete(request);
 			}
+			// 以RequestTimeoutException结束回调或future，晚到的响应已无法再从在途表中取到
+			ResponseProcessorFactory.selectProcessor().processTimeout(callback);
+		}
+		ServiceInvocationRepository.getInstance().countTimeout(sequence);
+		int count = countTimeout();
+		boolean isLog = true;
+		if (timeoutCountInLastSecond > Constants.LOG_THRESHOLD && count % Constants.LOG_INTERVAL == 1) {
+			isLog = false;
+		}
+		if (isLog) {
+			StringBuilder msg = new StringBuilder();
+			msg.append("remove timeout request, process time:").append(System.currentTimeMillis()).append("\r\n")
+					.append("request:").append(request);
+			logger.warn(msg.toString());
+		}
+	}
+
+	private static int countTimeout() {
+		long second = System.currentTimeMillis() / 1000;
+		long last = currentSecond.get();
+		if (second != last && currentSecond.compareAndSet(last, second)) {
+			int lastCount = timeoutCountInCurrentSecond.getAndSet(0);
+			timeoutCountInLastSecond = (second == last + 1) ? lastCount : 0;
 		}
+		return timeoutCountInCurrentSecond.incrementAndGet();
 	}
 }
@@ -4,12 +4,14 @@
  */
 package com.dianping.pigeon.remoting.invoker.listener;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 
@@ -19,65 +21,155 @@ import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.registry.RegistryManager;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.ConnectCallback;
 import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
 
+/**
+ * 断开连接的重连：每个地址单独退避（指数增长、带随机抖动、有上限），连接异步发起，不阻塞其他地址的重连；
+ * 连接成功后由IO线程通知，重连线程立即加回可用连接
+ */
 public class ReconnectListener implements Runnable, ClusterListener {
 
 	private static Logger logger = LoggerLoader.getLogger(ReconnectListener.class);
 
 	private static ConcurrentMap<String, Client> closedClients = new ConcurrentHashMap<String, Client>();
 
+	// 每个地址的重连退避状态
+	private static ConcurrentMap<String, ReconnectState> reconnectStates = new ConcurrentHashMap<String, ReconnectState>();
+
 	private final ClusterListenerManager clusterListenerManager = ClusterListenerManager.getInstance();
 
 	private ConfigManager configManager = ConfigManagerLoader.getConfigManager();
 
 	private Map<String, List<Client>> workingClients;
 
+	// 异步连接成功的client，由重连线程加回
+	private final BlockingQueue<Client> connectedClients = new LinkedBlockingQueue<Client>();
+
+	private final Random random = new Random();
+
 	@Override
 	public void run() {
-		long interval = configManager.getLongValue(Constants.KEY_RECONNECT_INTERVAL,
-				Constants.DEFAULT_RECONNECT_INTERVAL);
-		long sleepTime = interval;
+		long sleepTime = 0;
 		while (!Thread.currentThread().isInterrupted()) {
+			long interval = configManager.getLongValue(Constants.KEY_RECONNECT_INTERVAL,
+					Constants.DEFAULT_RECONNECT_INTERVAL);
 			try {
-				Thread.sleep(sleepTime);
+				Client connected = connectedClients.poll(sleepTime, TimeUnit.MILLISECONDS);
+				while (connected != null) {
+					onConnected(connected);
+					connected = connectedClients.poll();
+				}
 				long now = System.currentTimeMillis();
-				Set<String> toRemovedClients = new HashSet<String>();
+				long nextAttempt = now + interval;
 				for (String providerUrl : closedClients.keySet()) {
 					Client client = closedClients.get(providerUrl);
+					if (client == null) {
+						continue;
+					}
 					if (logger.isDebugEnabled()) {
 						logger.debug("[reconnect] checking service provider:" + client);
 					}
 					boolean enable = Constants.PROTOCOL_DEFAULT.equals(client.getProtocol())
 							&& (RegistryManager.getInstance().getServiceWeight(client.getAddress()) > 0);
-					if (enable) {
-						if (!client.isConnected()) {
-							try {
-								client.connect();
-							} catch (Throwable e) {
-								logger.info("[reconnect] connect server[" + providerUrl + "] failed:" + e.getMessage());
-							}
-						}
-						if (client.isConnected()) {
-							// 加回去时active设置为true
-							clusterListenerManager.addConnect(client.getConnectInfo());
-							client.setActive(true);
-							toRemovedClients.add(providerUrl);
-						}
+					if (!enable) {
+						continue;
+					}
+					if (client.isConnected()) {
+						onConnected(client);
+						continue;
+					}
+					ReconnectState state = getReconnectState(providerUrl);
+					if (!state.connecting && state.nextAttemptMillis <= now) {
+						reconnect(providerUrl, client, state, interval);
+					}
+					if (!state.connecting) {
+						nextAttempt = Math.min(nextAttempt, state.nextAttemptMillis);
 					}
 				}
-				for (String providerUrl : toRemovedClients) {
-					closedClients.remove(providerUrl);
+				for (String providerUrl : reconnectStates.keySet()) {
+					if (!closedClients.containsKey(providerUrl)) {
+						reconnectStates.remove(providerUrl);
+					}
 				}
-				sleepTime = interval - (System.currentTimeMillis() - now);
+				sleepTime = Math.max(100, nextAttempt - System.currentTimeMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			} catch (Throwable e) {
 				logger.info("[reconnect] task failed:", e);
-			} finally {
-				if (sleepTime < 1000) {
-					sleepTime = 1000;
+				sleepTime = interval;
+			}
+		}
+	}
+
+	private void reconnect(final String providerUrl, Client client, final ReconnectState state, final long interval) {
+		state.connecting = true;
+		try {
+			client.connectAsync(new ConnectCallback() {
+
+				@Override
+				public void onConnected(Client client) {
+					state.connecting = false;
+					connectedClients.offer(client);
+				}
+
+				@Override
+				public void onConnectFailed(Client client, Throwable cause) {
+					backoff(state, interval);
+					state.connecting = false;
+					logger.info("[reconnect] connect server[" + providerUrl + "] failed, attempts:" + state.attempts
+							+ (cause != null ? ", " + cause.getMessage() : ""));
 				}
+			});
+		} catch (Throwable e) {
+			backoff(state, interval);
+			state.connecting = false;
+			logger.info("[reconnect] connect server[" + providerUrl + "] failed:" + e.getMessage());
+		}
+	}
+
+	/**
+	 * 下次重连的时间：interval * 2^(失败次数-1)，不超过上限，在[delay/2, delay]之间随机，避免大量client同时重连
+	 */
+	private void backoff(ReconnectState state, long interval) {
+		long maxBackoff = configManager.getLongValue("pigeon.reconnect.backoff.max", 60000);
+		int attempts = ++state.attempts;
+		long delay = Math.min(maxBackoff, interval << Math.min(attempts - 1, 20));
+		long jitter;
+		synchronized (random) {
+			jitter = (long) (random.nextDouble() * (delay / 2));
+		}
+		state.nextAttemptMillis = System.currentTimeMillis() + delay - jitter;
+	}
+
+	private void onConnected(Client client) {
+		String providerUrl = client.getConnectInfo().getConnect();
+		if (closedClients.remove(providerUrl, client)) {
+			rejoin(client);
+			ReconnectState state = reconnectStates.remove(providerUrl);
+			logger.info("[reconnect] reconnected to server[" + providerUrl + "], attempts:"
+					+ (state != null ? state.attempts : 0));
+		}
+	}
+
+	/**
+	 * 重连成功的client加回可用连接，加回去时active设置为true
+	 */
+	protected void rejoin(Client client) {
+		clusterListenerManager.addConnect(client.getConnectInfo());
+		client.setActive(true);
+	}
+
+	private ReconnectState getReconnectState(String providerUrl) {
+		ReconnectState state = reconnectStates.get(providerUrl);
+		if (state == null) {
+			state = new ReconnectState();
+			ReconnectState old = reconnectStates.putIfAbsent(providerUrl, state);
+			if (old != null) {
+				state = old;
 			}
 		}
+		return state;
 	}
 
 	private String makeProviderUrl(String host, int port) {
@@ -120,6 +212,7 @@ public class ReconnectListener implements Runnable, ClusterListener {
 		}
 		if (!isClientInUse) {
 			closedClients.remove(providerUrl);
+			reconnectStates.remove(providerUrl);
 		}
 	}
 
@@ -127,4 +220,14 @@ public class ReconnectListener implements Runnable, ClusterListener {
 		return closedClients;
 	}
 
+	private static class ReconnectState {
+
+		// 连续失败次数
+		volatile int attempts;
+
+		volatile long nextAttemptMillis;
+
+		volatile boolean connecting;
+	}
+
 }
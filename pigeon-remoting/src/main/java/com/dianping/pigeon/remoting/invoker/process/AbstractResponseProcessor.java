@@ -10,6 +10,7 @@ import com.dianping.pigeon.monitor.Monitor;
 import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
 import com.dianping.pigeon.remoting.invoker.process.threadpool.ResponseThreadPoolProcessor;
 
 /**
@@ -24,6 +25,8 @@ public abstract class AbstractResponseProcessor implements ResponseProcessor {
 
 	public abstract void doProcessResponse(InvocationResponse response, Client client);
 
+	public abstract void doProcessTimeout(Callback callback);
+
 	@Override
 	public void processResponse(InvocationResponse response, Client client) {
 		try {
@@ -36,4 +39,14 @@ public abstract class AbstractResponseProcessor implements ResponseProcessor {
 		}
 	}
 
+	@Override
+	public void processTimeout(Callback callback) {
+		try {
+			doProcessTimeout(callback);
+		} catch (Throwable e) {
+			String error = String.format("process timeout failed, processor stats:%s", getProcessorStatistics());
+			logger.error(error, e);
+			monitor.logError(error, e);
+		}
+	}
 }
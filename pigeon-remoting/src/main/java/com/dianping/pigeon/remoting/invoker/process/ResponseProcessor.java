@@ -6,6 +6,7 @@ package com.dianping.pigeon.remoting.invoker.process;
 
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
 
 public interface ResponseProcessor {
 
@@ -13,5 +14,10 @@ public interface ResponseProcessor {
 
 	public void processResponse(final InvocationResponse response, final Client client);
 
+	/**
+	 * 请求超时后在响应线程池中结束回调，避免业务回调阻塞超时检查线程
+	 */
+	public void processTimeout(final Callback callback);
+
 	public String getProcessorStatistics();
 }
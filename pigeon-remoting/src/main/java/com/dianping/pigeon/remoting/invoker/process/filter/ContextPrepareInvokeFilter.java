@@ -66,6 +66,14 @@ public class ContextPrepareInvokeFilter extends InvocationInvokeFilter {
 						request.setTimeout(timeout_);
 					}
 				}
+				Object deadline = ContextUtils.getLocalContext(Constants.REQUEST_DEADLINE);
+				if (deadline != null) {
+					long remaining = Long.parseLong(String.valueOf(deadline)) - request.getCreateMillisTime();
+					if (request.getTimeout() <= 0 || remaining < request.getTimeout()) {
+						// 上游已经超时时仍按1ms发出，由下游在出队时丢弃
+						request.setTimeout((int) Math.max(1, remaining));
+					}
+				}
 			}
 			MonitorTransaction transaction = monitor.getCurrentCallTransaction();
 			if (transaction != null) {
@@ -4,31 +4,42 @@
  */
 package com.dianping.pigeon.remoting.invoker.process.filter;
 
+import java.io.Serializable;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.Logger;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.registry.RegistryManager;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.InvalidParameterException;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.AsyncCallbackWrapper;
+import com.dianping.pigeon.remoting.invoker.callback.AsyncFuture;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
 import com.dianping.pigeon.remoting.invoker.callback.CallbackFuture;
 import com.dianping.pigeon.remoting.invoker.callback.ServiceCallback;
 import com.dianping.pigeon.remoting.invoker.callback.ServiceCallbackWrapper;
 import com.dianping.pigeon.remoting.invoker.callback.ServiceFutureFactory;
 import com.dianping.pigeon.remoting.invoker.callback.ServiceFutureImpl;
+import com.dianping.pigeon.remoting.invoker.callback.StreamIterator;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.config.InvokerMethodConfig;
 import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
 import com.dianping.pigeon.remoting.invoker.util.InvokerHelper;
 import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
 import com.dianping.pigeon.util.CollectionUtils;
+import com.dianping.pigeon.util.VersionUtils;
 
 /**
- * 执行实际的Remote Call，包括Sync, Future，Callback，Oneway
+ * 执行实际的Remote Call，包括Sync, Future，Callback，Oneway，Stream
  * 
  * @author danson.liu
  */
@@ -38,6 +49,11 @@ public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
 
 	private static final InvocationResponse NO_RETURN_RESPONSE = InvokerUtils.createNoReturnResponse();
 
+	private static final String streamMinVersion = ConfigManagerLoader.getConfigManager().getStringValue(
+			"pigeon.invoker.stream.version.min", VersionUtils.VERSION);
+
+	private ConcurrentHashMap<String, Boolean> versionSupportedMap = new ConcurrentHashMap<String, Boolean>();
+
 	@Override
 	public InvocationResponse invoke(ServiceInvocationHandler handler, InvokerContext invocationContext)
 			throws Throwable {
@@ -62,7 +78,17 @@ public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
 		if (timeoutThreadLocal != null) {
 			timeout = timeoutThreadLocal;
 		}
-		if (Constants.CALL_SYNC.equalsIgnoreCase(callType)) {
+		Callback attemptCallback = InvokerHelper.getAttemptCallback();
+		if (attemptCallback != null) {
+			// 由cluster等待结果（如hedging），这里只负责发出
+			InvocationResponse directResponse = InvokerUtils.sendRequest(client, invocationContext.getRequest(),
+					attemptCallback);
+			if (directResponse != null) {
+				attemptCallback.callback(directResponse);
+				attemptCallback.run();
+			}
+			response = NO_RETURN_RESPONSE;
+		} else if (Constants.CALL_SYNC.equalsIgnoreCase(callType)) {
 			CallbackFuture future = new CallbackFuture();
 			response = InvokerUtils.sendRequest(client, invocationContext.getRequest(), future);
 			if (response == null) {
@@ -83,6 +109,16 @@ public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
 			InvokerUtils.sendRequest(client, invocationContext.getRequest(), future);
 			ServiceFutureFactory.setFuture(future);
 			response = InvokerUtils.createFutureResponse(future);
+		} else if (Constants.CALL_ASYNC.equalsIgnoreCase(callType)) {
+			AsyncFuture<Object> future = new AsyncFuture<Object>();
+			InvokerUtils.sendRequest(client, invocationContext.getRequest(), new AsyncCallbackWrapper(
+					invocationContext, future));
+			response = InvokerUtils.createFutureResponse(future);
+		} else if (Constants.CALL_STREAM.equalsIgnoreCase(callType)) {
+			StreamIterator stream = new StreamIterator();
+			prepareStreamRequest(client, request, stream.getWindow());
+			InvokerUtils.sendRequest(client, request, stream);
+			response = InvokerUtils.createStreamResponse(stream);
 		} else if (Constants.CALL_ONEWAY.equalsIgnoreCase(callType)) {
 			InvokerUtils.sendRequest(client, invocationContext.getRequest(), null);
 			response = NO_RETURN_RESPONSE;
@@ -93,4 +129,33 @@ public class RemoteCallInvokeFilter extends InvocationInvokeFilter {
 		return response;
 	}
 
+	/**
+	 * 初始额度随请求上下文发出，服务端据此按数据块返回；不能改动线程上下文中的map
+	 */
+	private void prepareStreamRequest(Client client, InvocationRequest request, int window) {
+		if (!Constants.PROTOCOL_DEFAULT.equals(client.getProtocol()) || !isStreamSupported(client)) {
+			throw new InvalidParameterException("stream call is not supported by " + client.getAddress()
+					+ ", protocol:" + client.getProtocol());
+		}
+		Map<String, Serializable> requestValues = new HashMap<String, Serializable>();
+		if (request.getRequestValues() != null) {
+			requestValues.putAll(request.getRequestValues());
+		}
+		requestValues.put(Constants.REQUEST_STREAM_CREDIT, window);
+		request.setRequestValues(requestValues);
+	}
+
+	private boolean isStreamSupported(Client client) {
+		String version = RegistryManager.getInstance().getReferencedVersion(client.getAddress());
+		if (StringUtils.isBlank(version)) {
+			return false;
+		}
+		Boolean supported = versionSupportedMap.get(version);
+		if (supported == null) {
+			supported = VersionUtils.compareVersion(version, streamMinVersion) >= 0;
+			versionSupportedMap.putIfAbsent(version, supported);
+		}
+		return supported;
+	}
+
 }
@@ -1,33 +1,38 @@
 package com.dianping.pigeon.remoting.invoker.process.statistics;
 
 import java.io.Serializable;
-import java.util.Calendar;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.logging.log4j.Logger;
-
 import com.dianping.pigeon.config.ConfigManagerLoader;
-import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.SlidingWindowCounter;
+import com.dianping.pigeon.remoting.common.util.StripedCounter;
 import com.dianping.pigeon.util.ContextUtils;
 
 public class InvokerCapacityBucket implements Serializable {
 	/**
-	 * 
+	 *
 	 */
 	private static final long serialVersionUID = 1L;
 
-	private static final Logger logger = LoggerLoader.getLogger(InvokerCapacityBucket.class);
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private transient final StripedCounter requests = new StripedCounter();
 
-	private AtomicInteger requests = new AtomicInteger();
+	// 按单调时间的秒、分钟序号统计，按本地时区的日期序号统计，计数器自动轮转，不需要定时重置
+	private transient final SlidingWindowCounter totalRequestsInSecond = new SlidingWindowCounter(64);
 
-	private Map<Integer, AtomicInteger> totalRequestsInSecond = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private transient final SlidingWindowCounter totalRequestsInMinute = new SlidingWindowCounter(64);
 
-	private Map<Integer, AtomicInteger> totalRequestsInDay = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private transient final SlidingWindowCounter totalRequestsInDay = new SlidingWindowCounter(64);
 
-	private Map<Integer, AtomicInteger> totalRequestsInMinute = new ConcurrentHashMap<Integer, AtomicInteger>();
+	// 本地时区偏移，定时刷新，避免每次请求计算日历
+	private static volatile long timeZoneOffset = TimeZone.getDefault().getOffset(System.currentTimeMillis());
 
 	public static final boolean enableDayStats = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.invokerstat.day.enable", true);
@@ -44,18 +49,17 @@ public class InvokerCapacityBucket implements Serializable {
 	}
 
 	public InvokerCapacityBucket(String address) {
-		preFillData();
 	}
 
 	public void flowIn(InvocationRequest request) {
-		Calendar now = Calendar.getInstance();
-		requests.incrementAndGet();
-		incrementTotalRequestsInSecond(now.get(Calendar.SECOND));
+		long second = SlidingWindowCounter.currentSecond();
+		requests.increment();
+		totalRequestsInSecond.increment(second);
 		if (enableMinuteStats) {
-			incrementTotalRequestsInMinute(now.get(Calendar.MINUTE));
+			totalRequestsInMinute.increment(second / 60);
 		}
 		if (enableDayStats) {
-			incrementTotalRequestsInDay(now.get(Calendar.DATE));
+			totalRequestsInDay.increment(currentDay());
 		}
 		if (enableMethodStats) {
 			String callUrl = request.getServiceName() + "#" + request.getMethodName();
@@ -67,148 +71,63 @@ public class InvokerCapacityBucket implements Serializable {
 	}
 
 	public void flowOut(InvocationRequest request) {
-		requests.decrementAndGet();
+		requests.decrement();
 	}
 
 	public int getCurrentRequests() {
-		return requests.get();
+		return (int) requests.sum();
 	}
 
+	/**
+	 * @return 最近60秒每秒的请求数，key为秒（0-59）
+	 */
 	public Map<Integer, AtomicInteger> getTotalRequestsInSecond() {
-		return totalRequestsInSecond;
+		Map<Integer, AtomicInteger> requestsInSecond = new TreeMap<Integer, AtomicInteger>();
+		for (int second = 0; second < 60; second++) {
+			requestsInSecond.put(second, new AtomicInteger(getRequestsInSecond(second)));
+		}
+		return requestsInSecond;
 	}
 
+	/**
+	 * @param second
+	 *            最近一分钟内的秒（0-59）
+	 */
 	public int getRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		return counter != null ? counter.get() : 0;
+		int currentSecond = (int) ((System.currentTimeMillis() / 1000) % 60);
+		int ago = (currentSecond - second + 60) % 60;
+		return (int) totalRequestsInSecond.get(SlidingWindowCounter.currentSecond() - ago);
 	}
-	
+
 	public int getRequestsInLastSecond() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.SECOND, -1);
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInSecond.get(SlidingWindowCounter.currentSecond() - 1);
 	}
 
 	public int getRequestsInCurrentSecond() {
-		Calendar cal = Calendar.getInstance();
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInSecond.get(SlidingWindowCounter.currentSecond());
 	}
 
 	public int getRequestsInLastMinute() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.MINUTE, -1);
-		int lastMinute = cal.get(Calendar.MINUTE);
-		lastMinute = lastMinute >= 0 ? lastMinute : lastMinute + 60;
-		AtomicInteger counter = totalRequestsInMinute.get(lastMinute);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInMinute.get(SlidingWindowCounter.currentSecond() / 60 - 1);
 	}
 
 	public int getRequestsInLastDay() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.DATE, -1);
-		int lastDay = cal.get(Calendar.DATE);
-		AtomicInteger counter = totalRequestsInDay.get(lastDay);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInDay.get(currentDay() - 1);
 	}
 
 	public int getRequestsInToday() {
-		Calendar cal = Calendar.getInstance();
-		int day = cal.get(Calendar.DATE);
-		AtomicInteger counter = totalRequestsInDay.get(day);
-		return counter != null ? counter.get() : 0;
-	}
-
-	private void incrementTotalRequestsInDay(int day) {
-		AtomicInteger counter = totalRequestsInDay.get(day);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, day[" + day + "]'s request counter is null.");
-		}
+		return (int) totalRequestsInDay.get(currentDay());
 	}
 
-	private void incrementTotalRequestsInMinute(int minute) {
-		AtomicInteger counter = totalRequestsInMinute.get(minute);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, day[" + minute + "]'s request counter is null.");
-		}
-	}
-
-	private void incrementTotalRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, second[" + second + "]'s request counter is null.");
-		}
+	private static long currentDay() {
+		return (System.currentTimeMillis() + timeZoneOffset) / DAY_MILLIS;
 	}
 
 	/**
-	 * 重置过期的每秒请求数计数器
+	 * 刷新时区偏移（夏令时切换），由InvokerStatisticsChecker定时调用
 	 */
-	public void resetRequestsInSecondCounter() {
-		int second = Calendar.getInstance().get(Calendar.SECOND);
-		int prev3Sec = second - 10;
-		for (int i = 1; i <= 30; i++) {
-			int prevSec = prev3Sec - i;
-			prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-			AtomicInteger counter = totalRequestsInSecond.get(prevSec);
-			if (counter != null) {
-				counter.set(0);
-			}
-		}
-	}
-
-	public void resetRequestsInDayCounter() {
-		if (enableDayStats) {
-			int day = Calendar.getInstance().get(Calendar.DATE);
-			int prev3Sec = day - 10;
-			for (int i = 1; i <= 15; i++) {
-				int prevSec = prev3Sec - i;
-				prevSec = prevSec >= 0 ? prevSec : prevSec + 31;
-				AtomicInteger counter = totalRequestsInDay.get(prevSec);
-				if (counter != null) {
-					counter.set(0);
-				}
-			}
-		}
-	}
-
-	public void resetRequestsInMinuteCounter() {
-		if (enableMinuteStats) {
-			int min = Calendar.getInstance().get(Calendar.MINUTE);
-			int prev3Sec = min - 10;
-			for (int i = 1; i <= 30; i++) {
-				int prevSec = prev3Sec - i;
-				prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-				AtomicInteger counter = totalRequestsInMinute.get(prevSec);
-				if (counter != null) {
-					counter.set(0);
-				}
-			}
-		}
-	}
-
-	private void preFillData() {
-		for (int sec = 0; sec < 60; sec++) {
-			totalRequestsInSecond.put(sec, new AtomicInteger());
-		}
-		if (enableMinuteStats) {
-			for (int min = 0; min < 60; min++) {
-				totalRequestsInMinute.put(min, new AtomicInteger());
-			}
-		}
-		if (enableDayStats) {
-			for (int day = 1; day < 32; day++) {
-				totalRequestsInDay.put(day, new AtomicInteger());
-			}
-		}
+	public static void refreshTimeZoneOffset() {
+		timeZoneOffset = TimeZone.getDefault().getOffset(System.currentTimeMillis());
 	}
 
 	public String toString() {
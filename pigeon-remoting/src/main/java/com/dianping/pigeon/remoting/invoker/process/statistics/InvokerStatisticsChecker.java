@@ -1,7 +1,5 @@
 package com.dianping.pigeon.remoting.invoker.process.statistics;
 
-import java.util.Map;
-
 import org.apache.logging.log4j.Logger;
 
 import com.dianping.pigeon.log.LoggerLoader;
@@ -14,34 +12,16 @@ public class InvokerStatisticsChecker implements Runnable {
 	public void run() {
 		InvokerStatisticsHolder.init();
 		InvokerCapacityBucket.init();
-		int i = 0, j = 0;
 		while (!Thread.currentThread().isInterrupted()) {
 			try {
 				Thread.sleep(5000);
 			} catch (InterruptedException e) {
 			}
-			Map<String, InvokerCapacityBucket> buckets = InvokerStatisticsHolder.getCapacityBuckets();
-			if (buckets != null) {
-				try {
-					for (String key : buckets.keySet()) {
-						InvokerCapacityBucket bucket = buckets.get(key);
-						bucket.resetRequestsInSecondCounter();
-					}
-					if (++i % 12 == 0) {
-						i = 0;
-						for (InvokerCapacityBucket bucket : buckets.values()) {
-							bucket.resetRequestsInMinuteCounter();
-						}
-					}
-					if (++j % 17280 == 0) {
-						j = 0;
-						for (InvokerCapacityBucket bucket : buckets.values()) {
-							bucket.resetRequestsInDayCounter();
-						}
-					}
-				} catch (Throwable e) {
-					logger.error("Check expired request in app statistics failed, detail[" + e.getMessage() + "].", e);
-				}
+			try {
+				// 计数器按时间序号自动轮转，只需刷新时区偏移
+				InvokerCapacityBucket.refreshTimeZoneOffset();
+			} catch (Throwable e) {
+				logger.error("Check expired request in app statistics failed, detail[" + e.getMessage() + "].", e);
 			}
 		}
 	}
@@ -15,6 +15,7 @@ import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.exception.RejectedException;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
 import com.dianping.pigeon.remoting.invoker.process.AbstractResponseProcessor;
 import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
 import com.dianping.pigeon.threadpool.DefaultThreadPool;
@@ -56,11 +57,20 @@ public class ResponseThreadPoolProcessor extends AbstractResponseProcessor {
 		}
 	}
 
+	public void doProcessTimeout(final Callback callback) {
+		Runnable task = new Runnable() {
+			public void run() {
+				callback.dispose();
+			}
+		};
+		responseProcessThreadPool.execute(task);
+	}
+
 	@Override
 	public String getProcessorStatistics() {
 		ThreadPoolExecutor e = responseProcessThreadPool.getExecutor();
 		String stats = String.format(
-				"response pool size:%d(active:%d,core:%d,max:%d,largest:%),task count:%d(completed:%d),queue size:%d",
+				"response pool size:%d(active:%d,core:%d,max:%d,largest:%d),task count:%d(completed:%d),queue size:%d",
 				e.getPoolSize(), e.getActiveCount(), e.getCorePoolSize(), e.getMaximumPoolSize(),
 				e.getLargestPoolSize(), e.getTaskCount(), e.getCompletedTaskCount(), e.getQueue().size());
 		return stats;
@@ -28,6 +28,7 @@ import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalance;
 import com.dianping.pigeon.remoting.invoker.route.balance.LoadBalanceManager;
 import com.dianping.pigeon.remoting.invoker.route.balance.RandomLoadBalance;
 import com.dianping.pigeon.remoting.invoker.route.balance.WeightedAutoawareLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
 
 public class DefaultRouteManager implements RouteManager, Disposable {
 
@@ -101,16 +102,22 @@ public class DefaultRouteManager implements RouteManager, Disposable {
 		Boolean isWriteBufferLimit = (Boolean) request.getAttachment(Constants.REQ_ATTACH_WRITE_BUFF_LIMIT);
 		isWriteBufferLimit = (isWriteBufferLimit != null ? isWriteBufferLimit : false)
 				&& request.getCallType() == Constants.CALLTYPE_NOREPLY;
+		boolean isConcurrencyLimit = ServiceStatisticsHolder.adaptiveLimitEnable
+				&& request.getCallType() == Constants.CALLTYPE_REPLY;
 		List<Client> filteredClients = new ArrayList<Client>(clientList.size());
 		boolean existClientBuffToLimit = false;
+		boolean existClientConcurrencyToLimit = false;
 		for (Client client : clientList) {
 			if (client != null) {
 				String address = client.getAddress();
 				if (client.isActive() && RegistryManager.getInstance().getServiceWeightFromCache(address) > 0) {
-					if (!isWriteBufferLimit || client.isWritable()) {
-						filteredClients.add(client);
-					} else {
+					if (isWriteBufferLimit && !client.isWritable()) {
 						existClientBuffToLimit = true;
+					} else if (isConcurrencyLimit && ServiceStatisticsHolder.isLimitReached(address)) {
+						// 在途请求已满的服务端不再写入，路由到其他服务端，全部已满时快速失败
+						existClientConcurrencyToLimit = true;
+					} else {
+						filteredClients.add(client);
 					}
 				}
 			}
@@ -118,7 +125,9 @@ public class DefaultRouteManager implements RouteManager, Disposable {
 		if (filteredClients.isEmpty()) {
 			throw new ServiceUnavailableException("no available server exists for service[" + invokerConfig.getUrl()
 					+ "] and group[" + invokerConfig.getGroup() + "]"
-					+ (existClientBuffToLimit ? ", and exists some server's write buffer reach limit" : "") + ".");
+					+ (existClientBuffToLimit ? ", and exists some server's write buffer reach limit" : "")
+					+ (existClientConcurrencyToLimit ? ", and exists some server's concurrency reach limit" : "")
+					+ ".");
 		}
 		return filteredClients;
 	}
@@ -59,7 +59,7 @@ public abstract class AbstractLoadBalance implements LoadBalance {
 		} else {
 			try {
 				selectedClient = doSelect(clients, invokerConfig, request,
-						getWeights(clients, request.getServiceName()));
+						isWeightsRequired() ? getWeights(clients, request.getServiceName()) : null);
 			} catch (Throwable e) {
 				logger.error("failed to do load balance[" + getClass().getName() + "], detail: " + e.getMessage()
 						+ ", use random instead.", e);
@@ -107,6 +107,13 @@ public abstract class AbstractLoadBalance implements LoadBalance {
 		return weights;
 	}
 
+	/**
+	 * 不需要全部客户端权重的负载均衡返回false，doSelect的weights参数为null
+	 */
+	protected boolean isWeightsRequired() {
+		return true;
+	}
+
 	protected abstract Client doSelect(List<Client> clients, InvokerConfig<?> invokerConfig, InvocationRequest request,
 			int[] weights);
 
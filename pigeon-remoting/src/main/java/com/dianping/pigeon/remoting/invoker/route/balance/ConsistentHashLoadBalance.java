@@ -0,0 +1,340 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.route.balance;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.registry.RegistryManager;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.ClientManager;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.config.InvokerMethodConfig;
+import com.dianping.pigeon.remoting.invoker.exception.ServiceUnavailableException;
+
+/**
+ * 一致性哈希负载均衡（ketama环）：相同key的请求固定路由到同一个服务端，适合服务端按参数做本地缓存的场景
+ *
+ * 每个服务端在环上的虚拟节点数 = pigeon.loadbalance.consistenthash.replicas * 注册中心权重；
+ * 环按注册的全部服务端构建，只在服务端增减或权重变化时重建，只有约1/N的key会改变路由；
+ * 暂时不可用（不可写、在途请求已满等）的服务端不重建环，沿环顺时针跳到下一个可用的服务端。
+ * key取自方法配置的hashKeyExtractor，其次是hashArgIndex指定的参数，默认取pigeon.loadbalance.consistenthash.argindex；
+ * key按值计算hash（String、枚举名、数组内容、重写了hashCode或toString的对象），
+ * 两者都没有重写的对象在调用端之间无法保持一致，按随机选择处理
+ */
+public class ConsistentHashLoadBalance extends AbstractLoadBalance {
+
+	private static final Logger logger = LoggerLoader.getLogger(ConsistentHashLoadBalance.class);
+	public static final String NAME = "consistentHash";
+	public static final LoadBalance instance = new ConsistentHashLoadBalance();
+
+	private static final int replicas = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.loadbalance.consistenthash.replicas", 160);
+
+	private static final int defaultArgIndex = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.loadbalance.consistenthash.argindex", 0);
+
+	// url -> group -> 环，避免每次拼接serviceId
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, Ring>> rings =
+			new ConcurrentHashMap<String, ConcurrentHashMap<String, Ring>>();
+
+	private static final int KEY_HASHCODE = 0;
+	private static final int KEY_TOSTRING = 1;
+	private static final int KEY_UNSTABLE = 2;
+
+	// key的类型按哪种方式计算hash，不能按值计算时只告警一次
+	private final ConcurrentHashMap<Class<?>, Integer> keyTypes = new ConcurrentHashMap<Class<?>, Integer>();
+
+	@Override
+	protected boolean isWeightsRequired() {
+		return false;
+	}
+
+	@Override
+	public Client doSelect(List<Client> clients, InvokerConfig<?> invokerConfig, InvocationRequest request,
+			int[] weights) {
+		assert (clients != null && clients.size() >= 1);
+		if (clients.size() == 1) {
+			return clients.get(0);
+		}
+		Object key = getHashKey(invokerConfig, request);
+		Integer keyHash = key == null ? null : hashCode(key);
+		if (keyHash == null) {
+			return clients.get(random.nextInt(clients.size()));
+		}
+		long hash = hash(keyHash);
+		Client client = getRing(getAllClients(clients, invokerConfig), invokerConfig, request).select(hash, clients);
+		if (client == null) {
+			// 可用的服务端不在注册的服务端中（注册信息尚未同步），只按可用的服务端选择
+			client = new Ring(clients, signature(clients)).select(hash, clients);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("select address:" + client.getAddress() + " by key:" + key);
+		}
+		return client;
+	}
+
+	/**
+	 * 服务注册的全部客户端，环按其构建，不随可用性过滤变化
+	 */
+	protected List<Client> getAllClients(List<Client> availableClients, InvokerConfig<?> invokerConfig) {
+		if (invokerConfig == null || invokerConfig.getUrl() == null) {
+			return availableClients;
+		}
+		try {
+			return ClientManager.getInstance().getClusterListener().getClientList(invokerConfig);
+		} catch (ServiceUnavailableException e) {
+			return availableClients;
+		}
+	}
+
+	private Object getHashKey(InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		int argIndex = defaultArgIndex;
+		Map<String, InvokerMethodConfig> methods = invokerConfig == null ? null : invokerConfig.getMethods();
+		if (methods != null && !methods.isEmpty()) {
+			InvokerMethodConfig methodConfig = methods.get(request.getMethodName());
+			if (methodConfig != null) {
+				if (methodConfig.getHashKeyExtractor() != null) {
+					return methodConfig.getHashKeyExtractor().getHashKey(request);
+				}
+				if (methodConfig.getHashArgIndex() >= 0) {
+					argIndex = methodConfig.getHashArgIndex();
+				}
+			}
+		}
+		Object[] parameters = request.getParameters();
+		if (parameters == null || argIndex < 0 || argIndex >= parameters.length) {
+			return null;
+		}
+		return parameters[argIndex];
+	}
+
+	/**
+	 * 按值计算的hashCode：枚举用名称，数组用内容，没有重写hashCode的对象用toString，两者都没有重写时返回null
+	 */
+	private Integer hashCode(Object key) {
+		if (key instanceof String) {
+			return key.hashCode();
+		} else if (key instanceof Enum) {
+			return ((Enum<?>) key).name().hashCode();
+		} else if (key instanceof Object[]) {
+			return Arrays.deepHashCode((Object[]) key);
+		} else if (key instanceof byte[]) {
+			return Arrays.hashCode((byte[]) key);
+		} else if (key instanceof int[]) {
+			return Arrays.hashCode((int[]) key);
+		} else if (key instanceof long[]) {
+			return Arrays.hashCode((long[]) key);
+		} else if (key instanceof char[]) {
+			return Arrays.hashCode((char[]) key);
+		} else if (key.getClass().isArray()) {
+			return null;
+		}
+		Integer keyType = keyTypes.get(key.getClass());
+		if (keyType == null) {
+			keyType = getKeyType(key.getClass());
+			if (keyTypes.putIfAbsent(key.getClass(), keyType) == null && keyType.intValue() == KEY_UNSTABLE) {
+				logger.warn("hash key type " + key.getClass().getName()
+						+ " overrides neither hashCode nor toString, consistent hash falls back to random selection");
+			}
+		}
+		if (keyType.intValue() == KEY_HASHCODE) {
+			return key.hashCode();
+		} else if (keyType.intValue() == KEY_TOSTRING) {
+			return key.toString().hashCode();
+		}
+		return null;
+	}
+
+	private static int getKeyType(Class<?> type) {
+		if (overrides(type, "hashCode")) {
+			return KEY_HASHCODE;
+		} else if (overrides(type, "toString")) {
+			return KEY_TOSTRING;
+		}
+		return KEY_UNSTABLE;
+	}
+
+	private static boolean overrides(Class<?> type, String method) {
+		try {
+			return type.getMethod(method).getDeclaringClass() != Object.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private Ring getRing(List<Client> clients, InvokerConfig<?> invokerConfig, InvocationRequest request) {
+		String url = invokerConfig == null || invokerConfig.getUrl() == null ? request.getServiceName()
+				: invokerConfig.getUrl();
+		String group = invokerConfig == null || invokerConfig.getGroup() == null ? "" : invokerConfig.getGroup();
+		ConcurrentHashMap<String, Ring> groupRings = rings.get(url);
+		if (groupRings == null) {
+			groupRings = new ConcurrentHashMap<String, Ring>();
+			ConcurrentHashMap<String, Ring> old = rings.putIfAbsent(url, groupRings);
+			if (old != null) {
+				groupRings = old;
+			}
+		}
+		long signature = signature(clients);
+		Ring ring = groupRings.get(group);
+		if (ring == null || ring.size != clients.size() || ring.signature != signature) {
+			Ring newRing = new Ring(clients, signature);
+			// 并发重建时只保留一个环
+			boolean replaced = ring == null ? groupRings.putIfAbsent(group, newRing) == null : groupRings.replace(
+					group, ring, newRing);
+			if (replaced) {
+				if (logger.isInfoEnabled()) {
+					logger.info("rebuild consistent hash ring for service:" + url + ", group:" + group
+							+ ", clients:" + clients.size() + ", points:" + newRing.points.length);
+				}
+			}
+			ring = newRing;
+		}
+		return ring;
+	}
+
+	/**
+	 * 客户端集合和权重的签名，与顺序无关，不分配对象
+	 */
+	private static long signature(List<Client> clients) {
+		long signature = 0;
+		for (int i = 0; i < clients.size(); i++) {
+			Client client = clients.get(i);
+			int weight = RegistryManager.getInstance().getServiceWeightFromCache(client.getAddress());
+			signature += mix((((long) System.identityHashCode(client)) << 32) | (weight & 0xffffffffL));
+		}
+		return signature;
+	}
+
+	static long hash(int h) {
+		// murmur3 fmix32，打散hashCode的低位规律
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h & 0xffffffffL;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static final class Ring {
+
+		final int size;
+
+		final long signature;
+
+		final Client[] clients;
+
+		// 环上的点（无符号32位hash），升序
+		final long[] points;
+
+		// 每个点对应的服务端下标
+		final int[] owners;
+
+		Ring(List<Client> clientList, long signature) {
+			this.size = clientList.size();
+			this.signature = signature;
+			this.clients = clientList.toArray(new Client[size]);
+			int total = 0;
+			int[] counts = new int[size];
+			for (int i = 0; i < size; i++) {
+				int weight = RegistryManager.getInstance().getServiceWeightFromCache(clients[i].getAddress());
+				counts[i] = Math.max(1, replicas * Math.max(1, weight) / 4) * 4;
+				total += counts[i];
+			}
+			// hash左移31位，低31位为服务端下标，保持非负以便直接排序，排序后拆开
+			long[] packed = new long[total];
+			int n = 0;
+			MessageDigest md5 = md5();
+			for (int i = 0; i < size; i++) {
+				String address = clients[i].getAddress();
+				for (int j = 0; j < counts[i] / 4; j++) {
+					byte[] digest = md5.digest((address + "-" + j).getBytes());
+					for (int k = 0; k < 4; k++) {
+						long point = ((long) (digest[3 + k * 4] & 0xFF) << 24)
+								| ((long) (digest[2 + k * 4] & 0xFF) << 16) | ((long) (digest[1 + k * 4] & 0xFF) << 8)
+								| (digest[k * 4] & 0xFF);
+						packed[n++] = (point << 31) | i;
+					}
+				}
+			}
+			Arrays.sort(packed);
+			points = new long[total];
+			owners = new int[total];
+			for (int i = 0; i < total; i++) {
+				points[i] = packed[i] >>> 31;
+				owners[i] = (int) (packed[i] & 0x7fffffffL);
+			}
+		}
+
+		/**
+		 * 从hash所在位置顺时针找第一个在available中的服务端，都不在时返回null
+		 */
+		Client select(long hash, List<Client> available) {
+			int index = Arrays.binarySearch(points, hash);
+			if (index < 0) {
+				index = -index - 1;
+				if (index >= points.length) {
+					index = 0;
+				}
+			}
+			Client client = clients[owners[index]];
+			if (containsClient(available, client)) {
+				return client;
+			}
+			// 只在落到不可用的服务端时才标记可用的下标
+			boolean[] usable = new boolean[size];
+			boolean any = false;
+			for (int i = 0; i < size; i++) {
+				usable[i] = containsClient(available, clients[i]);
+				any |= usable[i];
+			}
+			if (!any) {
+				return null;
+			}
+			for (int i = 1; i < points.length; i++) {
+				int owner = owners[(index + i) % points.length];
+				if (usable[owner]) {
+					return clients[owner];
+				}
+			}
+			return null;
+		}
+
+		private static boolean containsClient(List<Client> clients, Client client) {
+			for (int i = 0; i < clients.size(); i++) {
+				if (clients.get(i) == client) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static MessageDigest md5() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("MD5 not supported", e);
+			}
+		}
+	}
+}
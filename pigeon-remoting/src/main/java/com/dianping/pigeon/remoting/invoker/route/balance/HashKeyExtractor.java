@@ -0,0 +1,13 @@
+package com.dianping.pigeon.remoting.invoker.route.balance;
+
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+
+/**
+ * 一致性哈希负载均衡的路由key提取，在InvokerMethodConfig中按方法设置
+ *
+ * 返回对象的hashCode在不同调用端进程间需要一致（如String、Long），返回null时随机选择
+ */
+public interface HashKeyExtractor {
+
+	Object getHashKey(InvocationRequest request);
+}
@@ -0,0 +1,90 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.route.balance;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.route.statistics.CapacityBucket;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+
+/**
+ * 响应时间感知的负载均衡（power of two choices）：随机取两个服务端，选择代价小的一个
+ *
+ * 代价 = 响应时间平均值 * (在途请求数 + 1) / 权重，选择只看两个服务端，与集群大小无关；
+ * 变慢的服务端响应时间和在途请求数都会升高，流量自然减少
+ */
+public class LatencyAwareLoadBalance extends AbstractLoadBalance {
+
+	private static final Logger logger = LoggerLoader.getLogger(LatencyAwareLoadBalance.class);
+	public static final String NAME = "latencyAware";
+	public static final LoadBalance instance = new LatencyAwareLoadBalance();
+
+	// 每个线程一个Random，避免共享Random的seed竞争
+	private static final ThreadLocal<Random> randoms = new ThreadLocal<Random>() {
+
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	@Override
+	protected boolean isWeightsRequired() {
+		return false;
+	}
+
+	@Override
+	public Client doSelect(List<Client> clients, InvokerConfig<?> invokerConfig, InvocationRequest request,
+			int[] weights) {
+		assert (clients != null && clients.size() >= 1);
+		int clientSize = clients.size();
+		if (clientSize == 1) {
+			return clients.get(0);
+		}
+		Random random = randoms.get();
+		int first = random.nextInt(clientSize);
+		int second = random.nextInt(clientSize - 1);
+		if (second >= first) {
+			second++;
+		}
+		Client a = clients.get(first);
+		Client b = clients.get(second);
+		Client client = choose(a, b, System.nanoTime());
+		if (logger.isDebugEnabled()) {
+			logger.debug("select address:" + client.getAddress() + " from " + a.getAddress() + " and "
+					+ b.getAddress());
+		}
+		return client;
+	}
+
+	private Client choose(Client a, Client b, long now) {
+		CapacityBucket bucketA = ServiceStatisticsHolder.getCapacityBuckets().get(a.getAddress());
+		CapacityBucket bucketB = ServiceStatisticsHolder.getCapacityBuckets().get(b.getAddress());
+		int weightA = LoadBalanceManager.getEffectiveWeight(a.getAddress());
+		int weightB = LoadBalanceManager.getEffectiveWeight(b.getAddress());
+		if (weightA <= 0 || weightB <= 0) {
+			return weightA >= weightB ? a : b;
+		}
+		double latencyA = bucketA == null ? 0 : bucketA.getLatency().get(now);
+		double latencyB = bucketB == null ? 0 : bucketB.getLatency().get(now);
+		int outstandingA = bucketA == null ? 0 : bucketA.getOutstanding();
+		int outstandingB = bucketB == null ? 0 : bucketB.getOutstanding();
+		double costA = (outstandingA + 1) / (double) weightA;
+		double costB = (outstandingB + 1) / (double) weightB;
+		// 任意一个还没有响应时间时只比较在途请求数
+		if (latencyA > 0 && latencyB > 0) {
+			costA *= latencyA;
+			costB *= latencyB;
+		}
+		return costA <= costB ? a : b;
+	}
+}
@@ -1,137 +1,312 @@
 package com.dianping.pigeon.remoting.invoker.route.statistics;
 
 import java.io.Serializable;
-import java.util.Calendar;
-import java.util.Collections;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-import org.apache.logging.log4j.Logger;
-
-import com.dianping.pigeon.log.LoggerLoader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.AdaptiveConcurrencyLimit;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.SlidingWindowCounter;
+import com.dianping.pigeon.remoting.common.util.StripedCounter;
 
+/**
+ * 调用端对每个服务端的容量统计，flowIn/flowOut在每次调用的路径上，全部无锁
+ *
+ * 每个reply请求在flowIn时生成一个FlowToken放在请求附件中，flowOut时通过token释放，token只能释放一次；
+ * 在途请求按发出时间记在约4秒一个的窗口中，长时间没有释放的请求（超过2倍超时时间）由CapacityChecker整窗口回收
+ */
 @SuppressWarnings("serial")
 public class CapacityBucket implements Serializable {
-	private static final Logger logger = LoggerLoader.getLogger(CapacityBucket.class);
+
+	// 窗口长度2^32纳秒（约4.3秒），共32个窗口（约137秒），超时时间超过约68秒的请求在窗口轮转时回收
+	private static final int WINDOW_SHIFT = 32;
+	private static final int WINDOWS = 32;
+
+	// flow按百万分之一累加，避免浮点误差累积
+	private static final float FLOW_UNIT = 1000000f;
 
 	private String address;
-	private volatile float capacity = 0f;
-	private Set<Long> requestSeqs = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
-	// 桶中某些容量因某些意外因素导致没有释放, 可以用这个进行Check
-	public Map<Long, Object[]> requestSeqDetails = new ConcurrentHashMap<Long, Object[]>();
 
-	private AtomicLong totalRequest = new AtomicLong(); // total request
-														// send
-	private AtomicLong onewayRequest = new AtomicLong(); // total oneway
-															// request send
+	// 在途reply请求的flow之和
+	private transient final StripedCounter capacity = new StripedCounter();
+
+	private transient final StripedCounter totalRequest = new StripedCounter();
+
+	private transient final StripedCounter onewayRequest = new StripedCounter();
+
+	private transient final SlidingWindowCounter totalRequestInSecond = new SlidingWindowCounter(64);
+
+	private transient final AtomicReferenceArray<Window> windows = new AtomicReferenceArray<Window>(WINDOWS);
+
+	// 按该服务端的响应时间调整的在途请求数限制，未开启时为null
+	private transient final AdaptiveConcurrencyLimit concurrencyLimit;
 
-	private Map<Integer, AtomicInteger> totalRequestInSecond = new ConcurrentHashMap<Integer, AtomicInteger>();
+	// 在途的reply请求数，与响应时间一起用于latencyAware负载均衡
+	private transient final StripedCounter outstanding = new StripedCounter();
 
-	private Lock capacityLock = new ReentrantLock();
+	private transient final LatencyEwma latency = new LatencyEwma(ServiceStatisticsHolder.latencyDecayNanos,
+			ServiceStatisticsHolder.latencyStaleNanos);
 
 	public CapacityBucket(String address) {
 		this.address = address;
-		preFillData(); // 为了更优地计算每秒请求数, 使用预填数据代替同步数据结构
+		this.concurrencyLimit = ServiceStatisticsHolder.newConcurrencyLimit();
 	}
 
 	public void flowIn(InvocationRequest request) {
-		Calendar now = Calendar.getInstance();
-		totalRequest.incrementAndGet();
+		totalRequest.increment();
 		if (request.getCallType() == Constants.CALLTYPE_NOREPLY) {
-			onewayRequest.incrementAndGet();
+			onewayRequest.increment();
 		}
-		incrementTotalRequestInSecond(now.get(Calendar.SECOND));
+		totalRequestInSecond.increment(SlidingWindowCounter.currentSecond());
 		if (request.getCallType() == Constants.CALLTYPE_REPLY) {
+			FlowToken token = (FlowToken) request.getAttachment(Constants.REQ_ATTACH_FLOW_TOKEN);
+			if (token != null && token.bucket == this && token.released == 0) {
+				// 同一个请求重复发往同一个服务端，只统计一次
+				return;
+			}
 			Float flow = (Float) request.getAttachment(Constants.REQ_ATTACH_FLOW);
-			if (flow != null) {
-				refreshCapacity(flow);
+			long flowUnits = flow != null ? Math.round(flow * FLOW_UNIT) : 0;
+			long now = System.nanoTime();
+			Window window = currentWindow(now);
+			int cell = window.acquire(flowUnits, request.getTimeout());
+			token = new FlowToken(this, cell >= 0 ? window : null, cell, flowUnits, now);
+			capacity.add(flowUnits);
+			outstanding.increment();
+			if (concurrencyLimit != null) {
+				concurrencyLimit.acquire();
 			}
-			this.requestSeqs.add(request.getSequence());
-			this.requestSeqDetails.put(request.getSequence(),
-					new Object[] { now.getTimeInMillis(), request.getTimeout(), flow });
+			request.setAttachment(Constants.REQ_ATTACH_FLOW_TOKEN, token);
 		}
 	}
 
 	public void flowOut(InvocationRequest request) {
 		if (request.getCallType() == Constants.CALLTYPE_REPLY) {
-			flowOut(request.getSequence(), (Float) request.getAttachment(Constants.REQ_ATTACH_FLOW));
+			FlowToken token = (FlowToken) request.getAttachment(Constants.REQ_ATTACH_FLOW_TOKEN);
+			if (token != null && token.bucket == this) {
+				release(token);
+			}
 		}
 	}
 
-	public void flowOut(long requestSeq, Float flow) {
-		if (requestSeqs.remove(requestSeq) && flow != null) {
-			refreshCapacity(-1 * flow);
+	private void release(FlowToken token) {
+		if (!FlowToken.RELEASED.compareAndSet(token, 0, 1)) {
+			return;
 		}
-		requestSeqDetails.remove(requestSeq);
-	}
-
-	public int getLastSecondRequest() {
-		int lastSecond = Calendar.getInstance().get(Calendar.SECOND) - 1;
-		lastSecond = lastSecond >= 0 ? lastSecond : lastSecond + 60;
-		AtomicInteger counter = totalRequestInSecond.get(lastSecond);
-		return counter != null ? counter.intValue() : 0;
-	}
-
-	private void incrementTotalRequestInSecond(int second) {
-		AtomicInteger counter = totalRequestInSecond.get(second);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.error("Impossible case happended, second[" + second + "]'s request counter is null.");
+		if (token.window != null && !token.window.release(token.cell, token.flowUnits)) {
+			// 所在窗口已被回收，统计已经扣除
+			return;
+		}
+		capacity.add(-token.flowUnits);
+		outstanding.decrement();
+		if (concurrencyLimit != null) {
+			// 超时的请求以超时时间作为响应时间，同样会使限制收缩
+			concurrencyLimit.release(System.nanoTime() - token.startNanos);
 		}
 	}
 
-	public void refreshCapacity(float addition) {
-		capacityLock.lock();
-		try {
-			this.capacity += addition;
-		} finally {
-			capacityLock.unlock();
+	private Window currentWindow(long now) {
+		long epoch = now >> WINDOW_SHIFT;
+		int index = (int) (epoch & (WINDOWS - 1));
+		for (;;) {
+			Window window = windows.get(index);
+			if (window != null && window.epoch == epoch) {
+				return window;
+			}
+			Window newWindow = new Window(epoch, now);
+			if (windows.compareAndSet(index, window, newWindow)) {
+				if (window != null) {
+					expire(window, now);
+				}
+				return newWindow;
+			}
 		}
 	}
 
 	/**
-	 * 重置过期的每秒请求数计数器
+	 * 回收超过2倍超时时间仍未释放的请求，由CapacityChecker定时调用
 	 */
-	public void resetRequestInSecondCounter() {
-		int second = Calendar.getInstance().get(Calendar.SECOND);
-		int prev3Sec = second - 10;
-		for (int i = 1; i <= 30; i++) {
-			int prevSec = prev3Sec - i;
-			prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-			AtomicInteger counter = totalRequestInSecond.get(prevSec);
-			if (counter != null) {
-				counter.set(0);
+	public void expireRequests() {
+		long now = System.nanoTime();
+		for (int i = 0; i < WINDOWS; i++) {
+			Window window = windows.get(i);
+			if (window != null && window.epoch != (now >> WINDOW_SHIFT)
+					&& now - window.startNanos >= TimeUnit.MILLISECONDS.toNanos(2L * window.maxTimeout)) {
+				if (windows.compareAndSet(i, window, null)) {
+					expire(window, now);
+				}
 			}
 		}
 	}
 
-	private void preFillData() {
-		for (int sec = 0; sec < 60; sec++) {
-			totalRequestInSecond.put(sec, new AtomicInteger());
+	private void expire(Window window, long now) {
+		long[] expired = window.expire();
+		if (expired[0] > 0) {
+			capacity.add(-expired[1]);
+			outstanding.add(-expired[0]);
+			if (concurrencyLimit != null) {
+				for (long i = 0; i < expired[0]; i++) {
+					concurrencyLimit.release(now - window.startNanos);
+				}
+			}
 		}
 	}
 
+	/**
+	 * 在途请求数已达到自适应限制
+	 */
+	public boolean isLimitReached() {
+		return concurrencyLimit != null && concurrencyLimit.isLimitReached();
+	}
+
+	public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	public int getOutstanding() {
+		return (int) outstanding.sum();
+	}
+
+	public LatencyEwma getLatency() {
+		return latency;
+	}
+
+	public int getLastSecondRequest() {
+		return (int) totalRequestInSecond.get(SlidingWindowCounter.currentSecond() - 1);
+	}
+
 	public String getAddress() {
 		return address;
 	}
 
 	public float getCapacity() {
-		return capacity;
+		return capacity.sum() / FLOW_UNIT;
+	}
+
+	public long getTotalRequest() {
+		return totalRequest.sum();
 	}
 
-	public AtomicLong getTotalRequest() {
-		return totalRequest;
+	public long getOnewayRequest() {
+		return onewayRequest.sum();
 	}
 
-	public AtomicLong getOnewayRequest() {
-		return onewayRequest;
+	/**
+	 * 一个请求在该服务端上的在途状态，存放在请求附件中
+	 */
+	static final class FlowToken {
+
+		static final AtomicIntegerFieldUpdater<FlowToken> RELEASED = AtomicIntegerFieldUpdater.newUpdater(
+				FlowToken.class, "released");
+
+		final CapacityBucket bucket;
+
+		final Window window;
+
+		final int cell;
+
+		final long flowUnits;
+
+		final long startNanos;
+
+		volatile int released;
+
+		FlowToken(CapacityBucket bucket, Window window, int cell, long flowUnits, long startNanos) {
+			this.bucket = bucket;
+			this.window = window;
+			this.cell = cell;
+			this.flowUnits = flowUnits;
+			this.startNanos = startNanos;
+		}
+	}
+
+	/**
+	 * 一个时间窗口内发出的在途请求，按线程分段，每段一个long：最高位为已回收标记，中间21位为请求数，低42位为flow之和
+	 */
+	static final class Window {
+
+		private static final int STRIPES = 4;
+		private static final int PAD = 8;
+		private static final long EXPIRED = 1L << 63;
+		private static final int COUNT_SHIFT = 42;
+		private static final long FLOW_MASK = (1L << COUNT_SHIFT) - 1;
+		private static final AtomicIntegerFieldUpdater<Window> MAX_TIMEOUT = AtomicIntegerFieldUpdater.newUpdater(
+				Window.class, "maxTimeout");
+
+		final long epoch;
+
+		final long startNanos;
+
+		volatile int maxTimeout;
+
+		private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+		Window(long epoch, long startNanos) {
+			this.epoch = epoch;
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * @return 记录所在的段，窗口已被回收时返回-1
+		 */
+		int acquire(long flowUnits, int timeout) {
+			for (int current = maxTimeout; timeout > current; current = maxTimeout) {
+				if (MAX_TIMEOUT.compareAndSet(this, current, timeout)) {
+					break;
+				}
+			}
+			int cell = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+			for (;;) {
+				long v = cells.get(cell);
+				if ((v & EXPIRED) != 0) {
+					return -1;
+				}
+				if (cells.compareAndSet(cell, v, v + (1L << COUNT_SHIFT) + flowUnits)) {
+					return cell;
+				}
+			}
+		}
+
+		/**
+		 * @return 窗口已被回收时返回false
+		 */
+		boolean release(int cell, long flowUnits) {
+			for (;;) {
+				long v = cells.get(cell);
+				if ((v & EXPIRED) != 0) {
+					return false;
+				}
+				if (cells.compareAndSet(cell, v, v - (1L << COUNT_SHIFT) - flowUnits)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * 标记回收，之后的释放不再生效
+		 *
+		 * @return [未释放的请求数, 未释放的flow之和]
+		 */
+		long[] expire() {
+			long count = 0;
+			long flow = 0;
+			for (int i = 0; i < STRIPES; i++) {
+				int cell = i * PAD;
+				for (;;) {
+					long v = cells.get(cell);
+					if ((v & EXPIRED) != 0) {
+						break;
+					}
+					if (cells.compareAndSet(cell, v, v | EXPIRED)) {
+						count += v >>> COUNT_SHIFT;
+						flow += v & FLOW_MASK;
+						break;
+					}
+				}
+			}
+			return new long[] { count, flow };
+		}
 	}
 }
@@ -0,0 +1,66 @@
+package com.dianping.pigeon.remoting.invoker.route.statistics;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按时间衰减的响应时间指数加权平均（peak EWMA），无锁更新
+ *
+ * 响应时间高于当前值时立即取新值，低于当前值时按距上次更新的时间加权：w = exp(-elapsed / decay)。
+ * 读取时不衰减：流量少或刚变慢后空闲的服务端保持最近的响应时间，不会因为没有响应而显得很快；
+ * 超过stale没有新的响应时视为没有数据，按新的服务端处理，由在途请求数限制试探的流量
+ */
+public class LatencyEwma {
+
+	private final double decayNanos;
+
+	private final long staleNanos;
+
+	private final AtomicReference<Sample> sample = new AtomicReference<Sample>();
+
+	public LatencyEwma(long decayNanos, long staleNanos) {
+		this.decayNanos = Math.max(1, decayNanos);
+		this.staleNanos = staleNanos;
+	}
+
+	public void update(long rttNanos, long nowNanos) {
+		if (rttNanos < 0) {
+			return;
+		}
+		for (;;) {
+			Sample current = sample.get();
+			double ewma;
+			if (current == null || rttNanos >= current.ewma) {
+				ewma = rttNanos;
+			} else {
+				double w = Math.exp(-Math.max(0, nowNanos - current.stamp) / decayNanos);
+				ewma = current.ewma * w + rttNanos * (1 - w);
+			}
+			if (sample.compareAndSet(current, new Sample(ewma, nowNanos))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return 当前的平均响应时间（纳秒），还没有响应或最近的响应已超过stale时返回0
+	 */
+	public double get(long nowNanos) {
+		Sample current = sample.get();
+		if (current == null || nowNanos - current.stamp > staleNanos) {
+			return 0;
+		}
+		return current.ewma;
+	}
+
+	private static final class Sample {
+
+		final double ewma;
+
+		final long stamp;
+
+		Sample(double ewma, long stamp) {
+			this.ewma = ewma;
+			this.stamp = stamp;
+		}
+	}
+}
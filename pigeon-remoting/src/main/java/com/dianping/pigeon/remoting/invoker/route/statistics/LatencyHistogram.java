@@ -0,0 +1,111 @@
+package com.dianping.pigeon.remoting.invoker.route.statistics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 最近一段时间响应时间的分布，用于计算分位数，无锁更新
+ *
+ * 按微秒对数分桶，每个2的幂区间分4个桶（误差约25%以内）；按约8.6秒一个窗口统计，
+ * 分位数取当前窗口和上一个窗口的数据，旧的数据随窗口轮转自动丢弃
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 2;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private static final int BUCKETS = 128;
+
+	// 窗口长度2^33纳秒（约8.6秒）
+	private static final int WINDOW_SHIFT = 33;
+
+	private final AtomicReference<Window> current = new AtomicReference<Window>();
+
+	public void record(long rttNanos) {
+		if (rttNanos < 0) {
+			return;
+		}
+		currentWindow(System.nanoTime()).counts.incrementAndGet(bucketOf(rttNanos / 1000));
+	}
+
+	/**
+	 * @param percentile
+	 *            分位（0-100）
+	 * @param minSamples
+	 *            样本数不足时返回-1
+	 * @return 分位数所在桶的上界，纳秒
+	 */
+	public long getPercentile(double percentile, long minSamples) {
+		Window window = currentWindow(System.nanoTime());
+		Window previous = window.previous;
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = window.counts.get(i) + (previous != null ? previous.counts.get(i) : 0);
+			total += counts[i];
+		}
+		if (total <= 0 || total < minSamples) {
+			return -1;
+		}
+		long target = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= target && counts[i] > 0) {
+				return upperBoundOf(i) * 1000;
+			}
+		}
+		return upperBoundOf(BUCKETS - 1) * 1000;
+	}
+
+	private Window currentWindow(long now) {
+		long epoch = now >> WINDOW_SHIFT;
+		for (;;) {
+			Window window = current.get();
+			if (window != null && window.epoch == epoch) {
+				return window;
+			}
+			Window newWindow = new Window(epoch, window != null && window.epoch == epoch - 1 ? window : null);
+			if (current.compareAndSet(window, newWindow)) {
+				if (window != null) {
+					// 只保留相邻的一个窗口
+					window.previous = null;
+				}
+				return newWindow;
+			}
+		}
+	}
+
+	static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) Math.max(0, micros);
+		}
+		int log = 63 - Long.numberOfLeadingZeros(micros);
+		int bucket = (log - SUB_BITS + 1) * SUB_BUCKETS + (int) ((micros >>> (log - SUB_BITS)) & (SUB_BUCKETS - 1));
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket + 1;
+		}
+		int log = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub + 1) << (log - SUB_BITS);
+	}
+
+	private static final class Window {
+
+		final long epoch;
+
+		final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+		volatile Window previous;
+
+		Window(long epoch, Window previous) {
+			this.epoch = epoch;
+			this.previous = previous;
+		}
+	}
+}
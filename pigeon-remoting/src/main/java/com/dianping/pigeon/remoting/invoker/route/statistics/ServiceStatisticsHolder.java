@@ -2,14 +2,17 @@ package com.dianping.pigeon.remoting.invoker.route.statistics;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 
 import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.AdaptiveConcurrencyLimit;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.route.balance.AutoawareLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.balance.LatencyAwareLoadBalance;
 
 public final class ServiceStatisticsHolder {
 
@@ -20,6 +23,42 @@ public final class ServiceStatisticsHolder {
 	public static final boolean statEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.routestat.enable", true);
 
+	// 响应时间平均值的衰减时间
+	static final long latencyDecayNanos = TimeUnit.MILLISECONDS.toNanos(ConfigManagerLoader.getConfigManager()
+			.getLongValue("pigeon.loadbalance.latency.decay", 10000));
+
+	// 超过该时间没有响应的服务端响应时间视为未知
+	static final long latencyStaleNanos = TimeUnit.MILLISECONDS.toNanos(ConfigManagerLoader.getConfigManager()
+			.getLongValue("pigeon.loadbalance.latency.stale", 30000));
+
+	// 按服务端响应时间自适应调整每个服务端的在途请求数，达到限制的服务端不参与路由
+	public static final boolean adaptiveLimitEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.invoker.adaptivelimit.enable", false);
+
+	private static final int adaptiveLimitInitial = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.invoker.adaptivelimit.initial", 50);
+
+	private static final int adaptiveLimitMin = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.invoker.adaptivelimit.min", 5);
+
+	private static final int adaptiveLimitMax = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.invoker.adaptivelimit.max", 1000);
+
+	private static final float adaptiveLimitTolerance = ConfigManagerLoader.getConfigManager().getFloatValue(
+			"pigeon.invoker.adaptivelimit.tolerance", 1.5f);
+
+	private static final float adaptiveLimitSmoothing = ConfigManagerLoader.getConfigManager().getFloatValue(
+			"pigeon.invoker.adaptivelimit.smoothing", 0.2f);
+
+	private static final int adaptiveLimitLongWindow = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.invoker.adaptivelimit.longwindow", 600);
+
+	private static final int adaptiveLimitWindow = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.invoker.adaptivelimit.window", 100);
+
+	private static final int adaptiveLimitMinSamples = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.invoker.adaptivelimit.minsamples", 10);
+
 	public static float getCapacity(String server) {
 		CapacityBucket barrel = serverCapacityBuckets.get(server);
 		return barrel != null ? barrel.getCapacity() : 0f;
@@ -66,17 +105,51 @@ public final class ServiceStatisticsHolder {
 		}
 	}
 
+	/**
+	 * 收到响应或超时时记录该服务端的响应时间，心跳等非服务调用不计入
+	 */
+	public static void updateLatency(InvocationRequest request, String server, long rttNanos) {
+		if (server == null || request == null || request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE) {
+			return;
+		}
+		CapacityBucket barrel = serverCapacityBuckets.get(server);
+		if (barrel != null) {
+			barrel.getLatency().update(rttNanos, System.nanoTime());
+		}
+	}
+
 	public static boolean checkRequestNeedStat(InvocationRequest request) {
 		if (request == null || request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE) {
 			return false;
 		}
-		if (AutoawareLoadBalance.NAME.equals(request.getLoadbalance())) {
+		if (AutoawareLoadBalance.NAME.equals(request.getLoadbalance())
+				|| LatencyAwareLoadBalance.NAME.equals(request.getLoadbalance())) {
 			return true;
 		} else {
 			return statEnable;
 		}
 	}
 
+	static AdaptiveConcurrencyLimit newConcurrencyLimit() {
+		if (!adaptiveLimitEnable) {
+			return null;
+		}
+		return new AdaptiveConcurrencyLimit(adaptiveLimitInitial, adaptiveLimitMin, adaptiveLimitMax,
+				adaptiveLimitTolerance, adaptiveLimitSmoothing, adaptiveLimitLongWindow, adaptiveLimitWindow,
+				adaptiveLimitMinSamples);
+	}
+
+	/**
+	 * 该服务端的在途请求数是否已达到自适应限制
+	 */
+	public static boolean isLimitReached(String server) {
+		if (!adaptiveLimitEnable) {
+			return false;
+		}
+		CapacityBucket barrel = serverCapacityBuckets.get(server);
+		return barrel != null && barrel.isLimitReached();
+	}
+
 	public static void removeCapacityBucket(String server) {
 		serverCapacityBuckets.remove(server);
 	}
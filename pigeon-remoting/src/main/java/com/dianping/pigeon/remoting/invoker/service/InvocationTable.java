@@ -0,0 +1,103 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.invoker.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+
+/**
+ * 在途请求表，按sequence直接映射到预分配的槽位
+ *
+ * 请求序号是连续递增的，正常情况下每个请求独占一个槽位，登记和完成都只需要一次CAS，不产生额外对象；
+ * 只有在途请求数超过槽位数导致冲突时才落到溢出map
+ */
+public class InvocationTable {
+
+	private final AtomicReferenceArray<RemoteInvocationBean> slots;
+
+	private final int mask;
+
+	private final ConcurrentMap<Long, RemoteInvocationBean> overflow = new ConcurrentHashMap<Long, RemoteInvocationBean>();
+
+	public InvocationTable(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be greater than 0: " + capacity);
+		}
+		int normalized = 1;
+		while (normalized < capacity) {
+			normalized <<= 1;
+		}
+		this.slots = new AtomicReferenceArray<RemoteInvocationBean>(normalized);
+		this.mask = normalized - 1;
+	}
+
+	private int index(long sequence) {
+		return (int) sequence & mask;
+	}
+
+	private static boolean matches(RemoteInvocationBean invocationBean, long sequence) {
+		return invocationBean != null && invocationBean.request.getSequence() == sequence;
+	}
+
+	public void put(long sequence, RemoteInvocationBean invocationBean) {
+		int index = index(sequence);
+		if (!slots.compareAndSet(index, null, invocationBean)) {
+			RemoteInvocationBean current = slots.get(index);
+			if (matches(current, sequence)) {
+				// 同一sequence重复登记，与map语义保持一致直接覆盖
+				if (slots.compareAndSet(index, current, invocationBean)) {
+					return;
+				}
+			}
+			overflow.put(sequence, invocationBean);
+		}
+	}
+
+	public RemoteInvocationBean get(long sequence) {
+		RemoteInvocationBean invocationBean = slots.get(index(sequence));
+		if (matches(invocationBean, sequence)) {
+			return invocationBean;
+		}
+		return overflow.isEmpty() ? null : overflow.get(sequence);
+	}
+
+	/**
+	 * 取出并移除请求，响应和超时同时到达时只有一方能拿到
+	 */
+	public RemoteInvocationBean remove(long sequence) {
+		int index = index(sequence);
+		for (;;) {
+			RemoteInvocationBean invocationBean = slots.get(index);
+			if (!matches(invocationBean, sequence)) {
+				break;
+			}
+			if (slots.compareAndSet(index, invocationBean, null)) {
+				return invocationBean;
+			}
+		}
+		return overflow.isEmpty() ? null : overflow.remove(sequence);
+	}
+
+	/**
+	 * 仅当sequence当前对应的仍是invocationBean时移除
+	 */
+	public boolean remove(long sequence, RemoteInvocationBean invocationBean) {
+		if (slots.compareAndSet(index(sequence), invocationBean, null)) {
+			return true;
+		}
+		return !overflow.isEmpty() && overflow.remove(sequence, invocationBean);
+	}
+
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	public int getOverflowSize() {
+		return overflow.size();
+	}
+}
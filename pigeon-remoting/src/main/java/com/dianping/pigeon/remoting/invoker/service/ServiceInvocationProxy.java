@@ -17,6 +17,7 @@ import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
 import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
 import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils.FutureResponse;
 
 public class ServiceInvocationProxy implements InvocationHandler {
 
@@ -44,9 +45,13 @@ public class ServiceInvocationProxy implements InvocationHandler {
 		if ("equals".equals(methodName) && parameterTypes.length == 1) {
 			return handler.equals(args[0]);
 		}
-		return extractResult(
-				handler.handle(new DefaultInvokerContext(invokerConfig, methodName, parameterTypes, args)),
-				method.getReturnType());
+		InvocationResponse response = handler.handle(new DefaultInvokerContext(invokerConfig, methodName,
+				parameterTypes, args));
+		if (response instanceof FutureResponse && Constants.CALL_ASYNC.equalsIgnoreCase(invokerConfig.getCallType())) {
+			// async接口的方法直接返回future
+			return ((FutureResponse) response).getServiceFuture();
+		}
+		return extractResult(response, method.getReturnType());
 	}
 
 	public Object extractResult(InvocationResponse response, Class<?> returnType) throws Throwable {
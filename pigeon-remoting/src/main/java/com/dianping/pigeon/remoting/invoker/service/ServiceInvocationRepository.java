@@ -4,72 +4,203 @@
  */
 package com.dianping.pigeon.remoting.invoker.service;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.logging.log4j.Logger;
 
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.monitor.Monitor;
+import com.dianping.pigeon.monitor.MonitorLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.invoker.Client;
 import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.remoting.invoker.callback.StreamCallback;
 import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
 import com.dianping.pigeon.remoting.invoker.listener.InvocationTimeoutListener;
 import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
-import com.dianping.pigeon.threadpool.DefaultThreadPool;
-import com.dianping.pigeon.threadpool.ThreadPool;
-import com.dianping.pigeon.util.ThreadPoolUtils;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
 
 public class ServiceInvocationRepository {
 
 	private static final Logger logger = LoggerLoader.getLogger(ServiceInvocationRepository.class);
-	private static Map<Long, RemoteInvocationBean> invocations = new ConcurrentHashMap<Long, RemoteInvocationBean>();
 	private static ServiceInvocationRepository instance = new ServiceInvocationRepository();
-	private static ThreadPool invocatinTimeCheckThreadPool = new DefaultThreadPool(
-			"Pigeon-Client-Invoke-Timeout-Check-ThreadPool");
+	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+	private static InvocationTable invocations = new InvocationTable(configManager.getIntValue(
+			Constants.KEY_INVOCATION_TABLE_SIZE, Constants.DEFAULT_INVOCATION_TABLE_SIZE));
+	private static HashedWheelTimer invocationTimeoutTimer = new HashedWheelTimer(
+			"Pigeon-Client-Invoke-Timeout-Check", configManager.getLongValue(Constants.KEY_TIMEOUT_WHEEL_TICK,
+					Constants.DEFAULT_TIMEOUT_WHEEL_TICK), TimeUnit.MILLISECONDS, configManager.getIntValue(
+					Constants.KEY_TIMEOUT_WHEEL_SIZE, Constants.DEFAULT_TIMEOUT_WHEEL_SIZE));
+
+	private static final Monitor monitor = MonitorLoader.getMonitor();
+
+	private static final int TIMED_OUT_SLOTS = 4096;
+	private static final long NO_SEQUENCE = Long.MIN_VALUE;
+
+	// 超时检查结束的请求数
+	private final AtomicLong timeouts = new AtomicLong();
+
+	// 请求超时被结束之后才到达的响应数
+	private final AtomicLong lateResponses = new AtomicLong();
+
+	// 在途表中已没有对应请求、也不是超时结束的响应数，如对冲调用中输掉的请求
+	private final AtomicLong discardedResponses = new AtomicLong();
+
+	// 流关闭、取消或超时之后到达的数据块数
+	private final AtomicLong discardedChunks = new AtomicLong();
+
+	// 最近超时结束的请求序号，按序号低位覆盖，用于区分超时后到达的响应和其他原因丢弃的响应
+	private final AtomicLongArray timedOutSequences = newTimedOutSequences();
 
 	public static ServiceInvocationRepository getInstance() {
 		return instance;
 	}
 
 	public void put(long sequence, RemoteInvocationBean invocation) {
+		invocation.startNanos = System.nanoTime();
 		invocations.put(sequence, invocation);
+		InvocationRequest request = invocation.request;
+		if (request.getTimeout() > 0 && request.getCreateMillisTime() > 0) {
+			long delay = request.getCreateMillisTime() + request.getTimeout() - System.currentTimeMillis();
+			invocation.timeout = invocationTimeoutTimer.newTimeout(new InvocationTimeoutListener(invocations,
+					sequence, invocation), delay, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	public void remove(long sequence) {
-		invocations.remove(sequence);
+		RemoteInvocationBean invocationBean = invocations.remove(sequence);
+		if (invocationBean != null) {
+			cancelTimeout(invocationBean);
+			complete(invocationBean);
+		}
 	}
 
 	public void receiveResponse(InvocationResponse response) {
-		RemoteInvocationBean invocationBean = invocations.get(response.getSequence());
+		// 先从在途表中取出，与超时检查竞争时只有一方能拿到
+		RemoteInvocationBean invocationBean = invocations.remove(response.getSequence());
 		if (invocationBean != null) {
+			cancelTimeout(invocationBean);
 			if (logger.isDebugEnabled()) {
 				logger.debug("received response:" + response);
 			}
 			InvocationRequest request = invocationBean.request;
-			try {
-				Callback callback = invocationBean.callback;
-				if (callback != null) {
-					Client client = callback.getClient();
-					if (client != null) {
-						ServiceStatisticsHolder.flowOut(request, client.getAddress());
-					}
-					callback.callback(response);
-					callback.run();
+			Callback callback = invocationBean.callback;
+			if (callback != null) {
+				Client client = callback.getClient();
+				if (client != null) {
+					ServiceStatisticsHolder.updateLatency(request, client.getAddress(),
+							System.nanoTime() - invocationBean.startNanos);
+					ServiceStatisticsHolder.flowOut(request, client.getAddress());
+					client.complete(request);
 				}
-			} finally {
-				invocations.remove(response.getSequence());
+				callback.callback(response);
+				callback.run();
 			}
+		} else if (isTimedOut(response.getSequence())) {
+			// 已被超时检查结束，响应直接丢弃
+			lateResponses.incrementAndGet();
+			monitor.logEvent("PigeonCall.lateResponse", "", "seq:" + response.getSequence());
+			if (logger.isDebugEnabled()) {
+				logger.debug("received late response:" + response);
+			}
+		} else {
+			// 请求已被取消（如对冲调用中输掉的请求），属于正常情况，只计数
+			discardedResponses.incrementAndGet();
+			if (logger.isDebugEnabled()) {
+				logger.debug("received response of cancelled request:" + response);
+			}
+		}
+	}
+
+	/**
+	 * 流式调用的数据块，请求仍留在在途表中，直到最后的响应或超时
+	 */
+	public void receiveChunk(InvocationResponse chunk) {
+		RemoteInvocationBean invocationBean = invocations.get(chunk.getSequence());
+		if (invocationBean != null && invocationBean.callback instanceof StreamCallback) {
+			((StreamCallback) invocationBean.callback).onChunk(chunk);
+		} else {
+			// 流已关闭或超时，服务端收到取消前发出的数据块直接丢弃
+			discardedChunks.incrementAndGet();
+			if (logger.isDebugEnabled()) {
+				logger.debug("received late chunk:" + chunk);
+			}
+		}
+	}
+
+	/**
+	 * 流式调用在超时检查时还在收到数据，按剩余时间重新登记超时
+	 */
+	public void reschedule(long sequence, RemoteInvocationBean invocationBean, long delayMillis) {
+		invocationBean.timeout = invocationTimeoutTimer.newTimeout(new InvocationTimeoutListener(invocations,
+				sequence, invocationBean), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 超时检查结束了请求，之后到达的该序号的响应计为lateResponses
+	 */
+	public void countTimeout(long sequence) {
+		timeouts.incrementAndGet();
+		timedOutSequences.set((int) sequence & (TIMED_OUT_SLOTS - 1), sequence);
+	}
+
+	private boolean isTimedOut(long sequence) {
+		int index = (int) sequence & (TIMED_OUT_SLOTS - 1);
+		// 同一请求只计一次
+		return timedOutSequences.get(index) == sequence
+				&& timedOutSequences.compareAndSet(index, sequence, NO_SEQUENCE);
+	}
+
+	private static AtomicLongArray newTimedOutSequences() {
+		AtomicLongArray sequences = new AtomicLongArray(TIMED_OUT_SLOTS);
+		for (int i = 0; i < TIMED_OUT_SLOTS; i++) {
+			sequences.set(i, NO_SEQUENCE);
+		}
+		return sequences;
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	public long getLateResponses() {
+		return lateResponses.get();
+	}
+
+	public long getDiscardedResponses() {
+		return discardedResponses.get();
+	}
+
+	public long getDiscardedChunks() {
+		return discardedChunks.get();
+	}
+
+	private void complete(RemoteInvocationBean invocationBean) {
+		Callback callback = invocationBean.callback;
+		if (callback != null && callback.getClient() != null) {
+			callback.getClient().complete(invocationBean.request);
+		}
+	}
+
+	private void cancelTimeout(RemoteInvocationBean invocationBean) {
+		Timeout timeout = invocationBean.timeout;
+		if (timeout != null) {
+			timeout.cancel();
 		}
 	}
 
 	public void init() {
-		Runnable invocationTimeoutCheck = new InvocationTimeoutListener(invocations);
-		invocatinTimeCheckThreadPool.execute(invocationTimeoutCheck);
+		invocationTimeoutTimer.start();
 	}
 
 	public void destroy() throws Exception {
-		ThreadPoolUtils.shutdown(invocatinTimeCheckThreadPool.getExecutor());
+		invocationTimeoutTimer.stop();
 	}
 }
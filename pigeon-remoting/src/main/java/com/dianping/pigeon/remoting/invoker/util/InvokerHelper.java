@@ -4,6 +4,7 @@
  */
 package com.dianping.pigeon.remoting.invoker.util;
 
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
 import com.dianping.pigeon.remoting.invoker.callback.ServiceCallback;
 
 public final class InvokerHelper {
@@ -11,6 +12,7 @@ public final class InvokerHelper {
 	private static ThreadLocal<String> tlAddress = new ThreadLocal<String>();
 	private static ThreadLocal<Integer> tlTimeout = new ThreadLocal<Integer>();
 	private static ThreadLocal<ServiceCallback> tlCallback = new ThreadLocal<ServiceCallback>();
+	private static ThreadLocal<Callback> tlAttemptCallback = new ThreadLocal<Callback>();
 
 	public static void setAddress(String address) {
 		tlAddress.set(address);
@@ -44,4 +46,19 @@ public final class InvokerHelper {
 	public static void clearCallback() {
 		tlCallback.remove();
 	}
+
+	/**
+	 * cluster内部使用：设置后RemoteCallInvokeFilter不按callType处理，直接以该回调发出请求并立即返回
+	 */
+	public static void setAttemptCallback(Callback callback) {
+		tlAttemptCallback.set(callback);
+	}
+
+	public static Callback getAttemptCallback() {
+		return tlAttemptCallback.get();
+	}
+
+	public static void clearAttemptCallback() {
+		tlAttemptCallback.remove();
+	}
 }
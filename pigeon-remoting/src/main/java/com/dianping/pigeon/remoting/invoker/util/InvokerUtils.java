@@ -1,6 +1,7 @@
 package com.dianping.pigeon.remoting.invoker.util;
 
 import java.io.Serializable;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
@@ -76,6 +77,10 @@ public class InvokerUtils {
 		return resp;
 	}
 
+	public static InvocationResponse createStreamResponse(Iterator<?> stream) {
+		return new StreamResponse(stream);
+	}
+
 	public static RuntimeException toApplicationRuntimeException(InvocationResponse response) {
 		Throwable t = toApplicationException(response);
 		if (t instanceof RuntimeException) {
@@ -247,6 +252,33 @@ public class InvokerUtils {
 		}
 	}
 
+	/**
+	 * stream调用立即返回，结果为边接收边消费的迭代器
+	 */
+	static class StreamResponse extends NoReturnResponse {
+
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = -2880383925853236862L;
+
+		private final transient Iterator<?> stream;
+
+		StreamResponse(Iterator<?> stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public int getMessageType() {
+			return Constants.MESSAGE_TYPE_SERVICE;
+		}
+
+		@Override
+		public Object getResponse() {
+			return stream;
+		}
+	}
+
 	public static class FutureResponse implements InvocationResponse {
 
 		/**
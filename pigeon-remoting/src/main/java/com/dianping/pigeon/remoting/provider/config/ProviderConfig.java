@@ -26,6 +26,9 @@ public class ProviderConfig<T> {
 	private ConfigManager configManager = ConfigManagerLoader.getConfigManager();
 	private boolean useSharedPool = configManager.getBooleanValue(Constants.KEY_SERVICE_SHARED,
 			Constants.DEFAULT_SERVICE_SHARED);
+	// 调用端支持时压缩超过阈值的响应
+	private boolean compress = configManager.getBooleanValue(Constants.KEY_PROVIDER_COMPRESS,
+			Constants.DEFAULT_COMPRESS);
 	private Map<String, ProviderMethodConfig> methods;
 	private int actives = 0;
 
@@ -49,6 +52,14 @@ public class ProviderConfig<T> {
 		return useSharedPool;
 	}
 
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
 	public void setSharedPool(boolean useSharedPool) {
 		this.useSharedPool = useSharedPool;
 	}
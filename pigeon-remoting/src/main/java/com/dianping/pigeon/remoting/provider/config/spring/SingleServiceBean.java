@@ -36,6 +36,8 @@ public class SingleServiceBean {
 	private ConfigManager configManager = ConfigManagerLoader.getConfigManager();
 	private boolean useSharedPool = configManager.getBooleanValue(Constants.KEY_SERVICE_SHARED,
 			Constants.DEFAULT_SERVICE_SHARED);
+	private boolean compress = configManager.getBooleanValue(Constants.KEY_PROVIDER_COMPRESS,
+			Constants.DEFAULT_COMPRESS);
 	private List<ProviderMethodConfig> methods;
 	private ClassLoader classLoader;
 	private int actives;
@@ -72,6 +74,14 @@ public class SingleServiceBean {
 		this.useSharedPool = useSharedPool;
 	}
 
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
 	public boolean isCancelTimeout() {
 		return cancelTimeout;
 	}
@@ -135,6 +145,7 @@ public class SingleServiceBean {
 		providerConfig.setUrl(url);
 		providerConfig.setCancelTimeout(cancelTimeout);
 		providerConfig.setSharedPool(useSharedPool);
+		providerConfig.setCompress(compress);
 		if (!CollectionUtils.isEmpty(methods)) {
 			Map<String, ProviderMethodConfig> methodMap = new HashMap<String, ProviderMethodConfig>();
 			providerConfig.setMethods(methodMap);
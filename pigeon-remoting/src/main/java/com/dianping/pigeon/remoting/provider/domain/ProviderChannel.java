@@ -13,4 +13,9 @@ public interface ProviderChannel {
 	String getRemoteAddress();
 
 	String getProtocol();
+
+	/**
+	 * 写缓冲超过高水位时返回false，流式响应据此暂停发送
+	 */
+	boolean isWritable();
 }
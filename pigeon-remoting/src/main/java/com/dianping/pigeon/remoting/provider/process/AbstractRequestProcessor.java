@@ -7,6 +7,7 @@ package com.dianping.pigeon.remoting.provider.process;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.Logger;
 
@@ -18,6 +19,7 @@ import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
 import com.dianping.pigeon.remoting.provider.listener.RequestTimeoutListener;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsHolder;
 import com.dianping.pigeon.remoting.provider.process.threadpool.RequestThreadPoolProcessor;
 import com.dianping.pigeon.remoting.provider.util.ProviderUtils;
 import com.dianping.pigeon.threadpool.DefaultThreadPool;
@@ -36,6 +38,8 @@ public abstract class AbstractRequestProcessor implements RequestProcessor {
 	
 	protected RequestTimeoutListener requestTimeoutListener;
 
+	private final AtomicLong expiredCount = new AtomicLong();
+
 	public AbstractRequestProcessor() {
 	}
 
@@ -68,8 +72,10 @@ public abstract class AbstractRequestProcessor implements RequestProcessor {
 		}
 		Future<InvocationResponse> invocationResponse = null;
 		try {
+			ProviderStatisticsHolder.acquireLimit(request);
 			invocationResponse = doProcessRequest(request, providerContext);
 		} catch (Throwable e) {
+			ProviderStatisticsHolder.releaseLimit(request, false);
 			String msg = "process request failed:" + request;
 			if (request.getCallType() == Constants.CALLTYPE_REPLY
 					&& request.getMessageType() != Constants.MESSAGE_TYPE_HEART) {
@@ -84,4 +90,29 @@ public abstract class AbstractRequestProcessor implements RequestProcessor {
 		return invocationResponse;
 	}
 
+	/**
+	 * 出队执行前检查请求是否已超过调用端的截止时间，调用端已经放弃等待的请求不再执行业务方法
+	 */
+	protected boolean isExpired(InvocationRequest request) {
+		if (!Constants.DEADLINE_ENABLE || request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE
+				|| request.getCallType() != Constants.CALLTYPE_REPLY || request.getTimeout() <= 0
+				|| request.getCreateMillisTime() <= 0) {
+			return false;
+		}
+		long overdue = System.currentTimeMillis() - request.getCreateMillisTime() - request.getTimeout();
+		if (overdue < 0) {
+			return false;
+		}
+		expiredCount.incrementAndGet();
+		if (monitor != null) {
+			monitor.logEvent("PigeonService.expired", request.getServiceName() + "#" + request.getMethodName(),
+					"timeout:" + request.getTimeout() + ",overdue:" + overdue);
+		}
+		return true;
+	}
+
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
 }
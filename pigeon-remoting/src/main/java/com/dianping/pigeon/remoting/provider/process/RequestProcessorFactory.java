@@ -4,16 +4,23 @@
  */
 package com.dianping.pigeon.remoting.provider.process;
 
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.extension.ExtensionLoader;
 import com.dianping.pigeon.remoting.provider.config.ServerConfig;
 import com.dianping.pigeon.remoting.provider.process.threadpool.RequestThreadPoolProcessor;
+import com.dianping.pigeon.remoting.provider.process.virtualthread.RequestVirtualThreadProcessor;
 
 public class RequestProcessorFactory {
 
+	private static final String poolStrategy = ConfigManagerLoader.getConfigManager().getStringValue(
+			"pigeon.provider.pool.strategy", "shared");
+
 	public static RequestProcessor selectProcessor(ServerConfig serverConfig) {
 		RequestProcessor requestProcessor = ExtensionLoader.getExtension(RequestProcessor.class);
 		if (requestProcessor != null) {
 			return requestProcessor;
+		} else if ("virtual".equals(poolStrategy)) {
+			return new RequestVirtualThreadProcessor(serverConfig);
 		} else {
 			return new RequestThreadPoolProcessor(serverConfig);
 		}
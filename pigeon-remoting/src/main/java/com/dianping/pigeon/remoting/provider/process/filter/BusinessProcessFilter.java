@@ -4,6 +4,10 @@ s * Dianping.com Inc.
  */
 package com.dianping.pigeon.remoting.provider.process.filter;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.logging.log4j.Logger;
@@ -21,6 +25,8 @@ import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
 import com.dianping.pigeon.remoting.provider.exception.RequestAbortedException;
 import com.dianping.pigeon.remoting.provider.process.ProviderProcessInterceptor;
 import com.dianping.pigeon.remoting.provider.process.ProviderProcessInterceptorFactory;
+import com.dianping.pigeon.remoting.provider.process.stream.ResponseStream;
+import com.dianping.pigeon.remoting.provider.process.stream.ResponseStreamRepository;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethod;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodFactory;
 import com.dianping.pigeon.remoting.provider.util.ProviderHelper;
@@ -41,6 +47,11 @@ public class BusinessProcessFilter implements ServiceInvocationFilter<ProviderCo
 		if (request.getMessageType() == Constants.MESSAGE_TYPE_SERVICE) {
 			if (Constants.RESET_TIMEOUT && request.getTimeout() > 0) {
 				ContextUtils.putLocalContext(Constants.REQUEST_TIMEOUT, request.getTimeout());
+				if (Constants.DEADLINE_ENABLE && request.getCreateMillisTime() > 0) {
+					// 下游调用的超时不超过本次请求剩余的时间
+					ContextUtils.putLocalContext(Constants.REQUEST_DEADLINE,
+							request.getCreateMillisTime() + request.getTimeout());
+				}
 			}
 			if (Thread.currentThread().isInterrupted()) {
 				StringBuilder msg = new StringBuilder();
@@ -56,7 +67,8 @@ public class BusinessProcessFilter implements ServiceInvocationFilter<ProviderCo
 			if (method == null) {
 				method = ServiceMethodFactory.getMethod(request);
 			}
-			if (Constants.REPLY_MANUAL && request.getCallType() == Constants.CALLTYPE_REPLY) {
+			int streamCredits = ResponseStream.getInitialCredits(request);
+			if (Constants.REPLY_MANUAL && request.getCallType() == Constants.CALLTYPE_REPLY && streamCredits <= 0) {
 				request.setCallType(Constants.CALLTYPE_MANUAL);
 			}
 			if (Constants.REPLY_MANUAL) {
@@ -70,6 +82,10 @@ public class BusinessProcessFilter implements ServiceInvocationFilter<ProviderCo
 				ProviderHelper.clearContext();
 			}
 
+			if (streamCredits > 0) {
+				// 流式调用的最后响应只带元素个数，结果已按数据块发出
+				returnObj = sendStream(invocationContext, streamCredits, returnObj);
+			}
 			invocationContext.getTimeline().add(new TimePoint(TimePhase.M, System.currentTimeMillis()));
 			if (request.getCallType() == Constants.CALLTYPE_REPLY) {
 				response = ProviderUtils.createSuccessResponse(request, returnObj);
@@ -79,4 +95,34 @@ public class BusinessProcessFilter implements ServiceInvocationFilter<ProviderCo
 		throw new InvalidParameterException("message type[" + request.getMessageType() + "] is not supported!");
 	}
 
+	private int sendStream(ProviderContext invocationContext, int credits, Object returnObj) throws Exception {
+		InvocationRequest request = invocationContext.getRequest();
+		Iterator<?> iterator;
+		if (returnObj == null) {
+			iterator = Collections.emptyList().iterator();
+		} else if (returnObj instanceof Iterator) {
+			iterator = (Iterator<?>) returnObj;
+		} else if (returnObj instanceof Iterable) {
+			iterator = ((Iterable<?>) returnObj).iterator();
+		} else {
+			throw new InvalidParameterException("stream call requires Iterator or Iterable result, but got "
+					+ returnObj.getClass().getName());
+		}
+		ResponseStreamRepository repository = ResponseStreamRepository.getInstance();
+		ResponseStream stream = repository.register(invocationContext.getChannel(), request, credits);
+		try {
+			return stream.send(iterator);
+		} finally {
+			repository.remove(invocationContext.getChannel(), request.getSequence());
+			// 释放数据库游标等资源
+			if (iterator instanceof Closeable) {
+				try {
+					((Closeable) iterator).close();
+				} catch (IOException e) {
+					logger.warn("close stream iterator failed:" + request, e);
+				}
+			}
+		}
+	}
+
 }
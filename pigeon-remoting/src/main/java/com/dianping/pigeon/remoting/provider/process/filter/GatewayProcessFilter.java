@@ -22,11 +22,8 @@ import com.dianping.pigeon.remoting.common.process.ServiceInvocationFilter;
 import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
 import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
-import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsChecker;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderCapacityBucket;
 import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsHolder;
-import com.dianping.pigeon.threadpool.DefaultThreadPool;
-import com.dianping.pigeon.threadpool.ThreadPool;
-import com.dianping.pigeon.util.ThreadPoolUtils;
 
 /**
  * @author xiangwu
@@ -39,18 +36,14 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 	private static boolean isAppLimitEnabled = configManager.getBooleanValue("pigeon.provider.applimit.enable", false);
 	private static boolean isAppLimitQps = configManager.getBooleanValue("pigeon.provider.applimit.qps", true);
 	private static Map<String, Long> appLimitMap = new ConcurrentHashMap<String, Long>();
-	private static ThreadPool statisticsCheckerPool = new DefaultThreadPool("Pigeon-Server-Statistics-Checker");
 
 	static {
 		String appLimitConfig = configManager.getStringValue("pigeon.provider.applimit");
 		parseAppLimitConfig(appLimitConfig);
 		ConfigManagerLoader.getConfigManager().registerConfigChangeListener(new InnerConfigChangeListener());
-		ProviderStatisticsChecker appStatisticsChecker = new ProviderStatisticsChecker();
-		statisticsCheckerPool.execute(appStatisticsChecker);
 	}
 
 	public void destroy() throws Exception {
-		ThreadPoolUtils.shutdown(statisticsCheckerPool.getExecutor());
 	}
 
 	private static void parseAppLimitConfig(String appLimitConfig) {
@@ -81,14 +74,14 @@ public class GatewayProcessFilter implements ServiceInvocationFilter<ProviderCon
 		String fromApp = request.getApp();
 		InvocationResponse response = null;
 		try {
-			ProviderStatisticsHolder.flowIn(request);
+			ProviderCapacityBucket bucket = ProviderStatisticsHolder.flowIn(request);
 			if (isAppLimitEnabled && StringUtils.isNotBlank(fromApp) && appLimitMap.containsKey(fromApp)) {
 				Long limit = appLimitMap.get(fromApp);
 				if (limit >= 0) {
-					long requests = ProviderStatisticsHolder.getCapacityBucket(request).getRequestsInCurrentSecond();
-					if (!isAppLimitQps) {
-						requests = ProviderStatisticsHolder.getCapacityBucket(request).getCurrentRequests();
+					if (bucket == null) {
+						bucket = ProviderStatisticsHolder.getCapacityBucket(request);
 					}
+					long requests = isAppLimitQps ? bucket.getRequestsInCurrentSecond() : bucket.getCurrentRequests();
 					if (requests + 1 > limit) {
 						throw new RejectedException("request from app:" + fromApp
 								+ " refused, max requests limit reached:" + limit);
@@ -1,25 +1,24 @@
 package com.dianping.pigeon.remoting.provider.process.statistics;
 
 import java.io.Serializable;
-import java.util.Calendar;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.logging.log4j.Logger;
-
 import com.dianping.pigeon.config.ConfigManagerLoader;
-import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.SlidingWindowCounter;
+import com.dianping.pigeon.remoting.common.util.StripedCounter;
 
+@SuppressWarnings("serial")
 public class ProviderCapacityBucket implements Serializable {
-	private static final Logger logger = LoggerLoader.getLogger(ProviderCapacityBucket.class);
 
-	private AtomicInteger requests = new AtomicInteger();
+	private transient final StripedCounter requests = new StripedCounter();
 
-	private Map<Integer, AtomicInteger> totalRequestsInSecond = new ConcurrentHashMap<Integer, AtomicInteger>();
+	// 按单调时间的秒、分钟序号统计，计数器自动轮转，不需要定时重置
+	private transient final SlidingWindowCounter totalRequestsInSecond = new SlidingWindowCounter(64);
 
-	private Map<Integer, AtomicInteger> totalRequestsInMinute = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private transient final SlidingWindowCounter totalRequestsInMinute = new SlidingWindowCounter(64);
 
 	public static final boolean enableMinuteStats = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.providerstat.minute.enable", true);
@@ -28,119 +27,56 @@ public class ProviderCapacityBucket implements Serializable {
 	}
 
 	public ProviderCapacityBucket(String address) {
-		preFillData();
 	}
 
 	public void flowIn(InvocationRequest request) {
-		Calendar now = Calendar.getInstance();
-		requests.incrementAndGet();
-		int second = now.get(Calendar.SECOND);
-		incrementTotalRequestsInSecond(second);
+		long second = SlidingWindowCounter.currentSecond();
+		requests.increment();
+		totalRequestsInSecond.increment(second);
 		if (enableMinuteStats) {
-			int minute = now.get(Calendar.MINUTE);
-			incrementTotalRequestsInMinute(minute);
+			totalRequestsInMinute.increment(second / 60);
 		}
 	}
 
 	public void flowOut(InvocationRequest request) {
-		requests.decrementAndGet();
+		requests.decrement();
 	}
 
 	public int getCurrentRequests() {
-		return requests.get();
+		return (int) requests.sum();
 	}
 
+	/**
+	 * @return 最近60秒每秒的请求数，key为秒（0-59）
+	 */
 	public Map<Integer, AtomicInteger> getTotalRequestsInSecond() {
-		return totalRequestsInSecond;
+		Map<Integer, AtomicInteger> requestsInSecond = new TreeMap<Integer, AtomicInteger>();
+		for (int second = 0; second < 60; second++) {
+			requestsInSecond.put(second, new AtomicInteger(getRequestsInSecond(second)));
+		}
+		return requestsInSecond;
 	}
 
 	public int getRequestsInCurrentSecond() {
-		Calendar cal = Calendar.getInstance();
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
+		return (int) totalRequestsInSecond.get(SlidingWindowCounter.currentSecond());
 	}
 
 	public int getRequestsInLastSecond() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.SECOND, -1);
-		int lastSecond = cal.get(Calendar.SECOND);
-		AtomicInteger counter = totalRequestsInSecond.get(lastSecond);
-		return counter != null ? counter.get() : 0;
-	}
-
-	public int getRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		return counter != null ? counter.get() : 0;
-	}
-
-	public int getRequestsInLastMinute() {
-		Calendar cal = Calendar.getInstance();
-		cal.add(Calendar.MINUTE, -1);
-		int lastMinute = cal.get(Calendar.MINUTE);
-		lastMinute = lastMinute >= 0 ? lastMinute : lastMinute + 60;
-		AtomicInteger counter = totalRequestsInMinute.get(lastMinute);
-		return counter != null ? counter.get() : 0;
-	}
-
-	private void incrementTotalRequestsInSecond(int second) {
-		AtomicInteger counter = totalRequestsInSecond.get(second);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, second[" + second + "]'s request counter is null.");
-		}
-	}
-
-	private void incrementTotalRequestsInMinute(int minute) {
-		AtomicInteger counter = totalRequestsInMinute.get(minute);
-		if (counter != null) {
-			counter.incrementAndGet();
-		} else {
-			logger.warn("Impossible case happended, day[" + minute + "]'s request counter is null.");
-		}
+		return (int) totalRequestsInSecond.get(SlidingWindowCounter.currentSecond() - 1);
 	}
 
 	/**
-	 * 重置过期的每秒请求数计数器
+	 * @param second
+	 *            最近一分钟内的秒（0-59）
 	 */
-	public void resetRequestsInSecondCounter() {
-		int second = Calendar.getInstance().get(Calendar.SECOND);
-		int prev3Sec = second - 10;
-		for (int i = 1; i <= 30; i++) {
-			int prevSec = prev3Sec - i;
-			prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-			AtomicInteger counter = totalRequestsInSecond.get(prevSec);
-			if (counter != null) {
-				counter.set(0);
-			}
-		}
-	}
-
-	public void resetRequestsInMinuteCounter() {
-		if (enableMinuteStats) {
-			int min = Calendar.getInstance().get(Calendar.MINUTE);
-			int prev3Sec = min - 10;
-			for (int i = 1; i <= 30; i++) {
-				int prevSec = prev3Sec - i;
-				prevSec = prevSec >= 0 ? prevSec : prevSec + 60;
-				AtomicInteger counter = totalRequestsInMinute.get(prevSec);
-				if (counter != null) {
-					counter.set(0);
-				}
-			}
-		}
+	public int getRequestsInSecond(int second) {
+		int currentSecond = (int) ((System.currentTimeMillis() / 1000) % 60);
+		int ago = (currentSecond - second + 60) % 60;
+		return (int) totalRequestsInSecond.get(SlidingWindowCounter.currentSecond() - ago);
 	}
 
-	private void preFillData() {
-		for (int sec = 0; sec < 60; sec++) {
-			totalRequestsInSecond.put(sec, new AtomicInteger());
-		}
-		if (enableMinuteStats) {
-			for (int min = 0; min < 60; min++) {
-				totalRequestsInMinute.put(min, new AtomicInteger());
-			}
-		}
+	public int getRequestsInLastMinute() {
+		return (int) totalRequestsInMinute.get(SlidingWindowCounter.currentSecond() / 60 - 1);
 	}
 
 	public String toString() {
@@ -1,13 +1,17 @@
 package com.dianping.pigeon.remoting.provider.process.statistics;
 
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.Logger;
 
 import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.exception.RejectedException;
+import com.dianping.pigeon.remoting.common.util.AdaptiveConcurrencyLimit;
 import com.dianping.pigeon.remoting.common.util.Constants;
 
 public final class ProviderStatisticsHolder {
@@ -19,6 +23,45 @@ public final class ProviderStatisticsHolder {
 	public static final boolean statEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
 			"pigeon.providerstat.enable", true);
 
+	// 按服务方法统计请求数，service -> method -> bucket，避免每次拼接key
+	public static final boolean methodStatEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.providerstat.method.enable", true);
+
+	private static ConcurrentHashMap<String, ConcurrentHashMap<String, ProviderCapacityBucket>> methodCapacityBuckets =
+			new ConcurrentHashMap<String, ConcurrentHashMap<String, ProviderCapacityBucket>>();
+
+	// 按来源app和服务的自适应并发限制，超过限制的请求在进入线程池前拒绝
+	public static final boolean adaptiveLimitEnable = ConfigManagerLoader.getConfigManager().getBooleanValue(
+			"pigeon.provider.adaptivelimit.enable", false);
+
+	private static final int adaptiveLimitInitial = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.adaptivelimit.initial", 100);
+
+	private static final int adaptiveLimitMin = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.adaptivelimit.min", 10);
+
+	private static final int adaptiveLimitMax = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.adaptivelimit.max", 1000);
+
+	private static final float adaptiveLimitTolerance = ConfigManagerLoader.getConfigManager().getFloatValue(
+			"pigeon.provider.adaptivelimit.tolerance", 1.5f);
+
+	private static final float adaptiveLimitSmoothing = ConfigManagerLoader.getConfigManager().getFloatValue(
+			"pigeon.provider.adaptivelimit.smoothing", 0.2f);
+
+	private static final int adaptiveLimitLongWindow = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.adaptivelimit.longwindow", 600);
+
+	private static final int adaptiveLimitWindow = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.adaptivelimit.window", 100);
+
+	private static final int adaptiveLimitMinSamples = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.adaptivelimit.minsamples", 10);
+
+	private static ConcurrentHashMap<String, AdaptiveConcurrencyLimit> appLimits = new ConcurrentHashMap<String, AdaptiveConcurrencyLimit>();
+
+	private static ConcurrentHashMap<String, AdaptiveConcurrencyLimit> serviceLimits = new ConcurrentHashMap<String, AdaptiveConcurrencyLimit>();
+
 	public static void init() {
 	}
 	
@@ -42,20 +85,63 @@ public final class ProviderStatisticsHolder {
 		return barrel;
 	}
 
-	public static void flowIn(InvocationRequest request) {
+	/**
+	 * 服务方法的统计，key为service#method
+	 */
+	public static Map<String, ProviderCapacityBucket> getMethodCapacityBuckets() {
+		Map<String, ProviderCapacityBucket> buckets = new TreeMap<String, ProviderCapacityBucket>();
+		for (Map.Entry<String, ConcurrentHashMap<String, ProviderCapacityBucket>> service : methodCapacityBuckets
+				.entrySet()) {
+			for (Map.Entry<String, ProviderCapacityBucket> method : service.getValue().entrySet()) {
+				buckets.put(service.getKey() + "#" + method.getKey(), method.getValue());
+			}
+		}
+		return buckets;
+	}
+
+	public static ProviderCapacityBucket getMethodCapacityBucket(InvocationRequest request) {
+		String serviceName = request.getServiceName() == null ? "" : request.getServiceName();
+		String methodName = request.getMethodName() == null ? "" : request.getMethodName();
+		ConcurrentHashMap<String, ProviderCapacityBucket> methodBuckets = methodCapacityBuckets.get(serviceName);
+		if (methodBuckets == null) {
+			ConcurrentHashMap<String, ProviderCapacityBucket> newMethodBuckets =
+					new ConcurrentHashMap<String, ProviderCapacityBucket>();
+			methodBuckets = methodCapacityBuckets.putIfAbsent(serviceName, newMethodBuckets);
+			if (methodBuckets == null) {
+				methodBuckets = newMethodBuckets;
+			}
+		}
+		ProviderCapacityBucket barrel = methodBuckets.get(methodName);
+		if (barrel == null) {
+			ProviderCapacityBucket newBarrel = new ProviderCapacityBucket(methodName);
+			barrel = methodBuckets.putIfAbsent(methodName, newBarrel);
+			if (barrel == null) {
+				barrel = newBarrel;
+			}
+		}
+		return barrel;
+	}
+
+	/**
+	 * @return 来源app的统计，未开启统计时返回null
+	 */
+	public static ProviderCapacityBucket flowIn(InvocationRequest request) {
 		if (checkRequestNeedStat(request)) {
 			ProviderCapacityBucket barrel = getCapacityBucket(request);
-			if (barrel != null) {
-				barrel.flowIn(request);
+			barrel.flowIn(request);
+			if (methodStatEnable) {
+				getMethodCapacityBucket(request).flowIn(request);
 			}
+			return barrel;
 		}
+		return null;
 	}
 
 	public static void flowOut(InvocationRequest request) {
 		if (checkRequestNeedStat(request)) {
-			ProviderCapacityBucket barrel = getCapacityBucket(request);
-			if (barrel != null) {
-				barrel.flowOut(request);
+			getCapacityBucket(request).flowOut(request);
+			if (methodStatEnable) {
+				getMethodCapacityBucket(request).flowOut(request);
 			}
 		}
 	}
@@ -70,4 +156,92 @@ public final class ProviderStatisticsHolder {
 	public static void removeCapacityBucket(String fromApp) {
 		appCapacityBuckets.remove(fromApp);
 	}
+
+	public static Map<String, AdaptiveConcurrencyLimit> getAppLimits() {
+		return appLimits;
+	}
+
+	public static Map<String, AdaptiveConcurrencyLimit> getServiceLimits() {
+		return serviceLimits;
+	}
+
+	/**
+	 * 先占用来源app的限制再占用服务的限制，任意一个已满时抛出RejectedException；
+	 * 占用成功后必须调用releaseLimit
+	 */
+	public static void acquireLimit(InvocationRequest request) {
+		if (!adaptiveLimitEnable || request == null || request.getMessageType() != Constants.MESSAGE_TYPE_SERVICE) {
+			return;
+		}
+		String fromApp = request.getApp();
+		if (fromApp == null) {
+			fromApp = "";
+		}
+		AdaptiveConcurrencyLimit appLimit = getLimit(appLimits, fromApp);
+		if (!appLimit.tryAcquire()) {
+			throw new RejectedException("request from app:" + fromApp
+					+ " refused, adaptive concurrency limit reached, " + appLimit);
+		}
+		AdaptiveConcurrencyLimit serviceLimit = getLimit(serviceLimits, request.getServiceName());
+		if (!serviceLimit.tryAcquire()) {
+			appLimit.release(0);
+			throw new RejectedException("request for service:" + request.getServiceName()
+					+ " refused, adaptive concurrency limit reached, " + serviceLimit);
+		}
+		request.setAttachment(Constants.REQ_ATTACH_LIMIT, new LimitPermit(appLimit, serviceLimit));
+	}
+
+	/**
+	 * @param sample
+	 *            是否把本次请求的耗时计入延迟采样
+	 */
+	public static void releaseLimit(InvocationRequest request, boolean sample) {
+		if (!adaptiveLimitEnable || request == null) {
+			return;
+		}
+		Object permit = request.getAttachment(Constants.REQ_ATTACH_LIMIT);
+		if (permit instanceof LimitPermit) {
+			((LimitPermit) permit).release(sample);
+		}
+	}
+
+	private static AdaptiveConcurrencyLimit getLimit(ConcurrentHashMap<String, AdaptiveConcurrencyLimit> limits,
+			String key) {
+		AdaptiveConcurrencyLimit limit = limits.get(key);
+		if (limit == null) {
+			AdaptiveConcurrencyLimit newLimit = new AdaptiveConcurrencyLimit(adaptiveLimitInitial, adaptiveLimitMin,
+					adaptiveLimitMax, adaptiveLimitTolerance, adaptiveLimitSmoothing, adaptiveLimitLongWindow,
+					adaptiveLimitWindow, adaptiveLimitMinSamples);
+			limit = limits.putIfAbsent(key, newLimit);
+			if (limit == null) {
+				limit = newLimit;
+			}
+		}
+		return limit;
+	}
+
+	private static class LimitPermit {
+
+		private final AdaptiveConcurrencyLimit appLimit;
+
+		private final AdaptiveConcurrencyLimit serviceLimit;
+
+		private final long startNanos = System.nanoTime();
+
+		// 线程池拒绝和任务取消可能在不同线程各释放一次
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		LimitPermit(AdaptiveConcurrencyLimit appLimit, AdaptiveConcurrencyLimit serviceLimit) {
+			this.appLimit = appLimit;
+			this.serviceLimit = serviceLimit;
+		}
+
+		void release(boolean sample) {
+			if (released.compareAndSet(false, true)) {
+				long rtt = sample ? System.nanoTime() - startNanos : 0;
+				serviceLimit.release(rtt);
+				appLimit.release(rtt);
+			}
+		}
+	}
 }
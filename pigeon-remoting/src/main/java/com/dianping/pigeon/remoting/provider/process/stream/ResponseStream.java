@@ -0,0 +1,141 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.provider.process.stream;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.provider.domain.ProviderChannel;
+import com.dianping.pigeon.remoting.provider.exception.ProcessTimeoutException;
+import com.dianping.pigeon.remoting.provider.exception.RequestAbortedException;
+import com.dianping.pigeon.remoting.provider.util.ProviderUtils;
+
+/**
+ * 一次流式调用的发送端，在业务线程中把服务方法返回的Iterator按数据块写出
+ *
+ * 每个数据块消耗一个额度，额度用完或连接不可写时等待调用端授予新的额度；
+ * 每写出一个数据块重置请求的开始时间，服务端的超时检查按数据块之间的间隔计算
+ */
+public class ResponseStream {
+
+	private static ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+
+	private static final int chunkSize = configManager.getIntValue("pigeon.provider.stream.chunksize", 100);
+
+	// 调用端一直不消费时最长等待的时间
+	private static final long creditTimeout = configManager.getLongValue("pigeon.provider.stream.credit.timeout",
+			60000);
+
+	// 连接可写的通知可能丢失，等待时定期重新检查
+	private static final long WAIT_INTERVAL = 100;
+
+	private final ProviderChannel channel;
+
+	private final InvocationRequest request;
+
+	private int credits;
+
+	private boolean cancelled = false;
+
+	private int count;
+
+	public ResponseStream(ProviderChannel channel, InvocationRequest request, int credits) {
+		this.channel = channel;
+		this.request = request;
+		this.credits = credits;
+	}
+
+	/**
+	 * @return 调用端在请求上下文中带了初始额度时返回该值，否则返回0
+	 */
+	public static int getInitialCredits(InvocationRequest request) {
+		Map<String, Serializable> requestValues = request.getRequestValues();
+		if (requestValues == null) {
+			return 0;
+		}
+		Object credits = requestValues.get(Constants.REQUEST_STREAM_CREDIT);
+		return credits instanceof Number ? ((Number) credits).intValue() : 0;
+	}
+
+	/**
+	 * @return 发送的元素个数
+	 */
+	public int send(Iterator<?> iterator) throws InterruptedException {
+		List<Object> items = new ArrayList<Object>(chunkSize);
+		while (iterator.hasNext()) {
+			items.add(iterator.next());
+			if (items.size() >= chunkSize) {
+				write(items);
+				items.clear();
+			}
+		}
+		if (!items.isEmpty()) {
+			write(items);
+		}
+		return count;
+	}
+
+	private void write(List<Object> items) throws InterruptedException {
+		acquire();
+		channel.write(ProviderUtils.createStreamResponse(request, items.toArray()));
+		count += items.size();
+		request.setCreateMillisTime(System.currentTimeMillis());
+	}
+
+	private synchronized void acquire() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while (!cancelled && (credits <= 0 || !channel.isWritable())) {
+			long now = System.currentTimeMillis();
+			long remaining = creditTimeout - (now - start);
+			if (remaining <= 0) {
+				throw new ProcessTimeoutException("no stream credit from invoker in " + creditTimeout
+						+ "ms, request:" + request);
+			}
+			// 等待调用端消费的时间不算处理超时
+			request.setCreateMillisTime(now);
+			wait(Math.min(remaining, WAIT_INTERVAL));
+		}
+		if (cancelled) {
+			throw new RequestAbortedException("stream cancelled by invoker, sent:" + count + ", request:" + request);
+		}
+		credits--;
+	}
+
+	/**
+	 * @param credits
+	 *            小于0表示调用端已关闭或超时
+	 */
+	public synchronized void grant(int credits) {
+		if (credits < 0) {
+			cancelled = true;
+		} else {
+			this.credits += credits;
+		}
+		notifyAll();
+	}
+
+	public synchronized void cancel() {
+		cancelled = true;
+		notifyAll();
+	}
+
+	/**
+	 * 连接重新可写时唤醒等待的发送线程
+	 */
+	public synchronized void wakeUp() {
+		notifyAll();
+	}
+
+	public InvocationRequest getRequest() {
+		return request;
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.provider.process.stream;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.provider.domain.ProviderChannel;
+
+/**
+ * 正在发送的流式响应，seq只在调用端内唯一，按连接分别登记
+ */
+public class ResponseStreamRepository {
+
+	private static final Logger logger = LoggerLoader.getLogger(ResponseStreamRepository.class);
+
+	private static ResponseStreamRepository instance = new ResponseStreamRepository();
+
+	private final ConcurrentMap<ProviderChannel, ConcurrentMap<Long, ResponseStream>> streams = new ConcurrentHashMap<ProviderChannel, ConcurrentMap<Long, ResponseStream>>();
+
+	public static ResponseStreamRepository getInstance() {
+		return instance;
+	}
+
+	public ResponseStream register(ProviderChannel channel, InvocationRequest request, int credits) {
+		ConcurrentMap<Long, ResponseStream> channelStreams = streams.get(channel);
+		if (channelStreams == null) {
+			channelStreams = new ConcurrentHashMap<Long, ResponseStream>();
+			ConcurrentMap<Long, ResponseStream> old = streams.putIfAbsent(channel, channelStreams);
+			if (old != null) {
+				channelStreams = old;
+			}
+		}
+		ResponseStream stream = new ResponseStream(channel, request, credits);
+		channelStreams.put(request.getSequence(), stream);
+		return stream;
+	}
+
+	public void remove(ProviderChannel channel, long sequence) {
+		ConcurrentMap<Long, ResponseStream> channelStreams = streams.get(channel);
+		if (channelStreams != null) {
+			channelStreams.remove(sequence);
+		}
+	}
+
+	/**
+	 * 调用端发来的额度消息，在IO线程中处理
+	 */
+	public void receiveCredit(ProviderChannel channel, InvocationRequest request) {
+		ConcurrentMap<Long, ResponseStream> channelStreams = streams.get(channel);
+		ResponseStream stream = channelStreams == null ? null : channelStreams.get(request.getSequence());
+		Object[] parameters = request.getParameters();
+		if (stream == null || parameters == null || parameters.length == 0 || !(parameters[0] instanceof Number)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("ignore stream credit:" + request);
+			}
+			return;
+		}
+		stream.grant(((Number) parameters[0]).intValue());
+	}
+
+	public void notifyWritable(ProviderChannel channel) {
+		ConcurrentMap<Long, ResponseStream> channelStreams = streams.get(channel);
+		if (channelStreams != null) {
+			for (ResponseStream stream : channelStreams.values()) {
+				stream.wakeUp();
+			}
+		}
+	}
+
+	/**
+	 * 连接关闭时结束该连接上所有的流
+	 */
+	public void cancel(ProviderChannel channel) {
+		ConcurrentMap<Long, ResponseStream> channelStreams = streams.remove(channel);
+		if (channelStreams != null) {
+			for (ResponseStream stream : channelStreams.values()) {
+				stream.cancel();
+			}
+		}
+	}
+}
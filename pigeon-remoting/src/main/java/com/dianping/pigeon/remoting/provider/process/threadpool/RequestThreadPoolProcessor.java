@@ -11,6 +11,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -32,9 +33,11 @@ import com.dianping.pigeon.remoting.provider.config.ServerConfig;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
 import com.dianping.pigeon.remoting.provider.process.AbstractRequestProcessor;
 import com.dianping.pigeon.remoting.provider.process.ProviderProcessHandlerFactory;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsHolder;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodCache;
 import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodFactory;
 import com.dianping.pigeon.threadpool.DefaultThreadPool;
+import com.dianping.pigeon.threadpool.StripedThreadPool;
 import com.dianping.pigeon.threadpool.ThreadPool;
 import com.dianping.pigeon.util.CollectionUtils;
 
@@ -47,6 +50,10 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 
 	private static ThreadPool sharedRequestProcessThreadPool = null;
 
+	// 大于1时共享线程池分段，每个netty worker固定提交到一个分段，减少单个队列上的锁竞争
+	private static final int SHARED_POOL_STRIPES = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.pool.stripes", 1);
+
 	private static final int SLOW_POOL_CORESIZE = ConfigManagerLoader.getConfigManager().getIntValue(
 			"pigeon.provider.pool.slow.coresize", 10);
 
@@ -93,13 +100,19 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 					+ serverConfig.getProtocol() + "-" + serverConfig.getActualPort(), serverConfig.getCorePoolSize(),
 					serverConfig.getMaxPoolSize(), new LinkedBlockingQueue<Runnable>(serverConfig.getWorkQueueSize()));
 		} else {
-			sharedRequestProcessThreadPool = new DefaultThreadPool("Pigeon-Server-Request-Processor",
-					serverConfig.getCorePoolSize(), serverConfig.getMaxPoolSize(), new LinkedBlockingQueue<Runnable>(
-							serverConfig.getWorkQueueSize()));
+			sharedRequestProcessThreadPool = createSharedThreadPool("Pigeon-Server-Request-Processor",
+					serverConfig.getCorePoolSize(), serverConfig.getMaxPoolSize(), serverConfig.getWorkQueueSize());
 			requestProcessThreadPool = sharedRequestProcessThreadPool;
 		}
 	}
 
+	private static ThreadPool createSharedThreadPool(String poolName, int coreSize, int maxSize, int queueSize) {
+		if (SHARED_POOL_STRIPES > 1) {
+			return new StripedThreadPool(poolName, SHARED_POOL_STRIPES, coreSize, maxSize, queueSize);
+		}
+		return new DefaultThreadPool(poolName, coreSize, maxSize, new LinkedBlockingQueue<Runnable>(queueSize));
+	}
+
 	public void doStop() {
 	}
 
@@ -111,6 +124,9 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 			@Override
 			public InvocationResponse call() throws Exception {
 				try {
+					if (isExpired(request)) {
+						return null;
+					}
 					ServiceInvocationHandler invocationHandler = ProviderProcessHandlerFactory
 							.selectInvocationHandler(providerContext.getRequest().getMessageType());
 					if (invocationHandler != null) {
@@ -126,9 +142,18 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 			}
 		};
 
+		// 任务结束或在执行前被取消时释放并发限制
+		FutureTask<InvocationResponse> future = new FutureTask<InvocationResponse>(requestExecutor) {
+
+			@Override
+			protected void done() {
+				ProviderStatisticsHolder.releaseLimit(request, true);
+			}
+		};
 		ThreadPool pool = selectThreadPool(request);
 		try {
-			return pool.submit(requestExecutor);
+			pool.execute(future);
+			return future;
 		} catch (RejectedExecutionException e) {
 			requestContextMap.remove(request);
 			throw new RejectedException(getProcessorStatistics(request), e);
@@ -306,9 +331,8 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 						int queueSize = oldPool.getExecutor().getQueue().remainingCapacity()
 								+ oldPool.getExecutor().getQueue().size();
 						try {
-							ThreadPool newPool = new DefaultThreadPool("Pigeon-Server-Request-Processor-method", size,
-									oldPool.getExecutor().getMaximumPoolSize(), new LinkedBlockingQueue<Runnable>(
-											queueSize));
+							ThreadPool newPool = createSharedThreadPool("Pigeon-Server-Request-Processor-method", size,
+									oldPool.getExecutor().getMaximumPoolSize(), queueSize);
 							sharedRequestProcessThreadPool = newPool;
 							oldPool.getExecutor().shutdown();
 							oldPool.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
@@ -331,9 +355,8 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 						int queueSize = oldPool.getExecutor().getQueue().remainingCapacity()
 								+ oldPool.getExecutor().getQueue().size();
 						try {
-							ThreadPool newPool = new DefaultThreadPool("Pigeon-Server-Request-Processor-method",
-									oldPool.getExecutor().getCorePoolSize(), size, new LinkedBlockingQueue<Runnable>(
-											queueSize));
+							ThreadPool newPool = createSharedThreadPool("Pigeon-Server-Request-Processor-method",
+									oldPool.getExecutor().getCorePoolSize(), size, queueSize);
 							sharedRequestProcessThreadPool = newPool;
 							oldPool.getExecutor().shutdown();
 							oldPool.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
@@ -356,9 +379,9 @@ public class RequestThreadPoolProcessor extends AbstractRequestProcessor {
 				if (size != queueSize && size >= 0) {
 					try {
 						try {
-							ThreadPool newPool = new DefaultThreadPool("Pigeon-Server-Request-Processor-method",
-									oldPool.getExecutor().getCorePoolSize(),
-									oldPool.getExecutor().getMaximumPoolSize(), new LinkedBlockingQueue<Runnable>(size));
+							ThreadPool newPool = createSharedThreadPool("Pigeon-Server-Request-Processor-method",
+									oldPool.getExecutor().getCorePoolSize(), oldPool.getExecutor().getMaximumPoolSize(),
+									size);
 							sharedRequestProcessThreadPool = newPool;
 							oldPool.getExecutor().shutdown();
 							oldPool.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
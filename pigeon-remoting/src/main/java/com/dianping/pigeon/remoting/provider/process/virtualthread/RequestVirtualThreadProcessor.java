@@ -0,0 +1,297 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.provider.process.virtualthread;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.log.LoggerLoader;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.exception.RejectedException;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+import com.dianping.pigeon.remoting.provider.config.ProviderConfig;
+import com.dianping.pigeon.remoting.provider.config.ProviderMethodConfig;
+import com.dianping.pigeon.remoting.provider.config.ServerConfig;
+import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
+import com.dianping.pigeon.remoting.provider.process.AbstractRequestProcessor;
+import com.dianping.pigeon.remoting.provider.process.ProviderProcessHandlerFactory;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderStatisticsHolder;
+import com.dianping.pigeon.threadpool.DefaultThreadPool;
+import com.dianping.pigeon.util.CollectionUtils;
+import com.dianping.pigeon.util.ThreadPoolUtils;
+
+/**
+ * pigeon.provider.pool.strategy=virtual时使用：每个请求一个虚拟线程（JDK 21以上），不再受线程池最大1000线程的限制
+ *
+ * 并发数由信号量控制，服务级/方法级actives的含义与线程池模式一致；JDK不支持虚拟线程时退回普通线程池，
+ * 与DefaultThreadPool一样受最大1000线程、核心300线程的限制，总并发数不超过线程池的最大线程数
+ */
+public class RequestVirtualThreadProcessor extends AbstractRequestProcessor {
+
+	private static final Logger logger = LoggerLoader.getLogger(RequestVirtualThreadProcessor.class);
+
+	private static final String THREAD_NAME = "Pigeon-Server-Request-Processor-virtual";
+
+	private static int DEFAULT_POOL_ACTIVES = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.pool.actives", 60);
+
+	private static int MAX_ACTIVES = ConfigManagerLoader.getConfigManager().getIntValue(
+			"pigeon.provider.pool.virtual.maxactives", 10000);
+
+	private static float cancelRatio = ConfigManagerLoader.getConfigManager().getFloatValue(
+			"pigeon.timeout.cancelratio", 1f);
+
+	private final ExecutorService executor;
+
+	private final boolean virtual;
+
+	private final ActiveLimit serverLimit;
+
+	private final ConcurrentHashMap<String, ActiveLimit> serviceLimits = new ConcurrentHashMap<String, ActiveLimit>();
+
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, ActiveLimit>> methodLimits = new ConcurrentHashMap<String, ConcurrentHashMap<String, ActiveLimit>>();
+
+	private final AtomicLong taskCount = new AtomicLong();
+
+	private final AtomicLong completedTaskCount = new AtomicLong();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	public RequestVirtualThreadProcessor(ServerConfig serverConfig) {
+		ExecutorService virtualExecutor = newVirtualThreadExecutor(THREAD_NAME + "-" + serverConfig.getProtocol()
+				+ "-" + serverConfig.getActualPort() + "-");
+		if (virtualExecutor != null) {
+			this.executor = virtualExecutor;
+			this.virtual = true;
+			this.serverLimit = new ActiveLimit(MAX_ACTIVES);
+		} else {
+			ThreadPoolExecutor platformExecutor = new DefaultThreadPool(THREAD_NAME + "-"
+					+ serverConfig.getProtocol() + "-" + serverConfig.getActualPort(), serverConfig.getCorePoolSize(),
+					serverConfig.getMaxPoolSize()).getExecutor();
+			logger.warn("virtual threads are not supported by this jvm, use a platform thread pool with max size "
+					+ platformExecutor.getMaximumPoolSize());
+			this.executor = platformExecutor;
+			this.virtual = false;
+			this.serverLimit = new ActiveLimit(Math.min(MAX_ACTIVES, platformExecutor.getMaximumPoolSize()));
+		}
+	}
+
+	/**
+	 * 通过反射使用Thread.ofVirtual()，源码仍需兼容低版本JDK
+	 */
+	private static ExecutorService newVirtualThreadExecutor(String prefix) {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = ofVirtual.invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method newExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor",
+					ThreadFactory.class);
+			return (ExecutorService) newExecutor.invoke(null, factory);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	@Override
+	public Future<InvocationResponse> doProcessRequest(final InvocationRequest request,
+			final ProviderContext providerContext) {
+		final ActiveLimit limit = selectLimit(request);
+		if (!serverLimit.tryAcquire()) {
+			rejectedCount.incrementAndGet();
+			throw new RejectedException(getProcessorStatistics(request));
+		}
+		if (limit != null && !limit.tryAcquire()) {
+			serverLimit.release();
+			rejectedCount.incrementAndGet();
+			throw new RejectedException(getProcessorStatistics(request));
+		}
+		requestContextMap.put(request, providerContext);
+		Callable<InvocationResponse> requestExecutor = new Callable<InvocationResponse>() {
+
+			@Override
+			public InvocationResponse call() throws Exception {
+				try {
+					if (isExpired(request)) {
+						return null;
+					}
+					ServiceInvocationHandler invocationHandler = ProviderProcessHandlerFactory
+							.selectInvocationHandler(providerContext.getRequest().getMessageType());
+					if (invocationHandler != null) {
+						providerContext.setThread(Thread.currentThread());
+						return invocationHandler.handle(providerContext);
+					}
+				} catch (Throwable t) {
+					logger.error("Process request failed with invocation handler, you should never be here.", t);
+				} finally {
+					requestContextMap.remove(request);
+				}
+				return null;
+			}
+		};
+		// 任务结束或在执行前被取消时都会调用done，保证信号量只释放一次
+		FutureTask<InvocationResponse> future = new FutureTask<InvocationResponse>(requestExecutor) {
+
+			@Override
+			protected void done() {
+				completedTaskCount.incrementAndGet();
+				ProviderStatisticsHolder.releaseLimit(request, true);
+				if (limit != null) {
+					limit.release();
+				}
+				serverLimit.release();
+			}
+		};
+		try {
+			taskCount.incrementAndGet();
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			requestContextMap.remove(request);
+			future.cancel(false);
+			rejectedCount.incrementAndGet();
+			throw new RejectedException(getProcessorStatistics(request), e);
+		}
+		return future;
+	}
+
+	private ActiveLimit selectLimit(InvocationRequest request) {
+		if (!methodLimits.isEmpty()) {
+			Map<String, ActiveLimit> limits = methodLimits.get(request.getServiceName());
+			if (limits != null) {
+				ActiveLimit limit = limits.get(request.getMethodName());
+				if (limit != null) {
+					return limit;
+				}
+			}
+		}
+		if (!serviceLimits.isEmpty()) {
+			return serviceLimits.get(request.getServiceName());
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized <T> void addService(ProviderConfig<T> providerConfig) {
+		String url = providerConfig.getUrl();
+		Map<String, ProviderMethodConfig> methodConfigs = providerConfig.getMethods();
+		if (providerConfig.getActives() > 0 && CollectionUtils.isEmpty(methodConfigs)) {
+			serviceLimits.putIfAbsent(url, new ActiveLimit(providerConfig.getActives()));
+		} else if (!CollectionUtils.isEmpty(methodConfigs)) {
+			ConcurrentHashMap<String, ActiveLimit> limits = new ConcurrentHashMap<String, ActiveLimit>();
+			for (Map.Entry<String, ProviderMethodConfig> entry : methodConfigs.entrySet()) {
+				int actives = DEFAULT_POOL_ACTIVES;
+				ProviderMethodConfig methodConfig = entry.getValue();
+				if (methodConfig != null && methodConfig.getActives() > 0) {
+					actives = methodConfig.getActives();
+				}
+				limits.put(entry.getKey(), new ActiveLimit(actives));
+			}
+			methodLimits.putIfAbsent(url, limits);
+		}
+	}
+
+	@Override
+	public synchronized <T> void removeService(ProviderConfig<T> providerConfig) {
+		serviceLimits.remove(providerConfig.getUrl());
+		methodLimits.remove(providerConfig.getUrl());
+	}
+
+	@Override
+	public String getProcessorStatistics() {
+		StringBuilder stats = new StringBuilder();
+		stats.append("[virtual=").append(getExecutorStatistics()).append("]");
+		for (Map.Entry<String, ActiveLimit> entry : serviceLimits.entrySet()) {
+			stats.append(",[").append(entry.getKey()).append("=").append(entry.getValue()).append("]");
+		}
+		for (Map.Entry<String, ConcurrentHashMap<String, ActiveLimit>> service : methodLimits.entrySet()) {
+			for (Map.Entry<String, ActiveLimit> entry : service.getValue().entrySet()) {
+				stats.append(",[").append(service.getKey()).append("#").append(entry.getKey()).append("=")
+						.append(entry.getValue()).append("]");
+			}
+		}
+		return stats.toString();
+	}
+
+	@Override
+	public String getProcessorStatistics(InvocationRequest request) {
+		ActiveLimit limit = selectLimit(request);
+		if (limit == null) {
+			return getExecutorStatistics();
+		}
+		return getExecutorStatistics() + "," + limit;
+	}
+
+	private String getExecutorStatistics() {
+		return String.format("request %s threads(active:%d,max:%d),task count:%d(completed:%d),rejected:%d",
+				virtual ? "virtual" : "platform", serverLimit.getActives(), serverLimit.getMaxActives(),
+				taskCount.get(), completedTaskCount.get(), rejectedCount.get());
+	}
+
+	@Override
+	public boolean needCancelRequest(InvocationRequest request) {
+		ActiveLimit limit = selectLimit(request);
+		if (limit == null) {
+			limit = serverLimit;
+		}
+		return limit.getActives() >= limit.getMaxActives() * cancelRatio;
+	}
+
+	@Override
+	public void doStart() {
+	}
+
+	@Override
+	public void doStop() {
+		ThreadPoolUtils.shutdown(executor);
+	}
+
+	private static class ActiveLimit {
+
+		private final int maxActives;
+
+		private final Semaphore semaphore;
+
+		ActiveLimit(int maxActives) {
+			this.maxActives = maxActives;
+			this.semaphore = new Semaphore(maxActives);
+		}
+
+		boolean tryAcquire() {
+			return semaphore.tryAcquire();
+		}
+
+		void release() {
+			semaphore.release();
+		}
+
+		int getActives() {
+			return maxActives - semaphore.availablePermits();
+		}
+
+		int getMaxActives() {
+			return maxActives;
+		}
+
+		@Override
+		public String toString() {
+			return "actives:" + getActives() + "(max:" + maxActives + ")";
+		}
+	}
+}
@@ -44,6 +44,10 @@ public class ServiceMethod {
 
 	private int parameterLength;
 
+	private ServiceMethodInvoker invoker;
+
+	private int invokerIndex = -1;
+
 	public ServiceMethod(Object service, Method method) {
 
 		this.service = service;
@@ -83,6 +87,18 @@ public class ServiceMethod {
 		return this.method;
 	}
 
+	/**
+	 * 使用生成的invoker直接调用，index为-1时仍使用反射
+	 */
+	public void setInvoker(ServiceMethodInvoker invoker, int index) {
+		this.invoker = index < 0 ? null : invoker;
+		this.invokerIndex = index;
+	}
+
+	public boolean isGeneratedInvoker() {
+		return invoker != null;
+	}
+
 	/**
 	 * @return the service
 	 */
@@ -99,23 +115,41 @@ public class ServiceMethod {
 			InvocationTargetException {
 		if (needCastParameterClasses && arguments != null && parameterClasses != null) {
 			if (parameterClasses.length == arguments.length) {
-				Object[] argumentsCast = new Object[arguments.length];
+				// 只有需要转换时才复制参数数组
+				Object[] argumentsCast = arguments;
 				for (int i = 0; i < arguments.length; i++) {
 					Object arg = arguments[i];
 					if (arg != null) {
 						Class<?> argClass = arg.getClass();
 						if (argClass != parameterClasses[i]) {
+							Object castArg = arg;
 							if (argClass.equals(Double.class) && parameterClasses[i].equals(Float.class)) {
-								arg = ((Double) arg).floatValue();
+								castArg = ((Double) arg).floatValue();
 							} else if (argClass.equals(Integer.class) && parameterClasses[i].equals(Short.class)) {
-								arg = ((Integer) arg).shortValue();
+								castArg = ((Integer) arg).shortValue();
+							}
+							if (castArg != arg) {
+								if (argumentsCast == arguments) {
+									argumentsCast = arguments.clone();
+								}
+								argumentsCast[i] = castArg;
 							}
 						}
 					}
-					argumentsCast[i] = arg;
 				}
-				return this.getMethod().invoke(this.getService(), argumentsCast);
+				return doInvoke(argumentsCast);
+			}
+		}
+		return doInvoke(arguments);
+	}
+
+	private Object doInvoke(Object[] arguments) throws IllegalArgumentException, IllegalAccessException,
+			InvocationTargetException {
+		if (invoker != null) {
+			if (arguments == null ? parameterLength != 0 : arguments.length != parameterLength) {
+				throw new IllegalArgumentException("wrong number of arguments");
 			}
+			return invoker.invoke(this.service, invokerIndex, arguments);
 		}
 		return this.getMethod().invoke(this.getService(), arguments);
 	}
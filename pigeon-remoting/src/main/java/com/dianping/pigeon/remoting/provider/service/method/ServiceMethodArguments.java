@@ -0,0 +1,94 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.provider.service.method;
+
+/**
+ * 生成的ServiceMethodInvoker使用的基本类型参数转换，规则与Method.invoke一致：
+ *
+ * 接受包装类型到目标基本类型的拓宽转换（如Integer到long），null或无法拓宽时抛出IllegalArgumentException
+ */
+public final class ServiceMethodArguments {
+
+	private ServiceMethodArguments() {
+	}
+
+	public static boolean toBoolean(Object arg) {
+		if (arg instanceof Boolean) {
+			return ((Boolean) arg).booleanValue();
+		}
+		throw mismatch(arg, boolean.class);
+	}
+
+	public static char toChar(Object arg) {
+		if (arg instanceof Character) {
+			return ((Character) arg).charValue();
+		}
+		throw mismatch(arg, char.class);
+	}
+
+	public static byte toByte(Object arg) {
+		if (arg instanceof Byte) {
+			return ((Byte) arg).byteValue();
+		}
+		throw mismatch(arg, byte.class);
+	}
+
+	public static short toShort(Object arg) {
+		if (arg instanceof Short || arg instanceof Byte) {
+			return ((Number) arg).shortValue();
+		}
+		throw mismatch(arg, short.class);
+	}
+
+	public static int toInt(Object arg) {
+		if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+			return ((Number) arg).intValue();
+		}
+		if (arg instanceof Character) {
+			return ((Character) arg).charValue();
+		}
+		throw mismatch(arg, int.class);
+	}
+
+	public static long toLong(Object arg) {
+		if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+			return ((Number) arg).longValue();
+		}
+		if (arg instanceof Character) {
+			return ((Character) arg).charValue();
+		}
+		throw mismatch(arg, long.class);
+	}
+
+	public static float toFloat(Object arg) {
+		if (arg instanceof Float || arg instanceof Long || arg instanceof Integer || arg instanceof Short
+				|| arg instanceof Byte) {
+			return ((Number) arg).floatValue();
+		}
+		if (arg instanceof Character) {
+			return ((Character) arg).charValue();
+		}
+		throw mismatch(arg, float.class);
+	}
+
+	public static double toDouble(Object arg) {
+		if (arg instanceof Double || arg instanceof Float || arg instanceof Long || arg instanceof Integer
+				|| arg instanceof Short || arg instanceof Byte) {
+			return ((Number) arg).doubleValue();
+		}
+		if (arg instanceof Character) {
+			return ((Character) arg).charValue();
+		}
+		throw mismatch(arg, double.class);
+	}
+
+	private static IllegalArgumentException mismatch(Object arg, Class<?> type) {
+		if (arg == null) {
+			return new IllegalArgumentException("null argument for primitive parameter " + type.getName());
+		}
+		return new IllegalArgumentException("argument type mismatch, " + arg.getClass().getName() + " cannot be "
+				+ type.getName());
+	}
+}
@@ -5,6 +5,7 @@
 package com.dianping.pigeon.remoting.provider.service.method;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,16 @@ public class ServiceMethodCache {
 
 	private Map<String, Map<ServiceParam, ServiceMethod>> bestMacthMethod = new ConcurrentHashMap<String, Map<ServiceParam, ServiceMethod>>();
 
+	/**
+	 * 已解析过的(方法名, 参数类型)到方法的索引，按参数的Class做引用比较，查找时不创建任何对象
+	 */
+	private final ConcurrentHashMap<String, ResolvedMethod[]> resolvedMethods = new ConcurrentHashMap<String, ResolvedMethod[]>();
+
+	// 每个方法名最多缓存的参数类型组合，超过后走原有的按类名匹配
+	private static final int MAX_RESOLVED_PER_METHOD = 64;
+
+	private static final Object[] EMPTY_PARAMETERS = new Object[0];
+
 	private ServiceMethod currentMethod;
 
 	private int methodSize = 0;
@@ -58,6 +69,57 @@ public class ServiceMethodCache {
 		methodSize++;
 	}
 
+	/**
+	 * 按请求参数的实际类型查找方法，命中索引时不做类名转换和类加载
+	 */
+	public ServiceMethod getMethod(String methodName, Object[] parameters) throws InvocationFailureException {
+		if (methodSize == 1) {
+			return this.currentMethod;
+		}
+		if (parameters == null) {
+			parameters = EMPTY_PARAMETERS;
+		}
+		ResolvedMethod[] resolved = resolvedMethods.get(methodName);
+		if (resolved != null) {
+			for (ResolvedMethod r : resolved) {
+				if (r.matches(parameters)) {
+					return r.method;
+				}
+			}
+		}
+		ServiceMethod method = getMethod(methodName, new ServiceParam(getParamClassNames(parameters)));
+		addResolvedMethod(methodName, new ResolvedMethod(parameters, method));
+		return method;
+	}
+
+	private synchronized void addResolvedMethod(String methodName, ResolvedMethod method) {
+		ResolvedMethod[] resolved = resolvedMethods.get(methodName);
+		if (resolved == null) {
+			resolvedMethods.put(methodName, new ResolvedMethod[] { method });
+			return;
+		}
+		if (resolved.length >= MAX_RESOLVED_PER_METHOD) {
+			return;
+		}
+		for (ResolvedMethod r : resolved) {
+			if (Arrays.equals(r.parameterClasses, method.parameterClasses)) {
+				return;
+			}
+		}
+		// 复制后整体替换，读线程总是看到完整的数组
+		ResolvedMethod[] newResolved = Arrays.copyOf(resolved, resolved.length + 1);
+		newResolved[resolved.length] = method;
+		resolvedMethods.put(methodName, newResolved);
+	}
+
+	private static String[] getParamClassNames(Object[] parameters) {
+		String[] paramClassNames = new String[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			paramClassNames[i] = parameters[i] == null ? Constants.TRANSFER_NULL : parameters[i].getClass().getName();
+		}
+		return paramClassNames;
+	}
+
 	public ServiceMethod getMethod(String methodName, ServiceParam paramNames) throws InvocationFailureException {
 		if (methodSize == 1) {
 			return this.currentMethod;
@@ -79,7 +141,8 @@ public class ServiceMethodCache {
 	private ServiceMethod getBestMatchMethodForCache(String methodName, ServiceParam paramNames) {
 		Map<ServiceParam, ServiceMethod> paramMethodMap = this.bestMacthMethod.get(methodName);
 		if (paramMethodMap == null) {
-			paramMethodMap = new HashMap<ServiceParam, ServiceMethod>();
+			// 在锁外读取，需要使用线程安全的Map
+			paramMethodMap = new ConcurrentHashMap<ServiceParam, ServiceMethod>();
 			this.bestMacthMethod.put(methodName, paramMethodMap);
 		}
 		return paramMethodMap.get(paramNames);
@@ -171,4 +234,33 @@ public class ServiceMethodCache {
 	public Map<String, Map<Integer, List<ServiceMethod>>> getMethodMap() {
 		return methods;
 	}
+
+	private static class ResolvedMethod {
+
+		// 参数为null的位置为null
+		private final Class<?>[] parameterClasses;
+
+		private final ServiceMethod method;
+
+		ResolvedMethod(Object[] parameters, ServiceMethod method) {
+			this.parameterClasses = new Class<?>[parameters.length];
+			for (int i = 0; i < parameters.length; i++) {
+				this.parameterClasses[i] = parameters[i] == null ? null : parameters[i].getClass();
+			}
+			this.method = method;
+		}
+
+		boolean matches(Object[] parameters) {
+			if (parameters.length != parameterClasses.length) {
+				return false;
+			}
+			for (int i = 0; i < parameters.length; i++) {
+				Object parameter = parameters[i];
+				if ((parameter == null ? null : parameter.getClass()) != parameterClasses[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
 }
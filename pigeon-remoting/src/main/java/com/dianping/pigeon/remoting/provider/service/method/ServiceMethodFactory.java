@@ -5,16 +5,20 @@
 package com.dianping.pigeon.remoting.provider.service.method;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
+import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.log.LoggerLoader;
 import org.apache.logging.log4j.Logger;
 
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
 import com.dianping.pigeon.remoting.provider.config.ProviderConfig;
 import com.dianping.pigeon.remoting.provider.exception.InvocationFailureException;
 import com.dianping.pigeon.remoting.provider.process.filter.ContextTransferProcessFilter;
@@ -26,8 +30,14 @@ public final class ServiceMethodFactory {
 
 	private static Map<String, ServiceMethodCache> methods = new ConcurrentHashMap<String, ServiceMethodCache>();
 
+	// 服务名 -> 版本 -> 方法缓存，避免每次请求拼接带版本的url
+	private static Map<String, Map<String, ServiceMethodCache>> versionedMethods = new ConcurrentHashMap<String, Map<String, ServiceMethodCache>>();
+
 	private static Set<String> ingoreMethods = new HashSet<String>();
 
+	private static final boolean generateInvoker = "generated".equals(ConfigManagerLoader.getConfigManager()
+			.getStringValue(Constants.KEY_PROVIDER_METHOD_INVOKER, Constants.DEFAULT_PROVIDER_METHOD_INVOKER));
+
 	static {
 		Method[] objectMethodArray = Object.class.getMethods();
 		for (Method method : objectMethodArray) {
@@ -46,13 +56,26 @@ public final class ServiceMethodFactory {
 		if (StringUtils.isBlank(methodName)) {
 			throw new IllegalArgumentException("method name is required");
 		}
-		String[] paramClassNames = request.getParamClassName();
-		String version = request.getVersion();
-		String newUrl = ServiceProviderFactory.getServiceUrlWithVersion(serviceName, version);
 		if (logger.isDebugEnabled()) {
 			logger.debug("get method for service url:" + request);
 		}
-		ServiceMethodCache serviceMethodCache = getServiceMethodCache(newUrl);
+		// 紧凑请求头的解码器已按连接上的方法id找到了服务
+		ServiceMethodCache serviceMethodCache = (ServiceMethodCache) request
+				.getAttachment(Constants.REQ_ATTACH_METHOD_CACHE);
+		if (serviceMethodCache == null) {
+			serviceMethodCache = findServiceMethodCache(serviceName, request.getVersion());
+		}
+		if (serviceMethodCache == null) {
+			throw new InvocationFailureException("cannot find service for request:" + request);
+		}
+		return serviceMethodCache.getMethod(methodName, request.getParameters());
+	}
+
+	/**
+	 * 找不到指定版本时使用服务的默认版本
+	 */
+	public static ServiceMethodCache findServiceMethodCache(String serviceName, String version) {
+		ServiceMethodCache serviceMethodCache = getServiceMethodCache(serviceName, version);
 		if (serviceMethodCache == null) {
 			if (logger.isDebugEnabled()) {
 				logger.debug("no service found for version:" + version + ", use the default version of service:"
@@ -60,10 +83,28 @@ public final class ServiceMethodFactory {
 			}
 			serviceMethodCache = getServiceMethodCache(serviceName);
 		}
+		return serviceMethodCache;
+	}
+
+	private static ServiceMethodCache getServiceMethodCache(String serviceName, String version) {
+		if (StringUtils.isBlank(version)) {
+			return getServiceMethodCache(serviceName);
+		}
+		Map<String, ServiceMethodCache> versions = versionedMethods.get(serviceName);
+		ServiceMethodCache serviceMethodCache = versions == null ? null : versions.get(version);
 		if (serviceMethodCache == null) {
-			throw new InvocationFailureException("cannot find service for request:" + request);
+			serviceMethodCache = getServiceMethodCache(ServiceProviderFactory.getServiceUrlWithVersion(serviceName,
+					version));
+			// 只缓存找到的版本，未找到时每次重新查找，以便之后发布的版本能生效
+			if (serviceMethodCache != null) {
+				if (versions == null) {
+					versions = new ConcurrentHashMap<String, ServiceMethodCache>();
+					versionedMethods.put(serviceName, versions);
+				}
+				versions.put(version, serviceMethodCache);
+			}
 		}
-		return serviceMethodCache.getMethod(methodName, new ServiceParam(paramClassNames));
+		return serviceMethodCache;
 	}
 
 	public static ServiceMethodCache getServiceMethodCache(String url) {
@@ -75,10 +116,25 @@ public final class ServiceMethodFactory {
 				Object service = providerConfig.getService();
 				Method[] methodArray = service.getClass().getMethods();
 				serviceMethodCache = new ServiceMethodCache(url, service);
+				List<Method> serviceMethods = new ArrayList<Method>();
+				List<ServiceMethod> cachedMethods = new ArrayList<ServiceMethod>();
 				for (Method method : methodArray) {
 					if (!ingoreMethods.contains(method.getName())) {
 						method.setAccessible(true);
-						serviceMethodCache.addMethod(method.getName(), new ServiceMethod(service, method));
+						ServiceMethod serviceMethod = new ServiceMethod(service, method);
+						serviceMethodCache.addMethod(method.getName(), serviceMethod);
+						serviceMethods.add(method);
+						cachedMethods.add(serviceMethod);
+					}
+				}
+				if (generateInvoker && !serviceMethods.isEmpty()) {
+					int[] indexes = new int[serviceMethods.size()];
+					ServiceMethodInvoker invoker = ServiceMethodInvokerGenerator.generate(service.getClass(),
+							serviceMethods, indexes);
+					if (invoker != null) {
+						for (int i = 0; i < indexes.length; i++) {
+							cachedMethods.get(i).setInvoker(invoker, indexes[i]);
+						}
 					}
 				}
 				methods.put(url, serviceMethodCache);
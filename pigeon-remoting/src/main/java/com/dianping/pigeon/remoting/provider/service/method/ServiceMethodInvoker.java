@@ -0,0 +1,16 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.provider.service.method;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * 发布服务时为每个服务生成的直接调用类，按方法序号分派，服务方法抛出的异常包装成InvocationTargetException，与反射调用一致
+ */
+public interface ServiceMethodInvoker {
+
+	Object invoke(Object service, int index, Object[] arguments) throws InvocationTargetException;
+
+}
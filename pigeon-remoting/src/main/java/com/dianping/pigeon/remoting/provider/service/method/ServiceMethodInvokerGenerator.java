@@ -0,0 +1,259 @@
+/**
+ * Dianping.com Inc.
+ * Copyright (c) 2003-2013 All Rights Reserved.
+ */
+package com.dianping.pigeon.remoting.provider.service.method;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.security.ProtectionDomain;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import org.apache.logging.log4j.Logger;
+
+import com.dianping.pigeon.log.LoggerLoader;
+
+/**
+ * 用javassist为服务生成ServiceMethodInvoker，每个方法一个私有的调用方法，invoke中按序号switch分派
+ *
+ * 声明类或参数类型不是public的方法无法直接调用，返回的序号为-1，由ServiceMethod继续使用反射
+ */
+public final class ServiceMethodInvokerGenerator {
+
+	private static final Logger logger = LoggerLoader.getLogger(ServiceMethodInvokerGenerator.class);
+
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	private static final AtomicBoolean generateFailureLogged = new AtomicBoolean();
+
+	private ServiceMethodInvokerGenerator() {
+	}
+
+	/**
+	 * 为methods生成invoker，indexes中返回每个方法在invoker中的序号，生成失败时返回null
+	 */
+	public static ServiceMethodInvoker generate(Class<?> serviceClass, List<Method> methods, int[] indexes) {
+		ClassLoader loader = getClassLoader(serviceClass);
+		if (loader == null) {
+			logger.warn("cannot generate method invoker for " + serviceClass.getName()
+					+ ", service class is not visible to pigeon");
+			return null;
+		}
+		try {
+			ClassPool pool = new ClassPool(true);
+			pool.appendClassPath(new LoaderClassPath(loader));
+			CtClass ctClass = pool.makeClass(ServiceMethodInvoker.class.getName() + "$"
+					+ classCounter.incrementAndGet());
+			ctClass.addInterface(pool.get(ServiceMethodInvoker.class.getName()));
+
+			StringBuilder dispatch = new StringBuilder();
+			dispatch.append("public Object invoke(Object service, int index, Object[] arguments) ")
+					.append("throws java.lang.reflect.InvocationTargetException {\n");
+			dispatch.append("switch (index) {\n");
+			int count = 0;
+			for (int i = 0; i < methods.size(); i++) {
+				Method method = methods.get(i);
+				if (!isAccessible(method)) {
+					indexes[i] = -1;
+					continue;
+				}
+				ctClass.addMethod(CtNewMethod.make(buildMethod(method, count), ctClass));
+				dispatch.append("case ").append(count).append(": return invoke").append(count)
+						.append("(service, arguments);\n");
+				indexes[i] = count++;
+			}
+			dispatch.append("}\n");
+			dispatch.append("throw new IllegalArgumentException(\"invalid method index:\" + index);\n}");
+			ctClass.addMethod(CtNewMethod.make(dispatch.toString(), ctClass));
+
+			byte[] bytecode = ctClass.toBytecode();
+			ctClass.detach();
+			// 不反射调用ClassLoader.defineClass（JDK 16以后不允许），在子加载器中定义生成的类
+			Class<?> invokerClass = new InvokerClassLoader(loader).define(ctClass.getName(), bytecode,
+					serviceClass.getProtectionDomain());
+			return (ServiceMethodInvoker) invokerClass.newInstance();
+		} catch (Throwable t) {
+			if (generateFailureLogged.compareAndSet(false, true)) {
+				logger.warn("cannot generate method invoker for " + serviceClass.getName()
+						+ ", generated invokers are disabled for such services and reflection is used", t);
+			} else {
+				logger.info("cannot generate method invoker for " + serviceClass.getName() + ", use reflection:"
+						+ t);
+			}
+			return null;
+		}
+	}
+
+	private static final class InvokerClassLoader extends ClassLoader {
+
+		InvokerClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytecode, ProtectionDomain domain) {
+			return defineClass(name, bytecode, 0, bytecode.length, domain);
+		}
+	}
+
+	private static ClassLoader getClassLoader(Class<?> serviceClass) {
+		// 生成的类需要同时看到服务类和ServiceMethodInvoker
+		ClassLoader loader = serviceClass.getClassLoader();
+		if (isVisible(ServiceMethodInvoker.class, loader)) {
+			return loader;
+		}
+		loader = ServiceMethodInvoker.class.getClassLoader();
+		if (isVisible(serviceClass, loader)) {
+			return loader;
+		}
+		return null;
+	}
+
+	private static boolean isVisible(Class<?> clazz, ClassLoader loader) {
+		if (loader == null) {
+			return false;
+		}
+		try {
+			return Class.forName(clazz.getName(), false, loader) == clazz;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static boolean isAccessible(Method method) {
+		if (!isPublic(method.getDeclaringClass()) || !Modifier.isPublic(method.getModifiers())) {
+			return false;
+		}
+		for (Class<?> type : method.getParameterTypes()) {
+			if (!isPublic(type)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPublic(Class<?> type) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		if (type.isPrimitive()) {
+			return true;
+		}
+		for (Class<?> c = type; c != null; c = c.getEnclosingClass()) {
+			if (!Modifier.isPublic(c.getModifiers())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String buildMethod(Method method, int index) {
+		StringBuilder source = new StringBuilder();
+		source.append("private Object invoke").append(index).append("(Object service, Object[] arguments) ")
+				.append("throws java.lang.reflect.InvocationTargetException {\n");
+		// 参数转换放在服务方法的try之外，类型不匹配时与反射一样抛出IllegalArgumentException
+		String declaringClass = getTypeName(method.getDeclaringClass());
+		source.append(declaringClass).append(" target = (").append(declaringClass).append(") service;\n");
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			source.append(getTypeName(parameterTypes[i])).append(" arg").append(i).append(" = ")
+					.append(getDefaultValue(parameterTypes[i])).append(";\n");
+		}
+		if (parameterTypes.length > 0) {
+			source.append("try {\n");
+			for (int i = 0; i < parameterTypes.length; i++) {
+				source.append("arg").append(i).append(" = ")
+						.append(unbox(parameterTypes[i], "arguments[" + i + "]")).append(";\n");
+			}
+			source.append("} catch (ClassCastException e) {\n");
+			source.append("throw new IllegalArgumentException(\"argument type mismatch\");\n");
+			source.append("}\n");
+		}
+		StringBuilder call = new StringBuilder();
+		call.append("target.").append(method.getName()).append("(");
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (i > 0) {
+				call.append(", ");
+			}
+			call.append("arg").append(i);
+		}
+		call.append(")");
+		source.append("try {\n");
+		Class<?> returnType = method.getReturnType();
+		if (returnType == void.class) {
+			source.append(call).append(";\nreturn null;\n");
+		} else {
+			source.append("return ").append(box(returnType, call.toString())).append(";\n");
+		}
+		source.append("} catch (Throwable t) {\n");
+		source.append("throw new java.lang.reflect.InvocationTargetException(t);\n");
+		source.append("}\n}");
+		return source.toString();
+	}
+
+	private static String getTypeName(Class<?> type) {
+		if (type.isArray()) {
+			return getTypeName(type.getComponentType()) + "[]";
+		}
+		return type.getName();
+	}
+
+	private static String unbox(Class<?> type, String expression) {
+		if (!type.isPrimitive()) {
+			return "(" + getTypeName(type) + ") " + expression;
+		}
+		// 基本类型按反射的规则做拓宽转换，例如Jackson反序列化出的Integer可以传给long参数
+		String name = type.getName();
+		return ServiceMethodArguments.class.getName() + ".to" + Character.toUpperCase(name.charAt(0))
+				+ name.substring(1) + "(" + expression + ")";
+	}
+
+	private static String getDefaultValue(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return "null";
+		} else if (type == boolean.class) {
+			return "false";
+		} else if (type == char.class) {
+			return "(char) 0";
+		} else if (type == long.class) {
+			return "0L";
+		} else if (type == float.class) {
+			return "0F";
+		} else if (type == double.class) {
+			return "0D";
+		}
+		return "(" + type.getName() + ") 0";
+	}
+
+	private static String box(Class<?> type, String expression) {
+		if (!type.isPrimitive()) {
+			return expression;
+		}
+		return getWrapper(type).getName() + ".valueOf(" + expression + ")";
+	}
+
+	private static Class<?> getWrapper(Class<?> type) {
+		if (type == int.class) {
+			return Integer.class;
+		} else if (type == long.class) {
+			return Long.class;
+		} else if (type == boolean.class) {
+			return Boolean.class;
+		} else if (type == double.class) {
+			return Double.class;
+		} else if (type == float.class) {
+			return Float.class;
+		} else if (type == short.class) {
+			return Short.class;
+		} else if (type == byte.class) {
+			return Byte.class;
+		}
+		return Character.class;
+	}
+}
@@ -4,6 +4,8 @@
  */
 package com.dianping.pigeon.remoting.provider.service.method;
 
+import java.util.Arrays;
+
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 
@@ -40,7 +42,8 @@ public class ServiceParam {
 			return true;
 		}
 		if (obj instanceof ServiceParam) {
-			return this.hashCode == obj.hashCode();
+			// hashCode相同不代表参数类型相同
+			return this.hashCode == obj.hashCode() && Arrays.equals(this.paramNames, ((ServiceParam) obj).paramNames);
 		}
 		return false;
 	}
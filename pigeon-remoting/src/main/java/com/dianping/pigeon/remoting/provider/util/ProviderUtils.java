@@ -7,6 +7,8 @@ package com.dianping.pigeon.remoting.provider.util;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
+
 import com.dianping.pigeon.config.ConfigManager;
 import com.dianping.pigeon.config.ConfigManagerLoader;
 import com.dianping.pigeon.remoting.common.codec.SerializerFactory;
@@ -14,7 +16,9 @@ import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
 import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
 import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
 import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.provider.config.ProviderConfig;
 import com.dianping.pigeon.remoting.provider.domain.ProviderContext;
+import com.dianping.pigeon.remoting.provider.service.ServiceProviderFactory;
 import com.dianping.pigeon.util.LangUtils;
 import com.dianping.pigeon.util.VersionUtils;
 
@@ -74,10 +78,48 @@ public final class ProviderUtils {
 		response.setSerialize(serialize);
 		response.setMessageType(Constants.MESSAGE_TYPE_SERVICE);
 		response.setResponse(returnObj);
+		if (response instanceof DefaultResponse && isCompressResponse(request)) {
+			((DefaultResponse) response).setCompress(true);
+		}
 
 		return response;
 	}
 
+	/**
+	 * 流式调用的一个数据块，使用请求的seq
+	 */
+	public static InvocationResponse createStreamResponse(InvocationRequest request, Object[] items) {
+		byte serialize = request.getSerialize();
+		InvocationResponse response = SerializerFactory.getSerializer(serialize).newResponse();
+		response.setSequence(request.getSequence());
+		response.setSerialize(serialize);
+		response.setMessageType(Constants.MESSAGE_TYPE_STREAM);
+		response.setResponse(items);
+		if (response instanceof DefaultResponse && isCompressResponse(request)) {
+			((DefaultResponse) response).setCompress(true);
+		}
+
+		return response;
+	}
+
+	/**
+	 * 调用端在请求中表示可以解压，并且服务配置了压缩
+	 */
+	private static boolean isCompressResponse(InvocationRequest request) {
+		if (!Boolean.TRUE.equals(request.getAttachment(Constants.REQ_ATTACH_COMPRESS))) {
+			return false;
+		}
+		ProviderConfig<?> providerConfig = null;
+		if (StringUtils.isNotBlank(request.getVersion())) {
+			providerConfig = ServiceProviderFactory.getServiceConfig(ServiceProviderFactory.getServiceUrlWithVersion(
+					request.getServiceName(), request.getVersion()));
+		}
+		if (providerConfig == null) {
+			providerConfig = ServiceProviderFactory.getServiceConfig(request.getServiceName());
+		}
+		return providerConfig != null && providerConfig.isCompress();
+	}
+
 	public static InvocationResponse createHeartResponse(InvocationRequest request) {
 		InvocationResponse response = new DefaultResponse(Constants.MESSAGE_TYPE_HEART, request.getSerialize());
 		response.setSequence(request.getSequence());
@@ -0,0 +1,65 @@
+package com.dianping.pigeon.remoting.provider.service.method;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.exception.InvocationFailureException;
+
+public class ServiceMethodCacheTest {
+
+	public static class OverloadedService {
+
+		public String find(String key) {
+			return "string";
+		}
+
+		public String find(Integer key) {
+			return "integer";
+		}
+
+		public String find(Object key) {
+			return "object";
+		}
+
+		public String find(String key, List<String> values) {
+			return "list";
+		}
+
+		public String other() {
+			return "other";
+		}
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		OverloadedService service = new OverloadedService();
+		ServiceMethodCache cache = new ServiceMethodCache("test", service);
+		for (Method method : OverloadedService.class.getDeclaredMethods()) {
+			cache.addMethod(method.getName(), new ServiceMethod(service, method));
+		}
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals("string", invoke(cache, "find", "a"));
+			Assert.assertEquals("integer", invoke(cache, "find", 1));
+			Assert.assertEquals("object", invoke(cache, "find", 1L));
+			Assert.assertEquals("list", invoke(cache, "find", "a", new ArrayList<String>()));
+			Assert.assertEquals("list", invoke(cache, "find", "a", null));
+			Assert.assertEquals("other", invoke(cache, "other"));
+		}
+		// 命中索引时返回同一个ServiceMethod
+		Assert.assertSame(cache.getMethod("find", new Object[] { "a" }), cache.getMethod("find", new Object[] { "b" }));
+		try {
+			cache.getMethod("missing", new Object[0]);
+			Assert.fail();
+		} catch (InvocationFailureException e) {
+		}
+	}
+
+	private static Object invoke(ServiceMethodCache cache, String methodName, Object... parameters)
+			throws Exception {
+		return cache.getMethod(methodName, parameters).invoke(parameters);
+	}
+}
@@ -0,0 +1,60 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.util.AdaptiveConcurrencyLimit;
+
+public class AdaptiveConcurrencyLimitTest {
+
+	@Test
+	public void testLimitFollowsLatency() throws Exception {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 5, 200, 1.5, 0.5, 600, 1, 1);
+		// 延迟平稳且并发接近限制时逐步增加
+		for (int i = 0; i < 10; i++) {
+			window(limit, limit.getLimit(), 1);
+		}
+		int grown = limit.getLimit();
+		Assert.assertTrue("limit:" + grown, grown > 20);
+
+		// 延迟翻倍后收缩
+		for (int i = 0; i < 10; i++) {
+			window(limit, limit.getLimit(), 4);
+		}
+		int shrunk = limit.getLimit();
+		Assert.assertTrue("limit:" + shrunk + ", before:" + grown, shrunk < grown / 2);
+		Assert.assertTrue(shrunk >= 5);
+
+		// 超过限制的请求直接拒绝
+		for (int i = 0; i < shrunk; i++) {
+			Assert.assertTrue(limit.tryAcquire());
+		}
+		Assert.assertFalse(limit.tryAcquire());
+		Assert.assertEquals(1, limit.getRejected());
+		for (int i = 0; i < shrunk; i++) {
+			limit.release(0);
+		}
+		Assert.assertEquals(0, limit.getInflight());
+
+		// 调用端先判断是否已满再占用
+		for (int i = 0; i < shrunk; i++) {
+			Assert.assertFalse(limit.isLimitReached());
+			limit.acquire();
+		}
+		Assert.assertTrue(limit.isLimitReached());
+		limit.release(0);
+		Assert.assertFalse(limit.isLimitReached());
+	}
+
+	private static void window(AdaptiveConcurrencyLimit limit, int concurrency, long rttMillis) throws Exception {
+		for (int i = 0; i < concurrency; i++) {
+			Assert.assertTrue(limit.tryAcquire());
+		}
+		Thread.sleep(2);
+		for (int i = 0; i < concurrency; i++) {
+			limit.release(TimeUnit.MILLISECONDS.toNanos(rttMillis));
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.dianping.pigeon.remoting.common.util.AdaptiveConcurrencyLimit;
+
+/**
+ * 本地压测：固定速率发请求到服务端线程池，运行一段时间后业务方法耗时翻倍，对比有无自适应并发限制时被接受请求的延迟，直接运行main方法
+ *
+ * 参数：[每秒请求数] [业务耗时ms] [线程数] [队列长度] [正常阶段秒数] [翻倍阶段秒数]
+ */
+public class AdaptiveLimitBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int qps = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int serviceMillis = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int queueSize = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		int normalSeconds = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+		int slowSeconds = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+		System.out.println(String.format(
+				"qps:%d, service:%dms then %dms, threads:%d, queue:%d, capacity:%d/s then %d/s", qps,
+				serviceMillis, serviceMillis * 2, threads, queueSize, threads * 1000 / serviceMillis, threads * 1000
+						/ (serviceMillis * 2)));
+		run("static  ", null, qps, serviceMillis, threads, queueSize, normalSeconds, slowSeconds);
+		run("adaptive", new AdaptiveConcurrencyLimit(100, 10, 1000, 1.5, 0.2, 600, 100, 10), qps, serviceMillis,
+				threads, queueSize, normalSeconds, slowSeconds);
+	}
+
+	private static void run(String name, final AdaptiveConcurrencyLimit limit, int qps, final int serviceMillis,
+			int threads, int queueSize, int normalSeconds, int slowSeconds) throws Exception {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueSize));
+		pool.prestartAllCoreThreads();
+		final AtomicLong delay = new AtomicLong(serviceMillis);
+		final Stats normal = new Stats();
+		final Stats slow = new Stats();
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / qps;
+		long start = System.nanoTime();
+		long switchAt = start + TimeUnit.SECONDS.toNanos(normalSeconds);
+		long end = switchAt + TimeUnit.SECONDS.toNanos(slowSeconds);
+		long next = start;
+		while (next < end) {
+			long now = System.nanoTime();
+			if (now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			final long arrival = next;
+			next += intervalNanos;
+			final Stats stats = arrival < switchAt ? normal : slow;
+			if (arrival >= switchAt) {
+				delay.set(serviceMillis * 2);
+			}
+			if (limit != null && !limit.tryAcquire()) {
+				stats.rejected.incrementAndGet();
+				continue;
+			}
+			FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(delay.get());
+					} catch (InterruptedException e) {
+					}
+				}
+			}, null) {
+
+				@Override
+				protected void done() {
+					long latency = System.nanoTime() - arrival;
+					stats.record(latency);
+					if (limit != null) {
+						limit.release(latency);
+					}
+				}
+			};
+			try {
+				pool.execute(task);
+			} catch (RejectedExecutionException e) {
+				stats.rejected.incrementAndGet();
+				if (limit != null) {
+					limit.release(0);
+				}
+			}
+		}
+		pool.shutdown();
+		pool.awaitTermination(30, TimeUnit.SECONDS);
+		System.out.println(name + " normal: " + normal);
+		System.out.println(name + " slow  : " + slow + (limit == null ? "" : ", " + limit));
+	}
+
+	private static class Stats {
+
+		private final List<Long> latencies = new ArrayList<Long>();
+
+		private final AtomicLong rejected = new AtomicLong();
+
+		synchronized void record(long latencyNanos) {
+			latencies.add(latencyNanos);
+		}
+
+		@Override
+		public synchronized String toString() {
+			if (latencies.isEmpty()) {
+				return "accepted:0, rejected:" + rejected.get();
+			}
+			Collections.sort(latencies);
+			return String.format("accepted:%d, rejected:%d, p50:%.1fms, p99:%.1fms, max:%.1fms", latencies.size(),
+					rejected.get(), percentile(0.5), percentile(0.99), latencies.get(latencies.size() - 1) / 1e6);
+		}
+
+		private double percentile(double p) {
+			int index = (int) Math.min(latencies.size() - 1, Math.round(p * (latencies.size() - 1)));
+			return latencies.get(index) / 1e6;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.invoker.callback.AsyncFuture;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceCallback;
+
+public class AsyncFutureTest {
+
+	@Test
+	public void testCompleteOnce() throws Exception {
+		AsyncFuture<String> future = new AsyncFuture<String>();
+		final AtomicInteger calls = new AtomicInteger();
+		ServiceCallback callback = new ServiceCallback() {
+
+			@Override
+			public void onSuccess(Object result) {
+				Assert.assertEquals("ok", result);
+				calls.incrementAndGet();
+			}
+
+			@Override
+			public void onFailure(Throwable exception) {
+				Assert.fail();
+			}
+		};
+		future.addCallback(callback);
+		try {
+			future.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (TimeoutException e) {
+		}
+		Assert.assertTrue(future.complete("ok"));
+		Assert.assertFalse(future.complete("again"));
+		Assert.assertFalse(future.completeExceptionally(new IllegalStateException()));
+		// 完成后注册的回调立即执行
+		future.addCallback(callback);
+		Assert.assertEquals(2, calls.get());
+		Assert.assertEquals("ok", future.get());
+	}
+
+	@Test
+	public void testCompose() throws Exception {
+		AsyncFuture<Integer> first = new AsyncFuture<Integer>();
+		AsyncFuture<Integer> second = new AsyncFuture<Integer>();
+		AsyncFuture<Integer> sum = AsyncFuture.combine(first, second,
+				new AsyncFuture.Combiner<Integer, Integer, Integer>() {
+
+					@Override
+					public Integer combine(Integer a, Integer b) {
+						return a + b;
+					}
+				});
+		AsyncFuture<String> text = sum.transform(new AsyncFuture.Transformer<Integer, String>() {
+
+			@Override
+			public String transform(Integer value) {
+				return "sum:" + value;
+			}
+		});
+		second.complete(2);
+		Assert.assertFalse(text.isDone());
+		first.complete(1);
+		Assert.assertEquals("sum:3", text.get());
+
+		AsyncFuture<String> ok = new AsyncFuture<String>();
+		AsyncFuture<String> failed = new AsyncFuture<String>();
+		List<AsyncFuture<String>> futures = Arrays.asList(ok, failed);
+		AsyncFuture<List<Object>> all = AsyncFuture.allOf(futures);
+		failed.completeExceptionally(new IllegalStateException("failed"));
+		try {
+			all.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals("failed", e.getCause().getMessage());
+		}
+		ok.complete("ok");
+		Assert.assertEquals(Arrays.<Object> asList("a", "b"),
+				AsyncFuture.allOf(Arrays.asList(completed("a"), completed("b"))).get());
+	}
+
+	private static AsyncFuture<String> completed(String value) {
+		AsyncFuture<String> future = new AsyncFuture<String>();
+		future.complete(value);
+		return future;
+	}
+}
@@ -0,0 +1,80 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceCallback;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceCallbackWrapper;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
+import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+import com.dianping.pigeon.remoting.invoker.exception.RequestTimeoutException;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+
+public class CallbackTimeoutTest {
+
+	@Test
+	public void testTimeoutThenLateResponse() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch done = new CountDownLatch(1);
+		ServiceCallback callback = new ServiceCallback() {
+
+			@Override
+			public void onSuccess(Object result) {
+				calls.incrementAndGet();
+			}
+
+			@Override
+			public void onFailure(Throwable exception) {
+				calls.incrementAndGet();
+				failure.set(exception);
+				done.countDown();
+			}
+		};
+		InvokerConfig<Runnable> config = new InvokerConfig<Runnable>("test.TimeoutService", Runnable.class);
+		config.setCallType(Constants.CALL_CALLBACK);
+		DefaultInvokerContext context = new DefaultInvokerContext(config, "run", new Class<?>[0], new Object[0]);
+		DefaultRequest request = new DefaultRequest(context);
+		long sequence = -System.nanoTime();
+		request.setSequence(sequence);
+		request.setTimeout(50);
+		request.setCreateMillisTime(System.currentTimeMillis());
+
+		ServiceCallbackWrapper wrapper = new ServiceCallbackWrapper(context, callback);
+		wrapper.setRequest(request);
+		RemoteInvocationBean invocationBean = new RemoteInvocationBean();
+		invocationBean.request = request;
+		invocationBean.callback = wrapper;
+		ServiceInvocationRepository repository = ServiceInvocationRepository.getInstance();
+		long timeouts = repository.getTimeouts();
+		long lateResponses = repository.getLateResponses();
+		repository.put(sequence, invocationBean);
+
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(failure.get() instanceof RequestTimeoutException);
+		Assert.assertEquals(timeouts + 1, repository.getTimeouts());
+
+		// 超时之后到达的响应只计数，不会再调用回调
+		repository.receiveResponse(new DefaultResponse(request.getSerialize(), sequence,
+				Constants.MESSAGE_TYPE_SERVICE, "late"));
+		Assert.assertEquals(lateResponses + 1, repository.getLateResponses());
+		Thread.sleep(50);
+		Assert.assertEquals(1, calls.get());
+
+		// 没有超时、已被取消的请求的响应不计入lateResponses
+		long discardedResponses = repository.getDiscardedResponses();
+		repository.receiveResponse(new DefaultResponse(request.getSerialize(), sequence - 1,
+				Constants.MESSAGE_TYPE_SERVICE, "cancelled"));
+		Assert.assertEquals(lateResponses + 1, repository.getLateResponses());
+		Assert.assertEquals(discardedResponses + 1, repository.getDiscardedResponses());
+	}
+}
@@ -0,0 +1,167 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.route.statistics.CapacityBucket;
+
+/**
+ * 调用端容量统计的多线程压测：多个线程对同一个服务端的统计做flowIn/flowOut，对比原来基于Calendar、Map和锁的实现，直接运行main方法
+ *
+ * 参数：[线程数] [每轮毫秒数] [轮数]
+ */
+public class CapacityBucketBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int millis = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		System.out.println(String.format("threads:%d, cpus:%d, %dms per round", threads, Runtime.getRuntime()
+				.availableProcessors(), millis));
+		for (int round = 0; round < rounds; round++) {
+			final LegacyCapacityBucket legacy = new LegacyCapacityBucket();
+			run("legacy   ", threads, millis, new Bucket() {
+
+				@Override
+				public void flowIn(InvocationRequest request) {
+					legacy.flowIn(request);
+				}
+
+				@Override
+				public void flowOut(InvocationRequest request) {
+					legacy.flowOut(request);
+				}
+			});
+			final CapacityBucket bucket = new CapacityBucket("10.0.0.1:4040");
+			run("lock-free", threads, millis, new Bucket() {
+
+				@Override
+				public void flowIn(InvocationRequest request) {
+					bucket.flowIn(request);
+				}
+
+				@Override
+				public void flowOut(InvocationRequest request) {
+					bucket.flowOut(request);
+				}
+			});
+		}
+	}
+
+	private interface Bucket {
+
+		void flowIn(InvocationRequest request);
+
+		void flowOut(InvocationRequest request);
+	}
+
+	private static void run(String name, int threads, final int millis, final Bucket bucket) throws Exception {
+		final AtomicLong sequence = new AtomicLong();
+		final AtomicLong operations = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long[] end = new long[1];
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					while (System.nanoTime() < end[0]) {
+						// 与调用路径一致：每次调用一个新请求，附件中有flow
+						DefaultRequest request = new DefaultRequest();
+						request.setSequence(sequence.incrementAndGet());
+						request.setCallType(Constants.CALLTYPE_REPLY);
+						request.setTimeout(1000);
+						request.setAttachment(Constants.REQ_ATTACH_FLOW, 1.0f);
+						bucket.flowIn(request);
+						bucket.flowOut(request);
+						count++;
+					}
+					operations.addAndGet(count);
+					done.countDown();
+				}
+			};
+			thread.start();
+		}
+		System.gc();
+		end[0] = System.nanoTime() + millis * 1000000L;
+		start.countDown();
+		done.await();
+		System.out.println(String.format("%s %,.0f flowIn+flowOut/s", name, operations.get() * 1000.0 / millis));
+	}
+
+	/**
+	 * 原来的实现：每次Calendar.getInstance()、按秒的Map计数、按请求序号的Set和Map、ReentrantLock更新容量
+	 */
+	private static class LegacyCapacityBucket {
+
+		private volatile float capacity = 0f;
+		private Set<Long> requestSeqs = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		private Map<Long, Object[]> requestSeqDetails = new ConcurrentHashMap<Long, Object[]>();
+		private AtomicLong totalRequest = new AtomicLong();
+		private AtomicLong onewayRequest = new AtomicLong();
+		private Map<Integer, AtomicInteger> totalRequestInSecond = new ConcurrentHashMap<Integer, AtomicInteger>();
+		private Lock capacityLock = new ReentrantLock();
+
+		LegacyCapacityBucket() {
+			for (int sec = 0; sec < 60; sec++) {
+				totalRequestInSecond.put(sec, new AtomicInteger());
+			}
+		}
+
+		void flowIn(InvocationRequest request) {
+			Calendar now = Calendar.getInstance();
+			totalRequest.incrementAndGet();
+			if (request.getCallType() == Constants.CALLTYPE_NOREPLY) {
+				onewayRequest.incrementAndGet();
+			}
+			totalRequestInSecond.get(now.get(Calendar.SECOND)).incrementAndGet();
+			if (request.getCallType() == Constants.CALLTYPE_REPLY) {
+				Float flow = (Float) request.getAttachment(Constants.REQ_ATTACH_FLOW);
+				if (flow != null) {
+					refreshCapacity(flow);
+				}
+				requestSeqs.add(request.getSequence());
+				requestSeqDetails.put(request.getSequence(), new Object[] { now.getTimeInMillis(),
+						request.getTimeout(), flow, System.nanoTime() });
+			}
+		}
+
+		void flowOut(InvocationRequest request) {
+			if (request.getCallType() == Constants.CALLTYPE_REPLY) {
+				Float flow = (Float) request.getAttachment(Constants.REQ_ATTACH_FLOW);
+				boolean removed = requestSeqs.remove(request.getSequence());
+				if (removed && flow != null) {
+					refreshCapacity(-1 * flow);
+				}
+				requestSeqDetails.remove(request.getSequence());
+			}
+		}
+
+		void refreshCapacity(float addition) {
+			capacityLock.lock();
+			try {
+				this.capacity += addition;
+			} finally {
+				capacityLock.unlock();
+			}
+		}
+	}
+}
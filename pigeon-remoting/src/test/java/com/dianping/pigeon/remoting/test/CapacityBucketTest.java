@@ -0,0 +1,94 @@
+package com.dianping.pigeon.remoting.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.common.util.SlidingWindowCounter;
+import com.dianping.pigeon.remoting.invoker.route.statistics.CapacityBucket;
+import com.dianping.pigeon.remoting.provider.process.statistics.ProviderCapacityBucket;
+
+public class CapacityBucketTest {
+
+	@Test
+	public void testFlowInAndOut() {
+		CapacityBucket bucket = new CapacityBucket("10.0.0.1:4040");
+		DefaultRequest[] requests = new DefaultRequest[10];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = newRequest(i, Constants.CALLTYPE_REPLY, 0.5f);
+			bucket.flowIn(requests[i]);
+		}
+		// 同一个请求重复发往同一个服务端只统计一次
+		bucket.flowIn(requests[0]);
+		Assert.assertEquals(10, bucket.getOutstanding());
+		Assert.assertEquals(5f, bucket.getCapacity(), 0.0001f);
+		Assert.assertEquals(11, bucket.getTotalRequest());
+
+		bucket.flowIn(newRequest(100, Constants.CALLTYPE_NOREPLY, 1f));
+		Assert.assertEquals(1, bucket.getOnewayRequest());
+		Assert.assertEquals(10, bucket.getOutstanding());
+
+		for (DefaultRequest request : requests) {
+			bucket.flowOut(request);
+			// 响应和超时都会释放，只生效一次
+			bucket.flowOut(request);
+		}
+		Assert.assertEquals(0, bucket.getOutstanding());
+		Assert.assertEquals(0f, bucket.getCapacity(), 0f);
+
+		// 其他服务端的释放不影响
+		CapacityBucket other = new CapacityBucket("10.0.0.2:4040");
+		DefaultRequest request = newRequest(200, Constants.CALLTYPE_REPLY, 1f);
+		bucket.flowIn(request);
+		other.flowOut(request);
+		Assert.assertEquals(1, bucket.getOutstanding());
+		bucket.flowOut(request);
+		Assert.assertEquals(0, bucket.getOutstanding());
+	}
+
+	@Test
+	public void testProviderCapacityBucket() {
+		ProviderCapacityBucket bucket = new ProviderCapacityBucket("app");
+		DefaultRequest request = newRequest(1, Constants.CALLTYPE_REPLY, 1f);
+		long second = SlidingWindowCounter.currentSecond();
+		for (int i = 0; i < 5; i++) {
+			bucket.flowIn(request);
+		}
+		Assert.assertEquals(5, bucket.getCurrentRequests());
+		if (second == SlidingWindowCounter.currentSecond()) {
+			Assert.assertEquals(5, bucket.getRequestsInCurrentSecond());
+		}
+		for (int i = 0; i < 5; i++) {
+			bucket.flowOut(request);
+		}
+		Assert.assertEquals(0, bucket.getCurrentRequests());
+	}
+
+	@Test
+	public void testSlidingWindowCounter() {
+		SlidingWindowCounter counter = new SlidingWindowCounter(60);
+		Assert.assertEquals(64, counter.getSlots());
+		for (int i = 0; i < 3; i++) {
+			counter.increment(10);
+		}
+		counter.increment(11);
+		Assert.assertEquals(3, counter.get(10));
+		Assert.assertEquals(1, counter.get(11));
+		// 轮转到同一个槽位后旧的计数不再可见，迟到的旧计数被丢弃
+		counter.increment(10 + 64);
+		Assert.assertEquals(0, counter.get(10));
+		Assert.assertEquals(1, counter.get(10 + 64));
+		counter.increment(10);
+		Assert.assertEquals(1, counter.get(10 + 64));
+	}
+
+	private static DefaultRequest newRequest(long sequence, int callType, float flow) {
+		DefaultRequest request = new DefaultRequest();
+		request.setSequence(sequence);
+		request.setCallType(callType);
+		request.setTimeout(1000);
+		request.setAttachment(Constants.REQ_ATTACH_FLOW, flow);
+		return request;
+	}
+}
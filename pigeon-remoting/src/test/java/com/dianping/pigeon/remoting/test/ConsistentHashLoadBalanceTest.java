@@ -0,0 +1,211 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.config.InvokerMethodConfig;
+import com.dianping.pigeon.remoting.invoker.route.balance.ConsistentHashLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.balance.HashKeyExtractor;
+
+public class ConsistentHashLoadBalanceTest {
+
+	private static final int KEYS = 10000;
+
+	@Test
+	public void testOnlyRemovedClientKeysMove() {
+		final List<Client> clients = new ArrayList<Client>();
+		ConsistentHashLoadBalance loadBalance = new TestLoadBalance(clients);
+		InvokerConfig<TestService> invokerConfig = new InvokerConfig<TestService>(TestService.class);
+		for (int i = 0; i < 10; i++) {
+			clients.add(newClient("10.0.0." + (i + 1) + ":4040"));
+		}
+		String[] before = route(loadBalance, invokerConfig, clients);
+		// 同一个key多次路由结果不变
+		Assert.assertArrayEquals(before, route(loadBalance, invokerConfig, clients));
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (String address : before) {
+			counts.put(address, counts.containsKey(address) ? counts.get(address) + 1 : 1);
+		}
+		Assert.assertEquals(10, counts.size());
+		for (Integer count : counts.values()) {
+			Assert.assertTrue("count:" + count, count > KEYS / 10 / 2 && count < KEYS / 10 * 2);
+		}
+
+		// 下线一个服务端，只有原来路由到它的key改变
+		Client removed = clients.remove(3);
+		String[] after = route(loadBalance, invokerConfig, clients);
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			if (!before[i].equals(after[i])) {
+				Assert.assertEquals(removed.getAddress(), before[i]);
+				moved++;
+			}
+		}
+		Assert.assertEquals(counts.get(removed.getAddress()).intValue(), moved);
+
+		// 重新上线，路由恢复
+		clients.add(removed);
+		Assert.assertArrayEquals(before, route(loadBalance, invokerConfig, clients));
+	}
+
+	@Test
+	public void testUnavailableClientSkippedOnRing() {
+		final List<Client> clients = new ArrayList<Client>();
+		ConsistentHashLoadBalance loadBalance = new TestLoadBalance(clients);
+		InvokerConfig<TestService> invokerConfig = new InvokerConfig<TestService>(TestService.class);
+		for (int i = 0; i < 10; i++) {
+			clients.add(newClient("10.0.0." + (i + 1) + ":4040"));
+		}
+		String[] before = route(loadBalance, invokerConfig, clients);
+
+		// 注册的服务端不变，只是暂时不可用：其key顺时针移到下一个服务端，其他key不变，恢复后路由与之前一致
+		List<Client> available = new ArrayList<Client>(clients);
+		Client unavailable = available.remove(3);
+		String[] after = route(loadBalance, invokerConfig, available);
+		for (int i = 0; i < KEYS; i++) {
+			if (!before[i].equals(after[i])) {
+				Assert.assertEquals(unavailable.getAddress(), before[i]);
+			} else {
+				Assert.assertFalse(unavailable.getAddress().equals(after[i]));
+			}
+		}
+		Assert.assertArrayEquals(before, route(loadBalance, invokerConfig, clients));
+		// 与按剩余服务端重建的环结果一致
+		clients.remove(unavailable);
+		Assert.assertArrayEquals(after, route(loadBalance, invokerConfig, clients));
+	}
+
+	@Test
+	public void testHashKeyByValue() {
+		final List<Client> clients = new ArrayList<Client>();
+		ConsistentHashLoadBalance loadBalance = new TestLoadBalance(clients);
+		InvokerConfig<TestService> invokerConfig = new InvokerConfig<TestService>(TestService.class);
+		for (int i = 0; i < 10; i++) {
+			clients.add(newClient("10.0.0." + (i + 1) + ":4040"));
+		}
+		// 没有重写hashCode的key按toString路由，不同实例路由到同一个服务端
+		Client client = loadBalance.doSelect(clients, invokerConfig, newRequest(new NamedKey("a")), null);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertSame(client, loadBalance.doSelect(clients, invokerConfig, newRequest(new NamedKey("a")), null));
+		}
+		client = loadBalance.doSelect(clients, invokerConfig, newRequest(new long[] { 1, 2 }), null);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertSame(client, loadBalance.doSelect(clients, invokerConfig, newRequest(new long[] { 1, 2 }),
+					null));
+		}
+		// 无法按值计算hash的key随机选择
+		Assert.assertNotNull(loadBalance.doSelect(clients, invokerConfig, newRequest(new Object()), null));
+	}
+
+	@Test
+	public void testHashKeyByMethodConfig() {
+		final List<Client> clients = new ArrayList<Client>();
+		ConsistentHashLoadBalance loadBalance = new TestLoadBalance(clients);
+		InvokerConfig<TestService> invokerConfig = new InvokerConfig<TestService>(TestService.class);
+		for (int i = 0; i < 10; i++) {
+			clients.add(newClient("10.0.0." + (i + 1) + ":4040"));
+		}
+		InvokerMethodConfig methodConfig = new InvokerMethodConfig();
+		methodConfig.setName("echo");
+		methodConfig.setHashArgIndex(1);
+		Map<String, InvokerMethodConfig> methods = new HashMap<String, InvokerMethodConfig>();
+		methods.put("echo", methodConfig);
+		invokerConfig.setMethods(methods);
+		// 第二个参数相同时路由到同一个服务端
+		Client client = loadBalance.doSelect(clients, invokerConfig, newRequest("a", "key"), null);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertSame(client, loadBalance.doSelect(clients, invokerConfig, newRequest("a" + i, "key"), null));
+		}
+
+		methodConfig.setHashKeyExtractor(new HashKeyExtractor() {
+
+			@Override
+			public Object getHashKey(InvocationRequest request) {
+				return ((String) request.getParameters()[0]).substring(0, 1);
+			}
+		});
+		client = loadBalance.doSelect(clients, invokerConfig, newRequest("user1", "x"), null);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertSame(client, loadBalance.doSelect(clients, invokerConfig, newRequest("u" + i, "y" + i), null));
+		}
+	}
+
+	private static String[] route(ConsistentHashLoadBalance loadBalance, InvokerConfig<?> invokerConfig,
+			List<Client> clients) {
+		String[] addresses = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			addresses[i] = loadBalance.doSelect(clients, invokerConfig, newRequest("key" + i), null).getAddress();
+		}
+		return addresses;
+	}
+
+	private static InvocationRequest newRequest(Object... parameters) {
+		return new DefaultRequest(TestService.class.getName(), "echo", parameters, (byte) 0,
+				Constants.MESSAGE_TYPE_SERVICE, 1000, null);
+	}
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(ConsistentHashLoadBalanceTest.class.getClassLoader(),
+				new Class<?>[] { Client.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getAddress".equals(name) || "toString".equals(name)) {
+							return address;
+						} else if ("hashCode".equals(name)) {
+							return address.hashCode();
+						} else if ("equals".equals(name)) {
+							return proxy == args[0];
+						}
+						return null;
+					}
+				});
+	}
+
+	private static class TestLoadBalance extends ConsistentHashLoadBalance {
+
+		private final List<Client> allClients;
+
+		TestLoadBalance(List<Client> allClients) {
+			this.allClients = allClients;
+		}
+
+		@Override
+		protected List<Client> getAllClients(List<Client> availableClients, InvokerConfig<?> invokerConfig) {
+			return allClients;
+		}
+	}
+
+	private static class NamedKey {
+
+		private final String name;
+
+		NamedKey(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	public interface TestService {
+
+		String echo(String a, String b);
+	}
+}
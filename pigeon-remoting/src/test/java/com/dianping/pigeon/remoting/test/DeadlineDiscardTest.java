@@ -0,0 +1,40 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.provider.config.ServerConfig;
+import com.dianping.pigeon.remoting.provider.domain.DefaultProviderContext;
+import com.dianping.pigeon.remoting.provider.process.virtualthread.RequestVirtualThreadProcessor;
+
+public class DeadlineDiscardTest {
+
+	@Test
+	public void testDiscardExpiredRequest() throws Exception {
+		RequestVirtualThreadProcessor processor = new RequestVirtualThreadProcessor(new ServerConfig());
+		try {
+			DefaultRequest request = new DefaultRequest();
+			request.setServiceName("http://service.dianping.com/deadlineService");
+			request.setMethodName("echo");
+			request.setMessageType(Constants.MESSAGE_TYPE_SERVICE);
+			request.setCallType(Constants.CALLTYPE_REPLY);
+			request.setTimeout(100);
+			// 服务端收到时剩余100ms，出队时已经过了200ms
+			request.setCreateMillisTime(System.currentTimeMillis() - 200);
+
+			Future<InvocationResponse> future = processor.processRequest(request, new DefaultProviderContext(
+					request, null));
+			Assert.assertNull(future.get(1, TimeUnit.SECONDS));
+			Assert.assertEquals(1, processor.getExpiredCount());
+			Assert.assertTrue(processor.getRequestContextMap().isEmpty());
+		} finally {
+			processor.stop();
+		}
+	}
+}
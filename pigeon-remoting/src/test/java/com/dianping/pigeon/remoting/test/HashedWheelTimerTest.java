@@ -0,0 +1,151 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
+
+public class HashedWheelTimerTest {
+
+	@Test
+	public void testExpire() throws Exception {
+		// 一圈80ms，200ms的任务需要转过两圈
+		HashedWheelTimer timer = new HashedWheelTimer("Test-Wheel-Timer", 10, TimeUnit.MILLISECONDS, 8);
+		try {
+			RecordingTask shortTask = new RecordingTask();
+			RecordingTask longTask = new RecordingTask();
+			long start = System.nanoTime();
+			Timeout shortTimeout = timer.newTimeout(shortTask, 30, TimeUnit.MILLISECONDS);
+			Timeout longTimeout = timer.newTimeout(longTask, 200, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(2, timer.getPendingTimeouts());
+
+			Assert.assertTrue(shortTask.latch.await(1, TimeUnit.SECONDS));
+			Assert.assertTrue(longTask.latch.await(1, TimeUnit.SECONDS));
+			// 不会早于延迟执行，误差在几个tick以内
+			Assert.assertTrue(shortTask.firedNanos.get() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+			Assert.assertTrue(longTask.firedNanos.get() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+			Assert.assertTrue(longTask.firedNanos.get() - start < TimeUnit.MILLISECONDS.toNanos(500));
+			Assert.assertTrue(shortTimeout.isExpired());
+			Assert.assertTrue(longTimeout.isExpired());
+			// 已过期的任务不能再取消
+			Assert.assertFalse(shortTimeout.cancel());
+			Assert.assertEquals(1, shortTask.runs.get());
+			Assert.assertEquals(0, timer.getPendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("Test-Wheel-Timer", 10, TimeUnit.MILLISECONDS, 8);
+		try {
+			RecordingTask task = new RecordingTask();
+			Timeout timeout = timer.newTimeout(task, 50, TimeUnit.MILLISECONDS);
+			Assert.assertTrue(timeout.cancel());
+			Assert.assertFalse(timeout.cancel());
+			Assert.assertTrue(timeout.isCancelled());
+
+			Thread.sleep(150);
+			Assert.assertEquals(0, task.runs.get());
+			Assert.assertFalse(timeout.isExpired());
+			Assert.assertEquals(0, timer.getPendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testResponseCancelsInvocationTimeout() throws Exception {
+		ServiceInvocationRepository repository = ServiceInvocationRepository.getInstance();
+		DefaultRequest request = new DefaultRequest();
+		request.setMessageType(Constants.MESSAGE_TYPE_SERVICE);
+		long sequence = -System.nanoTime();
+		request.setSequence(sequence);
+		request.setTimeout(100);
+		request.setCreateMillisTime(System.currentTimeMillis());
+		CountingCallback callback = new CountingCallback();
+		RemoteInvocationBean invocationBean = new RemoteInvocationBean();
+		invocationBean.request = request;
+		invocationBean.callback = callback;
+		long timeouts = repository.getTimeouts();
+
+		repository.put(sequence, invocationBean);
+		Assert.assertNotNull(invocationBean.timeout);
+		repository.receiveResponse(new DefaultResponse(request.getSerialize(), sequence,
+				Constants.MESSAGE_TYPE_SERVICE, "ok"));
+		// 响应先到时取消超时任务，超时检查不再执行
+		Assert.assertTrue(invocationBean.timeout.isCancelled());
+		Assert.assertEquals(1, callback.responses.get());
+
+		Thread.sleep(200);
+		Assert.assertEquals(0, callback.disposes.get());
+		Assert.assertEquals(timeouts, repository.getTimeouts());
+	}
+
+	private static class RecordingTask implements TimerTask {
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		private final AtomicInteger runs = new AtomicInteger();
+
+		private final AtomicLong firedNanos = new AtomicLong();
+
+		@Override
+		public void run(Timeout timeout) {
+			firedNanos.set(System.nanoTime());
+			runs.incrementAndGet();
+			latch.countDown();
+		}
+	}
+
+	private static class CountingCallback implements Callback {
+
+		private final AtomicInteger responses = new AtomicInteger();
+
+		private final AtomicInteger disposes = new AtomicInteger();
+
+		@Override
+		public void run() {
+			responses.incrementAndGet();
+		}
+
+		@Override
+		public void callback(InvocationResponse response) {
+		}
+
+		@Override
+		public void setRequest(InvocationRequest request) {
+		}
+
+		@Override
+		public void dispose() {
+			disposes.incrementAndGet();
+		}
+
+		@Override
+		public void setClient(Client client) {
+		}
+
+		@Override
+		public Client getClient() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.Callback;
+import com.dianping.pigeon.remoting.invoker.listener.HeartBeatListener;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+
+public class HeartBeatListenerTest {
+
+	// 默认连续5次心跳成功恢复服务端
+	private static final int HEALTH_COUNT = (int) Constants.DEFAULT_HEARTBEAT_HEALTHCOUNT;
+
+	@Test
+	public void testAsyncHeartBeat() throws Exception {
+		TestClient testClient = new TestClient("10.0.3.1:4040");
+		Client client = testClient.proxy;
+		TestHeartBeatListener listener = new TestHeartBeatListener();
+		listener.setWorkingClients(Collections.singletonMap("test.HeartBeatService", Arrays.asList(client)));
+
+		// 发出后立即返回，不等待响应；上一次心跳未结束时不再发出
+		listener.sendHeartBeatRequest(client, System.currentTimeMillis());
+		Sent sent = testClient.sent.poll();
+		Assert.assertNotNull(sent);
+		listener.sendHeartBeatRequest(client, System.currentTimeMillis());
+		Assert.assertTrue(testClient.sent.isEmpty());
+
+		// 响应在其他线程到达时才计入结果
+		respondAsync(sent);
+		for (int i = 1; i < HEALTH_COUNT - 1; i++) {
+			respond(probe(listener, testClient));
+		}
+		// 超时结束的心跳计为失败，连续成功次数清零
+		timeout(probe(listener, testClient));
+		for (int i = 0; i < HEALTH_COUNT - 1; i++) {
+			respond(probe(listener, testClient));
+		}
+		Assert.assertFalse(client.isActive());
+		respond(probe(listener, testClient));
+		Assert.assertTrue(client.isActive());
+	}
+
+	private static Sent probe(TestHeartBeatListener listener, TestClient testClient) throws Exception {
+		listener.sendHeartBeatRequest(testClient.proxy, System.currentTimeMillis());
+		Sent sent = testClient.sent.poll(1, TimeUnit.SECONDS);
+		Assert.assertNotNull(sent);
+		Assert.assertEquals(Constants.MESSAGE_TYPE_HEART, sent.request.getMessageType());
+		return sent;
+	}
+
+	private static void respond(Sent sent) {
+		ServiceInvocationRepository.getInstance().receiveResponse(
+				new DefaultResponse(sent.request.getSerialize(), sent.request.getSequence(),
+						Constants.MESSAGE_TYPE_SERVICE, null));
+	}
+
+	private static void respondAsync(final Sent sent) throws InterruptedException {
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				respond(sent);
+			}
+		});
+		thread.start();
+		thread.join();
+	}
+
+	private static void timeout(Sent sent) {
+		// 与InvocationTimeoutListener一致：移出在途表后结束回调
+		ServiceInvocationRepository.getInstance().remove(sent.request.getSequence());
+		sent.callback.dispose();
+	}
+
+	private static class TestHeartBeatListener extends HeartBeatListener {
+
+		@Override
+		protected void sendHeartBeatRequest(Client client, long now) {
+			super.sendHeartBeatRequest(client, now);
+		}
+	}
+
+	private static class Sent {
+
+		private final InvocationRequest request;
+
+		private final Callback callback;
+
+		Sent(InvocationRequest request, Callback callback) {
+			this.request = request;
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 * 只记录写出的请求，由测试决定响应或超时
+	 */
+	private static class TestClient implements InvocationHandler {
+
+		private final String address;
+
+		private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<Sent>();
+
+		private volatile boolean active = false;
+
+		private final Client proxy;
+
+		TestClient(String address) {
+			this.address = address;
+			this.proxy = (Client) Proxy.newProxyInstance(HeartBeatListenerTest.class.getClassLoader(),
+					new Class<?>[] { Client.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("write".equals(name)) {
+				sent.add(new Sent((InvocationRequest) args[0], args.length > 1 ? (Callback) args[1] : null));
+				return null;
+			} else if ("getAddress".equals(name) || "toString".equals(name)) {
+				return address;
+			} else if ("getHost".equals(name)) {
+				return address.substring(0, address.indexOf(':'));
+			} else if ("getPort".equals(name)) {
+				return Integer.valueOf(address.substring(address.indexOf(':') + 1));
+			} else if ("isActive".equals(name)) {
+				return active;
+			} else if ("setActive".equals(name)) {
+				active = (Boolean) args[0];
+				return null;
+			} else if ("isConnected".equals(name)) {
+				return true;
+			} else if ("hashCode".equals(name)) {
+				return address.hashCode();
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			return null;
+		}
+	}
+}
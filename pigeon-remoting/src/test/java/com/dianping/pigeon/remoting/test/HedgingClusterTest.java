@@ -0,0 +1,240 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationContext;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.process.ServiceInvocationHandler;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.callback.ServiceCallback;
+import com.dianping.pigeon.remoting.invoker.cluster.HedgingCluster;
+import com.dianping.pigeon.remoting.invoker.config.InvokerConfig;
+import com.dianping.pigeon.remoting.invoker.domain.DefaultInvokerContext;
+import com.dianping.pigeon.remoting.invoker.domain.InvokerContext;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.remoting.invoker.util.InvokerHelper;
+import com.dianping.pigeon.remoting.invoker.util.InvokerUtils;
+
+public class HedgingClusterTest {
+
+	// 样本数达到pigeon.cluster.hedging.samples.min后才会发出对冲请求
+	private static final int WARMUP = 200;
+
+	private final Client primary = newClient("10.0.2.1:4040");
+
+	private final Client secondary = newClient("10.0.2.2:4040");
+
+	@Test
+	public void testFirstResponseWins() throws Throwable {
+		TestHedgingCluster cluster = new TestHedgingCluster();
+		TestHandler handler = new TestHandler();
+		warmup(cluster, handler);
+		int samples = cluster.samples.get();
+
+		ResultCallback callback = new ResultCallback();
+		cluster.invoke(handler, newContext(callback));
+		Attempt first = handler.attempts.poll(1, TimeUnit.SECONDS);
+		Assert.assertSame(primary, first.client);
+		// 主请求没有返回，对冲请求发往另一个服务端，且不在时间轮线程上发出
+		Attempt hedge = handler.attempts.poll(1, TimeUnit.SECONDS);
+		Assert.assertNotNull(hedge);
+		Assert.assertSame(secondary, hedge.client);
+		Assert.assertTrue(hedge.thread, hedge.thread.startsWith("Pigeon-Client-Hedging-Processor"));
+
+		ServiceInvocationRepository repository = ServiceInvocationRepository.getInstance();
+		long timeouts = repository.getTimeouts();
+		long discarded = repository.getDiscardedResponses();
+		hedge.respond("hedge");
+		Assert.assertEquals("hedge", callback.results.poll(1, TimeUnit.SECONDS));
+		// 主请求被取消，已等待的时间作为下限记录
+		Assert.assertEquals(samples + 2, cluster.samples.get());
+
+		// 主请求已移出在途表，之后的响应直接丢弃，也不会再超时
+		first.respond("primary");
+		Assert.assertNull(callback.results.poll(50, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(discarded + 1, repository.getDiscardedResponses());
+		Assert.assertEquals(samples + 2, cluster.samples.get());
+		Thread.sleep(1200);
+		Assert.assertEquals(timeouts, repository.getTimeouts());
+	}
+
+	@Test
+	public void testNoHedgeAfterResponse() throws Throwable {
+		TestHedgingCluster cluster = new TestHedgingCluster();
+		TestHandler handler = new TestHandler();
+		warmup(cluster, handler);
+
+		// 主请求在对冲延迟内返回，不再发出对冲请求
+		handler.respondInline = true;
+		for (int i = 0; i < 10; i++) {
+			ResultCallback callback = new ResultCallback();
+			cluster.invoke(handler, newContext(callback));
+			Assert.assertEquals("primary", callback.results.poll(1, TimeUnit.SECONDS));
+		}
+		Thread.sleep(50);
+		Assert.assertTrue(handler.attempts.isEmpty());
+	}
+
+	@Test
+	public void testHedgeBudget() throws Throwable {
+		TestHedgingCluster cluster = new TestHedgingCluster();
+		TestHandler handler = new TestHandler();
+		warmup(cluster, handler);
+
+		// 预热后令牌桶已满（10个），之后每个请求存入0.05个
+		int hedges = 0;
+		for (int i = 0; i < 15; i++) {
+			ResultCallback callback = new ResultCallback();
+			cluster.invoke(handler, newContext(callback));
+			Attempt first = handler.attempts.poll(1, TimeUnit.SECONDS);
+			Attempt hedge = handler.attempts.poll(50, TimeUnit.MILLISECONDS);
+			first.respond("primary");
+			Assert.assertEquals("primary", callback.results.poll(1, TimeUnit.SECONDS));
+			if (hedge != null) {
+				hedges++;
+				hedge.respond("hedge");
+			}
+		}
+		Assert.assertEquals(10, hedges);
+	}
+
+	private void warmup(TestHedgingCluster cluster, TestHandler handler) throws Throwable {
+		handler.respondInline = true;
+		for (int i = 0; i < WARMUP; i++) {
+			ResultCallback callback = new ResultCallback();
+			cluster.invoke(handler, newContext(callback));
+			Assert.assertEquals("primary", callback.results.poll(1, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(WARMUP, cluster.samples.get());
+		Assert.assertTrue(handler.attempts.isEmpty());
+		handler.respondInline = false;
+		// 对冲延迟每秒计算一次，等到下一秒才会用上预热的样本
+		Thread.sleep(1000);
+	}
+
+	private static InvokerContext newContext(ServiceCallback callback) {
+		InvokerConfig<Runnable> config = new InvokerConfig<Runnable>("test.HedgingService", Runnable.class);
+		config.setCallType(Constants.CALL_CALLBACK);
+		config.setCluster(Constants.CLUSTER_HEDGING);
+		config.setTimeout(1000);
+		config.setCallback(callback);
+		return new DefaultInvokerContext(config, "run", new Class<?>[0], new Object[0]);
+	}
+
+	private class TestHedgingCluster extends HedgingCluster {
+
+		private final AtomicInteger samples = new AtomicInteger();
+
+		@Override
+		protected Client selectClient(InvokerConfig<?> invokerConfig, InvocationRequest request,
+				List<Client> excludeClients) {
+			if (excludeClients == null || !excludeClients.contains(primary)) {
+				return primary;
+			}
+			return excludeClients.contains(secondary) ? null : secondary;
+		}
+
+		@Override
+		protected void recordLatency(String statsKey, long rttNanos) {
+			samples.incrementAndGet();
+			super.recordLatency(statsKey, rttNanos);
+		}
+	}
+
+	/**
+	 * 代替filter链，请求登记到在途表后只记录，由测试决定何时返回
+	 */
+	private static class TestHandler implements ServiceInvocationHandler {
+
+		private final BlockingQueue<Attempt> attempts = new LinkedBlockingQueue<Attempt>();
+
+		private volatile boolean respondInline;
+
+		@Override
+		public InvocationResponse handle(InvocationContext invocationContext) throws Throwable {
+			InvokerContext context = (InvokerContext) invocationContext;
+			InvocationRequest request = context.getRequest();
+			request.setCreateMillisTime(System.currentTimeMillis());
+			InvokerUtils.sendRequest(context.getClient(), request, InvokerHelper.getAttemptCallback());
+			Attempt attempt = new Attempt(context.getClient(), request, Thread.currentThread().getName());
+			if (respondInline) {
+				attempt.respond("primary");
+			} else {
+				attempts.add(attempt);
+			}
+			return null;
+		}
+	}
+
+	private static class Attempt {
+
+		private final Client client;
+
+		private final InvocationRequest request;
+
+		private final String thread;
+
+		Attempt(Client client, InvocationRequest request, String thread) {
+			this.client = client;
+			this.request = request;
+			this.thread = thread;
+		}
+
+		void respond(Object result) {
+			ServiceInvocationRepository.getInstance().receiveResponse(
+					new DefaultResponse(request.getSerialize(), request.getSequence(), Constants.MESSAGE_TYPE_SERVICE,
+							result));
+		}
+	}
+
+	private static class ResultCallback implements ServiceCallback {
+
+		private final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+
+		@Override
+		public void onSuccess(Object result) {
+			results.add(result);
+		}
+
+		@Override
+		public void onFailure(Throwable exception) {
+			results.add(exception);
+		}
+	}
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(HedgingClusterTest.class.getClassLoader(),
+				new Class<?>[] { Client.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getAddress".equals(name) || "toString".equals(name)) {
+							return address;
+						} else if ("getHost".equals(name)) {
+							return address.substring(0, address.indexOf(':'));
+						} else if ("getPort".equals(name)) {
+							return 4040;
+						} else if ("hashCode".equals(name)) {
+							return address.hashCode();
+						} else if ("equals".equals(name)) {
+							return proxy == args[0];
+						}
+						return null;
+					}
+				});
+	}
+}
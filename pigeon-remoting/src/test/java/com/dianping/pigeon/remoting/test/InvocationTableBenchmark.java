@@ -0,0 +1,137 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+import com.dianping.pigeon.remoting.invoker.service.InvocationTable;
+
+/**
+ * 对比ConcurrentHashMap与InvocationTable登记/完成在途请求的吞吐和分配量，直接运行main方法
+ *
+ * 每个线程维持固定数量的在途请求，每次登记一个新请求并完成最早的请求，RemoteInvocationBean预先分配以只统计关联表本身的开销
+ */
+public class InvocationTableBenchmark {
+
+	private static final int THREADS = 8;
+
+	private static final int IN_FLIGHT_PER_THREAD = 1024;
+
+	private static final int OPS_PER_THREAD = 2000000;
+
+	private static final int ROUNDS = 5;
+
+	interface Correlation {
+
+		void put(long sequence, RemoteInvocationBean invocationBean);
+
+		RemoteInvocationBean take(long sequence);
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (int i = 0; i < ROUNDS; i++) {
+			final ConcurrentMap<Long, RemoteInvocationBean> map = new ConcurrentHashMap<Long, RemoteInvocationBean>();
+			run("map  ", new Correlation() {
+
+				@Override
+				public void put(long sequence, RemoteInvocationBean invocationBean) {
+					map.put(sequence, invocationBean);
+				}
+
+				@Override
+				public RemoteInvocationBean take(long sequence) {
+					// 与原receiveResponse一致，先get再remove
+					RemoteInvocationBean invocationBean = map.get(sequence);
+					map.remove(sequence);
+					return invocationBean;
+				}
+			});
+			final InvocationTable table = new InvocationTable(65536);
+			run("table", new Correlation() {
+
+				@Override
+				public void put(long sequence, RemoteInvocationBean invocationBean) {
+					table.put(sequence, invocationBean);
+				}
+
+				@Override
+				public RemoteInvocationBean take(long sequence) {
+					return table.remove(sequence);
+				}
+			});
+		}
+	}
+
+	private static void run(String name, final Correlation correlation) throws InterruptedException {
+		final AtomicLong sequenceMaker = new AtomicLong();
+		final AtomicLong allocatedBytes = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch endLatch = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					RemoteInvocationBean[] window = new RemoteInvocationBean[IN_FLIGHT_PER_THREAD];
+					long[] sequences = new long[IN_FLIGHT_PER_THREAD];
+					for (int i = 0; i < window.length; i++) {
+						window[i] = new RemoteInvocationBean();
+						window[i].request = new DefaultRequest();
+					}
+					try {
+						startLatch.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long allocatedBefore = threadAllocatedBytes();
+					for (int i = 0; i < OPS_PER_THREAD; i++) {
+						int slot = i % IN_FLIGHT_PER_THREAD;
+						if (i >= IN_FLIGHT_PER_THREAD && correlation.take(sequences[slot]) != window[slot]) {
+							misses.incrementAndGet();
+						}
+						long sequence = sequenceMaker.incrementAndGet() * -1;
+						sequences[slot] = sequence;
+						window[slot].request.setSequence(sequence);
+						correlation.put(sequence, window[slot]);
+					}
+					allocatedBytes.addAndGet(threadAllocatedBytes() - allocatedBefore);
+					endLatch.countDown();
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+		long gcBefore = gcCount();
+		long start = System.nanoTime();
+		startLatch.countDown();
+		endLatch.await();
+		long cost = System.nanoTime() - start;
+		long ops = (long) THREADS * OPS_PER_THREAD;
+		System.out.println(String.format("%s threads=%d: %.0f ops/s, %d bytes/op, gc=%d, misses=%d", name, THREADS,
+				ops * 1e9 / cost, allocatedBytes.get() / ops, gcCount() - gcBefore, misses.get()));
+	}
+
+	private static long threadAllocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread()
+					.getId());
+		}
+		return 0;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+}
@@ -0,0 +1,89 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.LinkedList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+import com.dianping.pigeon.remoting.invoker.service.InvocationTable;
+
+public class InvocationTableTest {
+
+	@Test
+	public void testSlotReuse() {
+		InvocationTable table = new InvocationTable(5);
+		Assert.assertEquals(8, table.getCapacity());
+
+		RemoteInvocationBean first = newInvocation(1);
+		table.put(1, first);
+		Assert.assertSame(first, table.remove(1));
+		Assert.assertNull(table.remove(1));
+
+		// 槽位释放后由同一位置的下一个序号复用，旧序号查不到
+		RemoteInvocationBean next = newInvocation(9);
+		table.put(9, next);
+		Assert.assertEquals(0, table.getOverflowSize());
+		Assert.assertNull(table.get(1));
+		Assert.assertSame(next, table.get(9));
+
+		// 只有当前登记的请求能被条件移除
+		Assert.assertFalse(table.remove(9, first));
+		Assert.assertTrue(table.remove(9, next));
+		Assert.assertNull(table.get(9));
+	}
+
+	@Test
+	public void testCollisionOverflow() {
+		InvocationTable table = new InvocationTable(8);
+		RemoteInvocationBean first = newInvocation(1);
+		RemoteInvocationBean collided = newInvocation(9);
+		// 低32位相同、高位不同的序号也落到同一槽位
+		long wrapped = (1L << 32) + 1;
+		RemoteInvocationBean wrappedInvocation = newInvocation(wrapped);
+		table.put(1, first);
+		table.put(9, collided);
+		table.put(wrapped, wrappedInvocation);
+		Assert.assertEquals(2, table.getOverflowSize());
+		Assert.assertSame(first, table.get(1));
+		Assert.assertSame(collided, table.get(9));
+		Assert.assertSame(wrappedInvocation, table.get(wrapped));
+
+		Assert.assertSame(first, table.remove(1));
+		Assert.assertSame(collided, table.remove(9));
+		Assert.assertSame(wrappedInvocation, table.remove(wrapped));
+		Assert.assertEquals(0, table.getOverflowSize());
+		Assert.assertNull(table.get(9));
+	}
+
+	@Test
+	public void testWraparound() {
+		InvocationTable table = new InvocationTable(64);
+		LinkedList<RemoteInvocationBean> inflight = new LinkedList<RemoteInvocationBean>();
+		// 序号为负数且递减（与InvokerUtils一致），绕过槽位表多圈，在途数不超过容量时不会溢出
+		long sequence = -1;
+		for (int i = 0; i < 64 * 10; i++, sequence--) {
+			RemoteInvocationBean invocation = newInvocation(sequence);
+			table.put(sequence, invocation);
+			inflight.add(invocation);
+			if (inflight.size() == 48) {
+				RemoteInvocationBean oldest = inflight.removeFirst();
+				Assert.assertSame(oldest, table.remove(oldest.request.getSequence()));
+			}
+			Assert.assertEquals(0, table.getOverflowSize());
+		}
+		for (RemoteInvocationBean invocation : inflight) {
+			Assert.assertSame(invocation, table.get(invocation.request.getSequence()));
+			Assert.assertSame(invocation, table.remove(invocation.request.getSequence()));
+		}
+	}
+
+	private static RemoteInvocationBean newInvocation(long sequence) {
+		DefaultRequest request = new DefaultRequest();
+		request.setSequence(sequence);
+		RemoteInvocationBean invocation = new RemoteInvocationBean();
+		invocation.request = request;
+		return invocation;
+	}
+}
@@ -0,0 +1,112 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+import com.dianping.pigeon.timer.HashedWheelTimer;
+import com.dianping.pigeon.timer.Timeout;
+import com.dianping.pigeon.timer.TimerTask;
+
+/**
+ * 对比全量扫描与时间轮两种超时检查方式，直接运行main方法
+ *
+ * 每轮放入n个在途请求，其中大部分在超时前收到响应，统计单次扫描耗时、注册/取消耗时以及超时触发延迟
+ */
+public class InvocationTimeoutBenchmark {
+
+	private static final int[] OUTSTANDING = new int[] { 10000, 100000 };
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		for (int n : OUTSTANDING) {
+			for (int i = 0; i < ROUNDS; i++) {
+				benchScan(n);
+				benchWheel(n);
+			}
+		}
+	}
+
+	private static RemoteInvocationBean newInvocation(long now, int timeout) {
+		InvocationRequest request = new DefaultRequest();
+		request.setTimeout(timeout);
+		request.setCreateMillisTime(now);
+		RemoteInvocationBean invocationBean = new RemoteInvocationBean();
+		invocationBean.request = request;
+		return invocationBean;
+	}
+
+	private static void benchScan(int n) {
+		ConcurrentMap<Long, RemoteInvocationBean> invocations = new ConcurrentHashMap<Long, RemoteInvocationBean>();
+		long now = System.currentTimeMillis();
+		for (long seq = 0; seq < n; seq++) {
+			invocations.put(seq, newInvocation(now, 1000));
+		}
+		// 与原InvocationTimeoutListener相同的扫描逻辑，每个interval都要遍历全部在途请求
+		long start = System.nanoTime();
+		int expired = 0;
+		long currentTime = now + 500;
+		for (Long sequence : invocations.keySet()) {
+			RemoteInvocationBean invocationBean = invocations.get(sequence);
+			if (invocationBean != null) {
+				InvocationRequest request = invocationBean.request;
+				if (request.getTimeout() > 0 && request.getCreateMillisTime() > 0
+						&& request.getCreateMillisTime() + request.getTimeout() < currentTime) {
+					expired++;
+				}
+			}
+		}
+		long cost = System.nanoTime() - start;
+		System.out.println(String.format("scan  n=%d: one pass %.3f ms (%d ns/request), expired=%d", n,
+				cost / 1e6, cost / n, expired));
+	}
+
+	private static void benchWheel(int n) throws InterruptedException {
+		HashedWheelTimer timer = new HashedWheelTimer("Pigeon-Timeout-Benchmark", 10, TimeUnit.MILLISECONDS, 512);
+		timer.start();
+		try {
+			final AtomicLong fired = new AtomicLong();
+			final AtomicLong totalLateness = new AtomicLong();
+			Timeout[] timeouts = new Timeout[n];
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+				timeouts[i] = timer.newTimeout(new TimerTask() {
+
+					@Override
+					public void run(Timeout timeout) {
+						totalLateness.addAndGet(System.nanoTime() - deadline);
+						fired.incrementAndGet();
+					}
+				}, 200, TimeUnit.MILLISECONDS);
+			}
+			long registerCost = System.nanoTime() - start;
+			// 模拟90%的请求在超时前收到响应
+			start = System.nanoTime();
+			int cancelled = 0;
+			for (int i = 0; i < n; i++) {
+				if (i % 10 != 0) {
+					timeouts[i].cancel();
+					cancelled++;
+				}
+			}
+			long cancelCost = System.nanoTime() - start;
+			int expected = n - cancelled;
+			long waitUntil = System.currentTimeMillis() + 2000;
+			while (fired.get() < expected && System.currentTimeMillis() < waitUntil) {
+				Thread.sleep(5);
+			}
+			System.out.println(String.format(
+					"wheel n=%d: register %d ns/request, cancel %d ns/request, fired=%d, avg lateness %.3f ms", n,
+					registerCost / n, cancelCost / cancelled, fired.get(),
+					fired.get() == 0 ? 0 : totalLateness.get() / 1e6 / fired.get()));
+		} finally {
+			timer.stop();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.route.balance.LatencyAwareLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.statistics.LatencyEwma;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+
+public class LatencyAwareLoadBalanceTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testEwmaDecay() {
+		LatencyEwma ewma = new LatencyEwma(1000 * MS, 30000 * MS);
+		Assert.assertEquals(0, ewma.get(0), 0);
+		ewma.update(100 * MS, 0);
+		// 读取不衰减，空闲的服务端保持最近的响应时间
+		Assert.assertEquals(100 * MS, ewma.get(10000 * MS), 1);
+		// 更高的响应时间立即生效
+		ewma.update(200 * MS, 10 * MS);
+		Assert.assertEquals(200 * MS, ewma.get(10 * MS), 1);
+		// 更低的响应时间按间隔加权，间隔越长新值权重越大
+		ewma.update(100 * MS, 1010 * MS);
+		double expected = 200 * MS * Math.exp(-1) + 100 * MS * (1 - Math.exp(-1));
+		Assert.assertEquals(expected, ewma.get(1010 * MS), 1);
+		// 超过stale没有响应时视为未知
+		Assert.assertEquals(0, ewma.get(31011 * MS), 0);
+	}
+
+	@Test
+	public void testSelectFasterProvider() {
+		List<Client> clients = new ArrayList<Client>();
+		Client fast = newClient("10.0.1.1:4040");
+		Client slow = newClient("10.0.1.2:4040");
+		clients.add(fast);
+		clients.add(slow);
+		DefaultRequest request = newRequest(Constants.MESSAGE_TYPE_SERVICE);
+		ServiceStatisticsHolder.getCapacityBucket(fast.getAddress());
+		ServiceStatisticsHolder.getCapacityBucket(slow.getAddress());
+		ServiceStatisticsHolder.updateLatency(request, fast.getAddress(), 5 * MS);
+		ServiceStatisticsHolder.updateLatency(request, slow.getAddress(), 100 * MS);
+		// 心跳的响应时间不计入
+		ServiceStatisticsHolder.updateLatency(newRequest(Constants.MESSAGE_TYPE_HEART), slow.getAddress(), 1);
+
+		LatencyAwareLoadBalance loadBalance = new LatencyAwareLoadBalance();
+		for (int i = 0; i < 100; i++) {
+			Assert.assertSame(fast, loadBalance.doSelect(clients, null, request, null));
+		}
+
+		// 在途请求足够多时代价超过慢的服务端
+		List<DefaultRequest> inflight = new ArrayList<DefaultRequest>();
+		for (int i = 0; i < 30; i++) {
+			DefaultRequest pending = newRequest(Constants.MESSAGE_TYPE_SERVICE);
+			ServiceStatisticsHolder.flowIn(pending, fast.getAddress());
+			inflight.add(pending);
+		}
+		Assert.assertSame(slow, loadBalance.doSelect(clients, null, request, null));
+		for (DefaultRequest pending : inflight) {
+			ServiceStatisticsHolder.flowOut(pending, fast.getAddress());
+		}
+		Assert.assertSame(fast, loadBalance.doSelect(clients, null, request, null));
+	}
+
+	private static DefaultRequest newRequest(int messageType) {
+		DefaultRequest request = new DefaultRequest();
+		request.setMessageType(messageType);
+		request.setCallType(Constants.CALLTYPE_REPLY);
+		request.setLoadbalance(LatencyAwareLoadBalance.NAME);
+		request.setAttachment(Constants.REQ_ATTACH_FLOW, 1.0f);
+		return request;
+	}
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(LatencyAwareLoadBalanceTest.class.getClassLoader(),
+				new Class<?>[] { Client.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getAddress".equals(name) || "toString".equals(name)) {
+							return address;
+						} else if ("hashCode".equals(name)) {
+							return address.hashCode();
+						} else if ("equals".equals(name)) {
+							return proxy == args[0];
+						}
+						return null;
+					}
+				});
+	}
+}
@@ -0,0 +1,33 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.invoker.route.statistics.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testPercentile() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 样本不足
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+		Assert.assertEquals(-1, histogram.getPercentile(95, 100));
+
+		// 90个1ms，10个100ms
+		for (int i = 1; i < 90; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+		}
+		long p50 = histogram.getPercentile(50, 100);
+		long p95 = histogram.getPercentile(95, 100);
+		// 分桶误差在25%以内，取桶的上界
+		Assert.assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(1) && p50 <= TimeUnit.MICROSECONDS.toNanos(1250));
+		Assert.assertTrue(p95 >= TimeUnit.MILLISECONDS.toNanos(100) && p95 <= TimeUnit.MILLISECONDS.toNanos(125));
+		Assert.assertEquals(p50, histogram.getPercentile(90, 100));
+	}
+}
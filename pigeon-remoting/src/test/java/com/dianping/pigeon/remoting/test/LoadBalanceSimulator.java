@@ -0,0 +1,179 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.route.balance.LatencyAwareLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.balance.RandomLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.balance.WeightedAutoawareLoadBalance;
+import com.dianping.pigeon.remoting.invoker.route.statistics.ServiceStatisticsHolder;
+
+/**
+ * 负载均衡模拟：一组响应时间不同的服务端（每个服务端并发处理能力有限，超过后排队），
+ * 以固定速率发请求，对比random、weightedAutoaware、latencyAware的响应时间和流量分布，直接运行main方法
+ *
+ * 参数：[每秒请求数] [每种负载均衡运行秒数] [服务端响应时间ms列表，逗号分隔] [每个服务端并发能力]
+ */
+public class LoadBalanceSimulator {
+
+	private static final AtomicLong sequence = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		int qps = args.length > 0 ? Integer.parseInt(args[0]) : 1500;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+		String latencies = args.length > 2 ? args[2] : "5,5,5,5,5,5,5,5,25,100";
+		int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		String[] parts = latencies.split(",");
+		int[] serviceMillis = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			serviceMillis[i] = Integer.parseInt(parts[i].trim());
+		}
+		System.out.println(String.format("qps:%d, seconds:%d, providers(ms):%s, concurrency per provider:%d", qps,
+				seconds, latencies, concurrency));
+		Selector random = new Selector() {
+
+			@Override
+			public Client select(List<Client> clients, int[] weights) {
+				return ((RandomLoadBalance) RandomLoadBalance.instance).doSelect(clients, null, null, weights);
+			}
+		};
+		Selector weighted = new Selector() {
+
+			@Override
+			public Client select(List<Client> clients, int[] weights) {
+				return ((WeightedAutoawareLoadBalance) WeightedAutoawareLoadBalance.instance).doSelect(clients, null,
+						null, weights);
+			}
+		};
+		Selector latencyAware = new Selector() {
+
+			@Override
+			public Client select(List<Client> clients, int[] weights) {
+				return ((LatencyAwareLoadBalance) LatencyAwareLoadBalance.instance).doSelect(clients, null, null,
+						null);
+			}
+		};
+		for (int round = 0; round < 2; round++) {
+			run("random           ", random, qps, seconds, serviceMillis, concurrency);
+			run("weightedAutoaware", weighted, qps, seconds, serviceMillis, concurrency);
+			run("latencyAware     ", latencyAware, qps, seconds, serviceMillis, concurrency);
+			System.out.println();
+		}
+		System.exit(0);
+	}
+
+	private interface Selector {
+
+		Client select(List<Client> clients, int[] weights);
+	}
+
+	private static void run(String name, Selector selector, int qps, int seconds, final int[] serviceMillis,
+			final int concurrency) throws Exception {
+		final int size = serviceMillis.length;
+		final List<Client> clients = new ArrayList<Client>();
+		final AtomicInteger[] inflight = new AtomicInteger[size];
+		final AtomicLong[] served = new AtomicLong[size];
+		int[] weights = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			String address = "10.0.0." + (i + 1) + ":4040";
+			ServiceStatisticsHolder.removeCapacityBucket(address);
+			clients.add(newClient(address));
+			inflight[i] = new AtomicInteger();
+			served[i] = new AtomicLong();
+			weights[i] = 100;
+		}
+		final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(4);
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / qps;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long next = start;
+		while (next < end) {
+			long now = System.nanoTime();
+			if (now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			next += intervalNanos;
+			final DefaultRequest request = new DefaultRequest();
+			request.setSequence(sequence.incrementAndGet());
+			request.setMessageType(Constants.MESSAGE_TYPE_SERVICE);
+			request.setCallType(Constants.CALLTYPE_REPLY);
+			request.setAttachment(Constants.REQ_ATTACH_FLOW, 1.0f);
+			Client client = selector.select(clients, weights);
+			final int index = clients.indexOf(client);
+			final String address = client.getAddress();
+			ServiceStatisticsHolder.flowIn(request, address);
+			// 超过并发能力后按排队长度放大响应时间
+			int current = inflight[index].incrementAndGet();
+			long latency = TimeUnit.MILLISECONDS.toNanos(serviceMillis[index]) * Math.max(concurrency, current)
+					/ concurrency;
+			final long sent = now;
+			timer.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					long rtt = System.nanoTime() - sent;
+					inflight[index].decrementAndGet();
+					served[index].incrementAndGet();
+					ServiceStatisticsHolder.updateLatency(request, address, rtt);
+					ServiceStatisticsHolder.flowOut(request, address);
+					latencies.add(rtt);
+				}
+			}, latency, TimeUnit.NANOSECONDS);
+		}
+		timer.shutdown();
+		timer.awaitTermination(60, TimeUnit.SECONDS);
+
+		List<Long> sorted = new ArrayList<Long>(latencies);
+		Collections.sort(sorted);
+		long sum = 0;
+		for (Long l : sorted) {
+			sum += l;
+		}
+		StringBuilder share = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			share.append(i == 0 ? "" : ",").append(serviceMillis[i]).append("ms:")
+					.append(served[i].get() * 100 / Math.max(1, sorted.size())).append("%");
+		}
+		System.out.println(String.format("%s mean:%.1fms, p50:%.1fms, p99:%.1fms, max:%.1fms, share[%s]", name,
+				sum / 1e6 / Math.max(1, sorted.size()), percentile(sorted, 0.5), percentile(sorted, 0.99),
+				sorted.get(sorted.size() - 1) / 1e6, share));
+	}
+
+	private static double percentile(List<Long> sorted, double p) {
+		int index = (int) Math.min(sorted.size() - 1, Math.round(p * (sorted.size() - 1)));
+		return sorted.get(index) / 1e6;
+	}
+
+	private static Client newClient(final String address) {
+		return (Client) Proxy.newProxyInstance(LoadBalanceSimulator.class.getClassLoader(),
+				new Class<?>[] { Client.class }, new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getAddress".equals(name) || "toString".equals(name)) {
+							return address;
+						} else if ("hashCode".equals(name)) {
+							return address.hashCode();
+						} else if ("equals".equals(name)) {
+							return proxy == args[0];
+						}
+						return null;
+					}
+				});
+	}
+}
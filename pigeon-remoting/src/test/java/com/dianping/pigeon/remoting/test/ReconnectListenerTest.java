@@ -0,0 +1,142 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.config.ConfigManager;
+import com.dianping.pigeon.config.ConfigManagerLoader;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.Client;
+import com.dianping.pigeon.remoting.invoker.ConnectCallback;
+import com.dianping.pigeon.remoting.invoker.domain.ConnectInfo;
+import com.dianping.pigeon.remoting.invoker.listener.ReconnectListener;
+
+public class ReconnectListenerTest {
+
+	private static final String BACKOFF_MAX = "pigeon.reconnect.backoff.max";
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testBackoffAndReset() throws Exception {
+		ConfigManager configManager = ConfigManagerLoader.getConfigManager();
+		// 退避依次为100、200、200(上限)、200ms，不设上限时第4次为800ms
+		configManager.setLocalStringValue(Constants.KEY_RECONNECT_INTERVAL, "100");
+		configManager.setLocalStringValue(BACKOFF_MAX, "200");
+		TestClient testClient = new TestClient("10.0.4.1", 4040);
+		TestReconnectListener listener = new TestReconnectListener();
+		Thread thread = new Thread(listener, "Test-Reconnect");
+		thread.start();
+		try {
+			testClient.failures.set(4);
+			listener.removeConnect(testClient.proxy);
+			Assert.assertSame(testClient.proxy, listener.rejoined.poll(5, TimeUnit.SECONDS));
+			List<Long> attempts = testClient.drainAttempts();
+			Assert.assertEquals(5, attempts.size());
+			// 每次至少等待退避时间的一半，且随失败次数增长
+			Assert.assertTrue(gap(attempts, 0) >= 50 * MS);
+			Assert.assertTrue(gap(attempts, 1) >= 100 * MS);
+			Assert.assertTrue(gap(attempts, 2) >= 100 * MS);
+			// 达到上限后不再增长
+			Assert.assertTrue(gap(attempts, 3) < 380 * MS);
+			Assert.assertFalse(listener.getClosedClients().containsKey(testClient.address));
+
+			// 重连成功后退避清零，再次断开时从interval重新开始
+			configManager.setLocalStringValue(BACKOFF_MAX, "60000");
+			testClient.failures.set(1);
+			listener.removeConnect(testClient.proxy);
+			Assert.assertSame(testClient.proxy, listener.rejoined.poll(5, TimeUnit.SECONDS));
+			attempts = testClient.drainAttempts();
+			Assert.assertEquals(2, attempts.size());
+			Assert.assertTrue(gap(attempts, 0) < 600 * MS);
+		} finally {
+			thread.interrupt();
+			thread.join(1000);
+			listener.getClosedClients().remove(testClient.address);
+			configManager.setLocalStringValue(Constants.KEY_RECONNECT_INTERVAL, ""
+					+ Constants.DEFAULT_RECONNECT_INTERVAL);
+			configManager.setLocalStringValue(BACKOFF_MAX, "60000");
+		}
+	}
+
+	private static long gap(List<Long> attempts, int index) {
+		return attempts.get(index + 1) - attempts.get(index);
+	}
+
+	private static class TestReconnectListener extends ReconnectListener {
+
+		private final BlockingQueue<Client> rejoined = new LinkedBlockingQueue<Client>();
+
+		@Override
+		protected void rejoin(Client client) {
+			rejoined.add(client);
+		}
+	}
+
+	/**
+	 * 按设定的次数连接失败，之后连接成功
+	 */
+	private static class TestClient implements InvocationHandler {
+
+		private final String address;
+
+		private final ConnectInfo connectInfo;
+
+		private final AtomicInteger failures = new AtomicInteger();
+
+		private final BlockingQueue<Long> attempts = new LinkedBlockingQueue<Long>();
+
+		private final Client proxy;
+
+		TestClient(String host, int port) {
+			this.address = host + ":" + port;
+			this.connectInfo = new ConnectInfo("test.ReconnectService", host, port, 1);
+			this.proxy = (Client) Proxy.newProxyInstance(ReconnectListenerTest.class.getClassLoader(),
+					new Class<?>[] { Client.class }, this);
+		}
+
+		List<Long> drainAttempts() {
+			List<Long> drained = new ArrayList<Long>();
+			attempts.drainTo(drained);
+			return drained;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("connectAsync".equals(name)) {
+				attempts.add(System.nanoTime());
+				ConnectCallback callback = (ConnectCallback) args[0];
+				if (failures.getAndDecrement() > 0) {
+					callback.onConnectFailed(this.proxy, null);
+				} else {
+					callback.onConnected(this.proxy);
+				}
+				return null;
+			} else if ("getConnectInfo".equals(name)) {
+				return connectInfo;
+			} else if ("getAddress".equals(name) || "toString".equals(name)) {
+				return address;
+			} else if ("getProtocol".equals(name)) {
+				return Constants.PROTOCOL_DEFAULT;
+			} else if ("isConnected".equals(name) || "isActive".equals(name)) {
+				return false;
+			} else if ("hashCode".equals(name)) {
+				return address.hashCode();
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			return null;
+		}
+	}
+}
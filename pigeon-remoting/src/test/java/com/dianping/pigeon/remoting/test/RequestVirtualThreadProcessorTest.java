@@ -0,0 +1,159 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationRequest;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.exception.RejectedException;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.provider.config.ProviderConfig;
+import com.dianping.pigeon.remoting.provider.config.ServerConfig;
+import com.dianping.pigeon.remoting.provider.domain.DefaultProviderContext;
+import com.dianping.pigeon.remoting.provider.process.virtualthread.RequestVirtualThreadProcessor;
+
+public class RequestVirtualThreadProcessorTest {
+
+	private static final String LIMITED_SERVICE = "http://service.dianping.com/limitedService";
+
+	private static final String OTHER_SERVICE = "http://service.dianping.com/otherService";
+
+	@Test
+	public void testServiceLimit() throws Exception {
+		TestProcessor processor = new TestProcessor(new ServerConfig());
+		ProviderConfig<Runnable> providerConfig = new ProviderConfig<Runnable>(Runnable.class, new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		});
+		providerConfig.setUrl(LIMITED_SERVICE);
+		providerConfig.setActives(2);
+		processor.addService(providerConfig);
+		try {
+			Future<InvocationResponse> first = process(processor, newRequest(LIMITED_SERVICE));
+			Future<InvocationResponse> second = process(processor, newRequest(LIMITED_SERVICE));
+			Assert.assertTrue(processor.started.tryAcquire(2, 1, TimeUnit.SECONDS));
+			Assert.assertTrue(processor.needCancelRequest(newRequest(LIMITED_SERVICE)));
+
+			// 服务级并发数用满时拒绝，不影响其他服务
+			DefaultRequest rejected = newRequest(LIMITED_SERVICE);
+			try {
+				process(processor, rejected);
+				Assert.fail("request should be rejected");
+			} catch (RejectedException e) {
+				Assert.assertTrue(processor.getProcessorStatistics(rejected).contains("rejected:1"));
+			}
+			Future<InvocationResponse> other = process(processor, newRequest(OTHER_SERVICE));
+			Assert.assertTrue(processor.started.tryAcquire(1, TimeUnit.SECONDS));
+
+			// 请求结束后释放并发数，可以再次接收
+			processor.release.countDown();
+			first.get(1, TimeUnit.SECONDS);
+			second.get(1, TimeUnit.SECONDS);
+			other.get(1, TimeUnit.SECONDS);
+			awaitActives(processor, newRequest(LIMITED_SERVICE), "actives:0(max:2)");
+			Assert.assertFalse(processor.needCancelRequest(newRequest(LIMITED_SERVICE)));
+			Future<InvocationResponse> next = process(processor, newRequest(LIMITED_SERVICE));
+			next.get(1, TimeUnit.SECONDS);
+			awaitActives(processor, newRequest(LIMITED_SERVICE), "actives:0(max:2)");
+			Assert.assertTrue(processor.getRequestContextMap().isEmpty());
+		} finally {
+			processor.release.countDown();
+			processor.stop();
+		}
+	}
+
+	@Test
+	public void testPlatformFallbackBound() throws Exception {
+		ServerConfig serverConfig = new ServerConfig();
+		serverConfig.setCorePoolSize(1);
+		serverConfig.setMaxPoolSize(2);
+		TestProcessor processor = new TestProcessor(serverConfig);
+		// 只在不支持虚拟线程的JDK上验证退回的线程池
+		Assume.assumeTrue(processor.getProcessorStatistics().contains("platform"));
+		try {
+			Future<InvocationResponse> first = process(processor, newRequest(OTHER_SERVICE));
+			Future<InvocationResponse> second = process(processor, newRequest(OTHER_SERVICE));
+			Assert.assertTrue(processor.started.tryAcquire(2, 1, TimeUnit.SECONDS));
+
+			// 总并发数不超过线程池的最大线程数，超出时拒绝而不是继续创建线程
+			DefaultRequest rejected = newRequest(OTHER_SERVICE);
+			try {
+				process(processor, rejected);
+				Assert.fail("request should be rejected");
+			} catch (RejectedException e) {
+				String stats = processor.getProcessorStatistics(rejected);
+				Assert.assertTrue(stats, stats.contains("platform threads(active:2,max:2)"));
+				Assert.assertTrue(stats, stats.contains("rejected:1"));
+			}
+
+			processor.release.countDown();
+			first.get(1, TimeUnit.SECONDS);
+			second.get(1, TimeUnit.SECONDS);
+			awaitActives(processor, newRequest(OTHER_SERVICE), "active:0,max:2");
+		} finally {
+			processor.release.countDown();
+			processor.stop();
+		}
+	}
+
+	private static Future<InvocationResponse> process(TestProcessor processor, DefaultRequest request) {
+		return processor.doProcessRequest(request, new DefaultProviderContext(request, null));
+	}
+
+	private static void awaitActives(TestProcessor processor, InvocationRequest request, String expected)
+			throws InterruptedException {
+		// 信号量在FutureTask.done中释放，可能晚于get返回
+		long deadline = System.currentTimeMillis() + 1000;
+		while (!processor.getProcessorStatistics(request).contains(expected)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		Assert.assertTrue(processor.getProcessorStatistics(request),
+				processor.getProcessorStatistics(request).contains(expected));
+	}
+
+	private static DefaultRequest newRequest(String serviceName) {
+		DefaultRequest request = new DefaultRequest();
+		request.setServiceName(serviceName);
+		request.setMethodName("run");
+		request.setMessageType(Constants.MESSAGE_TYPE_SERVICE);
+		request.setCallType(Constants.CALLTYPE_REPLY);
+		request.setTimeout(5000);
+		request.setCreateMillisTime(System.currentTimeMillis());
+		return request;
+	}
+
+	/**
+	 * 在执行前的截止时间检查处阻塞，模拟执行中的请求，放行后按已过期处理，不需要业务handler
+	 */
+	private static class TestProcessor extends RequestVirtualThreadProcessor {
+
+		private final Semaphore started = new Semaphore(0);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		TestProcessor(ServerConfig serverConfig) {
+			super(serverConfig);
+		}
+
+		@Override
+		protected boolean isExpired(InvocationRequest request) {
+			started.release();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethod;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodInvoker;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodInvokerGenerator;
+
+/**
+ * 对比反射调用与生成的invoker调用0、3、8个参数的服务方法的耗时，直接运行main方法
+ */
+public class ServiceMethodInvokerBenchmark {
+
+	private static final int ITERATIONS = 20000000;
+
+	private static final int ROUNDS = 5;
+
+	public static class BenchmarkService {
+
+		private long counter;
+
+		public long arg0() {
+			return ++counter;
+		}
+
+		public long arg3(int a, String b, long c) {
+			return a + c + b.length();
+		}
+
+		public long arg8(int a, String b, long c, double d, Integer e, boolean f, Object g, short h) {
+			return a + c + h + e + (f ? 1 : 0);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkService service = new BenchmarkService();
+		List<Method> methods = new ArrayList<Method>();
+		methods.add(BenchmarkService.class.getMethod("arg0"));
+		methods.add(BenchmarkService.class.getMethod("arg3", int.class, String.class, long.class));
+		methods.add(BenchmarkService.class.getMethod("arg8", int.class, String.class, long.class, double.class,
+				Integer.class, boolean.class, Object.class, short.class));
+		Object[][] arguments = new Object[][] { new Object[0], new Object[] { 1, "pigeon", 2L },
+				new Object[] { 1, "pigeon", 2L, 3.0d, 4, true, service, (short) 5 } };
+
+		int[] indexes = new int[methods.size()];
+		ServiceMethodInvoker invoker = ServiceMethodInvokerGenerator.generate(BenchmarkService.class, methods,
+				indexes);
+		ServiceMethod[] reflectMethods = new ServiceMethod[methods.size()];
+		ServiceMethod[] generatedMethods = new ServiceMethod[methods.size()];
+		for (int i = 0; i < methods.size(); i++) {
+			reflectMethods[i] = new ServiceMethod(service, methods.get(i));
+			generatedMethods[i] = new ServiceMethod(service, methods.get(i));
+			generatedMethods[i].setInvoker(invoker, indexes[i]);
+		}
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < methods.size(); i++) {
+				run("reflect   " + methods.get(i).getName(), reflectMethods[i], arguments[i]);
+				run("generated " + methods.get(i).getName(), generatedMethods[i], arguments[i]);
+			}
+			System.out.println();
+		}
+	}
+
+	private static void run(String name, ServiceMethod method, Object[] arguments) throws Exception {
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			sum += (Long) method.invoke(arguments);
+		}
+		long cost = System.nanoTime() - start;
+		System.out.println(String.format("%s: %.2f ns/op (%d)", name, (double) cost / ITERATIONS, sum));
+	}
+}
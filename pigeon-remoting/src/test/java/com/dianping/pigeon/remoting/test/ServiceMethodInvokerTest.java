@@ -0,0 +1,124 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethod;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodInvoker;
+import com.dianping.pigeon.remoting.provider.service.method.ServiceMethodInvokerGenerator;
+
+public class ServiceMethodInvokerTest {
+
+	public static class TestService {
+
+		public long add(int a, long b, short c) {
+			return a + b + c;
+		}
+
+		public String[] echo(String[] values) {
+			return values;
+		}
+
+		public void fail(String message) {
+			throw new IllegalStateException(message);
+		}
+
+		public float toFloat(float value) {
+			return value;
+		}
+
+		public void hidden(HiddenParam param) {
+		}
+	}
+
+	static class HiddenParam {
+	}
+
+	@Test
+	public void testGeneratedInvoke() throws Exception {
+		TestService service = new TestService();
+		List<Method> methods = Arrays.asList(method("add"), method("echo"), method("fail"), method("toFloat"),
+				method("hidden"));
+		int[] indexes = new int[methods.size()];
+		ServiceMethodInvoker invoker = ServiceMethodInvokerGenerator.generate(TestService.class, methods, indexes);
+		Assert.assertNotNull(invoker);
+		// 参数类型不是public的方法退回反射
+		Assert.assertEquals(-1, indexes[4]);
+
+		ServiceMethod[] serviceMethods = new ServiceMethod[methods.size()];
+		for (int i = 0; i < serviceMethods.length; i++) {
+			serviceMethods[i] = new ServiceMethod(service, methods.get(i));
+			serviceMethods[i].setInvoker(invoker, indexes[i]);
+		}
+		Assert.assertTrue(serviceMethods[0].isGeneratedInvoker());
+		Assert.assertFalse(serviceMethods[4].isGeneratedInvoker());
+
+		Assert.assertEquals(6L, serviceMethods[0].invoke(new Object[] { 1, 2L, (short) 3 }));
+		String[] values = new String[] { "a" };
+		Assert.assertSame(values, serviceMethods[1].invoke(new Object[] { values }));
+		try {
+			serviceMethods[2].invoke(new Object[] { "error" });
+			Assert.fail();
+		} catch (InvocationTargetException e) {
+			Assert.assertEquals("error", e.getTargetException().getMessage());
+		}
+		try {
+			serviceMethods[2].invoke(new Object[0]);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		// 需要转换参数类型时与反射调用一致
+		serviceMethods[3].setNeedCastParameterClasses(true);
+		Assert.assertEquals(1.5f, serviceMethods[3].invoke(new Object[] { 1.5d }));
+		Assert.assertNull(serviceMethods[4].invoke(new Object[] { new HiddenParam() }));
+	}
+
+	@Test
+	public void testPrimitiveArgumentConversion() throws Exception {
+		TestService service = new TestService();
+		List<Method> methods = Arrays.asList(method("add"), method("echo"));
+		int[] indexes = new int[methods.size()];
+		ServiceMethodInvoker invoker = ServiceMethodInvokerGenerator.generate(TestService.class, methods, indexes);
+		Assert.assertNotNull(invoker);
+		ServiceMethod add = new ServiceMethod(service, methods.get(0));
+		add.setInvoker(invoker, indexes[0]);
+		ServiceMethod echo = new ServiceMethod(service, methods.get(1));
+		echo.setInvoker(invoker, indexes[1]);
+		Assert.assertTrue(add.isGeneratedInvoker());
+
+		// 与反射一样接受拓宽转换，Integer可以传给long参数
+		Assert.assertEquals(6L, add.invoke(new Object[] { 1, 2, (byte) 3 }));
+		Assert.assertEquals(6L, method("add").invoke(service, new Object[] { 1, 2, (byte) 3 }));
+		// 窄化转换、null和引用类型不匹配都抛出IllegalArgumentException
+		assertIllegalArgument(add, new Object[] { 1L, 2L, (short) 3 });
+		assertIllegalArgument(add, new Object[] { 1, null, (short) 3 });
+		assertIllegalArgument(echo, new Object[] { "a" });
+	}
+
+	private static void assertIllegalArgument(ServiceMethod serviceMethod, Object[] arguments) throws Exception {
+		try {
+			serviceMethod.invoke(arguments);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			serviceMethod.getMethod().invoke(serviceMethod.getService(), arguments);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private static Method method(String name) {
+		for (Method method : TestService.class.getMethods()) {
+			if (method.getName().equals(name)) {
+				return method;
+			}
+		}
+		throw new IllegalArgumentException(name);
+	}
+}
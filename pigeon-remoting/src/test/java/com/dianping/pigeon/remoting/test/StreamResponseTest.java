@@ -0,0 +1,171 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.remoting.common.domain.DefaultRequest;
+import com.dianping.pigeon.remoting.common.domain.DefaultResponse;
+import com.dianping.pigeon.remoting.common.domain.InvocationResponse;
+import com.dianping.pigeon.remoting.common.util.Constants;
+import com.dianping.pigeon.remoting.invoker.callback.StreamIterator;
+import com.dianping.pigeon.remoting.invoker.domain.RemoteInvocationBean;
+import com.dianping.pigeon.remoting.invoker.exception.RequestTimeoutException;
+import com.dianping.pigeon.remoting.invoker.service.ServiceInvocationRepository;
+import com.dianping.pigeon.remoting.provider.domain.ProviderChannel;
+import com.dianping.pigeon.remoting.provider.exception.RequestAbortedException;
+import com.dianping.pigeon.remoting.provider.process.stream.ResponseStream;
+
+public class StreamResponseTest {
+
+	@Test
+	public void testFlowControl() throws Exception {
+		final List<Integer> credits = new CopyOnWriteArrayList<Integer>();
+		final StreamIterator iterator = new StreamIterator(4) {
+
+			@Override
+			protected void sendCredit(int n) {
+				credits.add(n);
+			}
+		};
+		DefaultRequest request = request(-System.nanoTime(), 1000);
+		Map<String, Serializable> requestValues = new HashMap<String, Serializable>();
+		requestValues.put(Constants.REQUEST_STREAM_CREDIT, iterator.getWindow());
+		request.setRequestValues(requestValues);
+		Assert.assertEquals(4, ResponseStream.getInitialCredits(request));
+
+		final TestChannel channel = new TestChannel(iterator);
+		final ResponseStream stream = new ResponseStream(channel, request, ResponseStream.getInitialCredits(request));
+		final List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			items.add(i);
+		}
+		final AtomicBoolean finished = new AtomicBoolean();
+		Thread sender = new Thread() {
+			public void run() {
+				try {
+					stream.send(items.iterator());
+					finished.set(true);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		sender.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (channel.chunks < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		// 100个元素一块，没有新的额度时最多发出window个数据块
+		Assert.assertEquals(4, channel.chunks);
+		Assert.assertFalse(finished.get());
+
+		int count = 0;
+		while (count < 1000) {
+			Assert.assertTrue(iterator.hasNext());
+			Assert.assertEquals(count++, iterator.next());
+			for (Integer n : credits) {
+				stream.grant(n);
+			}
+			credits.clear();
+		}
+		sender.join(5000);
+		Assert.assertTrue(finished.get());
+		Assert.assertEquals(10, channel.chunks);
+
+		// 调用端取消后服务端停止发送
+		ResponseStream cancelled = new ResponseStream(channel, request, 1);
+		cancelled.grant(-1);
+		try {
+			cancelled.send(items.iterator());
+			Assert.fail();
+		} catch (RequestAbortedException e) {
+		}
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		StreamIterator iterator = new StreamIterator(2) {
+
+			@Override
+			protected void sendCredit(int n) {
+				if (n < 0) {
+					cancelled.set(true);
+				}
+			}
+		};
+		long sequence = -System.nanoTime();
+		DefaultRequest request = request(sequence, 100);
+		iterator.setRequest(request);
+		RemoteInvocationBean invocationBean = new RemoteInvocationBean();
+		invocationBean.request = request;
+		invocationBean.callback = iterator;
+		ServiceInvocationRepository repository = ServiceInvocationRepository.getInstance();
+		repository.put(sequence, invocationBean);
+
+		// 持续收到数据块时总时间超过timeout也不会超时
+		for (int i = 0; i < 6; i++) {
+			Thread.sleep(50);
+			repository.receiveChunk(new DefaultResponse(request.getSerialize(), sequence,
+					Constants.MESSAGE_TYPE_STREAM, new Object[] { i }));
+			Assert.assertTrue(iterator.hasNext());
+			Assert.assertEquals(i, iterator.next());
+		}
+		Assert.assertFalse(cancelled.get());
+		try {
+			iterator.hasNext();
+			Assert.fail();
+		} catch (RequestTimeoutException e) {
+		}
+		Assert.assertTrue(cancelled.get());
+	}
+
+	private static DefaultRequest request(long sequence, int timeout) {
+		DefaultRequest request = new DefaultRequest("test.StreamService", "export", new Object[0], (byte) 2,
+				Constants.MESSAGE_TYPE_SERVICE, timeout, null);
+		request.setSequence(sequence);
+		request.setCreateMillisTime(System.currentTimeMillis());
+		return request;
+	}
+
+	private static class TestChannel implements ProviderChannel {
+
+		private final StreamIterator iterator;
+
+		private volatile int chunks;
+
+		TestChannel(StreamIterator iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public void write(InvocationResponse response) {
+			Assert.assertEquals(Constants.MESSAGE_TYPE_STREAM, response.getMessageType());
+			chunks++;
+			iterator.onChunk(response);
+		}
+
+		@Override
+		public String getRemoteAddress() {
+			return "127.0.0.1";
+		}
+
+		@Override
+		public String getProtocol() {
+			return Constants.PROTOCOL_DEFAULT;
+		}
+
+		@Override
+		public boolean isWritable() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dianping.pigeon.threadpool.DefaultThreadPool;
+import com.dianping.pigeon.threadpool.StripedThreadPool;
+import com.dianping.pigeon.threadpool.ThreadPool;
+
+/**
+ * 对比共享线程池（单个LinkedBlockingQueue）与分段线程池在1、8、32个netty worker同时提交时的吞吐，直接运行main方法
+ *
+ * 参数：[分段数] [每个worker提交的任务数] [线程池core] [线程池max] [队列长度]
+ */
+public class StripedThreadPoolBenchmark {
+
+	private static final int[] WORKERS = new int[] { 1, 8, 32 };
+
+	private static final int ROUNDS = 3;
+
+	private static volatile long sink;
+
+	public static void main(String[] args) throws Exception {
+		int stripes = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int coreSize = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		int maxSize = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+		int queueSize = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+		System.out.println(String.format("cpus:%d, stripes:%d, tasks per worker:%d, pool:%d/%d/%d", Runtime
+				.getRuntime().availableProcessors(), stripes, tasks, coreSize, maxSize, queueSize));
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int workers : WORKERS) {
+				ThreadPool shared = new DefaultThreadPool("Benchmark-Shared", coreSize, maxSize,
+						new LinkedBlockingQueue<Runnable>(queueSize));
+				run("shared ", shared, workers, tasks);
+				ThreadPool striped = new StripedThreadPool("Benchmark-Striped", Math.max(stripes, 2), coreSize,
+						maxSize, queueSize);
+				run("striped", striped, workers, tasks);
+			}
+			System.out.println();
+		}
+	}
+
+	private static void run(String name, final ThreadPool pool, int workers, final int tasks) throws Exception {
+		final CountDownLatch done = new CountDownLatch(workers * tasks);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong rejected = new AtomicLong();
+		final Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				// 模拟很短的业务处理
+				long v = 0;
+				for (int i = 0; i < 200; i++) {
+					v += i * 31;
+				}
+				sink = v;
+				done.countDown();
+			}
+		};
+		Thread[] submitters = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			submitters[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int j = 0; j < tasks; j++) {
+						for (;;) {
+							try {
+								pool.execute(task);
+								break;
+							} catch (RejectedExecutionException e) {
+								// 拒绝后客户端重试，这里让出cpu后重新提交
+								rejected.incrementAndGet();
+								Thread.yield();
+							}
+						}
+					}
+				}
+			}, "Benchmark-Netty-Worker-" + i);
+			submitters[i].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long cost = System.nanoTime() - begin;
+		pool.getExecutor().shutdown();
+		pool.getExecutor().awaitTermination(5, TimeUnit.SECONDS);
+		long total = (long) workers * tasks;
+		System.out.println(String.format("%s workers:%2d, %8.0f tasks/s, rejected:%d, largest pool:%d", name, workers,
+				total * 1e9 / cost, rejected.get(), pool.getExecutor().getLargestPoolSize()));
+	}
+}
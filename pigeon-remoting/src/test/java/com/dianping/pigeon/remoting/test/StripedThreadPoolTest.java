@@ -0,0 +1,168 @@
+package com.dianping.pigeon.remoting.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dianping.pigeon.threadpool.StripedThreadPool;
+
+public class StripedThreadPoolTest {
+
+	@Test
+	public void testBoundAndStatistics() throws Exception {
+		StripedThreadPool pool = new StripedThreadPool("Test-Striped", 4, 4, 4, 8);
+		ThreadPoolExecutor executor = pool.getExecutor();
+		Assert.assertEquals(4, pool.getStripes());
+		Assert.assertEquals(4, executor.getCorePoolSize());
+		Assert.assertEquals(4, executor.getMaximumPoolSize());
+		Assert.assertEquals(8, executor.getQueue().remainingCapacity());
+
+		CountDownLatch block = new CountDownLatch(1);
+		AtomicInteger executed = new AtomicInteger();
+		// 4个线程加8个队列位置，本分段满了以后进入其他分段，第13个任务被拒绝
+		int rejected = 0;
+		for (int i = 0; i < 13; i++) {
+			try {
+				pool.execute(new BlockingTask(block, executed));
+			} catch (RejectedExecutionException e) {
+				rejected++;
+			}
+		}
+		Assert.assertEquals(1, rejected);
+		waitFor(executor, 4);
+		Assert.assertEquals(4, executor.getPoolSize());
+		Assert.assertEquals(8, executor.getQueue().size());
+		Assert.assertEquals(0, executor.getQueue().remainingCapacity());
+		Assert.assertEquals(12, executor.getTaskCount());
+
+		block.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals(12, executed.get());
+		Assert.assertEquals(12, executor.getCompletedTaskCount());
+	}
+
+	@Test
+	public void testSubmitterAffinity() throws Exception {
+		final StripedThreadPool pool = new StripedThreadPool("Test-Striped", 4, 4, 4, 400);
+		final List<List<String>> threads = new ArrayList<List<String>>();
+		Thread[] submitters = new Thread[4];
+		for (int i = 0; i < submitters.length; i++) {
+			final List<String> names = new ArrayList<String>();
+			threads.add(names);
+			submitters[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					// 没有积压时同一个提交线程的任务都在同一个分段上执行
+					for (int j = 0; j < 20; j++) {
+						final CountDownLatch done = new CountDownLatch(1);
+						pool.execute(new Runnable() {
+
+							@Override
+							public void run() {
+								synchronized (names) {
+									names.add(Thread.currentThread().getName());
+								}
+								done.countDown();
+							}
+						});
+						try {
+							done.await(1, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			});
+			submitters[i].start();
+		}
+		for (Thread submitter : submitters) {
+			submitter.join(5000);
+		}
+		List<String> used = new ArrayList<String>();
+		for (List<String> names : threads) {
+			Assert.assertEquals(20, names.size());
+			for (String name : names) {
+				Assert.assertEquals(names.get(0), name);
+			}
+			// 提交线程按顺序分到不同的分段
+			Assert.assertFalse(used.contains(names.get(0)));
+			used.add(names.get(0));
+		}
+		pool.getExecutor().shutdown();
+	}
+
+	@Test
+	public void testQueueView() throws Exception {
+		StripedThreadPool pool = new StripedThreadPool("Test-Striped", 2, 2, 2, 4);
+		ThreadPoolExecutor executor = pool.getExecutor();
+		CountDownLatch block = new CountDownLatch(1);
+		AtomicInteger executed = new AtomicInteger();
+		// 本分段有积压后进入积压少的分段：两个分段各执行一个、排队一个
+		for (int i = 0; i < 4; i++) {
+			pool.execute(new BlockingTask(block, executed));
+		}
+		waitFor(executor, 2);
+		Assert.assertEquals(2, executor.getQueue().size());
+
+		// 队列视图与普通的BlockingQueue一致，作用于全部分段
+		BlockingQueue<Runnable> queue = executor.getQueue();
+		Runnable task = new BlockingTask(block, executed);
+		Assert.assertTrue(queue.offer(task));
+		Assert.assertTrue(queue.contains(task));
+		Assert.assertNotNull(queue.peek());
+		Assert.assertTrue(executor.remove(task));
+		Assert.assertFalse(queue.contains(task));
+		Assert.assertTrue(queue.offer(new BlockingTask(block, executed)));
+		Assert.assertTrue(queue.offer(new BlockingTask(block, executed)));
+		Assert.assertFalse(queue.offer(task));
+		Assert.assertNotNull(queue.poll());
+		Assert.assertNotNull(queue.poll(10, TimeUnit.MILLISECONDS));
+		List<Runnable> drained = new ArrayList<Runnable>();
+		Assert.assertEquals(2, queue.drainTo(drained));
+		Assert.assertEquals(0, queue.size());
+		Assert.assertEquals(4, queue.remainingCapacity());
+
+		block.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals(2, executed.get());
+	}
+
+	private static void waitFor(ThreadPoolExecutor executor, int active) throws InterruptedException {
+		for (int i = 0; i < 500 && executor.getActiveCount() < active; i++) {
+			Thread.sleep(2);
+		}
+		Assert.assertEquals(active, executor.getActiveCount());
+	}
+
+	private static class BlockingTask implements Runnable {
+
+		private final CountDownLatch block;
+
+		private final AtomicInteger executed;
+
+		BlockingTask(CountDownLatch block, AtomicInteger executed) {
+			this.block = block;
+			this.executed = executed;
+		}
+
+		@Override
+		public void run() {
+			try {
+				block.await();
+			} catch (InterruptedException e) {
+			}
+			executed.incrementAndGet();
+		}
+	}
+}